@@ -0,0 +1,26 @@
+package basic_in;
+
+import java.util.HashSet;
+import java.util.Set;
+
+public class EC_testProject2 {
+	public static void main(String[] args) {
+		int sum = 0;
+		double max = Double.NEGATIVE_INFINITY;
+		Set<String> seen = new HashSet<String>();
+		for (String s : /*[*/args/*]*/) {
+
+			// Begin Stage1
+			int length = s.length();
+			double weight = Math.sqrt(length);
+			// End Stage1
+
+			// Begin Stage2
+			sum += length;
+			max = Math.max(max, weight);
+			seen.add(s);
+			// End Stage2
+		}
+		System.out.println(sum + " " + max + " " + seen.size());
+	}
+}
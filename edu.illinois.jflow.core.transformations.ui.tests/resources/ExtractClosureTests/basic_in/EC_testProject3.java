@@ -0,0 +1,20 @@
+package basic_in;
+
+public class EC_testProject3 {
+	public static void main(String[] args) {
+		int[] out = new int[args.length];
+		int index = 0;
+		for (String s : /*[*/args/*]*/) {
+
+			// Begin Stage1
+			int length = s.length();
+			out[index] = length;
+			// End Stage1
+
+			// Begin Stage2
+			index += 2;
+			// End Stage2
+		}
+		System.out.println(index + " " + out.length);
+	}
+}
@@ -0,0 +1,19 @@
+package basic_in;
+
+public class EC_testProject4 {
+	public static void main(String[] args) {
+		StringBuilder scratch = new StringBuilder();
+		for (String s : /*[*/args/*]*/) {
+
+			// Begin Stage1
+			int length = s.length();
+			// End Stage1
+
+			// Begin Stage2
+			scratch.setLength(0);
+			scratch.append(length);
+			System.out.println(scratch);
+			// End Stage2
+		}
+	}
+}
@@ -0,0 +1,21 @@
+package basic_in;
+
+import java.util.HashMap;
+
+public class EC_testProject5 {
+	public static void main(String[] args) {
+		HashMap<String, Integer> lengths = new HashMap<String, Integer>();
+		for (String s : /*[*/args/*]*/) {
+
+			// Begin Stage1
+			lengths.put("original " + s, s.length());
+			String upper = s.toUpperCase();
+			// End Stage1
+
+			// Begin Stage2
+			lengths.put("upper " + upper, upper.length());
+			// End Stage2
+		}
+		System.out.println(lengths.size());
+	}
+}
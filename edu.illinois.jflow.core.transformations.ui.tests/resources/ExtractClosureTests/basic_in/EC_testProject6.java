@@ -0,0 +1,20 @@
+package basic_in;
+
+import java.util.Random;
+
+public class EC_testProject6 {
+	public static void main(String[] args) {
+		Random random = new Random(42);
+		for (String s : /*[*/args/*]*/) {
+
+			// Begin Stage1
+			double x = random.nextDouble() * s.length();
+			// End Stage1
+
+			// Begin Stage2
+			double y = random.nextGaussian() + x;
+			System.out.println(y);
+			// End Stage2
+		}
+	}
+}
@@ -0,0 +1,19 @@
+package basic_in;
+
+public class EC_testProject8 {
+	public static void main(String[] args) {
+		for (String s : /*[*/args/*]*/) {
+
+			// Begin Stage1
+			StringBuffer line = new StringBuffer();
+			line.append(s).append(',');
+			// End Stage1
+
+			// Begin Stage2
+			synchronized (line) {
+				line.append(s.length());
+			}
+			// End Stage2
+		}
+	}
+}
@@ -0,0 +1,108 @@
+package basic_out;
+
+import groovyx.gpars.DataflowMessagingRunnable;
+import groovyx.gpars.dataflow.DataflowQueue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class EC_testProject2 {
+	class Bundle {
+		int length;
+		double max;
+		String s;
+		Set<String> seen;
+		int sum;
+		double weight;
+	}
+
+	public static void main(String[] args) {
+		int sum = 0;
+		double max = Double.NEGATIVE_INFINITY;
+		Set<String> seen = new HashSet<String>();
+		final DataflowQueue<Bundle> channel0 = new DataflowQueue<Bundle>();
+		final DataflowQueue<Bundle> channel1 = new DataflowQueue<Bundle>();
+		final List<int[]> sumPartials = Collections.synchronizedList(new ArrayList<int[]>());
+		final ThreadLocal<int[]> sumPartial = new ThreadLocal<int[]>() {
+			@Override
+			protected int[] initialValue() {
+				int[] partial = new int[] { 0 };
+				sumPartials.add(partial);
+				return partial;
+			}
+		};
+		final List<double[]> maxPartials = Collections.synchronizedList(new ArrayList<double[]>());
+		final ThreadLocal<double[]> maxPartial = new ThreadLocal<double[]>() {
+			@Override
+			protected double[] initialValue() {
+				double[] partial = new double[] { Double.NEGATIVE_INFINITY };
+				maxPartials.add(partial);
+				return partial;
+			}
+		};
+		final List<Set<String>> seenPartials = Collections.synchronizedList(new ArrayList<Set<String>>());
+		final ThreadLocal<Set<String>> seenPartial = new ThreadLocal<Set<String>>() {
+			@Override
+			protected Set<String> initialValue() {
+				Set<String> partial = new HashSet<String>();
+				seenPartials.add(partial);
+				return partial;
+			}
+		};
+		for (String s : /*[*/args/*]*/) {
+
+			Bundle b = new Bundle();
+			b.s = s;
+			b.seen = seen;
+			channel0.bind(b);
+			new DataflowMessagingRunnable(1) {
+				@Override
+				protected void doRun(Object... args) {
+					try {
+						Bundle b = ((Bundle) args[0]);
+						String s = b.s;
+						int length = s.length();
+						double weight = Math.sqrt(length);
+						b.length = length;
+						b.weight = weight;
+						channel1.bind(b);
+					} catch (Exception e) {
+					}
+				}
+			}.call(channel0.getVal());
+			new DataflowMessagingRunnable(1) {
+				@Override
+				protected void doRun(Object... args) {
+					try {
+						Bundle b = ((Bundle) args[0]);
+						String s = b.s;
+						double max = maxPartial.get()[0];
+						int length = b.length;
+						double weight = b.weight;
+						int sum = sumPartial.get()[0];
+						Set<String> seen = seenPartial.get();
+						sum += length;
+						max = Math.max(max, weight);
+						seen.add(s);
+						maxPartial.get()[0] = max;
+						sumPartial.get()[0] = sum;
+					} catch (Exception e) {
+					}
+				}
+			}.call(channel1.getVal());
+		}
+		for (int[] partial : sumPartials) {
+			sum = sum + partial[0];
+		}
+		for (double[] partial : maxPartials) {
+			max = Math.max(max, partial[0]);
+		}
+		for (Set<String> partial : seenPartials) {
+			seen.addAll(partial);
+		}
+		System.out.println(sum + " " + max + " " + seen.size());
+	}
+}
@@ -0,0 +1,58 @@
+package basic_out;
+
+import groovyx.gpars.DataflowMessagingRunnable;
+import groovyx.gpars.dataflow.DataflowQueue;
+
+public class EC_testProject3 {
+	class Bundle {
+		int index;
+		int[] out;
+		String s;
+		int jflowIteration;
+	}
+
+	public static void main(String[] args) {
+		int[] out = new int[args.length];
+		int index = 0;
+		final DataflowQueue<Bundle> channel0 = new DataflowQueue<Bundle>();
+		final DataflowQueue<Bundle> channel1 = new DataflowQueue<Bundle>();
+		final int indexStart = index;
+		int jflowIteration = 0;
+		for (String s : /*[*/args/*]*/) {
+
+			Bundle b = new Bundle();
+			b.jflowIteration = jflowIteration++;
+			index = indexStart + jflowIteration * 2;
+			b.out = out;
+			b.s = s;
+			channel0.bind(b);
+			new DataflowMessagingRunnable(1) {
+				@Override
+				protected void doRun(Object... args) {
+					try {
+						Bundle b = ((Bundle) args[0]);
+						String s = b.s;
+						int index = indexStart + b.jflowIteration * 2;
+						int[] out = b.out;
+						int length = s.length();
+						out[index] = length;
+						channel1.bind(b);
+					} catch (Exception e) {
+					}
+				}
+			}.call(channel0.getVal());
+			new DataflowMessagingRunnable(1) {
+				@Override
+				protected void doRun(Object... args) {
+					try {
+						Bundle b = ((Bundle) args[0]);
+						int index = indexStart + b.jflowIteration * 2;
+						index += 2;
+					} catch (Exception e) {
+					}
+				}
+			}.call(channel1.getVal());
+		}
+		System.out.println(index + " " + out.length);
+	}
+}
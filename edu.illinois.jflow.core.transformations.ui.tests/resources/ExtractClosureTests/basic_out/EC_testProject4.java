@@ -0,0 +1,58 @@
+package basic_out;
+
+import groovyx.gpars.DataflowMessagingRunnable;
+import groovyx.gpars.dataflow.DataflowQueue;
+
+public class EC_testProject4 {
+	class Bundle {
+		int length;
+		String s;
+		StringBuilder scratch;
+	}
+
+	public static void main(String[] args) {
+		StringBuilder scratch = new StringBuilder();
+		final DataflowQueue<Bundle> channel0 = new DataflowQueue<Bundle>();
+		final DataflowQueue<Bundle> channel1 = new DataflowQueue<Bundle>();
+		final ThreadLocal<StringBuilder> scratchPrivate = new ThreadLocal<StringBuilder>() {
+			@Override
+			protected StringBuilder initialValue() {
+				return new StringBuilder();
+			}
+		};
+		for (String s : /*[*/args/*]*/) {
+
+			Bundle b = new Bundle();
+			b.s = s;
+			b.scratch = scratch;
+			channel0.bind(b);
+			new DataflowMessagingRunnable(1) {
+				@Override
+				protected void doRun(Object... args) {
+					try {
+						Bundle b = ((Bundle) args[0]);
+						String s = b.s;
+						int length = s.length();
+						b.length = length;
+						channel1.bind(b);
+					} catch (Exception e) {
+					}
+				}
+			}.call(channel0.getVal());
+			new DataflowMessagingRunnable(1) {
+				@Override
+				protected void doRun(Object... args) {
+					try {
+						Bundle b = ((Bundle) args[0]);
+						int length = b.length;
+						StringBuilder scratch = scratchPrivate.get();
+						scratch.setLength(0);
+						scratch.append(length);
+						System.out.println(scratch);
+					} catch (Exception e) {
+					}
+				}
+			}.call(channel1.getVal());
+		}
+	}
+}
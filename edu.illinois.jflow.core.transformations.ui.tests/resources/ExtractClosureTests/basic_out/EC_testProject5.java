@@ -0,0 +1,56 @@
+package basic_out;
+
+import groovyx.gpars.DataflowMessagingRunnable;
+import groovyx.gpars.dataflow.DataflowQueue;
+
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class EC_testProject5 {
+	class Bundle {
+		ConcurrentHashMap<String, Integer> lengths;
+		String s;
+		String upper;
+	}
+
+	public static void main(String[] args) {
+		ConcurrentHashMap<String, Integer> lengths = new ConcurrentHashMap<String, Integer>();
+		final DataflowQueue<Bundle> channel0 = new DataflowQueue<Bundle>();
+		final DataflowQueue<Bundle> channel1 = new DataflowQueue<Bundle>();
+		for (String s : /*[*/args/*]*/) {
+
+			Bundle b = new Bundle();
+			b.lengths = lengths;
+			b.s = s;
+			channel0.bind(b);
+			new DataflowMessagingRunnable(1) {
+				@Override
+				protected void doRun(Object... args) {
+					try {
+						Bundle b = ((Bundle) args[0]);
+						String s = b.s;
+						ConcurrentHashMap<String, Integer> lengths = b.lengths;
+						lengths.put("original " + s, s.length());
+						String upper = s.toUpperCase();
+						b.upper = upper;
+						channel1.bind(b);
+					} catch (Exception e) {
+					}
+				}
+			}.call(channel0.getVal());
+			new DataflowMessagingRunnable(1) {
+				@Override
+				protected void doRun(Object... args) {
+					try {
+						Bundle b = ((Bundle) args[0]);
+						ConcurrentHashMap<String, Integer> lengths = b.lengths;
+						String upper = b.upper;
+						lengths.put("upper " + upper, upper.length());
+					} catch (Exception e) {
+					}
+				}
+			}.call(channel1.getVal());
+		}
+		System.out.println(lengths.size());
+	}
+}
@@ -0,0 +1,61 @@
+package basic_out;
+
+import groovyx.gpars.DataflowMessagingRunnable;
+import groovyx.gpars.dataflow.DataflowQueue;
+
+import java.util.Random;
+
+public class EC_testProject6 {
+	class Bundle {
+		Random random;
+		String s;
+		double x;
+	}
+
+	public static void main(String[] args) {
+		Random random = new Random(42);
+		final DataflowQueue<Bundle> channel0 = new DataflowQueue<Bundle>();
+		final DataflowQueue<Bundle> channel1 = new DataflowQueue<Bundle>();
+		final Random randomSeeds = new Random(random.nextLong());
+		final ThreadLocal<Random> randomPrivate = new ThreadLocal<Random>() {
+			@Override
+			protected Random initialValue() {
+				return new Random(randomSeeds.nextLong());
+			}
+		};
+		for (String s : /*[*/args/*]*/) {
+
+			Bundle b = new Bundle();
+			b.random = random;
+			b.s = s;
+			channel0.bind(b);
+			new DataflowMessagingRunnable(1) {
+				@Override
+				protected void doRun(Object... args) {
+					try {
+						Bundle b = ((Bundle) args[0]);
+						Random random = randomPrivate.get();
+						String s = b.s;
+						double x = random.nextDouble() * s.length();
+						b.x = x;
+						channel1.bind(b);
+					} catch (Exception e) {
+					}
+				}
+			}.call(channel0.getVal());
+			new DataflowMessagingRunnable(1) {
+				@Override
+				protected void doRun(Object... args) {
+					try {
+						Bundle b = ((Bundle) args[0]);
+						Random random = randomPrivate.get();
+						double x = b.x;
+						double y = random.nextGaussian() + x;
+						System.out.println(y);
+					} catch (Exception e) {
+					}
+				}
+			}.call(channel1.getVal());
+		}
+	}
+}
@@ -0,0 +1,58 @@
+package basic_out;
+
+import groovyx.gpars.DataflowMessagingRunnable;
+import groovyx.gpars.dataflow.DataflowQueue;
+
+import java.util.Random;
+
+public class EC_testProject7 {
+	class Bundle {
+		Random random;
+		String s;
+		double x;
+		int jflowIteration;
+	}
+
+	public static void main(String[] args) {
+		Random random = new Random(42);
+		final DataflowQueue<Bundle> channel0 = new DataflowQueue<Bundle>();
+		final DataflowQueue<Bundle> channel1 = new DataflowQueue<Bundle>();
+		int jflowIteration = 0;
+		final long randomSeed = random.nextLong();
+		for (String s : /*[*/args/*]*/) {
+
+			Bundle b = new Bundle();
+			b.jflowIteration = jflowIteration++;
+			b.random = random;
+			b.s = s;
+			channel0.bind(b);
+			new DataflowMessagingRunnable(1) {
+				@Override
+				protected void doRun(Object... args) {
+					try {
+						Bundle b = ((Bundle) args[0]);
+						Random random = new Random(randomSeed ^ (b.jflowIteration * 0x9E3779B97F4A7C15L + 1));
+						String s = b.s;
+						double x = random.nextDouble() * s.length();
+						b.x = x;
+						channel1.bind(b);
+					} catch (Exception e) {
+					}
+				}
+			}.call(channel0.getVal());
+			new DataflowMessagingRunnable(1) {
+				@Override
+				protected void doRun(Object... args) {
+					try {
+						Bundle b = ((Bundle) args[0]);
+						Random random = new Random(randomSeed ^ (b.jflowIteration * 0x9E3779B97F4A7C15L + 2));
+						double x = b.x;
+						double y = random.nextGaussian() + x;
+						System.out.println(y);
+					} catch (Exception e) {
+					}
+				}
+			}.call(channel1.getVal());
+		}
+	}
+}
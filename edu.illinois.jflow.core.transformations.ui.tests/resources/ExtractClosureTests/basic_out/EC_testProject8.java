@@ -0,0 +1,50 @@
+package basic_out;
+
+import groovyx.gpars.DataflowMessagingRunnable;
+import groovyx.gpars.dataflow.DataflowQueue;
+
+public class EC_testProject8 {
+	class Bundle {
+		StringBuffer line;
+		String s;
+	}
+
+	public static void main(String[] args) {
+		final DataflowQueue<Bundle> channel0 = new DataflowQueue<Bundle>();
+		final DataflowQueue<Bundle> channel1 = new DataflowQueue<Bundle>();
+		for (String s : /*[*/args/*]*/) {
+
+			Bundle b = new Bundle();
+			b.s = s;
+			channel0.bind(b);
+			new DataflowMessagingRunnable(1) {
+				@Override
+				protected void doRun(Object... args) {
+					try {
+						Bundle b = ((Bundle) args[0]);
+						String s = b.s;
+						StringBuffer line = new StringBuffer();
+						line.append(s).append(',');
+						b.line = line;
+						channel1.bind(b);
+					} catch (Exception e) {
+					}
+				}
+			}.call(channel0.getVal());
+			new DataflowMessagingRunnable(1) {
+				@Override
+				protected void doRun(Object... args) {
+					try {
+						Bundle b = ((Bundle) args[0]);
+						String s = b.s;
+						StringBuffer line = b.line;
+						{
+							line.append(s.length());
+						}
+					} catch (Exception e) {
+					}
+				}
+			}.call(channel1.getVal());
+		}
+	}
+}
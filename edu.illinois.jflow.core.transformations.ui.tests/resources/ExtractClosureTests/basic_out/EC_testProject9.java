@@ -0,0 +1,176 @@
+package basic_out;
+
+import groovyx.gpars.DataflowMessagingRunnable;
+import groovyx.gpars.dataflow.DataflowQueue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+public class EC_testProject9 {
+	class Bundle {
+		Map<Integer, Integer> cache;
+		int i;
+		int[] results;
+		Integer value;
+		int jflowIteration;
+	}
+
+	static final class JFlowSpeculation {
+		static final class Conflict extends RuntimeException {
+		}
+
+		final class Attempt {
+			private final int iteration;
+			private final boolean speculative;
+			private final long writesSeen;
+			private boolean validated;
+
+			Attempt(int iteration, boolean speculative) {
+				this.iteration = iteration;
+				this.speculative = speculative;
+				if (speculative) {
+					lock.readLock().lock();
+					writesSeen = writes.get();
+				} else {
+					awaitTurn(iteration);
+					lock.writeLock().lock();
+					writesSeen = -1;
+				}
+			}
+
+			boolean isSpeculative() {
+				return speculative;
+			}
+
+			void beforeWrite() {
+				if (speculative) {
+					throw new Conflict();
+				}
+			}
+
+			void validate() {
+				if (speculative) {
+					lock.readLock().unlock();
+					validated = true;
+					awaitTurn(iteration);
+					if (writes.get() != writesSeen) {
+						throw new Conflict();
+					}
+				}
+			}
+
+			Attempt retryInOrder() {
+				if (!validated) {
+					lock.readLock().unlock();
+				}
+				return new Attempt(iteration, false);
+			}
+
+			void commit() {
+				if (!speculative) {
+					writes.incrementAndGet();
+					lock.writeLock().unlock();
+				} else if (!validated) {
+					lock.readLock().unlock();
+					awaitTurn(iteration);
+				}
+				synchronized (JFlowSpeculation.this) {
+					committed++;
+					JFlowSpeculation.this.notifyAll();
+				}
+			}
+		}
+
+		private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+		private final AtomicLong writes = new AtomicLong();
+		private int committed = 0;
+
+		Attempt speculate(int iteration) {
+			return new Attempt(iteration, true);
+		}
+
+		private synchronized void awaitTurn(int iteration) {
+			while (committed != iteration) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+	}
+
+	public static void main(String[] args) {
+		Map<Integer, Integer> cache = new HashMap<Integer, Integer>();
+		int[] results = new int[1000];
+		final DataflowQueue<Bundle> channel0 = new DataflowQueue<Bundle>();
+		final DataflowQueue<Bundle> channel1 = new DataflowQueue<Bundle>();
+		int jflowIteration = 0;
+		final JFlowSpeculation jflowSpeculation1 = new JFlowSpeculation();
+		for (int i = 0; i < /*[*/1000/*]*/; i++) {
+
+			Bundle b = new Bundle();
+			b.jflowIteration = jflowIteration++;
+			b.cache = cache;
+			b.i = i;
+			b.results = results;
+			channel0.bind(b);
+			new DataflowMessagingRunnable(1) {
+				@Override
+				protected void doRun(Object... args) {
+					try {
+						Bundle b = ((Bundle) args[0]);
+						JFlowSpeculation.Attempt jflowAttempt = jflowSpeculation1.speculate(b.jflowIteration);
+						try {
+							while (true) {
+								try {
+									Map<Integer, Integer> cache = b.cache;
+									int i = b.i;
+									int key = i % 10;
+									Integer value = cache.get(key);
+									if (value == null) {
+										value = compute(key);
+										jflowAttempt.beforeWrite();
+										cache.put(key, value);
+									}
+									jflowAttempt.validate();
+									b.value = value;
+									channel1.bind(b);
+									break;
+								} catch (Exception jflowException) {
+									if (!jflowAttempt.isSpeculative()) {
+										throw jflowException;
+									}
+									jflowAttempt = jflowAttempt.retryInOrder();
+								}
+							}
+						} finally {
+							jflowAttempt.commit();
+						}
+					} catch (Exception e) {
+					}
+				}
+			}.call(channel0.getVal());
+			new DataflowMessagingRunnable(1) {
+				@Override
+				protected void doRun(Object... args) {
+					try {
+						Bundle b = ((Bundle) args[0]);
+						int i = b.i;
+						int[] results = b.results;
+						Integer value = b.value;
+						results[i] = value * 2;
+					} catch (Exception e) {
+					}
+				}
+			}.call(channel1.getVal());
+		}
+	}
+
+	static Integer compute(int key) {
+		return key * key;
+	}
+}
@@ -20,6 +20,13 @@ import edu.illinois.jflow.core.transformations.code.ExtractClosureRefactoring;
 public class ExtractClosureTests extends AbstractSelectionTestCase {
 	private static ExtractClosureTestSetup fgTestSetup;
 
+	// The options that the wizard offers, which only change the generated code
+	private boolean fPrivatize;
+
+	private boolean fDeterministicRandoms;
+
+	private boolean fSpeculate;
+
 	public ExtractClosureTests(String name) {
 		super(name);
 	}
@@ -55,11 +62,14 @@ public class ExtractClosureTests extends AbstractSelectionTestCase {
 		ICompilationUnit unit= createCU(packageFragment, id);
 		int[] selection= getSelection();
 		ExtractClosureRefactoring refactoring= new ExtractClosureRefactoring(unit, new Document(unit.getSource()), selection[0], selection[1]);
+		refactoring.setPrivatize(fPrivatize);
+		refactoring.setDeterministicRandoms(fDeterministicRandoms);
+		refactoring.setSpeculate(fSpeculate);
 		TestModelProvider.clearDelta();
 		RefactoringStatus status= refactoring.checkInitialConditions(new NullProgressMonitor());
 
-		// Must have valid preconditions
-		assertTrue(status.isOK());
+		// Must have valid preconditions, the analyses report what they change as infos and warnings
+		assertFalse(status.hasError());
 
 		String out= getProofedContent(outputFolder, id);
 		performTest(unit, refactoring, COMPARE_WITH_OUTPUT, out, true);
@@ -74,4 +84,47 @@ public class ExtractClosureTests extends AbstractSelectionTestCase {
 		validSelectionTestChecked();
 	}
 
+	// Each worker accumulates into its own partial results, which are combined after the loop
+	public void testProject2() throws Exception {
+		validSelectionTestChecked();
+	}
+
+	// The stages compute the index that the last stage steps from the number of the iteration
+	public void testProject3() throws Exception {
+		validSelectionTestChecked();
+	}
+
+	// Each worker of the last stage gets its own copy of the scratch buffer
+	public void testProject4() throws Exception {
+		fPrivatize= true;
+		validSelectionTestChecked();
+	}
+
+	// Both stages only put into the map, which becomes a ConcurrentHashMap
+	public void testProject5() throws Exception {
+		validSelectionTestChecked();
+	}
+
+	// Each worker draws from its own generator, seeded from the shared one
+	public void testProject6() throws Exception {
+		validSelectionTestChecked();
+	}
+
+	// Each iteration draws from its own generator, seeded from its number and the stage
+	public void testProject7() throws Exception {
+		fDeterministicRandoms= true;
+		validSelectionTestChecked();
+	}
+
+	// Only one worker at a time can reach the buffer, so its synchronized block becomes a plain one
+	public void testProject8() throws Exception {
+		validSelectionTestChecked();
+	}
+
+	// Only the first stage writes the cache, so its iterations run speculatively and the ones that put into it again in order
+	public void testProject9() throws Exception {
+		fSpeculate= true;
+		validSelectionTestChecked();
+	}
+
 }
@@ -0,0 +1,376 @@
+package edu.illinois.jflow.core.transformations.code;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.eclipse.jdt.core.dom.ASTNode;
+import org.eclipse.jdt.core.dom.ASTVisitor;
+import org.eclipse.jdt.core.dom.Assignment;
+import org.eclipse.jdt.core.dom.BodyDeclaration;
+import org.eclipse.jdt.core.dom.ClassInstanceCreation;
+import org.eclipse.jdt.core.dom.EnhancedForStatement;
+import org.eclipse.jdt.core.dom.Expression;
+import org.eclipse.jdt.core.dom.IMethodBinding;
+import org.eclipse.jdt.core.dom.ITypeBinding;
+import org.eclipse.jdt.core.dom.IVariableBinding;
+import org.eclipse.jdt.core.dom.InfixExpression;
+import org.eclipse.jdt.core.dom.MethodDeclaration;
+import org.eclipse.jdt.core.dom.MethodInvocation;
+import org.eclipse.jdt.core.dom.Modifier;
+import org.eclipse.jdt.core.dom.ParenthesizedExpression;
+import org.eclipse.jdt.core.dom.ReturnStatement;
+import org.eclipse.jdt.core.dom.SimpleName;
+import org.eclipse.jdt.core.dom.StructuralPropertyDescriptor;
+import org.eclipse.jdt.core.dom.SynchronizedStatement;
+import org.eclipse.jdt.core.dom.VariableDeclaration;
+import org.eclipse.jdt.core.dom.VariableDeclarationFragment;
+import org.eclipse.jdt.core.dom.VariableDeclarationStatement;
+import org.eclipse.jdt.core.dom.rewrite.ASTRewrite;
+import org.eclipse.jdt.core.dom.rewrite.ImportRewrite;
+import org.eclipse.jdt.internal.corext.dom.ASTNodes;
+import org.eclipse.jdt.internal.corext.refactoring.ParameterInfo;
+import org.eclipse.text.edits.TextEditGroup;
+
+import edu.illinois.jflow.jflow.wala.dataflowanalysis.ConcurrentSubstitution;
+import edu.illinois.jflow.jflow.wala.dataflowanalysis.ConcurrentSubstitution.Structure;
+
+/**
+ * Replaces the collections and StringBuilders that the stages only add to by concurrent ones (see
+ * ConcurrentStructureAnalyzer). Only the declaration before the loop changes since the
+ * concurrent structures have the same methods. The declared type stays if it is an interface
+ * that the concurrent structure also implements, e.g., Map, otherwise the other uses of the
+ * variable must not need the original class. Since the concurrent structures reject null, the
+ * stages must not add it.
+ * 
+ * @author nchen
+ * 
+ */
+@SuppressWarnings("restriction")
+final class ConcurrentStructureCreator {
+	private final ExtractClosureRefactoring refactoring;
+
+	ConcurrentStructureCreator(ExtractClosureRefactoring refactoring) {
+		this.refactoring= refactoring;
+	}
+
+	boolean canSubstitute(ConcurrentSubstitution substitution) {
+		VariableDeclarationStatement declaration= findDeclarationStatement(substitution);
+		if (declaration == null) {
+			return false;
+		}
+		ITypeBinding declaredType= declaration.getType().resolveBinding();
+		if (declaredType == null) {
+			return false;
+		}
+		boolean hasArguments= !getInitializer(declaration).arguments().isEmpty();
+		switch (substitution.getStructure()) {
+			case SET:
+				return !hasArguments; // newSetFromMap() cannot copy a collection
+			case LIST:
+				if (isQueueCompatible(declaredType)) {
+					return !hasArguments;
+				}
+				return !declaredType.isInterface() || declaredType.getErasure().getQualifiedName().equals("java.util.List"); //$NON-NLS-1$
+			default:
+				return true;
+		}
+	}
+
+	/*
+	 * When the declared type changes, every use of the variable, e.g., after the loop, must still
+	 * compile: it can only call the methods that the new type has and only pass the variable on
+	 * where one of the types of the replacement is expected, e.g., Map but not HashMap.
+	 */
+	boolean keepsUses(ConcurrentSubstitution substitution) {
+		VariableDeclarationStatement declaration= findDeclarationStatement(substitution);
+		ITypeBinding declaredType= declaration.getType().resolveBinding();
+		if (!changesDeclaredType(declaredType)) {
+			return true;
+		}
+		List<String> replacementTypes= getReplacementTypes(substitution.getStructure());
+		for (SimpleName reference : findReferences(substitution)) {
+			if (!keepsType(reference, replacementTypes)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/*
+	 * The concurrent maps, sets and queues throw a NullPointerException for null keys, values and
+	 * elements, so every update must be given something that cannot be null, e.g., a new object or
+	 * a boxed primitive, and the structure must not copy another one that could contain null
+	 */
+	boolean addsOnlyNonNull(ConcurrentSubstitution substitution) {
+		VariableDeclarationStatement declaration= findDeclarationStatement(substitution);
+		ITypeBinding declaredType= declaration.getType().resolveBinding();
+		Structure structure= substitution.getStructure();
+		if (!structure.rejectsNull() || (structure == Structure.LIST && !isQueueCompatible(declaredType))) {
+			return true; // StringBuffer and the synchronized list accept null
+		}
+		for (Object argument : getInitializer(declaration).arguments()) {
+			ITypeBinding type= ((Expression)argument).resolveTypeBinding();
+			if (type == null || !(type.isPrimitive() || type.getErasure().getQualifiedName().equals("java.util.Comparator"))) { //$NON-NLS-1$
+				return false;
+			}
+		}
+		for (SimpleName reference : findReferences(substitution)) {
+			if (reference.getLocationInParent() != MethodInvocation.EXPRESSION_PROPERTY) {
+				continue;
+			}
+			MethodInvocation invocation= (MethodInvocation)reference.getParent();
+			if (!structure.isUpdate(invocation.getName().getIdentifier())) {
+				continue;
+			}
+			for (Object argument : invocation.arguments()) {
+				if (!isNonNull((Expression)argument)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	void substitute(ConcurrentSubstitution substitution, TextEditGroup description) {
+		VariableDeclarationStatement declaration= findDeclarationStatement(substitution);
+		ClassInstanceCreation creation= getInitializer(declaration);
+		ITypeBinding declaredType= declaration.getType().resolveBinding();
+		String typeArguments= getTypeArguments(declaredType);
+		String arguments= getArguments(creation);
+		ImportRewrite importRewriter= refactoring.getImportRewriter();
+		ASTRewrite rewriter= refactoring.getRewriter();
+		String concurrent= importRewriter.addImport(substitution.getStructure().getConcurrentType());
+
+		String initializer;
+		switch (substitution.getStructure()) {
+			case SET:
+				ITypeBinding[] elements= declaredType.getTypeArguments();
+				String element= elements.length == 1 ? elements[0].getName() : "Object"; //$NON-NLS-1$
+				initializer= String.format("%s.newSetFromMap(new %s<%s, Boolean>())", importRewriter.addImport("java.util.Collections"), concurrent, element); //$NON-NLS-1$ //$NON-NLS-2$
+				break;
+			case LIST:
+				if (isQueueCompatible(declaredType)) {
+					initializer= String.format("new %s%s()", concurrent, typeArguments); //$NON-NLS-1$
+				} else {
+					// ConcurrentLinkedQueue is not a List, so keep the list and synchronize it
+					initializer= String.format("%s.synchronizedList(%s)", importRewriter.addImport("java.util.Collections"), ASTNodes.asString(creation)); //$NON-NLS-1$ //$NON-NLS-2$
+				}
+				break;
+			default:
+				initializer= String.format("new %s%s(%s)", concurrent, typeArguments, arguments); //$NON-NLS-1$
+		}
+
+		rewriter.replace(creation, rewriter.createStringPlaceholder(initializer, creation.getNodeType()), description);
+		String type= getDeclaredType(substitution);
+		if (type != null) {
+			rewriter.replace(declaration.getType(), rewriter.createStringPlaceholder(type, declaration.getType().getNodeType()), description);
+		}
+	}
+
+	/**
+	 * The bundle and the stages have to declare the variable with the same type as its declaration
+	 * before the loop
+	 * 
+	 * @return the type that substitute() declares the variable with, null if it keeps its declared
+	 *         type
+	 */
+	String getDeclaredType(ConcurrentSubstitution substitution) {
+		ITypeBinding declaredType= findDeclarationStatement(substitution).getType().resolveBinding();
+		if (!changesDeclaredType(declaredType)) {
+			return null;
+		}
+		ImportRewrite importRewriter= refactoring.getImportRewriter();
+		String typeArguments= getTypeArguments(declaredType);
+		if (substitution.getStructure() == Structure.SET) {
+			return importRewriter.addImport("java.util.Set") + typeArguments; //$NON-NLS-1$
+		}
+		if (substitution.getStructure() == Structure.LIST && !isQueueCompatible(declaredType)) {
+			return importRewriter.addImport("java.util.List") + typeArguments; //$NON-NLS-1$
+		}
+		return importRewriter.addImport(substitution.getStructure().getConcurrentType()) + typeArguments;
+	}
+
+	// An interface that the replacement also implements, or Object, can stay
+	private boolean changesDeclaredType(ITypeBinding declaredType) {
+		return !declaredType.isInterface() && !declaredType.getErasure().getQualifiedName().equals("java.lang.Object"); //$NON-NLS-1$
+	}
+
+	// The type that substitute() declares the variable with, and its supertypes
+	private List<String> getReplacementTypes(Structure structure) {
+		switch (structure) {
+			case MAP:
+				return Arrays.asList("java.util.concurrent.ConcurrentHashMap", "java.util.concurrent.ConcurrentMap", "java.util.AbstractMap", "java.util.Map", "java.io.Serializable", "java.lang.Object"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$
+			case SORTED_MAP:
+				return Arrays.asList("java.util.concurrent.ConcurrentSkipListMap", "java.util.concurrent.ConcurrentNavigableMap", "java.util.concurrent.ConcurrentMap", "java.util.NavigableMap", "java.util.SortedMap", "java.util.AbstractMap", "java.util.Map", "java.lang.Cloneable", "java.io.Serializable", "java.lang.Object"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$ //$NON-NLS-7$ //$NON-NLS-8$ //$NON-NLS-9$ //$NON-NLS-10$
+			case SET:
+				return Arrays.asList("java.util.Set", "java.util.Collection", "java.lang.Iterable", "java.lang.Object"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+			case SORTED_SET:
+				return Arrays.asList("java.util.concurrent.ConcurrentSkipListSet", "java.util.NavigableSet", "java.util.SortedSet", "java.util.AbstractSet", "java.util.Set", "java.util.AbstractCollection", "java.util.Collection", "java.lang.Iterable", "java.lang.Cloneable", "java.io.Serializable", "java.lang.Object"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$ //$NON-NLS-7$ //$NON-NLS-8$ //$NON-NLS-9$ //$NON-NLS-10$ //$NON-NLS-11$
+			case LIST:
+				return Arrays.asList("java.util.List", "java.util.Collection", "java.lang.Iterable", "java.lang.Object"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+			default:
+				return Arrays.asList("java.lang.StringBuffer", "java.lang.AbstractStringBuilder", "java.lang.CharSequence", "java.lang.Appendable", "java.io.Serializable", "java.lang.Object"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$
+		}
+	}
+
+	// Every use of the variable in the method, before, in and after the loop
+	private List<SimpleName> findReferences(ConcurrentSubstitution substitution) {
+		final IVariableBinding variable= refactoring.findParameterInfo(substitution.getVariableName()).getOldBinding();
+		final List<SimpleName> references= new ArrayList<SimpleName>();
+		refactoring.getStageAnalyzer(1).getEnclosingBodyDeclaration().accept(new ASTVisitor() {
+			@Override
+			public boolean visit(SimpleName node) {
+				if (!node.isDeclaration() && node.resolveBinding() != null && node.resolveBinding().isEqualTo(variable)) {
+					references.add(node);
+				}
+				return false;
+			}
+		});
+		return references;
+	}
+
+	private boolean keepsType(SimpleName reference, List<String> replacementTypes) {
+		ASTNode parent= reference.getParent();
+		StructuralPropertyDescriptor location= reference.getLocationInParent();
+		if (location == MethodInvocation.EXPRESSION_PROPERTY) {
+			IMethodBinding method= ((MethodInvocation)parent).resolveMethodBinding();
+			return method != null && isDeclaredBy(method.getMethodDeclaration(), method.getDeclaringClass(), replacementTypes);
+		} else if (location == MethodInvocation.ARGUMENTS_PROPERTY) {
+			MethodInvocation invocation= (MethodInvocation)parent;
+			return isReplacementType(getParameterType(invocation.resolveMethodBinding(), invocation.arguments().indexOf(reference)), replacementTypes);
+		} else if (location == ClassInstanceCreation.ARGUMENTS_PROPERTY) {
+			ClassInstanceCreation creation= (ClassInstanceCreation)parent;
+			return isReplacementType(getParameterType(creation.resolveConstructorBinding(), creation.arguments().indexOf(reference)), replacementTypes);
+		} else if (location == Assignment.RIGHT_HAND_SIDE_PROPERTY) {
+			return isReplacementType(((Assignment)parent).getLeftHandSide().resolveTypeBinding(), replacementTypes);
+		} else if (location == VariableDeclarationFragment.INITIALIZER_PROPERTY) {
+			IVariableBinding variable= ((VariableDeclarationFragment)parent).resolveBinding();
+			return variable != null && isReplacementType(variable.getType(), replacementTypes);
+		} else if (location == ReturnStatement.EXPRESSION_PROPERTY) {
+			BodyDeclaration method= (BodyDeclaration)ASTNodes.getParent(parent, BodyDeclaration.class);
+			return method instanceof MethodDeclaration && isReplacementType(((MethodDeclaration)method).getReturnType2().resolveBinding(), replacementTypes);
+		} else if (location == EnhancedForStatement.EXPRESSION_PROPERTY || location == SynchronizedStatement.EXPRESSION_PROPERTY) {
+			return true;
+		} else if (parent instanceof InfixExpression) {
+			InfixExpression.Operator operator= ((InfixExpression)parent).getOperator();
+			return operator == InfixExpression.Operator.EQUALS || operator == InfixExpression.Operator.NOT_EQUALS || operator == InfixExpression.Operator.PLUS; // Compared or concatenated to a String
+		}
+		return false; // e.g., assigned to, cast or tested with instanceof
+	}
+
+	// The method is public in, or overrides a public method of, one of the types of the replacement
+	private boolean isDeclaredBy(IMethodBinding method, ITypeBinding type, List<String> replacementTypes) {
+		if (type == null) {
+			return false;
+		}
+		if (replacementTypes.contains(type.getErasure().getQualifiedName())) {
+			for (IMethodBinding declared : type.getErasure().getDeclaredMethods()) {
+				if (Modifier.isPublic(declared.getModifiers()) && (method.isEqualTo(declared) || method.overrides(declared))) {
+					return true;
+				}
+			}
+		}
+		if (isDeclaredBy(method, type.getSuperclass(), replacementTypes)) {
+			return true;
+		}
+		for (ITypeBinding superInterface : type.getInterfaces()) {
+			if (isDeclaredBy(method, superInterface, replacementTypes)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private ITypeBinding getParameterType(IMethodBinding method, int index) {
+		if (method == null) {
+			return null;
+		}
+		ITypeBinding[] parameterTypes= method.getParameterTypes();
+		if (method.isVarargs() && index >= parameterTypes.length - 1) {
+			return parameterTypes[parameterTypes.length - 1].getComponentType();
+		}
+		return parameterTypes[index];
+	}
+
+	private boolean isReplacementType(ITypeBinding type, List<String> replacementTypes) {
+		return type != null && replacementTypes.contains(type.getErasure().getQualifiedName());
+	}
+
+	// e.g., a new object, a literal, a boxed primitive or a concatenated String
+	private boolean isNonNull(Expression expression) {
+		ITypeBinding type= expression.resolveTypeBinding();
+		if (type != null && type.isPrimitive()) {
+			return true;
+		}
+		switch (expression.getNodeType()) {
+			case ASTNode.CLASS_INSTANCE_CREATION:
+			case ASTNode.ARRAY_CREATION:
+			case ASTNode.STRING_LITERAL:
+			case ASTNode.TYPE_LITERAL:
+				return true;
+			case ASTNode.INFIX_EXPRESSION:
+				return type != null && type.getQualifiedName().equals("java.lang.String"); //$NON-NLS-1$
+			case ASTNode.PARENTHESIZED_EXPRESSION:
+				return isNonNull(((ParenthesizedExpression)expression).getExpression());
+			default:
+				return false;
+		}
+	}
+
+	// ConcurrentLinkedQueue is only used where the loop sees a plain collection
+	private boolean isQueueCompatible(ITypeBinding declaredType) {
+		String name= declaredType.getErasure().getQualifiedName();
+		return name.equals("java.util.Collection") || name.equals("java.lang.Iterable"); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	/*
+	 * The declaration must declare only this variable, so that we can change its type, and create
+	 * the structure with a plain constructor call
+	 */
+	private VariableDeclarationStatement findDeclarationStatement(ConcurrentSubstitution substitution) {
+		ParameterInfo pInfo= refactoring.findParameterInfo(substitution.getVariableName());
+		if (pInfo == null) {
+			return null;
+		}
+		ASTNode root= refactoring.getStageAnalyzer(1).getEnclosingBodyDeclaration();
+		VariableDeclaration declaration= ASTNodes.findVariableDeclaration(pInfo.getOldBinding(), root);
+		if (declaration == null || !(declaration.getParent() instanceof VariableDeclarationStatement)) {
+			return null;
+		}
+		VariableDeclarationStatement statement= (VariableDeclarationStatement)declaration.getParent();
+		if (statement.fragments().size() != 1 || !(declaration.getInitializer() instanceof ClassInstanceCreation)) {
+			return null;
+		}
+		return ((ClassInstanceCreation)declaration.getInitializer()).getAnonymousClassDeclaration() == null ? statement : null;
+	}
+
+	private ClassInstanceCreation getInitializer(VariableDeclarationStatement declaration) {
+		return (ClassInstanceCreation)((VariableDeclarationFragment)declaration.fragments().get(0)).getInitializer();
+	}
+
+	private String getTypeArguments(ITypeBinding type) {
+		if (type.getTypeArguments().length == 0) {
+			return ""; //$NON-NLS-1$
+		}
+		StringBuilder sb= new StringBuilder("<"); //$NON-NLS-1$
+		for (ITypeBinding argument : type.getTypeArguments()) {
+			if (sb.length() > 1) {
+				sb.append(", "); //$NON-NLS-1$
+			}
+			sb.append(argument.getName());
+		}
+		return sb.append(">").toString(); //$NON-NLS-1$
+	}
+
+	private String getArguments(ClassInstanceCreation creation) {
+		StringBuilder sb= new StringBuilder();
+		for (Object argument : creation.arguments()) {
+			if (sb.length() > 0) {
+				sb.append(", "); //$NON-NLS-1$
+			}
+			sb.append(ASTNodes.asString((ASTNode)argument));
+		}
+		return sb.toString();
+	}
+}
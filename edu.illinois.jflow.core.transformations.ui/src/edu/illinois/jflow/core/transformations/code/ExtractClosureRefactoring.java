@@ -5,9 +5,11 @@
  */
 package edu.illinois.jflow.core.transformations.code;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
@@ -16,25 +18,32 @@ import java.util.Set;
 import java.util.TreeSet;
 
 import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IResource;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.SubProgressMonitor;
 import org.eclipse.jdt.core.ICompilationUnit;
+import org.eclipse.jdt.core.Signature;
 import org.eclipse.jdt.core.dom.AST;
 import org.eclipse.jdt.core.dom.ASTNode;
+import org.eclipse.jdt.core.dom.ASTVisitor;
 import org.eclipse.jdt.core.dom.AbstractTypeDeclaration;
 import org.eclipse.jdt.core.dom.Block;
 import org.eclipse.jdt.core.dom.BodyDeclaration;
 import org.eclipse.jdt.core.dom.ChildListPropertyDescriptor;
+import org.eclipse.jdt.core.dom.ClassInstanceCreation;
 import org.eclipse.jdt.core.dom.CompilationUnit;
 import org.eclipse.jdt.core.dom.EnhancedForStatement;
+import org.eclipse.jdt.core.dom.Expression;
 import org.eclipse.jdt.core.dom.FieldDeclaration;
 import org.eclipse.jdt.core.dom.ForStatement;
+import org.eclipse.jdt.core.dom.IBinding;
 import org.eclipse.jdt.core.dom.ITypeBinding;
 import org.eclipse.jdt.core.dom.IVariableBinding;
 import org.eclipse.jdt.core.dom.MethodDeclaration;
 import org.eclipse.jdt.core.dom.NodeFinder;
 import org.eclipse.jdt.core.dom.PrimitiveType;
+import org.eclipse.jdt.core.dom.SimpleName;
 import org.eclipse.jdt.core.dom.SingleVariableDeclaration;
 import org.eclipse.jdt.core.dom.Statement;
 import org.eclipse.jdt.core.dom.Type;
@@ -72,15 +81,35 @@ import com.ibm.wala.cast.java.translator.jdt.JDTIdentityMapper;
 import com.ibm.wala.client.AbstractAnalysisEngine;
 import com.ibm.wala.ipa.callgraph.CGNode;
 import com.ibm.wala.ipa.callgraph.CallGraph;
+import com.ibm.wala.ipa.callgraph.propagation.PointerKey;
 import com.ibm.wala.shrikeCT.InvalidClassFileException;
 import com.ibm.wala.ssa.IR;
 import com.ibm.wala.types.MethodReference;
 import com.ibm.wala.util.CancelException;
 import com.ibm.wala.util.debug.Assertions;
 
+import edu.illinois.jflow.jflow.wala.dataflowanalysis.ConcurrentSubstitution;
+import edu.illinois.jflow.jflow.wala.dataflowanalysis.ElidableLock;
+import edu.illinois.jflow.jflow.wala.dataflowanalysis.InductionVariable;
 import edu.illinois.jflow.jflow.wala.dataflowanalysis.PDGExtractClosureAnalyzer;
 import edu.illinois.jflow.jflow.wala.dataflowanalysis.PDGPartitionerChecker;
+import edu.illinois.jflow.jflow.wala.dataflowanalysis.PartitionRepairer;
+import edu.illinois.jflow.jflow.wala.dataflowanalysis.PartitionRepairer.Suggestion;
+import edu.illinois.jflow.jflow.wala.dataflowanalysis.PipelinePartitioner;
+import edu.illinois.jflow.jflow.wala.dataflowanalysis.PipelinePartitioner.Partition;
+import edu.illinois.jflow.jflow.wala.dataflowanalysis.PrivatizationCandidate;
 import edu.illinois.jflow.jflow.wala.dataflowanalysis.ProgramDependenceGraph;
+import edu.illinois.jflow.jflow.wala.dataflowanalysis.Reduction;
+import edu.illinois.jflow.jflow.wala.dataflowanalysis.SharedRandom;
+import edu.illinois.jflow.jflow.wala.dataflowanalysis.SharedRandom.Source;
+import edu.illinois.jflow.jflow.wala.dataflowanalysis.SpeculativeStage;
+import edu.illinois.jflow.wala.modref.LibrarySpecifications;
+import edu.illinois.jflow.wala.profiling.DependenceProfile;
+import edu.illinois.jflow.wala.profiling.DependenceProfile.Observation;
+import edu.illinois.jflow.wala.profiling.ExecutionProfile;
+import edu.illinois.jflow.wala.profiling.ProfileImporter;
+import edu.illinois.jflow.wala.profiling.StageProfile;
+import edu.illinois.jflow.wala.simulator.PipelineSimulator;
 import edu.illinois.jflow.wala.utils.EclipseProjectAnalysisEngine;
 
 /**
@@ -114,6 +143,19 @@ public class ExtractClosureRefactoring extends Refactoring {
 				"	} \n" +
 				"}.call(channel%s.getVal());";
 
+		// Same as above but prints how long the item waited in the channel and how long the stage took, see StageProfile
+		static final String INSTRUMENTED_DATAFLOW_MESSAGING_RUNNABLE_TEMPLATE= "new DataflowMessagingRunnable(1) {\n" +
+				"	@Override\n" +
+				"	protected void doRun(Object... args) { \n" +
+				"	  long jflowStart = System.nanoTime();\n" +
+				"	  long jflowWait = jflowStart - ((Bundle) args[0]).jflowBoundAt;\n" +
+				"	  try {\n" +
+				"			%s \n" +
+				"		} catch (Exception e) {}\n" +
+				"	  System.err.println(\"" + StageProfile.STAGE_MARKER + " %d \" + jflowWait + \" \" + (System.nanoTime() - jflowStart));\n" +
+				"	} \n" +
+				"}.call(channel%s.getVal());";
+
 		final String NEWLINE= String.format("%n"); //$NON-NLS-1$
 
 		final AnnotatedStage stage;
@@ -200,6 +242,7 @@ public class ExtractClosureRefactoring extends Refactoring {
 
 		private Statement createDataflowStatement() {
 			StringBuilder sb= new StringBuilder();
+			SpeculativeStage speculativeStage= findSpeculativeStage(stage.stageName);
 
 			// 1. Grab the values from the channel
 			String initializationStmts= createInitializationStatements();
@@ -208,32 +251,102 @@ public class ExtractClosureRefactoring extends Refactoring {
 			sb.append(NEWLINE);
 			// 2. Include the original statements
 			for (ASTNode astNode : analyzer.getSelectedNodes()) {
-				sb.append(ASTNodes.asString(astNode));
+				sb.append(rewriteForStage(astNode, speculativeStage));
 				sb.append(NEWLINE);
 			}
+			if (speculativeStage != null) {
+				sb.append(new SpeculationCreator(ExtractClosureRefactoring.this).createValidateStatement());
+			}
 
-			// 3. Pump new value into the channel - only if not the last channel
+			// 3. Keep what the stage accumulated for combining after the loop
+			sb.append(createPartialUpdateStatements());
+
+			// 4. Pump new value into the channel - only if not the last channel
 			// XXX: Revisit this assumption: what if we have a value that we want to read outside the loop?
 			if (stage.stageName != stages.size()) {
 				String updateStmts= createUpdateStatements();
 				sb.append(updateStmts);
 			}
 
-			String closureInvocation= String.format(DATAFLOW_MESSAGING_RUNNABLE_TEMPLATE, sb.toString(), stage.stageName - 1);
+			// 5. Run all of the above again in order if the speculation fails
+			String stageCode= sb.toString();
+			if (speculativeStage != null) {
+				stageCode= new SpeculationCreator(ExtractClosureRefactoring.this).createSpeculativeStage(stage.stageName, stageCode);
+			}
+			stageCode= String.format("%s b = ((%s) args[0]);%n", BundleCreator.BUNDLE_CLASS_NAME, BundleCreator.BUNDLE_CLASS_NAME) + stageCode; //$NON-NLS-1$
+
+			String closureInvocation;
+			if (fInstrumentStages) {
+				closureInvocation= String.format(INSTRUMENTED_DATAFLOW_MESSAGING_RUNNABLE_TEMPLATE, stageCode, stage.stageName, stage.stageName - 1);
+			} else {
+				closureInvocation= String.format(DATAFLOW_MESSAGING_RUNNABLE_TEMPLATE, stageCode, stage.stageName - 1);
+			}
 			return (Statement)ASTNodeFactory.newStatement(fAST, closureInvocation);
 		}
 
+		/*
+		 * A copy of the statement where Math.random() draws from the generator of the stage, the
+		 * needless locks are gone and a speculative iteration gives up before it writes
+		 */
+		private String rewriteForStage(ASTNode astNode, SpeculativeStage speculativeStage) {
+			Map<ASTNode, ASTNode> copies= copyWithOriginals(astNode);
+			if (findReplacedRandom(stage.stageName, SharedRandom.MATH_RANDOM_NAME) != null) {
+				new RandomGeneratorCreator(ExtractClosureRefactoring.this).replaceMathRandom(copies);
+			}
+			String guard= ""; //$NON-NLS-1$
+			if (speculativeStage != null) {
+				SpeculationCreator sc= new SpeculationCreator(ExtractClosureRefactoring.this);
+				if (sc.insertGuards(astNode, copies, speculativeStage)) {
+					guard= sc.createGuardStatement();
+				}
+			}
+			return guard + ASTNodes.asString(new LockElisionCreator(ExtractClosureRefactoring.this).removeLocks(astNode, copies, stage.stageName));
+		}
+
 		private String createInitializationStatements() {
 			StringBuilder sb= new StringBuilder();
 
-			sb.append(String.format("%s b = ((%s) args[0]);%n", BundleCreator.BUNDLE_CLASS_NAME, BundleCreator.BUNDLE_CLASS_NAME)); //$NON-NLS-1$
-
 			String template= "%s %s = b.%s;%n"; //$NON-NLS-1$
 
+			RandomGeneratorCreator rgc= new RandomGeneratorCreator(ExtractClosureRefactoring.this);
 			for (ParameterInfo pInfo : parameterInfo) {
-				sb.append(String.format(template, resolveType(pInfo.getOldBinding()), pInfo.getOldName(), pInfo.getOldName()));
+				Reduction reduction= findReduction(stage.stageName, pInfo.getOldName());
+				InductionVariable inductionVariable= findInductionVariable(pInfo.getOldName());
+				if (inductionVariable != null) {
+					// Computed from the iteration instead of waiting for the stage that steps it
+					String start= pInfo.getOldName() + START_SUFFIX;
+					String iteration= "b." + BundleCreator.ITERATION_FIELD_NAME; //$NON-NLS-1$
+					String value= inductionVariable.getRecomputeExpression(start, iteration, stage.stageName);
+					sb.append(String.format("%s %s = %s;%n", resolveType(pInfo.getOldBinding()), pInfo.getOldName(), value)); //$NON-NLS-1$
+				} else if (findPrivatization(stage.stageName, pInfo.getOldName()) != null) {
+					// Use the copy of this worker instead of the object that all the workers share
+					sb.append(String.format("%s %s = %s%s.get();%n", resolveType(pInfo.getOldBinding()), pInfo.getOldName(), pInfo.getOldName(), PRIVATE_SUFFIX)); //$NON-NLS-1$
+				} else if (findReplacedRandom(stage.stageName, pInfo.getOldName()) != null) {
+					// Draw from the generator of this worker or iteration instead of the one that all the workers share
+					sb.append(rgc.createGeneratorStatement(pInfo.getOldName(), stage.stageName));
+				} else if (reduction == null) {
+					sb.append(String.format(template, resolveType(pInfo.getOldBinding()), pInfo.getOldName(), pInfo.getOldName()));
+				} else {
+					// Start from what this worker accumulated so far instead of the value in the bundle
+					String partial= reduction.isCollection() ? "%s %s = %s%s.get();%n" : "%s %s = %s%s.get()[0];%n"; //$NON-NLS-1$ //$NON-NLS-2$
+					sb.append(String.format(partial, resolveType(pInfo.getOldBinding()), pInfo.getOldName(), pInfo.getOldName(), PARTIAL_SUFFIX));
+				}
 			}
+			if (findReplacedRandom(stage.stageName, SharedRandom.MATH_RANDOM_NAME) != null) {
+				sb.append(rgc.createGeneratorStatement(RandomGeneratorCreator.MATH_RANDOM_VARIABLE_NAME, stage.stageName));
+			}
+
+			return sb.toString();
+		}
 
+		private String createPartialUpdateStatements() {
+			StringBuilder sb= new StringBuilder();
+			for (ParameterInfo pInfo : parameterInfo) {
+				Reduction reduction= findReduction(stage.stageName, pInfo.getOldName());
+				if (reduction != null && !reduction.isCollection()) {
+					sb.append(String.format("%s%s.get()[0] = %s;%n", reduction.getVariableName(), PARTIAL_SUFFIX, reduction.getVariableName())); //$NON-NLS-1$
+				}
+			}
 			return sb.toString();
 		}
 
@@ -244,9 +357,18 @@ public class ExtractClosureRefactoring extends Refactoring {
 
 			List<IVariableBinding> arguments= pdgAnalyzer.getOutputBindings(analyzer.getSelectedNodes());
 			for (IVariableBinding binding : arguments) {
+				if (findReduction(stage.stageName, binding.getName()) != null) {
+					continue; // Kept in the partial result of the worker instead
+				}
+				if (findInductionVariable(binding.getName()) != null) {
+					continue; // The next stages compute it from the iteration
+				}
 				sb.append(String.format(template, binding.getName(), binding.getName()));
 			}
 
+			if (fInstrumentStages) {
+				sb.append(String.format("b.%s = System.nanoTime();%n", BundleCreator.BOUND_AT_FIELD_NAME)); //$NON-NLS-1$
+			}
 			sb.append(String.format(GENERIC_CHANNEL_NAME + "%d.bind(b);%n", stage.stageName)); //$NON-NLS-1$
 
 			return sb.toString();
@@ -272,6 +394,12 @@ public class ExtractClosureRefactoring extends Refactoring {
 	final class BundleCreator {
 		static final String BUNDLE_CLASS_NAME= "Bundle"; //$NON-NLS-1$
 
+		// When the bundle was last put into a channel, only with instrumented stages
+		static final String BOUND_AT_FIELD_NAME= "jflowBoundAt"; //$NON-NLS-1$
+
+		// The number of the iteration, only if a stage steps an induction variable or seeds a generator from it
+		static final String ITERATION_FIELD_NAME= "jflowIteration"; //$NON-NLS-1$
+
 		Set<ParameterInfo> variables= new TreeSet<ParameterInfo>(new ParameterInfoComparator());
 
 		BundleCreator(Collection<Stage> stages) {
@@ -296,7 +424,11 @@ public class ExtractClosureRefactoring extends Refactoring {
 				IVariableBinding varType= pInfo.getOldBinding();
 
 				ITypeBinding type= varType.getType();
-				if (type.isPrimitive()) {
+				String substituted= findSubstitutedType(pInfo.getOldName());
+				if (substituted != null) {
+					// Declared as the concurrent structure that replaces it, see ConcurrentStructureCreator
+					field.setType((Type)fRewriter.createStringPlaceholder(substituted, ASTNode.SIMPLE_TYPE));
+				} else if (type.isPrimitive()) {
 					field.setType(fAST.newPrimitiveType(PrimitiveType.toCode(resolveType(varType))));
 				} else if (type.isArray()) {
 					ITypeBinding elementType= type.getElementType();
@@ -307,6 +439,9 @@ public class ExtractClosureRefactoring extends Refactoring {
 						arrayType= fAST.newSimpleType(fAST.newSimpleName(elementType.getName()));
 					}
 					field.setType(fAST.newArrayType(arrayType, type.getDimensions()));
+				} else if (type.isParameterizedType()) {
+					// e.g., the Set<String> of a collection reduction, which is not a simple name
+					field.setType(fImportRewriter.addImport(type, fAST));
 				} else {
 					field.setType(fAST.newSimpleType(fAST.newSimpleName(resolveType(varType))));
 				}
@@ -314,6 +449,22 @@ public class ExtractClosureRefactoring extends Refactoring {
 				bodyDeclarations.add(field);
 			}
 
+			if (fInstrumentStages) {
+				VariableDeclarationFragment fragment= fAST.newVariableDeclarationFragment();
+				fragment.setName(fAST.newSimpleName(BOUND_AT_FIELD_NAME));
+				FieldDeclaration field= fAST.newFieldDeclaration(fragment);
+				field.setType(fAST.newPrimitiveType(PrimitiveType.LONG));
+				bodyDeclarations.add(field);
+			}
+
+			if (needsIterationNumber()) {
+				VariableDeclarationFragment fragment= fAST.newVariableDeclarationFragment();
+				fragment.setName(fAST.newSimpleName(ITERATION_FIELD_NAME));
+				FieldDeclaration field= fAST.newFieldDeclaration(fragment);
+				field.setType(fAST.newPrimitiveType(PrimitiveType.INT));
+				bodyDeclarations.add(field);
+			}
+
 			return bundleClass;
 		}
 	}
@@ -366,6 +517,17 @@ public class ExtractClosureRefactoring extends Refactoring {
 						String.format("%s %s = new %s();", BundleCreator.BUNDLE_CLASS_NAME, BUNDLE_VARIABLE_NAME, BundleCreator.BUNDLE_CLASS_NAME));
 				statements.add(declStatement);
 
+				// Number the iteration and step the induction variables for the loop header, see InductionVariableCreator
+				if (needsIterationNumber()) {
+					String iteration= BundleCreator.ITERATION_FIELD_NAME;
+					statements.add((Statement)ASTNodeFactory.newStatement(fAST, String.format("%s.%s = %s++;", BUNDLE_VARIABLE_NAME, iteration, iteration)));
+					for (InductionVariable inductionVariable : getSteppedInductionVariables()) {
+						String name= inductionVariable.getVariableName();
+						String value= inductionVariable.getRecomputeExpression(name + START_SUFFIX, iteration, 0);
+						statements.add((Statement)ASTNodeFactory.newStatement(fAST, String.format("%s = %s;", name, value)));
+					}
+				}
+
 				// Initialization statement
 				String template= BUNDLE_VARIABLE_NAME + ".%s = %s;";
 				for (IVariableBinding iVar : consumed) {
@@ -373,6 +535,10 @@ public class ExtractClosureRefactoring extends Refactoring {
 					statements.add(initializationStmt);
 				}
 
+				if (fInstrumentStages) {
+					statements.add((Statement)ASTNodeFactory.newStatement(fAST, String.format("%s.%s = System.nanoTime();", BUNDLE_VARIABLE_NAME, BundleCreator.BOUND_AT_FIELD_NAME)));
+				}
+
 				// Pump into the channel
 				Statement pump= (Statement)ASTNodeFactory.newStatement(fAST, String.format("%s.bind(%s);", INITIAL_CHANNEL, BUNDLE_VARIABLE_NAME));
 				statements.add(pump);
@@ -382,6 +548,44 @@ public class ExtractClosureRefactoring extends Refactoring {
 		}
 	}
 
+	/*
+	 * Copies a statement of a stage. The copy has no bindings or positions, so the rewrites of the
+	 * stage code look at the original and change the node at the same place in the copy, which a
+	 * visitor reaches in the same order.
+	 */
+	private Map<ASTNode, ASTNode> copyWithOriginals(ASTNode node) {
+		final List<ASTNode> originals= new ArrayList<ASTNode>();
+		node.accept(new ASTVisitor() {
+			@Override
+			public void preVisit(ASTNode visited) {
+				originals.add(visited);
+			}
+		});
+		final List<ASTNode> copies= new ArrayList<ASTNode>();
+		ASTNode.copySubtree(fAST, node).accept(new ASTVisitor() {
+			@Override
+			public void preVisit(ASTNode visited) {
+				copies.add(visited);
+			}
+		});
+		Map<ASTNode, ASTNode> correspondence= new HashMap<ASTNode, ASTNode>();
+		for (int index= 0; index < originals.size(); index++) {
+			correspondence.put(originals.get(index), copies.get(index));
+		}
+		return correspondence;
+	}
+
+	ParameterInfo findParameterInfo(String variableName) {
+		for (Stage stage : stages.values()) {
+			for (ParameterInfo pInfo : stage.getParameterInfo()) {
+				if (pInfo.getOldName().equals(variableName)) {
+					return pInfo;
+				}
+			}
+		}
+		return null;
+	}
+
 	/**
 	 * Distinguish the different parameter info from each stage by their names. While using names
 	 * might sound absurd, recall that we can safely make the assumption that because that all the
@@ -411,11 +615,251 @@ public class ExtractClosureRefactoring extends Refactoring {
 		}
 	}
 
-	private String resolveType(IVariableBinding binding) {
+	String resolveType(IVariableBinding binding) {
+		String substituted= findSubstitutedType(binding.getName());
+		if (substituted != null) {
+			return substituted;
+		}
 		ITypeBinding type= binding.getType();
 		return type.getName();
 	}
 
+	/**
+	 * @return the type that the concurrent structure replacing the variable is declared with, null
+	 *         if the variable keeps its declared type
+	 */
+	private String findSubstitutedType(String variableName) {
+		for (ConcurrentSubstitution substitution : fSubstitutions) {
+			if (substitution.getVariableName().equals(variableName)) {
+				return new ConcurrentStructureCreator(this).getDeclaredType(substitution);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @param stageNumber Stage1 is 1
+	 * @return the reduction that the stage accumulates into the variable, null if there is none
+	 */
+	private Reduction findReduction(int stageNumber, String variableName) {
+		if (fChecker == null) {
+			return null;
+		}
+		for (Reduction reduction : fChecker.getReductions(stageNumber)) {
+			if (reduction.getVariableName().equals(variableName)) {
+				return reduction;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @param stageNumber Stage1 is 1
+	 * @return the scratch object that each worker of the stage has its own copy of, null if the
+	 *         variable is shared
+	 */
+	private PrivatizationCandidate findPrivatization(int stageNumber, String variableName) {
+		if (!fPrivatize) {
+			return null;
+		}
+		for (PrivatizationCandidate candidate : fPrivatizations) {
+			if (candidate.getStageNumber() == stageNumber && candidate.getVariableName().equals(variableName)) {
+				return candidate;
+			}
+		}
+		return null;
+	}
+
+	ParameterInfo findParameterInfo(PrivatizationCandidate candidate) {
+		for (ParameterInfo pInfo : stages.get(candidate.getStageNumber() - 1).getParameterInfo()) {
+			if (pInfo.getOldName().equals(candidate.getVariableName())) {
+				return pInfo;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return the initializer that creates the object in the declaration of the variable, null if it
+	 *         cannot create the copies: it is not a constructor call or it reads other local
+	 *         variables, which the ThreadLocal could not see or which might have changed by then
+	 */
+	Expression findPrivateInitializer(PrivatizationCandidate candidate) {
+		ParameterInfo pInfo= findParameterInfo(candidate);
+		if (pInfo == null) {
+			return null;
+		}
+		ASTNode root= stages.get(candidate.getStageNumber() - 1).getAnalyzer().getEnclosingBodyDeclaration();
+		VariableDeclaration declaration= ASTNodes.findVariableDeclaration(pInfo.getOldBinding(), root);
+		if (declaration == null || !(declaration.getInitializer() instanceof ClassInstanceCreation)) {
+			return null;
+		}
+		ClassInstanceCreation creation= (ClassInstanceCreation)declaration.getInitializer();
+		if (creation.getAnonymousClassDeclaration() != null) {
+			return null;
+		}
+		final boolean[] readsLocals= new boolean[] { false };
+		creation.accept(new ASTVisitor() {
+			@Override
+			public boolean visit(SimpleName node) {
+				IBinding binding= node.resolveBinding();
+				if (binding instanceof IVariableBinding && !((IVariableBinding)binding).isField()) {
+					readsLocals[0]= true;
+				}
+				return false;
+			}
+		});
+		return readsLocals[0] ? null : creation;
+	}
+
+	/**
+	 * @return the induction variable with that name if a stage steps it, null otherwise. The ones
+	 *         stepped in the loop header need no help.
+	 */
+	private InductionVariable findInductionVariable(String variableName) {
+		for (InductionVariable inductionVariable : getSteppedInductionVariables()) {
+			if (inductionVariable.getVariableName().equals(variableName)) {
+				return inductionVariable;
+			}
+		}
+		return null;
+	}
+
+	List<InductionVariable> getSteppedInductionVariables() {
+		List<InductionVariable> stepped= new ArrayList<InductionVariable>();
+		if (fChecker == null) {
+			return stepped;
+		}
+		for (InductionVariable inductionVariable : fChecker.getInductionVariables()) {
+			if (inductionVariable.getUpdateStageNumber() > 0) {
+				stepped.add(inductionVariable);
+			}
+		}
+		return stepped;
+	}
+
+	private boolean hasInductionVariables() {
+		return !getSteppedInductionVariables().isEmpty();
+	}
+
+	// The stages compute the induction variables from the number of the iteration, can seed their generators from it and commit in its order
+	private boolean needsIterationNumber() {
+		return hasInductionVariables() || (fDeterministicRandoms && !fRandoms.isEmpty()) || isSpeculating();
+	}
+
+	private boolean isPrivatizing() {
+		return fPrivatize && !fPrivatizations.isEmpty();
+	}
+
+	// Only privatizing its scratch objects lets the stage run on several workers
+	private boolean needsPrivatization(int stageNumber) {
+		for (PrivatizationCandidate candidate : fPrivatizations) {
+			if (candidate.getStageNumber() == stageNumber) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean isSpeculating() {
+		return fSpeculate && !fSpeculativeStages.isEmpty();
+	}
+
+	/**
+	 * @param stageNumber Stage1 is 1
+	 * @return how the stage runs speculatively, null if it does not
+	 */
+	private SpeculativeStage findSpeculativeStage(int stageNumber) {
+		if (!fSpeculate) {
+			return null;
+		}
+		for (SpeculativeStage speculativeStage : fSpeculativeStages) {
+			if (speculativeStage.getStageNumber() == stageNumber) {
+				return speculativeStage;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @param stageNumber Stage1 is 1
+	 * @return the generator with that name, or Math.random(), that the workers of the stage draw from
+	 *         instead of the shared one, null if there is none
+	 */
+	private SharedRandom findReplacedRandom(int stageNumber, String variableName) {
+		for (SharedRandom random : fRandoms) {
+			if (random.getStageNumbers().contains(stageNumber) && random.getVariableName().equals(variableName)) {
+				return random;
+			}
+		}
+		return null;
+	}
+
+	// FOR THE CREATORS
+	///////////////////
+
+	AST getAST() {
+		return fAST;
+	}
+
+	CompilationUnit getRoot() {
+		return fRoot;
+	}
+
+	ImportRewrite getImportRewriter() {
+		return fImportRewriter;
+	}
+
+	// Only set while creating the change
+	ASTRewrite getRewriter() {
+		return fRewriter;
+	}
+
+	PDGPartitionerChecker getChecker() {
+		return fChecker;
+	}
+
+	/**
+	 * @param stageNumber Stage1 is 1
+	 */
+	ExtractClosureAnalyzer getStageAnalyzer(int stageNumber) {
+		return stages.get(stageNumber - 1).getAnalyzer();
+	}
+
+	/**
+	 * @param stageNumber Stage1 is 1
+	 */
+	List<ParameterInfo> getParameterInfo(int stageNumber) {
+		return stages.get(stageNumber - 1).getParameterInfo();
+	}
+
+	List<PrivatizationCandidate> getPrivatizations() {
+		return fPrivatizations;
+	}
+
+	List<SharedRandom> getRandoms() {
+		return fRandoms;
+	}
+
+	List<ElidableLock> getElidedLocks() {
+		return fElidedLocks;
+	}
+
+	List<SpeculativeStage> getSpeculativeStages() {
+		return fSpeculativeStages;
+	}
+
+	private static String describeStages(Collection<Integer> stageNumbers) {
+		StringBuilder sb= new StringBuilder();
+		for (int stageNumber : stageNumbers) {
+			if (sb.length() > 0) {
+				sb.append(", "); //$NON-NLS-1$
+			}
+			sb.append("Stage").append(stageNumber); //$NON-NLS-1$
+		}
+		return sb.toString();
+	}
+
 	private ICompilationUnit fCUnit;
 
 	private CompilationUnit fRoot;
@@ -453,10 +897,61 @@ public class ExtractClosureRefactoring extends Refactoring {
 
 	public static final String DATAFLOWQUEUE_INTERFACE= "groovyx.gpars.dataflow.DataflowChannel"; //$NON-NLS-1$
 
+	// sumPartial holds the partial result of the current worker, sumPartials those of all workers
+	public static final String PARTIAL_SUFFIX= "Partial"; //$NON-NLS-1$
+
+	// indexStart holds the value of the induction variable index before the loop
+	public static final String START_SUFFIX= "Start"; //$NON-NLS-1$
+
+	// formatPrivate holds the copy of format for each worker
+	public static final String PRIVATE_SUFFIX= "Private"; //$NON-NLS-1$
+
+	// randomSeeds seeds the generator of each worker that replaces random, randomSeed those of the iterations
+	public static final String SEEDS_SUFFIX= "Seeds"; //$NON-NLS-1$
+
+	public static final String SEED_SUFFIX= "Seed"; //$NON-NLS-1$
+
+	// How many ways to remove interference between the stages we suggest
+	private static final int MAX_REPAIR_SUGGESTIONS= 3;
+
 	private AbstractAnalysisEngine fEngine;
 
 	private CallGraph fCallGraph;
 
+	private MethodReference fMethodRef;
+
+	// Share of the profiled samples for each stage, null if no profile was imported for the project
+	private List<Double> fMeasuredStageShares;
+
+	// Measured by running the instrumented stages, null if there is no stage profile next to the source
+	private StageProfile fStageProfile;
+
+	private boolean fInstrumentStages;
+
+	// The structures that are replaced by concurrent ones, see ConcurrentStructureCreator
+	private List<ConcurrentSubstitution> fSubstitutions= new ArrayList<ConcurrentSubstitution>();
+
+	// The scratch objects that the workers of a stage could each get a copy of, see PrivatizationCreator
+	private List<PrivatizationCandidate> fPrivatizations= new ArrayList<PrivatizationCandidate>();
+
+	private boolean fPrivatize;
+
+	// The random number generators that each worker gets its own of, see RandomGeneratorCreator
+	private List<SharedRandom> fRandoms= new ArrayList<SharedRandom>();
+
+	private boolean fDeterministicRandoms;
+
+	// The locks that the stages no longer take, see LockElisionCreator
+	private List<ElidableLock> fElidedLocks= new ArrayList<ElidableLock>();
+
+	// The stages that could run speculatively, see SpeculationCreator
+	private List<SpeculativeStage> fSpeculativeStages= new ArrayList<SpeculativeStage>();
+
+	private boolean fSpeculate;
+
+	// We do not recommend more workers than this for a data-parallel stage
+	private static final int MAX_RECOMMENDED_WORKERS= 16;
+
 	/**
 	 * Creates a new extract closure refactoring
 	 * 
@@ -532,16 +1027,43 @@ public class ExtractClosureRefactoring extends Refactoring {
 
 			if (fChecker.containsLoopCarriedDependency()) {
 				result.addError("There is a loop carried dependency and we cannot parallelize this loop.");
+				for (String message : fChecker.getLoopCarriedDependencyMessages()) {
+					result.addError(message + " Moving statements between stages cannot remove this dependency.");
+				}
+			}
+			for (String message : fChecker.getReductionMessages()) {
+				result.addInfo(message);
+			}
+			for (String warning : fChecker.getReductionWarnings()) {
+				result.addWarning(warning);
+			}
+			for (String message : fChecker.getInductionVariableMessages()) {
+				result.addInfo(message);
 			}
 
-			fChecker.computeHeapDependency(fCallGraph, fEngine.getPointerAnalysis());
+			fChecker.computeHeapDependency(fCallGraph, fEngine.getPointerAnalysis(), LibrarySpecifications.load(fCUnit.getJavaProject().getProject()));
 			fChecker.checkInterference();
+			substituteConcurrentStructures(result);
+
+			fChecker.estimateCosts(fCallGraph);
+			if (fChecker.isImbalanced()) {
+				result.addWarning(fChecker.getImbalanceMessage());
+			}
+
+			// The wizard offers to simulate data-parallel stages with several workers
+			fChecker.checkDataParallel();
+			replaceSharedRandoms(result);
+			privatizeScratchObjects(result);
+			removeNeedlessLocks(result);
+			findSpeculativeStages(result);
 
 			if (fChecker.hasInterference()) {
+				initializeDependenceProfile(result);
 				List<String> messages= fChecker.getInterferenceMessages();
 				for (String message : messages) {
 					result.addWarning(message);
 				}
+				suggestRepairs(result);
 			}
 
 			List<String> ignoredMethodCalls= fChecker.getIgnoredMethodCalls();
@@ -551,6 +1073,8 @@ public class ExtractClosureRefactoring extends Refactoring {
 				}
 			}
 
+			initializeMeasuredShares(result);
+			initializeStageProfile(result);
 
 		} catch (Exception e) {
 			e.printStackTrace();
@@ -591,9 +1115,9 @@ public class ExtractClosureRefactoring extends Refactoring {
 		// Since all the stages are going to be in the same method, just use the first ExtractClosureAnalyzer
 		MethodDeclaration methodDeclaration= locateSelectedMethod();
 		JDTIdentityMapper mapper= new JDTIdentityMapper(JavaSourceAnalysisScope.SOURCE, fAST);
-		MethodReference methodRef= mapper.getMethodRef(methodDeclaration.resolveBinding());
+		fMethodRef= mapper.getMethodRef(methodDeclaration.resolveBinding());
 
-		Set<CGNode> nodes= fCallGraph.getNodes(methodRef);
+		Set<CGNode> nodes= fCallGraph.getNodes(fMethodRef);
 
 		Assertions.productionAssertion(nodes.size() == 1, "Expected a single corresponding CGNode, but got either 0 or more");
 
@@ -629,6 +1153,530 @@ public class ExtractClosureRefactoring extends Refactoring {
 		fChecker= PDGPartitionerChecker.makePartitionChecker(pdg, selections);
 	}
 
+	/*
+	 * Instead of only reporting the interference, tell the user the smallest changes to the stages
+	 * that would remove it and how they affect the balance of the stages
+	 */
+	private void suggestRepairs(RefactoringStatus result) {
+		List<List<Integer>> selections= new ArrayList<List<Integer>>();
+		for (int stageNumber= 0; stageNumber < stages.keySet().size(); stageNumber++) {
+			selections.add(stages.get(stageNumber).getStage().getStageLines());
+		}
+
+		List<List<Integer>> units= ProposeStagesRefactoring.computeUnits(fRoot, locateEnclosingLoopStatement());
+		PartitionRepairer repairer= PartitionRepairer.makeRepairer(fChecker.getPdg(), getEnclosingLoopLines(), units, selections, fChecker.getCostModel());
+		if (repairer == null) {
+			return; // The stages split some statement of the loop body, we cannot move them around
+		}
+		repairer.setHeapEffects(fChecker.getHeapEffects());
+
+		List<Suggestion> suggestions= repairer.suggestRepairs(fChecker.getInterferingStatements(), MAX_REPAIR_SUGGESTIONS);
+		if (suggestions.isEmpty()) {
+			result.addInfo("No repair short of merging all the stages removes the interference.");
+		}
+		List<Long> currentCosts= repairer.getCurrentPartition().getStageCosts();
+		for (Suggestion suggestion : suggestions) {
+			String template= "To remove the interference, %s. The estimated stage costs would be %s instead of %s.";
+			result.addInfo(String.format(template, suggestion.getDescription(), suggestion.getPartition().getStageCosts(), currentCosts));
+		}
+	}
+
+	/*
+	 * Tells the user how much of the profiled run the loop and each stage account for so that they
+	 * can judge whether the loop is worth it and how balanced the stages are
+	 */
+	private void initializeMeasuredShares(RefactoringStatus result) {
+		ExecutionProfile profile= ProfileImporter.getAttachedProfile(fCUnit.getJavaProject().getProject());
+		if (profile == null) {
+			return;
+		}
+
+		if (!profile.hasLineNumbers(fMethodRef)) {
+			result.addInfo(String.format("The profile has no line numbers for %s, the shares below are for the whole method.", fMethodRef.getName()));
+		}
+
+		List<Integer> loopLines= new ArrayList<Integer>(getEnclosingLoopLines());
+		fMeasuredStageShares= new ArrayList<Double>();
+		for (int stageNumber= 0; stageNumber < stages.keySet().size(); stageNumber++) {
+			List<Integer> stageLines= stages.get(stageNumber).getStage().getStageLines();
+			loopLines.addAll(stageLines);
+			fMeasuredStageShares.add(profile.getShare(fMethodRef, stageLines));
+		}
+
+		result.addInfo(String.format("The loop accounts for %.1f%% of the profiled samples.", profile.getShare(fMethodRef, loopLines) * 100));
+		for (int stageNumber= 0; stageNumber < fMeasuredStageShares.size(); stageNumber++) {
+			result.addInfo(String.format("Stage%d accounts for %.1f%% of the profiled samples.", stageNumber + 1, fMeasuredStageShares.get(stageNumber) * 100));
+		}
+	}
+
+	/*
+	 * Feeds the service times of a run with instrumented stages back to the user: how to replicate
+	 * the data-parallel stages and where to put the boundaries instead
+	 */
+	private void initializeStageProfile(RefactoringStatus result) {
+		File profileFile= getStageProfileFile();
+		if (profileFile == null) {
+			return;
+		}
+		try {
+			fStageProfile= StageProfile.read(profileFile);
+		} catch (IOException e) {
+			result.addWarning(e.getMessage());
+		}
+		if (fStageProfile == null || fStageProfile.isEmpty()) {
+			fStageProfile= null;
+			return;
+		}
+		if (fStageProfile.getNumberOfStages() != stages.size()) {
+			result.addInfo(String.format("The stage profile %s is for %d stages but the loop has %d, ignoring it.", profileFile.getName(), fStageProfile.getNumberOfStages(), stages.size()));
+			fStageProfile= null;
+			return;
+		}
+
+		List<Boolean> dataParallel= new ArrayList<Boolean>();
+		List<Double> serviceTimes= new ArrayList<Double>();
+		for (int stageNumber= 1; stageNumber <= stages.size(); stageNumber++) {
+			String template= "Stage%d took %.3f ms per item and the item waited %.3f ms for it in the measured run.";
+			result.addInfo(String.format(template, stageNumber, fStageProfile.getMeanServiceTime(stageNumber) / 1e6, fStageProfile.getMeanWaitTime(stageNumber) / 1e6));
+			dataParallel.add(isDataParallel(stageNumber));
+			serviceTimes.add(fStageProfile.getMeanServiceTime(stageNumber));
+		}
+
+		List<Integer> workers= fStageProfile.recommendWorkers(dataParallel, MAX_RECOMMENDED_WORKERS);
+		for (int stageNumber= 1; stageNumber <= workers.size(); stageNumber++) {
+			if (workers.get(stageNumber - 1) > 1) {
+				result.addInfo(String.format("Run Stage%d on %d workers to keep up with the other stages.", stageNumber, workers.get(stageNumber - 1)));
+			}
+		}
+
+		recommendBoundaries(result, serviceTimes);
+	}
+
+	/*
+	 * Tells the user which of the interference warnings a profiled run of the loop confirmed, the
+	 * warnings themselves are labeled by the checker
+	 */
+	private void initializeDependenceProfile(RefactoringStatus result) {
+		File profileFile= getDependenceProfileFile();
+		if (profileFile == null) {
+			return;
+		}
+		DependenceProfile profile= null;
+		try {
+			profile= DependenceProfile.read(profileFile);
+		} catch (IOException e) {
+			result.addWarning(e.getMessage());
+		}
+		if (profile == null || profile.isEmpty()) {
+			return;
+		}
+		if (profile.getIterations() == 0) {
+			result.addInfo(String.format("The dependence profile %s is from a run that never went through the loop, ignoring it.", profileFile.getName()));
+			return;
+		}
+
+		fChecker.setDependenceProfile(profile);
+		Map<PointerKey, Observation> observations= fChecker.getObservedInterference();
+		int observed= 0;
+		int unobserved= 0;
+		for (Observation observation : observations.values()) {
+			if (observation == Observation.CROSS_ITERATION) {
+				observed++;
+			} else if (observation != Observation.NOT_PROFILED) {
+				unobserved++;
+			}
+		}
+		String template= "In the profiled run of %d iterations, the stages conflicted across iterations on %d of the %d locations they interfere on. The warnings about the %d others that it profiled are likely spurious.";
+		result.addInfo(String.format(template, profile.getIterations(), observed, observations.size(), unobserved));
+	}
+
+	private void recommendBoundaries(RefactoringStatus result, List<Double> serviceTimes) {
+		if (fChecker.getCostModel() == null) {
+			return;
+		}
+		List<List<Integer>> selections= new ArrayList<List<Integer>>();
+		for (int stageNumber= 0; stageNumber < stages.keySet().size(); stageNumber++) {
+			selections.add(stages.get(stageNumber).getStage().getStageLines());
+		}
+
+		List<List<Integer>> units= ProposeStagesRefactoring.computeUnits(fRoot, locateEnclosingLoopStatement());
+		PipelinePartitioner partitioner= PipelinePartitioner.makePartitioner(fChecker.getPdg(), getEnclosingLoopLines(), units, fChecker.getCostModel());
+		partitioner.calibrate(selections, serviceTimes);
+		partitioner.setHeapEffects(fChecker.getHeapEffects());
+		List<Partition> partitions= partitioner.partition(stages.size(), 1);
+		if (partitions.isEmpty()) {
+			return;
+		}
+
+		Partition best= partitions.get(0);
+		boolean same= true;
+		for (int stage= 0; stage < best.getNumberOfStages(); stage++) {
+			same&= selections.get(stage).containsAll(best.getStageLines().get(stage));
+		}
+		if (same) {
+			result.addInfo("The measured run confirms the current stage boundaries.");
+			return;
+		}
+		StringBuilder proposal= new StringBuilder();
+		for (int stage= 0; stage < best.getNumberOfStages(); stage++) {
+			List<Integer> lines= best.getStageLines().get(stage);
+			if (proposal.length() != 0) {
+				proposal.append(", ");
+			}
+			proposal.append(String.format("Stage%d: lines %d-%d", stage + 1, Collections.min(lines), Collections.max(lines)));
+		}
+		result.addInfo(String.format("With the measured service times, these stages would be better balanced: %s.", proposal));
+	}
+
+	/**
+	 * @return where the service times of the instrumented stages of this method are kept, null if
+	 *         the compilation unit is not a file on disk
+	 */
+	public File getStageProfileFile() {
+		IResource resource= fCUnit.getResource();
+		MethodDeclaration method= locateSelectedMethod();
+		if (resource == null || resource.getLocation() == null || method == null) {
+			return null;
+		}
+		return StageProfile.getProfileFile(resource.getLocation().toFile(), method.getName().getIdentifier());
+	}
+
+	/**
+	 * @return where the conflicts that a profiled run of this method observed are kept, null if the
+	 *         compilation unit is not a file on disk
+	 */
+	public File getDependenceProfileFile() {
+		IResource resource= fCUnit.getResource();
+		MethodDeclaration method= locateSelectedMethod();
+		if (resource == null || resource.getLocation() == null || method == null) {
+			return null;
+		}
+		return DependenceProfile.getProfileFile(resource.getLocation().toFile(), method.getName().getIdentifier());
+	}
+
+	/**
+	 * Finds the stages without analyzing them, e.g., to instrument a run of the loop (see
+	 * AccessInstrumenter)
+	 * 
+	 * @return the lines of the loop header first, then those of each stage, Stage1 first
+	 */
+	public List<List<Integer>> locateStageLines(IProgressMonitor pm) {
+		if (fRoot == null) {
+			fRoot= RefactoringASTParser.parseWithASTProvider(fCUnit, true, pm);
+		}
+		List<List<Integer>> selections= new ArrayList<List<Integer>>();
+		selections.add(getEnclosingLoopLines());
+		AnnotatedStagesFinder locator= new AnnotatedStagesFinder(fRoot, fDoc, locateSelectedMethod());
+		for (AnnotatedStage stage : locator.locateStages()) {
+			selections.add(stage.getStageLines());
+		}
+		return selections;
+	}
+
+	// For configuring
+	//////////////////
+
+	/**
+	 * Makes each generated stage print its service time and how long its items waited, so that a
+	 * run of the transformed code can be measured (see StageProfile).
+	 */
+	public void setInstrumentStages(boolean instrumentStages) {
+		fInstrumentStages= instrumentStages;
+	}
+
+	public boolean getInstrumentStages() {
+		return fInstrumentStages;
+	}
+
+	/**
+	 * Seeds a generator for every iteration instead of one for each worker where the workers draw
+	 * from their own random number generators, so that the numbers do not depend on how many workers
+	 * there are (see RandomGeneratorCreator).
+	 */
+	public void setDeterministicRandoms(boolean deterministicRandoms) {
+		fDeterministicRandoms= deterministicRandoms;
+	}
+
+	public boolean getDeterministicRandoms() {
+		return fDeterministicRandoms;
+	}
+
+	/**
+	 * Gives each worker of the stages that only their scratch objects keep on one worker its own
+	 * copy of them (see PrivatizationCreator). What the earlier iterations left in the objects is
+	 * lost, so this is only correct if no iteration depends on it.
+	 */
+	public void setPrivatize(boolean privatize) {
+		fPrivatize= privatize;
+	}
+
+	public boolean getPrivatize() {
+		return fPrivatize;
+	}
+
+	/**
+	 * Runs the iterations of the stages that only their own writes keep from running on several
+	 * workers speculatively, and the ones that write again in order (see SpeculationCreator). This
+	 * only pays off if few iterations write.
+	 */
+	public void setSpeculate(boolean speculate) {
+		fSpeculate= speculate;
+	}
+
+	public boolean getSpeculate() {
+		return fSpeculate;
+	}
+
+	// For querying
+	///////////////
+
+	public int getNumberOfStages() {
+		return stages.size();
+	}
+
+	/**
+	 * @return true if the workers draw from their own random number generators instead of shared ones
+	 */
+	public boolean hasRandomGenerators() {
+		return !fRandoms.isEmpty();
+	}
+
+	/**
+	 * @return true if some stages could run on several workers with their own scratch objects, see
+	 *         setPrivatize()
+	 */
+	public boolean hasPrivatizationCandidates() {
+		return !fPrivatizations.isEmpty();
+	}
+
+	/**
+	 * @return true if some stages could run speculatively, see setSpeculate()
+	 */
+	public boolean hasSpeculativeStages() {
+		return !fSpeculativeStages.isEmpty();
+	}
+
+	/**
+	 * @return the estimated cost of each stage, Stage1 first, or null if the analysis failed
+	 */
+	public List<Long> getEstimatedStageCosts() {
+		if (fChecker == null || fChecker.getCostModel() == null) {
+			return null;
+		}
+		List<Long> costs= new ArrayList<Long>();
+		for (int stageNumber= 1; stageNumber < fChecker.getNumberOfStages(); stageNumber++) {
+			costs.add(fChecker.getStage(stageNumber).getEstimatedCost());
+		}
+		return costs;
+	}
+
+	/*
+	 * Replaces the structures that the stages interfere on but only add to by concurrent ones, and
+	 * checks the interference again
+	 */
+	private void substituteConcurrentStructures(RefactoringStatus result) {
+		fSubstitutions.clear();
+		if (!fChecker.hasInterference()) {
+			return;
+		}
+		ConcurrentStructureCreator csc= new ConcurrentStructureCreator(this);
+		for (ConcurrentSubstitution substitution : fChecker.getConcurrentSubstitutions()) {
+			if (!csc.canSubstitute(substitution)) {
+				continue;
+			}
+			String concurrentType= Signature.getSimpleName(substitution.getStructure().getConcurrentType());
+			if (!csc.keepsUses(substitution)) {
+				result.addInfo(String.format("The stages only add to %s, but it cannot become a %s since other uses of it need its declared class, e.g., to call a method that only that class has.", substitution.getVariableName(), concurrentType));
+				continue;
+			}
+			if (!csc.addsOnlyNonNull(substitution)) {
+				result.addInfo(String.format("The stages only add to %s, but it cannot become a %s since it could be given null, which a %s rejects.", substitution.getVariableName(), concurrentType, concurrentType));
+				continue;
+			}
+			fSubstitutions.add(substitution);
+			fChecker.substitute(substitution);
+			result.addInfo(String.format("The stages only add to %s, so it becomes a %s and they no longer interfere on it.", substitution.getVariableName(), concurrentType));
+			if (substitution.isOrderSensitive()) {
+				String consequence= substitution.getStructure().isMap() ? "which value is kept for a key that is put more than once" : "the order of its elements";
+				result.addWarning(String.format("The updates to %s can happen in a different order than in the sequential loop, which changes %s.", substitution.getVariableName(), consequence));
+			}
+		}
+	}
+
+	/*
+	 * Gives each worker its own random number generator instead of the ones that the stages share,
+	 * and checks the stages again. This has to come before the privatization, which would give every
+	 * worker a copy of the generator with the same seed, i.e., the same numbers.
+	 */
+	private void replaceSharedRandoms(RefactoringStatus result) {
+		fRandoms.clear();
+		for (SharedRandom random : fChecker.getSharedRandoms()) {
+			String stageNames= describeStages(random.getStageNumbers());
+			if (!random.getSource().isReplaceable()) {
+				result.addInfo(String.format("%s draw from the random number generator in %s and contend for its seed. The workers could each draw from their own generator instead.", stageNames, random.getVariableName()));
+				continue;
+			}
+			if (random.getStageNumbers().contains(0) || (random.getSource() == Source.LOCAL && findParameterInfo(random.getVariableName()) == null)) {
+				continue; // The loop header is not rewritten
+			}
+			if (fChecker.replaceRandom(random)) {
+				fRandoms.add(random);
+				result.addInfo(String.format("Each worker of %s draws from its own random number generator instead of %s, so they no longer contend for its seed.", stageNames, random.getVariableName()));
+				result.addWarning(String.format("The numbers that replace those of %s depend on how the workers share the iterations, unless the generators are seeded for each iteration.", random.getVariableName()));
+			} else {
+				result.addInfo(String.format("Giving each worker of %s its own random number generator instead of %s is not enough for them to run on several workers.", stageNames, random.getVariableName()));
+			}
+		}
+	}
+
+	/*
+	 * Removes the locks that the stages take on objects that only one worker can reach at a time, and
+	 * reports the ones in synchronized methods, which other callers may still need
+	 */
+	private void removeNeedlessLocks(RefactoringStatus result) {
+		fElidedLocks.clear();
+		LockElisionCreator lec= new LockElisionCreator(this);
+		for (ElidableLock lock : fChecker.getElidableLocks()) {
+			if (lock.getKind() == ElidableLock.Kind.SYNCHRONIZED_METHOD) {
+				result.addInfo(String.format("Stage%d calls the synchronized method %s on line %d on objects that only one worker at a time can reach. An unsynchronized variant of the method would avoid the needless locking.", lock.getStageNumber(), lock.getTypeName(), lock.getLineNumber()));
+			} else if (!lec.canRemove(lock)) {
+				result.addInfo(String.format("Stage%d locks objects on line %d that only one worker at a time can reach, but the lock cannot be removed there.", lock.getStageNumber(), lock.getLineNumber()));
+			} else if (lock.getKind() == ElidableLock.Kind.MONITOR) {
+				fElidedLocks.add(lock);
+				result.addInfo(String.format("Only one worker at a time can reach %s, so the synchronized block on line %d of Stage%d becomes a plain block.", lock.getVariableName(), lock.getLineNumber(), lock.getStageNumber()));
+			} else {
+				fElidedLocks.add(lock);
+				String unsynchronized= Signature.getSimpleName(lock.getUnsynchronizedType());
+				result.addInfo(String.format("Only one worker at a time can reach %s, so Stage%d creates a %s instead of a %s on line %d.", lock.getVariableName(), lock.getStageNumber(), unsynchronized, Signature.getSimpleName(lock.getTypeName()), lock.getLineNumber()));
+			}
+		}
+	}
+
+	/*
+	 * Finds the stages that only their own writes keep from running on several workers, which the
+	 * user can choose to run speculatively
+	 */
+	private void findSpeculativeStages(RefactoringStatus result) {
+		fSpeculativeStages.clear();
+		SpeculationCreator sc= new SpeculationCreator(this);
+		for (SpeculativeStage speculativeStage : fChecker.getSpeculativeStages()) {
+			if (sc.canSpeculate(speculativeStage)) {
+				fSpeculativeStages.add(speculativeStage);
+				result.addInfo(String.format("Only its own writes on lines %s keep Stage%d from running on several workers. If few iterations reach them, the stage can run its iterations speculatively and run the ones that do again in order.", speculativeStage.getWriteLines(), speculativeStage.getStageNumber()));
+			} else {
+				result.addInfo(String.format("Only its own writes on lines %s keep Stage%d from running on several workers, but the stage cannot run speculatively since it returns or jumps out of the iteration, or the writes cannot be located.", speculativeStage.getWriteLines(), speculativeStage.getStageNumber()));
+			}
+		}
+	}
+
+	/*
+	 * Checks the stages that are not data-parallel again as if their workers had their own copies
+	 * of the scratch objects that keep them from running on several workers. The copies are only
+	 * made if the user asks for them, see setPrivatize().
+	 */
+	private void privatizeScratchObjects(RefactoringStatus result) {
+		fPrivatizations.clear();
+		for (int stageNumber= 1; stageNumber <= stages.size(); stageNumber++) {
+			if (fChecker.isDataParallel(stageNumber)) {
+				continue;
+			}
+			List<PrivatizationCandidate> privatized= new ArrayList<PrivatizationCandidate>();
+			for (PrivatizationCandidate candidate : fChecker.getPrivatizationCandidates(stageNumber)) {
+				if (!candidate.isLocal()) {
+					result.addInfo(String.format("Stage%d writes the object in %s. The stage could run on several workers if each had its own copy, e.g., from a ThreadLocal.", stageNumber, candidate.getVariableName()));
+				} else if (findPrivateInitializer(candidate) != null) {
+					fChecker.privatize(candidate);
+					privatized.add(candidate);
+				}
+			}
+			if (privatized.isEmpty()) {
+				continue;
+			}
+			List<String> names= new ArrayList<String>();
+			for (PrivatizationCandidate candidate : privatized) {
+				names.add(candidate.getVariableName());
+			}
+			if (fChecker.isDataParallel(stageNumber)) {
+				fPrivatizations.addAll(privatized);
+				result.addWarning(String.format("Stage%d could run on several workers if each had its own copy of %s. Only choose to privatize them if no iteration needs what the earlier iterations left in them, since each copy only sees the iterations of its worker.", stageNumber, names));
+			} else {
+				result.addInfo(String.format("Giving each worker of Stage%d its own copy of %s is not enough for the stage to run on several workers.", stageNumber, names));
+			}
+		}
+	}
+
+	/**
+	 * @return the share (0..1) of the profiled samples spent in each stage, Stage1 first, or null if
+	 *         no profile was imported for the project
+	 */
+	public List<Double> getMeasuredStageShares() {
+		return fMeasuredStageShares;
+	}
+
+	/**
+	 * @param stageNumber Stage1 is 1, as in PipelineSimulator
+	 * @return true if the stage could run on several workers, false if the analysis failed or the
+	 *         stage needs its own scratch objects that the user did not ask for
+	 */
+	public boolean isDataParallel(int stageNumber) {
+		if (fChecker == null || getEstimatedStageCosts() == null) {
+			return false;
+		}
+		if (!fPrivatize && needsPrivatization(stageNumber)) {
+			return false;
+		}
+		return fChecker.isDataParallel(stageNumber);
+	}
+
+	/**
+	 * Sets up a simulation of the stages as annotated, each with a single worker.
+	 * 
+	 * @param useMeasuredShares replace the estimated cost of the stages with their measured service
+	 *            times, or their share of the profiled samples if there is no stage profile, scaled
+	 *            to the same total. The generator keeps its estimated cost.
+	 * @return null if the analysis failed
+	 */
+	public PipelineSimulator makeSimulator(boolean useMeasuredShares) {
+		List<Long> costs= getEstimatedStageCosts();
+		if (costs == null) {
+			return null;
+		}
+		PipelineSimulator simulator= PipelineSimulator.makeSimulator(fChecker);
+		List<Double> measured= useMeasuredShares ? getMeasuredStageWeights() : null;
+		if (measured != null) {
+			double totalCost= 0;
+			double totalMeasured= 0;
+			for (int stageNumber= 0; stageNumber < costs.size(); stageNumber++) {
+				totalCost+= costs.get(stageNumber);
+				totalMeasured+= measured.get(stageNumber);
+			}
+			if (totalMeasured > 0) {
+				for (int stageNumber= 0; stageNumber < costs.size(); stageNumber++) {
+					simulator.setCost(stageNumber + 1, measured.get(stageNumber) * totalCost / totalMeasured);
+				}
+			}
+		}
+		return simulator;
+	}
+
+	/**
+	 * @return true if we have measurements that makeSimulator() can use instead of the estimates
+	 */
+	public boolean hasMeasuredStageCosts() {
+		return getMeasuredStageWeights() != null;
+	}
+
+	private List<Double> getMeasuredStageWeights() {
+		if (fStageProfile != null) {
+			List<Double> serviceTimes= new ArrayList<Double>();
+			for (int stageNumber= 1; stageNumber <= stages.size(); stageNumber++) {
+				serviceTimes.add(fStageProfile.getMeanServiceTime(stageNumber));
+			}
+			return serviceTimes;
+		}
+		return fMeasuredStageShares;
+	}
+
 	// LOCATING NODES
 	//////////////////
 
@@ -683,10 +1731,6 @@ public class ExtractClosureRefactoring extends Refactoring {
 	@Override
 	public RefactoringStatus checkFinalConditions(IProgressMonitor pm) throws CoreException {
 		RefactoringStatus result= new RefactoringStatus();
-
-		// Stick it here for now
-		fChecker.checkDataParallel();
-
 		return result;
 	}
 
@@ -711,6 +1755,18 @@ public class ExtractClosureRefactoring extends Refactoring {
 			createMethodBundle(result);
 			// 2. Create the channels
 			createChannels(result);
+			// 2b. Create the partial results of the reductions, if any
+			createReductions(result);
+			// 2c. Remember where the induction variables that the stages step start, if any
+			createInductionVariables(result);
+			// 2d. Create the copies of the scratch objects for the workers, if any
+			createPrivatizations(result);
+			// 2e. Replace the structures that the stages only add to by concurrent ones, if any
+			createConcurrentStructures(result);
+			// 2f. Seed the random number generators of the workers, if any
+			createRandomGenerators(result);
+			// 2g. Keep track of the speculative iterations, if any
+			createSpeculation(result);
 
 			// 3. Replace the original statements with DataflowMessagingRunnable closures
 			TextEditGroup replaceOriginalWithDataflowDesc= new TextEditGroup(JFlowRefactoringCoreMessages.ExtractClosureRefactoring_replace_statement_textedit_description);
@@ -768,6 +1824,120 @@ public class ExtractClosureRefactoring extends Refactoring {
 		}
 	}
 
+	private void createReductions(final CompilationUnitChange result) {
+		ReductionCreator rc= new ReductionCreator(this);
+		if (!rc.hasReductions()) {
+			return;
+		}
+		Statement forStatement= locateEnclosingLoopStatement();
+
+		TextEditGroup insertReductionDesc= new TextEditGroup(JFlowRefactoringCoreMessages.ExtractClosureRefactoring_reduction_textedit_description);
+		result.addTextEditGroup(insertReductionDesc);
+
+		ChildListPropertyDescriptor forStatementDescriptor= (ChildListPropertyDescriptor)forStatement.getLocationInParent();
+		ListRewrite forStatementListRewrite= fRewriter.getListRewrite(forStatement.getParent(), forStatementDescriptor);
+
+		for (Statement stmt : rc.createPartialStatements()) {
+			forStatementListRewrite.insertBefore(stmt, forStatement, insertReductionDesc);
+		}
+
+		// Each combine goes after the previous one so that they stay in order
+		ASTNode previous= forStatement;
+		for (Statement stmt : rc.createCombineStatements()) {
+			forStatementListRewrite.insertAfter(stmt, previous, insertReductionDesc);
+			previous= stmt;
+		}
+	}
+
+	private void createInductionVariables(final CompilationUnitChange result) {
+		if (!needsIterationNumber()) {
+			return;
+		}
+		Statement forStatement= locateEnclosingLoopStatement();
+
+		TextEditGroup insertInductionDesc= new TextEditGroup(JFlowRefactoringCoreMessages.ExtractClosureRefactoring_induction_textedit_description);
+		result.addTextEditGroup(insertInductionDesc);
+
+		ChildListPropertyDescriptor forStatementDescriptor= (ChildListPropertyDescriptor)forStatement.getLocationInParent();
+		ListRewrite forStatementListRewrite= fRewriter.getListRewrite(forStatement.getParent(), forStatementDescriptor);
+
+		InductionVariableCreator ivc= new InductionVariableCreator(this);
+		for (Statement stmt : ivc.createStartStatements()) {
+			forStatementListRewrite.insertBefore(stmt, forStatement, insertInductionDesc);
+		}
+	}
+
+	private void createPrivatizations(final CompilationUnitChange result) {
+		if (!isPrivatizing()) {
+			return;
+		}
+		Statement forStatement= locateEnclosingLoopStatement();
+
+		TextEditGroup insertPrivatizationDesc= new TextEditGroup(JFlowRefactoringCoreMessages.ExtractClosureRefactoring_privatization_textedit_description);
+		result.addTextEditGroup(insertPrivatizationDesc);
+
+		ChildListPropertyDescriptor forStatementDescriptor= (ChildListPropertyDescriptor)forStatement.getLocationInParent();
+		ListRewrite forStatementListRewrite= fRewriter.getListRewrite(forStatement.getParent(), forStatementDescriptor);
+
+		PrivatizationCreator pc= new PrivatizationCreator(this);
+		for (Statement stmt : pc.createPrivateStatements()) {
+			forStatementListRewrite.insertBefore(stmt, forStatement, insertPrivatizationDesc);
+		}
+	}
+
+	private void createConcurrentStructures(final CompilationUnitChange result) {
+		if (fSubstitutions.isEmpty()) {
+			return;
+		}
+		TextEditGroup substituteDesc= new TextEditGroup(JFlowRefactoringCoreMessages.ExtractClosureRefactoring_concurrent_textedit_description);
+		result.addTextEditGroup(substituteDesc);
+
+		ConcurrentStructureCreator csc= new ConcurrentStructureCreator(this);
+		for (ConcurrentSubstitution substitution : fSubstitutions) {
+			csc.substitute(substitution, substituteDesc);
+		}
+	}
+
+	private void createRandomGenerators(final CompilationUnitChange result) {
+		if (fRandoms.isEmpty()) {
+			return;
+		}
+		Statement forStatement= locateEnclosingLoopStatement();
+
+		TextEditGroup insertRandomDesc= new TextEditGroup(JFlowRefactoringCoreMessages.ExtractClosureRefactoring_random_textedit_description);
+		result.addTextEditGroup(insertRandomDesc);
+
+		ChildListPropertyDescriptor forStatementDescriptor= (ChildListPropertyDescriptor)forStatement.getLocationInParent();
+		ListRewrite forStatementListRewrite= fRewriter.getListRewrite(forStatement.getParent(), forStatementDescriptor);
+
+		RandomGeneratorCreator rgc= new RandomGeneratorCreator(this);
+		for (Statement stmt : rgc.createSeedStatements()) {
+			forStatementListRewrite.insertBefore(stmt, forStatement, insertRandomDesc);
+		}
+	}
+
+	private void createSpeculation(final CompilationUnitChange result) {
+		if (!isSpeculating()) {
+			return;
+		}
+		TextEditGroup insertSpeculationDesc= new TextEditGroup(JFlowRefactoringCoreMessages.ExtractClosureRefactoring_speculation_textedit_description);
+		result.addTextEditGroup(insertSpeculationDesc);
+
+		SpeculationCreator sc= new SpeculationCreator(this);
+
+		BodyDeclaration methodDecl= locateSelectedMethod();
+		ChildListPropertyDescriptor methodDeclDescriptor= (ChildListPropertyDescriptor)methodDecl.getLocationInParent();
+		ListRewrite methodDeclContainer= fRewriter.getListRewrite(methodDecl.getParent(), methodDeclDescriptor);
+		methodDeclContainer.insertBefore(sc.createSpeculationClass(), methodDecl, insertSpeculationDesc);
+
+		Statement forStatement= locateEnclosingLoopStatement();
+		ChildListPropertyDescriptor forStatementDescriptor= (ChildListPropertyDescriptor)forStatement.getLocationInParent();
+		ListRewrite forStatementListRewrite= fRewriter.getListRewrite(forStatement.getParent(), forStatementDescriptor);
+		for (Statement stmt : sc.createSpeculationStatements()) {
+			forStatementListRewrite.insertBefore(stmt, forStatement, insertSpeculationDesc);
+		}
+	}
+
 	private List<Statement> createChannelStatements() {
 		List<Statement> channelStatements= new ArrayList<Statement>();
 
@@ -0,0 +1,45 @@
+package edu.illinois.jflow.core.transformations.code;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.jdt.core.dom.AST;
+import org.eclipse.jdt.core.dom.Statement;
+import org.eclipse.jdt.internal.corext.dom.ASTNodeFactory;
+import org.eclipse.jdt.internal.corext.refactoring.ParameterInfo;
+
+import edu.illinois.jflow.jflow.wala.dataflowanalysis.InductionVariable;
+
+/**
+ * Remembers the value that each induction variable stepped by a stage (see InductionVariable)
+ * has before the loop, and declares the counter that numbers the iterations. The prologue
+ * puts the number of the iteration into the bundle and every stage computes the value of the
+ * induction variable from it. The prologue also steps the variable itself so that the loop
+ * header and the code after the loop see the same values as in the sequential loop.
+ * 
+ * @author nchen
+ * 
+ */
+@SuppressWarnings("restriction")
+final class InductionVariableCreator {
+	private final ExtractClosureRefactoring refactoring;
+
+	InductionVariableCreator(ExtractClosureRefactoring refactoring) {
+		this.refactoring= refactoring;
+	}
+
+	List<Statement> createStartStatements() {
+		List<Statement> statements= new ArrayList<Statement>();
+		AST ast= refactoring.getAST();
+		for (InductionVariable inductionVariable : refactoring.getSteppedInductionVariables()) {
+			String name= inductionVariable.getVariableName();
+			ParameterInfo pInfo= refactoring.findParameterInfo(name);
+			if (pInfo != null) {
+				String start= String.format("final %s %s%s = %s;", refactoring.resolveType(pInfo.getOldBinding()), name, ExtractClosureRefactoring.START_SUFFIX, name); //$NON-NLS-1$
+				statements.add((Statement)ASTNodeFactory.newStatement(ast, start));
+			}
+		}
+		statements.add((Statement)ASTNodeFactory.newStatement(ast, String.format("int %s = 0;", ExtractClosureRefactoring.BundleCreator.ITERATION_FIELD_NAME))); //$NON-NLS-1$
+		return statements;
+	}
+}
@@ -33,6 +33,18 @@ public class JFlowRefactoringCoreMessages extends NLS {
 
 	public static String ExtractClosureRefactoring_organize_imports;
 
+	public static String ExtractClosureRefactoring_reduction_textedit_description;
+
+	public static String ExtractClosureRefactoring_induction_textedit_description;
+
+	public static String ExtractClosureRefactoring_privatization_textedit_description;
+
+	public static String ExtractClosureRefactoring_concurrent_textedit_description;
+
+	public static String ExtractClosureRefactoring_random_textedit_description;
+
+	public static String ExtractClosureRefactoring_speculation_textedit_description;
+
 	public static String ExtractClosureRefactoring_replace_continue;
 
 	public static String ExtractClosureRefactoring_replace_occurrences;
@@ -99,6 +111,14 @@ public class JFlowRefactoringCoreMessages extends NLS {
 
 	public static String FlowAnalyzer_execution_flow;
 
+	public static String ProposeStagesRefactoring_already_annotated;
+
+	public static String ProposeStagesRefactoring_annotate_textedit_description;
+
+	public static String ProposeStagesRefactoring_name;
+
+	public static String ProposeStagesRefactoring_no_partition;
+
 	public static String StatementAnalyzer_doesNotCover;
 
 	static {
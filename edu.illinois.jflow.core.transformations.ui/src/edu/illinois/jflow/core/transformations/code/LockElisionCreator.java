@@ -0,0 +1,242 @@
+package edu.illinois.jflow.core.transformations.code;
+
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jdt.core.dom.AST;
+import org.eclipse.jdt.core.dom.ASTNode;
+import org.eclipse.jdt.core.dom.ASTVisitor;
+import org.eclipse.jdt.core.dom.Block;
+import org.eclipse.jdt.core.dom.ClassInstanceCreation;
+import org.eclipse.jdt.core.dom.ExpressionStatement;
+import org.eclipse.jdt.core.dom.ITypeBinding;
+import org.eclipse.jdt.core.dom.IVariableBinding;
+import org.eclipse.jdt.core.dom.MethodInvocation;
+import org.eclipse.jdt.core.dom.ParameterizedType;
+import org.eclipse.jdt.core.dom.SimpleName;
+import org.eclipse.jdt.core.dom.StructuralPropertyDescriptor;
+import org.eclipse.jdt.core.dom.SynchronizedStatement;
+import org.eclipse.jdt.core.dom.Type;
+import org.eclipse.jdt.core.dom.VariableDeclarationFragment;
+import org.eclipse.jdt.core.dom.VariableDeclarationStatement;
+
+import edu.illinois.jflow.jflow.wala.dataflowanalysis.ElidableLock;
+
+/**
+ * Removes the locks that a stage takes on objects that only one worker can reach at a time (see
+ * LockElisionAnalyzer). A synchronized block on such an object becomes a plain block, and a
+ * Vector, Hashtable or StringBuffer becomes an ArrayList, HashMap or StringBuilder. The variable
+ * keeps its declared type if the unsynchronized class has it too, e.g., List. Only a StringBuffer
+ * can be declared as such since StringBuilder has the same methods, as long as the stage only
+ * calls them and nothing else sees the variable.
+ * 
+ * @author nchen
+ * 
+ */
+final class LockElisionCreator {
+	private final ExtractClosureRefactoring refactoring;
+
+	LockElisionCreator(ExtractClosureRefactoring refactoring) {
+		this.refactoring= refactoring;
+	}
+
+	boolean canRemove(ElidableLock lock) {
+		ASTNode locked= findLockedNode(lock);
+		if (locked == null) {
+			return false;
+		}
+		if (lock.getKind() == ElidableLock.Kind.MONITOR) {
+			return !waitsOrNotifies(((SynchronizedStatement)locked).getBody());
+		}
+		if (lock.getKind() != ElidableLock.Kind.SYNCHRONIZED_CLASS) {
+			return true;
+		}
+		VariableDeclarationFragment fragment= (VariableDeclarationFragment)locked;
+		if (!(fragment.getParent() instanceof VariableDeclarationStatement)) {
+			return false;
+		}
+		ITypeBinding declaredType= ((VariableDeclarationStatement)fragment.getParent()).getType().resolveBinding();
+		if (declaredType == null) {
+			return false;
+		}
+		String declaredName= declaredType.getErasure().getQualifiedName();
+		if (declaredName.equals("java.util.Dictionary")) { //$NON-NLS-1$
+			return false; // The only supertype of Hashtable that HashMap does not have
+		}
+		if (!declaredName.equals(lock.getTypeName())) {
+			return true;
+		}
+		return declaredName.equals("java.lang.StringBuffer") && refactoring.findParameterInfo(lock.getVariableName()) == null //$NON-NLS-1$
+				&& isOnlyReceiver(fragment.resolveBinding(), refactoring.getStageAnalyzer(lock.getStageNumber()).getSelectedNodes());
+	}
+
+	/**
+	 * Removes the locks of the stage in the copy of a statement
+	 * 
+	 * @param copies the nodes of the copy for those of the original, see
+	 *            ExtractClosureRefactoring.copyWithOriginals()
+	 * @return the copy, or what replaces it if the statement itself is a synchronized block
+	 */
+	ASTNode removeLocks(ASTNode original, Map<ASTNode, ASTNode> copies, int stageNumber) {
+		ASTNode root= copies.get(original);
+		for (ElidableLock lock : refactoring.getElidedLocks()) {
+			if (lock.getStageNumber() != stageNumber) {
+				continue;
+			}
+			ASTNode copy= copies.get(findLockedNode(lock));
+			if (copy == null) {
+				continue; // In another statement of the stage
+			}
+			if (lock.getKind() == ElidableLock.Kind.MONITOR) {
+				SynchronizedStatement synchronizedStatement= (SynchronizedStatement)copy;
+				Block body= synchronizedStatement.getBody();
+				synchronizedStatement.setBody(refactoring.getAST().newBlock());
+				if (copy == root) {
+					root= body;
+				} else {
+					replaceInParent(copy, body);
+				}
+			} else {
+				VariableDeclarationFragment fragment= (VariableDeclarationFragment)copy;
+				String unsynchronized= refactoring.getImportRewriter().addImport(lock.getUnsynchronizedType());
+				ClassInstanceCreation creation= (ClassInstanceCreation)fragment.getInitializer();
+				creation.setType(replaceBaseType(creation.getType(), unsynchronized));
+				if (isDeclaredAs(lock)) {
+					VariableDeclarationStatement declaration= (VariableDeclarationStatement)fragment.getParent();
+					declaration.setType(replaceBaseType(declaration.getType(), unsynchronized));
+				}
+			}
+		}
+		return root;
+	}
+
+	/*
+	 * wait() and notify() need the monitor, see LockElisionAnalyzer, which also looks into the
+	 * methods that the block calls
+	 */
+	private boolean waitsOrNotifies(Block body) {
+		final boolean[] found= new boolean[] { false };
+		body.accept(new ASTVisitor() {
+			@Override
+			public boolean visit(MethodInvocation node) {
+				String name= node.getName().getIdentifier();
+				if (name.equals("wait") || name.equals("notify") || name.equals("notifyAll")) { //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+					found[0]= true;
+				}
+				return !found[0];
+			}
+		});
+		return found[0];
+	}
+
+	// A StringBuffer declared as such, see canRemove()
+	private boolean isDeclaredAs(ElidableLock lock) {
+		VariableDeclarationStatement declaration= (VariableDeclarationStatement)findLockedNode(lock).getParent();
+		ITypeBinding declaredType= declaration.getType().resolveBinding();
+		return declaredType != null && declaredType.getErasure().getQualifiedName().equals(lock.getTypeName());
+	}
+
+	// Vector<String> becomes ArrayList<String>, with a copy of the type arguments
+	@SuppressWarnings("unchecked")
+	private Type replaceBaseType(Type type, String replacement) {
+		AST ast= refactoring.getAST();
+		Type base= ast.newSimpleType(ast.newName(replacement));
+		if (!type.isParameterizedType()) {
+			return base;
+		}
+		ParameterizedType parameterized= ast.newParameterizedType(base);
+		for (Object argument : ((ParameterizedType)type).typeArguments()) {
+			parameterized.typeArguments().add(ASTNode.copySubtree(ast, (ASTNode)argument));
+		}
+		return parameterized;
+	}
+
+	@SuppressWarnings("unchecked")
+	private void replaceInParent(ASTNode node, ASTNode replacement) {
+		StructuralPropertyDescriptor location= node.getLocationInParent();
+		if (location.isChildListProperty()) {
+			List<ASTNode> siblings= (List<ASTNode>)node.getParent().getStructuralProperty(location);
+			siblings.set(siblings.indexOf(node), replacement);
+		} else {
+			node.getParent().setStructuralProperty(location, replacement);
+		}
+	}
+
+	/*
+	 * The synchronized block, or the declaration that creates the synchronized object, on the line
+	 * of the lock in the statements of its stage
+	 */
+	private ASTNode findLockedNode(final ElidableLock lock) {
+		if (lock.getVariableName() == null) {
+			return null;
+		}
+		final ASTNode[] found= new ASTNode[1];
+		ASTVisitor visitor= new ASTVisitor() {
+			@Override
+			public boolean visit(SynchronizedStatement node) {
+				if (lock.getKind() == ElidableLock.Kind.MONITOR && isOnLine(node) && node.getExpression() instanceof SimpleName
+						&& ((SimpleName)node.getExpression()).getIdentifier().equals(lock.getVariableName())) {
+					found[0]= node;
+				}
+				return found[0] == null;
+			}
+
+			@Override
+			public boolean visit(VariableDeclarationFragment node) {
+				if (lock.getKind() == ElidableLock.Kind.SYNCHRONIZED_CLASS && isOnLine(node) && node.getName().getIdentifier().equals(lock.getVariableName())
+						&& node.getInitializer() instanceof ClassInstanceCreation) {
+					ClassInstanceCreation creation= (ClassInstanceCreation)node.getInitializer();
+					ITypeBinding created= creation.resolveTypeBinding();
+					if (creation.getAnonymousClassDeclaration() == null && created != null && created.getErasure().getQualifiedName().equals(lock.getTypeName())) {
+						found[0]= node;
+					}
+				}
+				return found[0] == null;
+			}
+
+			private boolean isOnLine(ASTNode node) {
+				return refactoring.getRoot().getLineNumber(node.getStartPosition()) == lock.getLineNumber();
+			}
+		};
+		for (ASTNode node : refactoring.getStageAnalyzer(lock.getStageNumber()).getSelectedNodes()) {
+			node.accept(visitor);
+		}
+		return found[0];
+	}
+
+	/*
+	 * Every use of the StringBuffer calls one of its methods, and the result of a call is either
+	 * discarded, the receiver of the next call, or no longer a StringBuffer, e.g., toString()
+	 */
+	private boolean isOnlyReceiver(final IVariableBinding variable, ASTNode[] nodes) {
+		if (variable == null) {
+			return false;
+		}
+		final boolean[] onlyReceiver= new boolean[] { true };
+		for (ASTNode node : nodes) {
+			node.accept(new ASTVisitor() {
+				@Override
+				public boolean visit(SimpleName name) {
+					if (variable.isEqualTo(name.resolveBinding()) && !(name.getParent() instanceof VariableDeclarationFragment) && !isReceiverChain(name)) {
+						onlyReceiver[0]= false;
+					}
+					return false;
+				}
+			});
+		}
+		return onlyReceiver[0];
+	}
+
+	private boolean isReceiverChain(SimpleName name) {
+		ASTNode expression= name;
+		while (expression.getParent() instanceof MethodInvocation && ((MethodInvocation)expression.getParent()).getExpression() == expression) {
+			MethodInvocation invocation= (MethodInvocation)expression.getParent();
+			ITypeBinding result= invocation.resolveTypeBinding();
+			if (result == null || !result.getQualifiedName().equals("java.lang.StringBuffer")) { //$NON-NLS-1$
+				return true;
+			}
+			expression= invocation;
+		}
+		return expression != name && expression.getParent() instanceof ExpressionStatement;
+	}
+}
@@ -0,0 +1,47 @@
+package edu.illinois.jflow.core.transformations.code;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.jdt.core.dom.Statement;
+import org.eclipse.jdt.internal.corext.dom.ASTNodeFactory;
+import org.eclipse.jdt.internal.corext.dom.ASTNodes;
+import org.eclipse.jdt.internal.corext.refactoring.ParameterInfo;
+
+import edu.illinois.jflow.jflow.wala.dataflowanalysis.PrivatizationCandidate;
+
+/**
+ * Gives each worker of a stage its own copy of the scratch objects that the stage would otherwise
+ * share between its workers (see PrivatizationAnalyzer). Each copy is created by the initializer
+ * of the original declaration the first time that a worker needs it, and kept in a ThreadLocal
+ * since the closures of a stage run on the threads of the pool.
+ * 
+ * @author nchen
+ * 
+ */
+@SuppressWarnings("restriction")
+final class PrivatizationCreator {
+	static final String PRIVATE_TEMPLATE= "final ThreadLocal<%1$s> %2$s%3$s = new ThreadLocal<%1$s>() {\n" + //$NON-NLS-1$
+			"	@Override\n" + //$NON-NLS-1$
+			"	protected %1$s initialValue() {\n" + //$NON-NLS-1$
+			"		return %4$s;\n" + //$NON-NLS-1$
+			"	}\n" + //$NON-NLS-1$
+			"};"; //$NON-NLS-1$
+
+	private final ExtractClosureRefactoring refactoring;
+
+	PrivatizationCreator(ExtractClosureRefactoring refactoring) {
+		this.refactoring= refactoring;
+	}
+
+	List<Statement> createPrivateStatements() {
+		List<Statement> statements= new ArrayList<Statement>();
+		for (PrivatizationCandidate candidate : refactoring.getPrivatizations()) {
+			ParameterInfo pInfo= refactoring.findParameterInfo(candidate);
+			String initializer= ASTNodes.asString(refactoring.findPrivateInitializer(candidate));
+			String threadLocal= String.format(PRIVATE_TEMPLATE, refactoring.resolveType(pInfo.getOldBinding()), candidate.getVariableName(), ExtractClosureRefactoring.PRIVATE_SUFFIX, initializer);
+			statements.add((Statement)ASTNodeFactory.newStatement(refactoring.getAST(), threadLocal));
+		}
+		return statements;
+	}
+}
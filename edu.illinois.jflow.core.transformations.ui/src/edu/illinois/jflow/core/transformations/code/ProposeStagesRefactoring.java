@@ -0,0 +1,293 @@
+package edu.illinois.jflow.core.transformations.code;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.core.runtime.SubProgressMonitor;
+import org.eclipse.jdt.core.ICompilationUnit;
+import org.eclipse.jdt.core.dom.ASTNode;
+import org.eclipse.jdt.core.dom.Block;
+import org.eclipse.jdt.core.dom.CompilationUnit;
+import org.eclipse.jdt.core.dom.EnhancedForStatement;
+import org.eclipse.jdt.core.dom.ForStatement;
+import org.eclipse.jdt.core.dom.MethodDeclaration;
+import org.eclipse.jdt.core.dom.NodeFinder;
+import org.eclipse.jdt.core.dom.Statement;
+import org.eclipse.jdt.core.refactoring.CompilationUnitChange;
+import org.eclipse.jdt.internal.corext.dom.ASTNodes;
+import org.eclipse.jdt.internal.corext.refactoring.Checks;
+import org.eclipse.jdt.internal.corext.refactoring.util.RefactoringASTParser;
+import org.eclipse.jdt.internal.corext.refactoring.util.ResourceUtil;
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.TextUtilities;
+import org.eclipse.ltk.core.refactoring.Change;
+import org.eclipse.ltk.core.refactoring.Refactoring;
+import org.eclipse.ltk.core.refactoring.RefactoringStatus;
+import org.eclipse.ltk.core.refactoring.TextFileChange;
+import org.eclipse.osgi.util.NLS;
+import org.eclipse.text.edits.InsertEdit;
+import org.eclipse.text.edits.MultiTextEdit;
+import org.eclipse.text.edits.TextEditGroup;
+
+import com.ibm.wala.cast.java.ipa.callgraph.JavaSourceAnalysisScope;
+import com.ibm.wala.cast.java.translator.jdt.JDTIdentityMapper;
+import com.ibm.wala.ipa.callgraph.CGNode;
+import com.ibm.wala.ipa.callgraph.CallGraph;
+import com.ibm.wala.types.MethodReference;
+
+import edu.illinois.jflow.jflow.wala.dataflowanalysis.PipelinePartitioner;
+import edu.illinois.jflow.jflow.wala.dataflowanalysis.PipelinePartitioner.Partition;
+import edu.illinois.jflow.jflow.wala.dataflowanalysis.ProgramDependenceGraph;
+import edu.illinois.jflow.jflow.wala.dataflowanalysis.StatementCostModel;
+import edu.illinois.jflow.jflow.wala.dataflowanalysis.StatementHeapEffects;
+import edu.illinois.jflow.wala.modref.LibrarySpecifications;
+import edu.illinois.jflow.wala.utils.EclipseProjectAnalysisEngine;
+
+/**
+ * Proposes pipeline stages for the loop under the cursor and inserts the // Begin StageN and // End
+ * StageN comments that ExtractClosureRefactoring expects. The top-level statements of the loop
+ * body are never split between stages.
+ *
+ * @author nchen
+ *
+ */
+@SuppressWarnings("restriction")
+public class ProposeStagesRefactoring extends Refactoring {
+
+	public static final int DEFAULT_NUMBER_OF_STAGES= 3;
+
+	private static final String BEGIN_STAGE_TEMPLATE= "%s// Begin Stage%d%s"; //$NON-NLS-1$
+
+	private static final String END_STAGE_TEMPLATE= "%s// End Stage%d%s"; //$NON-NLS-1$
+
+	private ICompilationUnit fCUnit;
+
+	private IDocument fDoc;
+
+	private CompilationUnit fRoot;
+
+	private int fSelectionStart;
+
+	private int fSelectionLength;
+
+	private PipelinePartitioner fPartitioner;
+
+	private List<List<Integer>> fUnits;
+
+	private int fNumberOfStages= DEFAULT_NUMBER_OF_STAGES;
+
+	private Partition fProposal;
+
+	public ProposeStagesRefactoring(ICompilationUnit unit, IDocument doc, int selectionStart, int selectionLength) {
+		fCUnit= unit;
+		fDoc= doc;
+		fSelectionStart= selectionStart;
+		fSelectionLength= selectionLength;
+	}
+
+	@Override
+	public String getName() {
+		return JFlowRefactoringCoreMessages.ProposeStagesRefactoring_name;
+	}
+
+	@Override
+	public RefactoringStatus checkInitialConditions(IProgressMonitor pm) throws CoreException, OperationCanceledException {
+		RefactoringStatus result= new RefactoringStatus();
+		pm.beginTask("", 100); //$NON-NLS-1$
+
+		IFile[] changedFiles= ResourceUtil.getFiles(new ICompilationUnit[] { fCUnit });
+		result.merge(Checks.validateModifiesFiles(changedFiles, getValidationContext()));
+		if (result.hasFatalError())
+			return result;
+
+		fRoot= RefactoringASTParser.parseWithASTProvider(fCUnit, true, new SubProgressMonitor(pm, 10));
+
+		Statement loop= locateEnclosingLoopStatement();
+		if (loop == null) {
+			result.addFatalError(JFlowRefactoringCoreMessages.InvertLoopAnalyzer_not_on_loop);
+			return result;
+		}
+
+		MethodDeclaration methodDeclaration= (MethodDeclaration)ASTNodes.getParent(loop, MethodDeclaration.class);
+		if (!new AnnotatedStagesFinder(fRoot, fDoc, methodDeclaration).locateStages().isEmpty()) {
+			result.addFatalError(JFlowRefactoringCoreMessages.ProposeStagesRefactoring_already_annotated);
+			return result;
+		}
+
+		try {
+			fUnits= computeUnits(fRoot, loop);
+			initializePartitioner(methodDeclaration, getHeaderLines(loop), new SubProgressMonitor(pm, 90));
+		} catch (Exception e) {
+			e.printStackTrace();
+			result.addFatalError(e.toString());
+			return result;
+		}
+
+		if (fPartitioner.containsLoopCarriedDependency()) {
+			result.addFatalError("There is a loop carried dependency and we cannot parallelize this loop.");
+		}
+		return result;
+	}
+
+	private void initializePartitioner(MethodDeclaration methodDeclaration, List<Integer> headerLines, IProgressMonitor pm) throws Exception {
+		EclipseProjectAnalysisEngine engine= new EclipseProjectAnalysisEngine(fCUnit.getJavaProject());
+		CallGraph callGraph= engine.buildDefaultCallGraph();
+
+		JDTIdentityMapper mapper= new JDTIdentityMapper(JavaSourceAnalysisScope.SOURCE, fRoot.getAST());
+		MethodReference methodRef= mapper.getMethodRef(methodDeclaration.resolveBinding());
+		Set<CGNode> nodes= callGraph.getNodes(methodRef);
+		if (nodes.size() != 1) {
+			throw new IllegalStateException("Expected a single corresponding CGNode, but got " + nodes.size());
+		}
+		CGNode node= nodes.iterator().next();
+
+		ProgramDependenceGraph pdg= ProgramDependenceGraph.makeWithSourceCode(node.getIR(), engine.getClassHierarchy(), fDoc);
+		StatementCostModel costModel= StatementCostModel.makeInterproceduralModel(pdg, callGraph, node);
+		fPartitioner= PipelinePartitioner.makePartitioner(pdg, headerLines, fUnits, costModel);
+		fPartitioner.setHeapEffects(StatementHeapEffects.make(pdg, callGraph, engine.getPointerAnalysis(), LibrarySpecifications.load(fCUnit.getJavaProject().getProject())));
+		pm.done();
+	}
+
+	@Override
+	public RefactoringStatus checkFinalConditions(IProgressMonitor pm) throws CoreException, OperationCanceledException {
+		RefactoringStatus result= new RefactoringStatus();
+		List<Partition> proposals= fPartitioner.partition(fNumberOfStages, 1);
+		if (proposals.isEmpty()) {
+			result.addFatalError(NLS.bind(JFlowRefactoringCoreMessages.ProposeStagesRefactoring_no_partition, Integer.valueOf(fNumberOfStages)));
+			return result;
+		}
+
+		fProposal= proposals.get(0);
+		for (int stage= 0; stage < fProposal.getNumberOfStages(); stage++) {
+			List<Integer> lines= fProposal.getStageLines().get(stage);
+			result.addInfo(String.format("Stage%d: lines %d-%d, estimated cost %d", stage + 1, Collections.min(lines), Collections.max(lines), fProposal.getStageCosts().get(stage)));
+		}
+		return result;
+	}
+
+	@Override
+	public Change createChange(IProgressMonitor pm) throws CoreException, OperationCanceledException {
+		pm.beginTask("", 1); //$NON-NLS-1$
+		try {
+			CompilationUnitChange result= new CompilationUnitChange(JFlowRefactoringCoreMessages.ProposeStagesRefactoring_name, fCUnit);
+			result.setSaveMode(TextFileChange.KEEP_SAVE_STATE);
+			MultiTextEdit root= new MultiTextEdit();
+			result.setEdit(root);
+
+			TextEditGroup annotateDesc= new TextEditGroup(JFlowRefactoringCoreMessages.ProposeStagesRefactoring_annotate_textedit_description);
+			result.addTextEditGroup(annotateDesc);
+
+			Partition partition= fProposal;
+			String delimiter= TextUtilities.getDefaultLineDelimiter(fDoc);
+			for (int stage= 0; stage < partition.getNumberOfStages(); stage++) {
+				List<Integer> lines= partition.getStageLines().get(stage);
+				int firstLine= Collections.min(lines) - 1; // IDocument counts from 0
+				int lastLine= Collections.max(lines) - 1;
+				String indentation= getIndentation(firstLine);
+
+				InsertEdit begin= new InsertEdit(fDoc.getLineOffset(firstLine), String.format(BEGIN_STAGE_TEMPLATE, indentation, stage + 1, delimiter));
+				InsertEdit end= new InsertEdit(fDoc.getLineOffset(lastLine) + fDoc.getLineLength(lastLine), String.format(END_STAGE_TEMPLATE, indentation, stage + 1, delimiter));
+				root.addChild(begin);
+				root.addChild(end);
+				annotateDesc.addTextEdit(begin);
+				annotateDesc.addTextEdit(end);
+			}
+			return result;
+		} catch (BadLocationException e) {
+			e.printStackTrace();
+			return null;
+		} finally {
+			pm.done();
+		}
+	}
+
+	// For the wizard
+	/////////////////
+
+	public int getNumberOfStages() {
+		return fNumberOfStages;
+	}
+
+	public void setNumberOfStages(int numberOfStages) {
+		fNumberOfStages= numberOfStages;
+	}
+
+	/**
+	 * @return the most stages we can propose, one per top-level statement of the loop body
+	 */
+	public int getMaximumNumberOfStages() {
+		return fUnits.size();
+	}
+
+	/**
+	 * @return the best partition, only available after checkFinalConditions()
+	 */
+	public Partition getProposal() {
+		return fProposal;
+	}
+
+	// LOCATING NODES
+	//////////////////
+
+	private Statement locateEnclosingLoopStatement() {
+		NodeFinder nodeFinder= new NodeFinder(fRoot, fSelectionStart, fSelectionLength);
+		ASTNode node= nodeFinder.getCoveringNode();
+		while (node != null && !(node instanceof EnhancedForStatement || node instanceof ForStatement)) {
+			node= node.getParent();
+		}
+		return (Statement)node;
+	}
+
+	private static Statement getBody(Statement loop) {
+		return loop instanceof ForStatement ? ((ForStatement)loop).getBody() : ((EnhancedForStatement)loop).getBody();
+	}
+
+	/*
+	 * Same as ExtractClosureRefactoring: from the start of the loop up to the line where the body starts
+	 */
+	private List<Integer> getHeaderLines(Statement loop) {
+		List<Integer> lines= new ArrayList<Integer>();
+		int start= fRoot.getLineNumber(loop.getStartPosition());
+		int end= fRoot.getLineNumber(getBody(loop).getStartPosition());
+		for (int line= start; line <= end; line++) {
+			lines.add(line);
+		}
+		return lines;
+	}
+
+	/*
+	 * The top-level statements of the loop body, which we never split between stages
+	 */
+	static List<List<Integer>> computeUnits(CompilationUnit root, Statement loop) {
+		List<List<Integer>> units= new ArrayList<List<Integer>>();
+		Statement body= getBody(loop);
+		List<?> statements= body instanceof Block ? ((Block)body).statements() : Collections.singletonList(body);
+		for (Object statement : statements) {
+			ASTNode node= (ASTNode)statement;
+			List<Integer> lines= new ArrayList<Integer>();
+			int start= root.getLineNumber(node.getStartPosition());
+			int end= root.getLineNumber(node.getStartPosition() + node.getLength() - 1);
+			for (int line= start; line <= end; line++) {
+				lines.add(line);
+			}
+			units.add(lines);
+		}
+		return units;
+	}
+
+	private String getIndentation(int line) throws BadLocationException {
+		int offset= fDoc.getLineOffset(line);
+		int end= offset;
+		while (end < offset + fDoc.getLineLength(line) && Character.isWhitespace(fDoc.getChar(end)) && fDoc.getChar(end) != '\n' && fDoc.getChar(end) != '\r') {
+			end++;
+		}
+		return fDoc.get(offset, end - offset);
+	}
+}
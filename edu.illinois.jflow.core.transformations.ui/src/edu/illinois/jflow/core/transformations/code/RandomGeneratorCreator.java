@@ -0,0 +1,106 @@
+package edu.illinois.jflow.core.transformations.code;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jdt.core.dom.AST;
+import org.eclipse.jdt.core.dom.ASTNode;
+import org.eclipse.jdt.core.dom.IMethodBinding;
+import org.eclipse.jdt.core.dom.MethodInvocation;
+import org.eclipse.jdt.core.dom.Statement;
+import org.eclipse.jdt.internal.corext.dom.ASTNodeFactory;
+
+import edu.illinois.jflow.jflow.wala.dataflowanalysis.SharedRandom;
+import edu.illinois.jflow.jflow.wala.dataflowanalysis.SharedRandom.Source;
+
+/**
+ * Gives the workers their own random number generators instead of the ones that the stages share
+ * (see RandomGeneratorAnalyzer). Each worker seeds its generator the first time that it needs it
+ * from a sequence of seeds that the original generator starts, and keeps it in a ThreadLocal. With
+ * deterministic seeding, the stages instead create a generator for every iteration from a seed
+ * drawn before the loop and the number of the iteration, so the numbers do not depend on which
+ * worker runs the iteration or on how many workers there are. Math.random() in the stages becomes
+ * nextDouble() of such a generator.
+ * 
+ * @author nchen
+ * 
+ */
+@SuppressWarnings("restriction")
+final class RandomGeneratorCreator {
+	static final String MATH_RANDOM_VARIABLE_NAME= "jflowRandom"; //$NON-NLS-1$
+
+	static final String RANDOM_TYPE= "java.util.Random"; //$NON-NLS-1$
+
+	static final String PER_WORKER_TEMPLATE= "final ThreadLocal<%1$s> %2$s%3$s = new ThreadLocal<%1$s>() {\n" + //$NON-NLS-1$
+			"	@Override\n" + //$NON-NLS-1$
+			"	protected %1$s initialValue() {\n" + //$NON-NLS-1$
+			"		return new %1$s(%2$s%4$s.nextLong());\n" + //$NON-NLS-1$
+			"	}\n" + //$NON-NLS-1$
+			"};"; //$NON-NLS-1$
+
+	// java.util.Random hardly scrambles its seed, so the golden ratio spreads the seeds of consecutive iterations apart
+	static final String PER_ITERATION_TEMPLATE= "%1$s %2$s = new %1$s(%2$s%3$s ^ (b.%4$s * 0x9E3779B97F4A7C15L + %5$d));%n"; //$NON-NLS-1$
+
+	private final ExtractClosureRefactoring refactoring;
+
+	RandomGeneratorCreator(ExtractClosureRefactoring refactoring) {
+		this.refactoring= refactoring;
+	}
+
+	List<Statement> createSeedStatements() {
+		List<Statement> statements= new ArrayList<Statement>();
+		AST ast= refactoring.getAST();
+		String random= refactoring.getImportRewriter().addImport(RANDOM_TYPE);
+		for (SharedRandom sharedRandom : refactoring.getRandoms()) {
+			String name= getVariableName(sharedRandom);
+			// Math.random() starts from an unpredictable seed, so the copies do too
+			String seed= sharedRandom.getSource() == Source.MATH_RANDOM ? "System.nanoTime()" : name + ".nextLong()"; //$NON-NLS-1$ //$NON-NLS-2$
+			if (refactoring.getDeterministicRandoms()) {
+				statements.add((Statement)ASTNodeFactory.newStatement(ast, String.format("final long %s%s = %s;", name, ExtractClosureRefactoring.SEED_SUFFIX, seed))); //$NON-NLS-1$
+			} else {
+				statements.add((Statement)ASTNodeFactory.newStatement(ast, String.format("final %s %s%s = new %s(%s);", random, name, ExtractClosureRefactoring.SEEDS_SUFFIX, random, seed))); //$NON-NLS-1$
+				statements.add((Statement)ASTNodeFactory.newStatement(ast, String.format(PER_WORKER_TEMPLATE, random, name, ExtractClosureRefactoring.PRIVATE_SUFFIX, ExtractClosureRefactoring.SEEDS_SUFFIX)));
+			}
+		}
+		return statements;
+	}
+
+	/**
+	 * @param stageNumber Stage1 is 1
+	 * @return the declaration of the generator that the stage draws from in place of the shared one
+	 */
+	String createGeneratorStatement(String name, int stageNumber) {
+		String random= refactoring.getImportRewriter().addImport(RANDOM_TYPE);
+		if (refactoring.getDeterministicRandoms()) {
+			return String.format(PER_ITERATION_TEMPLATE, random, name, ExtractClosureRefactoring.SEED_SUFFIX, ExtractClosureRefactoring.BundleCreator.ITERATION_FIELD_NAME, stageNumber);
+		}
+		return String.format("%s %s = %s%s.get();%n", random, name, name, ExtractClosureRefactoring.PRIVATE_SUFFIX); //$NON-NLS-1$
+	}
+
+	/**
+	 * Makes Math.random() in the copy of a statement draw from the generator of the stage instead
+	 * 
+	 * @param copies the nodes of the copy for those of the original, see
+	 *            ExtractClosureRefactoring.copyWithOriginals()
+	 */
+	void replaceMathRandom(Map<ASTNode, ASTNode> copies) {
+		AST ast= refactoring.getAST();
+		for (Map.Entry<ASTNode, ASTNode> entry : copies.entrySet()) {
+			if (entry.getKey() instanceof MethodInvocation && isMathRandom((MethodInvocation)entry.getKey())) {
+				MethodInvocation invocation= (MethodInvocation)entry.getValue();
+				invocation.setExpression(ast.newSimpleName(MATH_RANDOM_VARIABLE_NAME));
+				invocation.setName(ast.newSimpleName("nextDouble")); //$NON-NLS-1$
+			}
+		}
+	}
+
+	private boolean isMathRandom(MethodInvocation invocation) {
+		IMethodBinding binding= invocation.resolveMethodBinding();
+		return binding != null && binding.getName().equals("random") && binding.getDeclaringClass().getQualifiedName().equals("java.lang.Math"); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	private String getVariableName(SharedRandom sharedRandom) {
+		return sharedRandom.getSource() == Source.MATH_RANDOM ? MATH_RANDOM_VARIABLE_NAME : sharedRandom.getVariableName();
+	}
+}
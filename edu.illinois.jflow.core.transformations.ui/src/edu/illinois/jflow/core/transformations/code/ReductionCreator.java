@@ -0,0 +1,141 @@
+package edu.illinois.jflow.core.transformations.code;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jdt.core.dom.AST;
+import org.eclipse.jdt.core.dom.ITypeBinding;
+import org.eclipse.jdt.core.dom.Modifier;
+import org.eclipse.jdt.core.dom.Statement;
+import org.eclipse.jdt.core.dom.rewrite.ImportRewrite;
+import org.eclipse.jdt.internal.corext.dom.ASTNodeFactory;
+import org.eclipse.jdt.internal.corext.refactoring.ParameterInfo;
+
+import edu.illinois.jflow.jflow.wala.dataflowanalysis.PDGPartitionerChecker;
+import edu.illinois.jflow.jflow.wala.dataflowanalysis.Reduction;
+
+/**
+ * Creates a partial result for each worker of a stage that accumulates into a variable (see
+ * Reduction) and combines the partial results with the variable after the loop. The partial
+ * results are kept in a ThreadLocal since the closures of a stage run on the threads of the
+ * pool, and every partial result is also registered in a list for the combine.
+ * 
+ * @author nchen
+ * 
+ */
+@SuppressWarnings("restriction")
+final class ReductionCreator {
+	static final String PARTIAL_TEMPLATE= "final ThreadLocal<%1$s> %2$s%3$s = new ThreadLocal<%1$s>() {\n" + //$NON-NLS-1$
+			"	@Override\n" + //$NON-NLS-1$
+			"	protected %1$s initialValue() {\n" + //$NON-NLS-1$
+			"		%1$s partial = %4$s;\n" + //$NON-NLS-1$
+			"		%2$s%3$ss.add(partial);\n" + //$NON-NLS-1$
+			"		return partial;\n" + //$NON-NLS-1$
+			"	}\n" + //$NON-NLS-1$
+			"};"; //$NON-NLS-1$
+
+	static final String COMBINE_TEMPLATE= "for (%s partial : %s%ss) {\n" + //$NON-NLS-1$
+			"	%s\n" + //$NON-NLS-1$
+			"}"; //$NON-NLS-1$
+
+	private final ExtractClosureRefactoring refactoring;
+
+	// Picked for the partial results when the variable is declared with an interface
+	private final Map<String, String> implementations= new HashMap<String, String>();
+
+	private final List<Reduction> reductions= new ArrayList<Reduction>();
+
+	private final List<ParameterInfo> variables= new ArrayList<ParameterInfo>();
+
+	ReductionCreator(ExtractClosureRefactoring refactoring) {
+		this.refactoring= refactoring;
+		implementations.put("java.util.Collection", "java.util.ArrayList"); //$NON-NLS-1$ //$NON-NLS-2$
+		implementations.put("java.util.Set", "java.util.HashSet"); //$NON-NLS-1$ //$NON-NLS-2$
+		implementations.put("java.util.SortedSet", "java.util.TreeSet"); //$NON-NLS-1$ //$NON-NLS-2$
+		implementations.put("java.util.NavigableSet", "java.util.TreeSet"); //$NON-NLS-1$ //$NON-NLS-2$
+		implementations.put("java.util.List", "java.util.ArrayList"); //$NON-NLS-1$ //$NON-NLS-2$
+		implementations.put("java.util.Map", "java.util.HashMap"); //$NON-NLS-1$ //$NON-NLS-2$
+		implementations.put("java.util.SortedMap", "java.util.TreeMap"); //$NON-NLS-1$ //$NON-NLS-2$
+		implementations.put("java.util.NavigableMap", "java.util.TreeMap"); //$NON-NLS-1$ //$NON-NLS-2$
+
+		PDGPartitionerChecker checker= refactoring.getChecker();
+		if (checker == null) {
+			return;
+		}
+		for (Reduction reduction : checker.getReductions()) {
+			for (ParameterInfo pInfo : refactoring.getParameterInfo(reduction.getStageNumber())) {
+				if (pInfo.getOldName().equals(reduction.getVariableName())) {
+					reductions.add(reduction);
+					variables.add(pInfo);
+				}
+			}
+		}
+	}
+
+	boolean hasReductions() {
+		return !reductions.isEmpty();
+	}
+
+	List<Statement> createPartialStatements() {
+		List<Statement> statements= new ArrayList<Statement>();
+		AST ast= refactoring.getAST();
+		ImportRewrite importRewriter= refactoring.getImportRewriter();
+		String list= importRewriter.addImport("java.util.List"); //$NON-NLS-1$
+		String arrayList= importRewriter.addImport("java.util.ArrayList"); //$NON-NLS-1$
+		String collections= importRewriter.addImport("java.util.Collections"); //$NON-NLS-1$
+
+		for (int index= 0; index < reductions.size(); index++) {
+			Reduction reduction= reductions.get(index);
+			String name= reduction.getVariableName();
+			String type= getPartialType(reduction, variables.get(index));
+
+			String registry= String.format("final %1$s<%2$s> %3$s%4$ss = %5$s.synchronizedList(new %6$s<%2$s>());", list, type, name, ExtractClosureRefactoring.PARTIAL_SUFFIX, collections, arrayList); //$NON-NLS-1$
+			statements.add((Statement)ASTNodeFactory.newStatement(ast, registry));
+
+			String partial= String.format(PARTIAL_TEMPLATE, type, name, ExtractClosureRefactoring.PARTIAL_SUFFIX, createIdentity(reduction, variables.get(index)));
+			statements.add((Statement)ASTNodeFactory.newStatement(ast, partial));
+		}
+		return statements;
+	}
+
+	List<Statement> createCombineStatements() {
+		List<Statement> statements= new ArrayList<Statement>();
+		AST ast= refactoring.getAST();
+		for (int index= 0; index < reductions.size(); index++) {
+			Reduction reduction= reductions.get(index);
+			String combine= reduction.getCombineStatement(reduction.isCollection() ? "partial" : "partial[0]"); //$NON-NLS-1$ //$NON-NLS-2$
+			String loop= String.format(COMBINE_TEMPLATE, getPartialType(reduction, variables.get(index)), reduction.getVariableName(), ExtractClosureRefactoring.PARTIAL_SUFFIX, combine);
+			statements.add((Statement)ASTNodeFactory.newStatement(ast, loop));
+		}
+		return statements;
+	}
+
+	// A scalar is kept in an array of one element so that the stage can update it
+	private String getPartialType(Reduction reduction, ParameterInfo pInfo) {
+		String type= refactoring.resolveType(pInfo.getOldBinding());
+		return reduction.isCollection() ? type : type + "[]"; //$NON-NLS-1$
+	}
+
+	private String createIdentity(Reduction reduction, ParameterInfo pInfo) {
+		if (!reduction.isCollection()) {
+			return String.format("new %s[] { %s }", refactoring.resolveType(pInfo.getOldBinding()), reduction.getIdentity()); //$NON-NLS-1$
+		}
+		ITypeBinding type= pInfo.getOldBinding().getType();
+		ITypeBinding erasure= type.getErasure();
+		String implementation= erasure.getQualifiedName();
+		if (erasure.isInterface() || Modifier.isAbstract(erasure.getModifiers())) {
+			implementation= implementations.get(erasure.getQualifiedName());
+			if (implementation == null) {
+				implementation= reduction.getOperator() == Reduction.Operator.MAP ? "java.util.HashMap" : reduction.getOperator() == Reduction.Operator.SET ? "java.util.HashSet" : "java.util.ArrayList"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			}
+		}
+		String typeArguments= ""; //$NON-NLS-1$
+		String typeName= refactoring.resolveType(pInfo.getOldBinding());
+		if (typeName.indexOf('<') >= 0) {
+			typeArguments= typeName.substring(typeName.indexOf('<'));
+		}
+		return String.format("new %s%s()", refactoring.getImportRewriter().addImport(implementation), typeArguments); //$NON-NLS-1$
+	}
+}
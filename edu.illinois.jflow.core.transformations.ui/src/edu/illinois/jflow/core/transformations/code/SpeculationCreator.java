@@ -0,0 +1,343 @@
+package edu.illinois.jflow.core.transformations.code;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.jdt.core.dom.AST;
+import org.eclipse.jdt.core.dom.ASTNode;
+import org.eclipse.jdt.core.dom.ASTVisitor;
+import org.eclipse.jdt.core.dom.AnonymousClassDeclaration;
+import org.eclipse.jdt.core.dom.Block;
+import org.eclipse.jdt.core.dom.BreakStatement;
+import org.eclipse.jdt.core.dom.ContinueStatement;
+import org.eclipse.jdt.core.dom.DoStatement;
+import org.eclipse.jdt.core.dom.EnhancedForStatement;
+import org.eclipse.jdt.core.dom.ForStatement;
+import org.eclipse.jdt.core.dom.ReturnStatement;
+import org.eclipse.jdt.core.dom.Statement;
+import org.eclipse.jdt.core.dom.StructuralPropertyDescriptor;
+import org.eclipse.jdt.core.dom.SwitchStatement;
+import org.eclipse.jdt.core.dom.TypeDeclarationStatement;
+import org.eclipse.jdt.core.dom.WhileStatement;
+import org.eclipse.jdt.internal.corext.dom.ASTNodeFactory;
+
+import edu.illinois.jflow.jflow.wala.dataflowanalysis.SpeculativeStage;
+
+/**
+ * Runs the iterations of a stage that only its own writes keep from running on several workers
+ * speculatively (see SpeculationAnalyzer). The generated code has nothing but GPars to rely on,
+ * so a small nested class keeps track of the speculation instead of a runtime library:
+ * <ul>
+ * <li>A speculative iteration runs under a read lock and remembers how many iterations have
+ * written the conflicting locations so far, which is all that is logged of the accesses.</li>
+ * <li>Before each statement that writes them, it gives up and runs again in order, i.e., once
+ * all the iterations before it have committed, under the write lock.</li>
+ * <li>Otherwise it waits for its turn to commit, and runs again in order if an iteration before
+ * it wrote the locations in the meantime.</li>
+ * </ul>
+ * The iterations commit, i.e., send their bundle to the next stage, in the order of the loop. An
+ * iteration that the previous stages never send would hold up the ones after it.
+ *
+ * @author nchen
+ *
+ */
+@SuppressWarnings("restriction")
+final class SpeculationCreator {
+	static final String SPECULATION_CLASS_NAME= "JFlowSpeculation"; //$NON-NLS-1$
+
+	static final String SPECULATION_VARIABLE_NAME= "jflowSpeculation"; //$NON-NLS-1$
+
+	static final String ATTEMPT_VARIABLE_NAME= "jflowAttempt"; //$NON-NLS-1$
+
+	static final String SPECULATION_CLASS_TEMPLATE= "static final class " + SPECULATION_CLASS_NAME + " {\n" + //$NON-NLS-1$ //$NON-NLS-2$
+			"	static final class Conflict extends RuntimeException {\n" + //$NON-NLS-1$
+			"	}\n" + //$NON-NLS-1$
+			"\n" + //$NON-NLS-1$
+			"	final class Attempt {\n" + //$NON-NLS-1$
+			"		private final int iteration;\n" + //$NON-NLS-1$
+			"		private final boolean speculative;\n" + //$NON-NLS-1$
+			"		private final long writesSeen;\n" + //$NON-NLS-1$
+			"		private boolean validated;\n" + //$NON-NLS-1$
+			"\n" + //$NON-NLS-1$
+			"		Attempt(int iteration, boolean speculative) {\n" + //$NON-NLS-1$
+			"			this.iteration = iteration;\n" + //$NON-NLS-1$
+			"			this.speculative = speculative;\n" + //$NON-NLS-1$
+			"			if (speculative) {\n" + //$NON-NLS-1$
+			"				lock.readLock().lock();\n" + //$NON-NLS-1$
+			"				writesSeen = writes.get();\n" + //$NON-NLS-1$
+			"			} else {\n" + //$NON-NLS-1$
+			"				awaitTurn(iteration);\n" + //$NON-NLS-1$
+			"				lock.writeLock().lock();\n" + //$NON-NLS-1$
+			"				writesSeen = -1;\n" + //$NON-NLS-1$
+			"			}\n" + //$NON-NLS-1$
+			"		}\n" + //$NON-NLS-1$
+			"\n" + //$NON-NLS-1$
+			"		boolean isSpeculative() {\n" + //$NON-NLS-1$
+			"			return speculative;\n" + //$NON-NLS-1$
+			"		}\n" + //$NON-NLS-1$
+			"\n" + //$NON-NLS-1$
+			"		void beforeWrite() {\n" + //$NON-NLS-1$
+			"			if (speculative) {\n" + //$NON-NLS-1$
+			"				throw new Conflict();\n" + //$NON-NLS-1$
+			"			}\n" + //$NON-NLS-1$
+			"		}\n" + //$NON-NLS-1$
+			"\n" + //$NON-NLS-1$
+			"		void validate() {\n" + //$NON-NLS-1$
+			"			if (speculative) {\n" + //$NON-NLS-1$
+			"				lock.readLock().unlock();\n" + //$NON-NLS-1$
+			"				validated = true;\n" + //$NON-NLS-1$
+			"				awaitTurn(iteration);\n" + //$NON-NLS-1$
+			"				if (writes.get() != writesSeen) {\n" + //$NON-NLS-1$
+			"					throw new Conflict();\n" + //$NON-NLS-1$
+			"				}\n" + //$NON-NLS-1$
+			"			}\n" + //$NON-NLS-1$
+			"		}\n" + //$NON-NLS-1$
+			"\n" + //$NON-NLS-1$
+			"		Attempt retryInOrder() {\n" + //$NON-NLS-1$
+			"			if (!validated) {\n" + //$NON-NLS-1$
+			"				lock.readLock().unlock();\n" + //$NON-NLS-1$
+			"			}\n" + //$NON-NLS-1$
+			"			return new Attempt(iteration, false);\n" + //$NON-NLS-1$
+			"		}\n" + //$NON-NLS-1$
+			"\n" + //$NON-NLS-1$
+			"		void commit() {\n" + //$NON-NLS-1$
+			"			if (!speculative) {\n" + //$NON-NLS-1$
+			"				writes.incrementAndGet();\n" + //$NON-NLS-1$
+			"				lock.writeLock().unlock();\n" + //$NON-NLS-1$
+			"			} else if (!validated) {\n" + //$NON-NLS-1$
+			"				lock.readLock().unlock();\n" + //$NON-NLS-1$
+			"				awaitTurn(iteration);\n" + //$NON-NLS-1$
+			"			}\n" + //$NON-NLS-1$
+			"			synchronized (" + SPECULATION_CLASS_NAME + ".this) {\n" + //$NON-NLS-1$ //$NON-NLS-2$
+			"				committed++;\n" + //$NON-NLS-1$
+			"				" + SPECULATION_CLASS_NAME + ".this.notifyAll();\n" + //$NON-NLS-1$ //$NON-NLS-2$
+			"			}\n" + //$NON-NLS-1$
+			"		}\n" + //$NON-NLS-1$
+			"	}\n" + //$NON-NLS-1$
+			"\n" + //$NON-NLS-1$
+			"	private final %1$s lock = new %1$s();\n" + //$NON-NLS-1$
+			"	private final %2$s writes = new %2$s();\n" + //$NON-NLS-1$
+			"	private int committed = 0;\n" + //$NON-NLS-1$
+			"\n" + //$NON-NLS-1$
+			"	Attempt speculate(int iteration) {\n" + //$NON-NLS-1$
+			"		return new Attempt(iteration, true);\n" + //$NON-NLS-1$
+			"	}\n" + //$NON-NLS-1$
+			"\n" + //$NON-NLS-1$
+			"	private synchronized void awaitTurn(int iteration) {\n" + //$NON-NLS-1$
+			"		while (committed != iteration) {\n" + //$NON-NLS-1$
+			"			try {\n" + //$NON-NLS-1$
+			"				wait();\n" + //$NON-NLS-1$
+			"			} catch (InterruptedException e) {\n" + //$NON-NLS-1$
+			"				Thread.currentThread().interrupt();\n" + //$NON-NLS-1$
+			"				return;\n" + //$NON-NLS-1$
+			"			}\n" + //$NON-NLS-1$
+			"		}\n" + //$NON-NLS-1$
+			"	}\n" + //$NON-NLS-1$
+			"}"; //$NON-NLS-1$
+
+	// An exception in a speculative iteration may come from what an earlier iteration had not written yet, so it runs again in order
+	static final String SPECULATIVE_STAGE_TEMPLATE= "%1$s.Attempt %2$s = %3$s%4$d.speculate(b.%5$s);%n" + //$NON-NLS-1$
+			"try {%n" + //$NON-NLS-1$
+			"	while (true) {%n" + //$NON-NLS-1$
+			"		try {%n" + //$NON-NLS-1$
+			"			%6$s%n" + //$NON-NLS-1$
+			"			break;%n" + //$NON-NLS-1$
+			"		} catch (Exception jflowException) {%n" + //$NON-NLS-1$
+			"			if (!%2$s.isSpeculative()) {%n" + //$NON-NLS-1$
+			"				throw jflowException;%n" + //$NON-NLS-1$
+			"			}%n" + //$NON-NLS-1$
+			"			%2$s = %2$s.retryInOrder();%n" + //$NON-NLS-1$
+			"		}%n" + //$NON-NLS-1$
+			"	}%n" + //$NON-NLS-1$
+			"} finally {%n" + //$NON-NLS-1$
+			"	%2$s.commit();%n" + //$NON-NLS-1$
+			"}%n"; //$NON-NLS-1$
+
+	private final ExtractClosureRefactoring refactoring;
+
+	SpeculationCreator(ExtractClosureRefactoring refactoring) {
+		this.refactoring= refactoring;
+	}
+
+	/**
+	 * @return true if the refactoring can guard every statement of the stage that writes the
+	 *         conflicting locations, and the stage does not jump out of the retry loop
+	 */
+	boolean canSpeculate(SpeculativeStage speculativeStage) {
+		ASTNode[] nodes= refactoring.getStageAnalyzer(speculativeStage.getStageNumber()).getSelectedNodes();
+		if (jumpsOutOfStage(nodes)) {
+			return false;
+		}
+		Set<Integer> guardedLines= new HashSet<Integer>();
+		for (Statement statement : findWritingStatements(speculativeStage, nodes)) {
+			guardedLines.add(refactoring.getRoot().getLineNumber(statement.getStartPosition()));
+		}
+		return guardedLines.containsAll(speculativeStage.getWriteLines());
+	}
+
+	/**
+	 * Creates the class that keeps track of the speculation, which goes next to the bundle class
+	 */
+	ASTNode createSpeculationClass() {
+		String lock= refactoring.getImportRewriter().addImport("java.util.concurrent.locks.ReentrantReadWriteLock"); //$NON-NLS-1$
+		String counter= refactoring.getImportRewriter().addImport("java.util.concurrent.atomic.AtomicLong"); //$NON-NLS-1$
+		return refactoring.getRewriter().createStringPlaceholder(String.format(SPECULATION_CLASS_TEMPLATE, lock, counter), ASTNode.TYPE_DECLARATION);
+	}
+
+	List<Statement> createSpeculationStatements() {
+		List<Statement> statements= new ArrayList<Statement>();
+		for (SpeculativeStage speculativeStage : refactoring.getSpeculativeStages()) {
+			String speculation= String.format("final %s %s%d = new %s();", SPECULATION_CLASS_NAME, SPECULATION_VARIABLE_NAME, speculativeStage.getStageNumber(), SPECULATION_CLASS_NAME); //$NON-NLS-1$
+			statements.add((Statement)ASTNodeFactory.newStatement(refactoring.getAST(), speculation));
+		}
+		return statements;
+	}
+
+	/**
+	 * @param stageCode what the stage does with an item, from its initialization to its updates
+	 * @return the stage code wrapped in the loop that retries it in order
+	 */
+	String createSpeculativeStage(int stageNumber, String stageCode) {
+		return String.format(SPECULATIVE_STAGE_TEMPLATE, SPECULATION_CLASS_NAME, ATTEMPT_VARIABLE_NAME, SPECULATION_VARIABLE_NAME, stageNumber, ExtractClosureRefactoring.BundleCreator.ITERATION_FIELD_NAME, stageCode);
+	}
+
+	String createValidateStatement() {
+		return String.format("%s.validate();%n", ATTEMPT_VARIABLE_NAME); //$NON-NLS-1$
+	}
+
+	/**
+	 * Gives up the speculation before each statement that writes the conflicting locations in the
+	 * copy of a statement of the stage
+	 *
+	 * @param copies the nodes of the copy for those of the original, see
+	 *            ExtractClosureRefactoring.copyWithOriginals()
+	 * @return true if the statement itself writes them, so the guard has to go before the copy
+	 */
+	@SuppressWarnings("unchecked")
+	boolean insertGuards(ASTNode original, Map<ASTNode, ASTNode> copies, SpeculativeStage speculativeStage) {
+		AST ast= refactoring.getAST();
+		boolean guardsRoot= false;
+		for (Statement writer : findWritingStatements(speculativeStage, new ASTNode[] { original })) {
+			ASTNode copy= copies.get(writer);
+			if (copy == copies.get(original)) {
+				guardsRoot= true;
+				continue;
+			}
+			Statement guard= (Statement)ASTNodeFactory.newStatement(ast, createGuardStatement());
+			StructuralPropertyDescriptor location= copy.getLocationInParent();
+			if (location.isChildListProperty()) {
+				List<ASTNode> siblings= (List<ASTNode>)copy.getParent().getStructuralProperty(location);
+				siblings.add(siblings.indexOf(copy), guard);
+			} else {
+				// e.g., the then branch of an if without braces
+				Block block= ast.newBlock();
+				copy.getParent().setStructuralProperty(location, block);
+				block.statements().add(guard);
+				block.statements().add(copy);
+			}
+		}
+		return guardsRoot;
+	}
+
+	String createGuardStatement() {
+		return String.format("%s.beforeWrite();%n", ATTEMPT_VARIABLE_NAME); //$NON-NLS-1$
+	}
+
+	/*
+	 * The innermost statements on the lines that write the conflicting locations, e.g., the put()
+	 * and not the if around it
+	 */
+	private List<Statement> findWritingStatements(final SpeculativeStage speculativeStage, ASTNode[] nodes) {
+		final List<Statement> writers= new ArrayList<Statement>();
+		ASTVisitor visitor= new ASTVisitor() {
+			@Override
+			public void preVisit(ASTNode node) {
+				if (node instanceof Statement && !(node instanceof Block) && speculativeStage.getWriteLines().contains(getLine(node))) {
+					ASTNode parent= node.getParent();
+					while (parent != null && !(parent instanceof Statement && writers.contains(parent))) {
+						parent= parent.getParent();
+					}
+					if (parent != null && getLine(parent) == getLine(node)) {
+						writers.remove(parent);
+					}
+					writers.add((Statement)node);
+				}
+			}
+
+			private int getLine(ASTNode node) {
+				return refactoring.getRoot().getLineNumber(node.getStartPosition());
+			}
+		};
+		for (ASTNode node : nodes) {
+			node.accept(visitor);
+		}
+		return writers;
+	}
+
+	/*
+	 * A return, or a break or continue for a loop around the stage, would leave the retry loop
+	 * instead of the iteration
+	 */
+	private boolean jumpsOutOfStage(final ASTNode[] nodes) {
+		final boolean[] jumps= new boolean[] { false };
+		ASTVisitor visitor= new ASTVisitor() {
+			@Override
+			public boolean visit(ReturnStatement node) {
+				jumps[0]= true;
+				return false;
+			}
+
+			@Override
+			public boolean visit(BreakStatement node) {
+				if (node.getLabel() != null || !isNestedIn(node, true)) {
+					jumps[0]= true;
+				}
+				return false;
+			}
+
+			@Override
+			public boolean visit(ContinueStatement node) {
+				if (node.getLabel() != null || !isNestedIn(node, false)) {
+					jumps[0]= true;
+				}
+				return false;
+			}
+
+			@Override
+			public boolean visit(AnonymousClassDeclaration node) {
+				return false; // Returns from its methods
+			}
+
+			@Override
+			public boolean visit(TypeDeclarationStatement node) {
+				return false;
+			}
+
+			// Whether a loop (or switch) of the stage itself is the target of the jump
+			private boolean isNestedIn(ASTNode jump, boolean orSwitch) {
+				List<ASTNode> stageNodes= Arrays.asList(nodes);
+				if (stageNodes.contains(jump)) {
+					return false;
+				}
+				for (ASTNode parent= jump.getParent(); parent != null; parent= parent.getParent()) {
+					if (parent instanceof ForStatement || parent instanceof EnhancedForStatement || parent instanceof WhileStatement || parent instanceof DoStatement
+							|| (orSwitch && parent instanceof SwitchStatement)) {
+						return true;
+					}
+					if (stageNodes.contains(parent)) {
+						return false;
+					}
+				}
+				return false;
+			}
+		};
+		for (ASTNode node : nodes) {
+			node.accept(visitor);
+		}
+		return jumps[0];
+	}
+}
@@ -10,10 +10,32 @@ public class JFlowRefactoringMessages extends NLS {
 
 	public static String ExtractClosureWizard_dialog_title;
 
+	public static String ImportProfileAction_dialog_title;
+
+	public static String ImportProfileJob_name;
+
 	public static String InvertLoopActions_dialog_title;
 
 	public static String InvertLoopWizard_dialog_title;
 
+	public static String MeasureStagesAction_dialog_message;
+
+	public static String MeasureStagesAction_dialog_title;
+
+	public static String MeasureStagesJob_name;
+
+	public static String ProfileDependencesAction_dialog_message;
+
+	public static String ProfileDependencesAction_dialog_title;
+
+	public static String ProfileDependencesJob_name;
+
+	public static String ProposeStagesAction_dialog_title;
+
+	public static String ProposeStagesWizard_dialog_title;
+
+	public static String ScanProjectJob_name;
+
 	static {
 		// initialize resource bundle
 		NLS.initializeMessages(BUNDLE_NAME, JFlowRefactoringMessages.class);
@@ -0,0 +1,35 @@
+package edu.illinois.jflow.core.transformations.ui.actions;
+
+import org.eclipse.jdt.core.IJavaProject;
+import org.eclipse.jface.action.IAction;
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.widgets.FileDialog;
+
+import edu.illinois.jflow.core.transformations.ui.JFlowRefactoringMessages;
+import edu.illinois.jflow.core.transformations.ui.scanner.ImportProfileJob;
+
+/**
+ * Imports a profile of the selected project and scans the project with it so that the loops that
+ * dominate the profiled run are ranked first.
+ * 
+ * @author Nicholas Chen
+ * 
+ */
+public class ImportProfileAction extends ScanProjectAction {
+
+	@Override
+	public void run(IAction action) {
+		IJavaProject javaProject= findSelectedProject();
+		if (javaProject == null) {
+			return;
+		}
+
+		FileDialog dialog= new FileDialog(window.getShell(), SWT.OPEN);
+		dialog.setText(JFlowRefactoringMessages.ImportProfileAction_dialog_title);
+		dialog.setFilterExtensions(new String[] { "*.jfr", "*.*" }); //$NON-NLS-1$ //$NON-NLS-2$
+		String path= dialog.open();
+		if (path != null) {
+			new ImportProfileJob(javaProject, path).schedule();
+		}
+	}
+}
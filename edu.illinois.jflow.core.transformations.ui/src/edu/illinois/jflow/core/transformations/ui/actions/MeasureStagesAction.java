@@ -0,0 +1,68 @@
+package edu.illinois.jflow.core.transformations.ui.actions;
+
+import java.io.File;
+
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.debug.core.DebugPlugin;
+import org.eclipse.debug.core.ILaunchConfiguration;
+import org.eclipse.jdt.core.ICompilationUnit;
+import org.eclipse.jdt.core.IJavaElement;
+import org.eclipse.jdt.core.JavaModelException;
+import org.eclipse.jdt.internal.ui.actions.SelectionConverter;
+import org.eclipse.jdt.internal.ui.javaeditor.JavaEditor;
+import org.eclipse.jface.text.ITextSelection;
+import org.eclipse.jface.viewers.LabelProvider;
+import org.eclipse.jface.window.Window;
+import org.eclipse.swt.widgets.Shell;
+import org.eclipse.ui.dialogs.ElementListSelectionDialog;
+
+import edu.illinois.jflow.core.transformations.ui.JFlowRefactoringMessages;
+import edu.illinois.jflow.core.transformations.ui.scanner.MeasureStagesJob;
+import edu.illinois.jflow.wala.profiling.StageProfile;
+
+/**
+ * Runs a launch configuration of the user's choice against the transformed method under the cursor
+ * and records how long each of its instrumented stages takes.
+ * 
+ * @author Nicholas Chen
+ * 
+ */
+@SuppressWarnings("restriction")
+public class MeasureStagesAction extends JFlowRefactoringAction {
+
+	@Override
+	protected void startTextSelectionRefactoring(JavaEditor javaEditor, ITextSelection textSelection) {
+		Shell shell= javaEditor.getSite().getShell();
+		ICompilationUnit unit= SelectionConverter.getInputAsCompilationUnit(javaEditor);
+		try {
+			IJavaElement element= unit.getElementAt(textSelection.getOffset());
+			IJavaElement method= element == null ? null : element.getAncestor(IJavaElement.METHOD);
+			IResource resource= unit.getResource();
+			if (method == null || resource == null || resource.getLocation() == null) {
+				return;
+			}
+
+			ElementListSelectionDialog dialog= new ElementListSelectionDialog(shell, new LabelProvider() {
+				@Override
+				public String getText(Object element) {
+					return ((ILaunchConfiguration)element).getName();
+				}
+			});
+			dialog.setTitle(JFlowRefactoringMessages.MeasureStagesAction_dialog_title);
+			dialog.setMessage(JFlowRefactoringMessages.MeasureStagesAction_dialog_message);
+			dialog.setElements(DebugPlugin.getDefault().getLaunchManager().getLaunchConfigurations());
+			dialog.setMultipleSelection(false);
+			if (dialog.open() != Window.OK) {
+				return;
+			}
+
+			File profileFile= StageProfile.getProfileFile(resource.getLocation().toFile(), method.getElementName());
+			new MeasureStagesJob((ILaunchConfiguration)dialog.getFirstResult(), profileFile, resource).schedule();
+		} catch (JavaModelException e) {
+			e.printStackTrace();
+		} catch (CoreException e) {
+			e.printStackTrace();
+		}
+	}
+}
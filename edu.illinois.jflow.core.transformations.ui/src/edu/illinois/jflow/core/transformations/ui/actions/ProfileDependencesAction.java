@@ -0,0 +1,82 @@
+package edu.illinois.jflow.core.transformations.ui.actions;
+
+import java.io.File;
+import java.util.List;
+
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.debug.core.DebugPlugin;
+import org.eclipse.debug.core.ILaunchConfiguration;
+import org.eclipse.jdt.core.ICompilationUnit;
+import org.eclipse.jdt.core.IJavaElement;
+import org.eclipse.jdt.core.IType;
+import org.eclipse.jdt.core.JavaModelException;
+import org.eclipse.jdt.internal.ui.actions.SelectionConverter;
+import org.eclipse.jdt.internal.ui.javaeditor.JavaEditor;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.ITextSelection;
+import org.eclipse.jface.viewers.LabelProvider;
+import org.eclipse.jface.window.Window;
+import org.eclipse.swt.widgets.Shell;
+import org.eclipse.ui.dialogs.ElementListSelectionDialog;
+
+import edu.illinois.jflow.core.transformations.code.ExtractClosureRefactoring;
+import edu.illinois.jflow.core.transformations.ui.JFlowRefactoringMessages;
+import edu.illinois.jflow.core.transformations.ui.scanner.ProfileDependencesJob;
+
+/**
+ * Runs a launch configuration of the user's choice against the original loop under the cursor, with
+ * the classes of the project instrumented, and records which heap locations its annotated stages
+ * actually conflict on.
+ *
+ * @author Nicholas Chen
+ *
+ */
+@SuppressWarnings("restriction")
+public class ProfileDependencesAction extends JFlowRefactoringAction {
+
+	@Override
+	protected void startTextSelectionRefactoring(JavaEditor javaEditor, ITextSelection textSelection) {
+		Shell shell= javaEditor.getSite().getShell();
+		ICompilationUnit unit= SelectionConverter.getInputAsCompilationUnit(javaEditor);
+		try {
+			IJavaElement element= unit.getElementAt(textSelection.getOffset());
+			IJavaElement method= element == null ? null : element.getAncestor(IJavaElement.METHOD);
+			IType type= method == null ? null : (IType)method.getAncestor(IJavaElement.TYPE);
+			IResource resource= unit.getResource();
+			if (type == null || resource == null || resource.getLocation() == null) {
+				return;
+			}
+
+			IDocument doc= javaEditor.getDocumentProvider().getDocument(javaEditor.getEditorInput());
+			ExtractClosureRefactoring refactoring= new ExtractClosureRefactoring(unit, doc, textSelection.getOffset(), textSelection.getLength());
+			List<List<Integer>> stageLines= refactoring.locateStageLines(new NullProgressMonitor());
+			File profileFile= refactoring.getDependenceProfileFile();
+			if (stageLines.size() < 2 || profileFile == null) {
+				return; // No annotated stages
+			}
+
+			ElementListSelectionDialog dialog= new ElementListSelectionDialog(shell, new LabelProvider() {
+				@Override
+				public String getText(Object element) {
+					return ((ILaunchConfiguration)element).getName();
+				}
+			});
+			dialog.setTitle(JFlowRefactoringMessages.ProfileDependencesAction_dialog_title);
+			dialog.setMessage(JFlowRefactoringMessages.ProfileDependencesAction_dialog_message);
+			dialog.setElements(DebugPlugin.getDefault().getLaunchManager().getLaunchConfigurations());
+			dialog.setMultipleSelection(false);
+			if (dialog.open() != Window.OK) {
+				return;
+			}
+
+			String loopClass= type.getFullyQualifiedName('$').replace('.', '/');
+			new ProfileDependencesJob((ILaunchConfiguration)dialog.getFirstResult(), unit.getJavaProject(), loopClass, method.getElementName(), stageLines, profileFile, resource).schedule();
+		} catch (JavaModelException e) {
+			e.printStackTrace();
+		} catch (CoreException e) {
+			e.printStackTrace();
+		}
+	}
+}
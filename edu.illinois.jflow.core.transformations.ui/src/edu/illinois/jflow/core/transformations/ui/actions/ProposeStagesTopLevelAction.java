@@ -0,0 +1,31 @@
+package edu.illinois.jflow.core.transformations.ui.actions;
+
+import org.eclipse.jdt.internal.ui.actions.SelectionConverter;
+import org.eclipse.jdt.internal.ui.javaeditor.JavaEditor;
+import org.eclipse.jdt.internal.ui.refactoring.actions.RefactoringStarter;
+import org.eclipse.jdt.ui.refactoring.RefactoringSaveHelper;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.ITextSelection;
+import org.eclipse.swt.widgets.Shell;
+
+import edu.illinois.jflow.core.transformations.code.ProposeStagesRefactoring;
+import edu.illinois.jflow.core.transformations.ui.JFlowRefactoringMessages;
+import edu.illinois.jflow.core.transformations.ui.refactoring.ProposeStagesWizard;
+
+/**
+ * Action to invoke our Propose Pipeline Stages Refactoring
+ * 
+ * @author Nicholas Chen
+ * 
+ */
+@SuppressWarnings("restriction")
+public class ProposeStagesTopLevelAction extends JFlowRefactoringAction {
+
+	@Override
+	protected void startTextSelectionRefactoring(JavaEditor javaEditor, ITextSelection textSelection) {
+		Shell shell= javaEditor.getSite().getShell();
+		IDocument doc= javaEditor.getDocumentProvider().getDocument(javaEditor.getEditorInput());
+		ProposeStagesRefactoring refactoring= new ProposeStagesRefactoring(SelectionConverter.getInputAsCompilationUnit(javaEditor), doc, textSelection.getOffset(), textSelection.getLength());
+		new RefactoringStarter().activate(new ProposeStagesWizard(refactoring), shell, JFlowRefactoringMessages.ProposeStagesAction_dialog_title, RefactoringSaveHelper.SAVE_NOTHING);
+	}
+}
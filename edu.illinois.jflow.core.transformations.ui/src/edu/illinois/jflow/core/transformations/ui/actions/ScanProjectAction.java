@@ -0,0 +1,70 @@
+package edu.illinois.jflow.core.transformations.ui.actions;
+
+import org.eclipse.core.runtime.IAdaptable;
+import org.eclipse.jdt.core.ICompilationUnit;
+import org.eclipse.jdt.core.IJavaElement;
+import org.eclipse.jdt.core.IJavaProject;
+import org.eclipse.jdt.internal.ui.actions.SelectionConverter;
+import org.eclipse.jdt.internal.ui.javaeditor.JavaEditor;
+import org.eclipse.jface.action.IAction;
+import org.eclipse.jface.viewers.ISelection;
+import org.eclipse.jface.viewers.IStructuredSelection;
+import org.eclipse.ui.IEditorPart;
+import org.eclipse.ui.IWorkbenchWindow;
+import org.eclipse.ui.IWorkbenchWindowActionDelegate;
+
+import edu.illinois.jflow.core.transformations.ui.scanner.ScanProjectJob;
+
+/**
+ * Scans the project of the current selection (or of the active Java editor) for loops that are
+ * worth pipelining.
+ * 
+ * @author Nicholas Chen
+ * 
+ */
+@SuppressWarnings("restriction")
+public class ScanProjectAction implements IWorkbenchWindowActionDelegate {
+
+	protected IWorkbenchWindow window;
+
+	private ISelection selection;
+
+	public void init(IWorkbenchWindow window) {
+		this.window= window;
+	}
+
+	public void selectionChanged(IAction action, ISelection selection) {
+		this.selection= selection;
+	}
+
+	public void dispose() {
+	}
+
+	public void run(IAction action) {
+		IJavaProject javaProject= findSelectedProject();
+		if (javaProject != null) {
+			new ScanProjectJob(javaProject).schedule();
+		}
+	}
+
+	protected IJavaProject findSelectedProject() {
+		if (selection instanceof IStructuredSelection) {
+			Object element= ((IStructuredSelection)selection).getFirstElement();
+			if (element instanceof IAdaptable) {
+				IJavaElement javaElement= (IJavaElement)((IAdaptable)element).getAdapter(IJavaElement.class);
+				if (javaElement != null) {
+					return javaElement.getJavaProject();
+				}
+			}
+		}
+
+		IEditorPart activeEditor= window.getActivePage().getActiveEditor();
+		if (activeEditor instanceof JavaEditor) {
+			ICompilationUnit unit= SelectionConverter.getInputAsCompilationUnit((JavaEditor)activeEditor);
+			if (unit != null) {
+				return unit.getJavaProject();
+			}
+		}
+		return null;
+	}
+}
@@ -5,14 +5,25 @@
  */
 package edu.illinois.jflow.core.transformations.ui.refactoring;
 
+import java.util.List;
+
 import org.eclipse.jface.dialogs.IDialogSettings;
 import org.eclipse.ltk.ui.refactoring.UserInputWizardPage;
+import org.eclipse.osgi.util.NLS;
 import org.eclipse.swt.SWT;
+import org.eclipse.swt.events.SelectionAdapter;
+import org.eclipse.swt.events.SelectionEvent;
 import org.eclipse.swt.layout.GridData;
 import org.eclipse.swt.layout.GridLayout;
+import org.eclipse.swt.widgets.Button;
 import org.eclipse.swt.widgets.Composite;
+import org.eclipse.swt.widgets.Group;
+import org.eclipse.swt.widgets.Label;
+import org.eclipse.swt.widgets.Spinner;
+import org.eclipse.swt.widgets.Text;
 
 import edu.illinois.jflow.core.transformations.code.ExtractClosureRefactoring;
+import edu.illinois.jflow.wala.simulator.PipelineSimulator;
 
 /**
  * This is the input page for the Extract Closure Refactoring.
@@ -24,10 +35,22 @@ public class ExtractClosureInputPage extends UserInputWizardPage {
 
 	public static final String PAGE_NAME= "ExtractClosureInputPage";//$NON-NLS-1$
 
+	private static final String INSTRUMENT_STAGES= "InstrumentStages"; //$NON-NLS-1$
+
+	private static final String DETERMINISTIC_RANDOMS= "DeterministicRandoms"; //$NON-NLS-1$
+
 	private ExtractClosureRefactoring fRefactoring;
 
 	private IDialogSettings fSettings;
 
+	// The workers of each stage in the simulation, only enabled for the data-parallel stages
+	private Spinner[] fWorkers;
+
+	// Upper bound for the spinners, more workers than this is not a realistic choice
+	private static final int MAXIMUM_WORKERS= 64;
+
+	private static final int MAXIMUM_CAPACITY= 10000;
+
 	public ExtractClosureInputPage() {
 		super(PAGE_NAME);
 		setDescription(JFlowRefactoringUIMessages.ExtractClosureInputPage_description);
@@ -53,6 +76,19 @@ public class ExtractClosureInputPage extends UserInputWizardPage {
 		layout.marginWidth= 0;
 		group.setLayout(layout);
 
+		createStageSummary(result);
+		createSimulation(result);
+		createInstrumentation(result);
+		if (fRefactoring.hasRandomGenerators()) {
+			createRandomSeeding(result);
+		}
+		if (fRefactoring.hasPrivatizationCandidates()) {
+			createPrivatization(result);
+		}
+		if (fRefactoring.hasSpeculativeStages()) {
+			createSpeculation(result);
+		}
+
 // XXX: Add some parameters if we really need them
 //		if (!fRefactoring.getParameterInfos().isEmpty()) {
 //			ChangeParametersControl cp= new ChangeParametersControl(result, SWT.NONE,
@@ -78,6 +114,179 @@ public class ExtractClosureInputPage extends UserInputWizardPage {
 //		Dialog.applyDialogFont(result);
 	}
 
+	/*
+	 * One row per stage with what we know about how much work it does
+	 */
+	private void createStageSummary(Composite parent) {
+		List<Long> costs= fRefactoring.getEstimatedStageCosts();
+		List<Double> shares= fRefactoring.getMeasuredStageShares();
+		if (costs == null && shares == null) {
+			return;
+		}
+
+		Group summary= new Group(parent, SWT.NONE);
+		summary.setText(JFlowRefactoringUIMessages.ExtractClosureInputPage_stages);
+		GridData gd= new GridData(GridData.FILL_HORIZONTAL);
+		gd.horizontalSpan= 2;
+		summary.setLayoutData(gd);
+		summary.setLayout(new GridLayout(1 + (costs == null ? 0 : 1) + (shares == null ? 0 : 1), false));
+
+		for (int stageNumber= 0; stageNumber < fRefactoring.getNumberOfStages(); stageNumber++) {
+			Label name= new Label(summary, SWT.NONE);
+			name.setText(NLS.bind(JFlowRefactoringUIMessages.ExtractClosureInputPage_stage, Integer.valueOf(stageNumber + 1)));
+			if (costs != null) {
+				Label cost= new Label(summary, SWT.NONE);
+				cost.setText(NLS.bind(JFlowRefactoringUIMessages.ExtractClosureInputPage_estimatedCost, costs.get(stageNumber)));
+			}
+			if (shares != null) {
+				Label share= new Label(summary, SWT.NONE);
+				share.setText(NLS.bind(JFlowRefactoringUIMessages.ExtractClosureInputPage_measuredShare, String.format("%.1f", shares.get(stageNumber) * 100))); //$NON-NLS-1$
+			}
+		}
+	}
+
+	/*
+	 * Lets the user try out worker counts for the data-parallel stages and channel capacities
+	 * before generating the code
+	 */
+	private void createSimulation(Composite parent) {
+		if (fRefactoring.getEstimatedStageCosts() == null) {
+			return;
+		}
+
+		Group simulation= new Group(parent, SWT.NONE);
+		simulation.setText(JFlowRefactoringUIMessages.ExtractClosureInputPage_simulation);
+		GridData gd= new GridData(GridData.FILL_BOTH);
+		gd.horizontalSpan= 2;
+		simulation.setLayoutData(gd);
+		simulation.setLayout(new GridLayout(2, false));
+
+		final Spinner[] workers= new Spinner[fRefactoring.getNumberOfStages()];
+		for (int stageNumber= 0; stageNumber < workers.length; stageNumber++) {
+			Label label= new Label(simulation, SWT.NONE);
+			label.setText(NLS.bind(JFlowRefactoringUIMessages.ExtractClosureInputPage_workers, Integer.valueOf(stageNumber + 1)));
+			workers[stageNumber]= new Spinner(simulation, SWT.BORDER);
+			workers[stageNumber].setValues(1, 1, MAXIMUM_WORKERS, 0, 1, 4);
+		}
+		fWorkers= workers;
+		updateWorkers();
+
+		Label label= new Label(simulation, SWT.NONE);
+		label.setText(JFlowRefactoringUIMessages.ExtractClosureInputPage_channelCapacity);
+		final Spinner capacity= new Spinner(simulation, SWT.BORDER);
+		capacity.setValues(0, 0, MAXIMUM_CAPACITY, 0, 1, 10);
+
+		final Button useMeasuredCosts= new Button(simulation, SWT.CHECK);
+		useMeasuredCosts.setText(JFlowRefactoringUIMessages.ExtractClosureInputPage_useMeasuredCosts);
+		useMeasuredCosts.setEnabled(fRefactoring.hasMeasuredStageCosts());
+
+		Button simulate= new Button(simulation, SWT.PUSH);
+		simulate.setText(JFlowRefactoringUIMessages.ExtractClosureInputPage_simulate);
+		simulate.setLayoutData(new GridData(SWT.END, SWT.CENTER, false, false));
+
+		final Text report= new Text(simulation, SWT.MULTI | SWT.READ_ONLY | SWT.BORDER | SWT.V_SCROLL);
+		gd= new GridData(GridData.FILL_BOTH);
+		gd.horizontalSpan= 2;
+		gd.heightHint= convertHeightInCharsToPixels(6);
+		report.setLayoutData(gd);
+
+		simulate.addSelectionListener(new SelectionAdapter() {
+			@Override
+			public void widgetSelected(SelectionEvent e) {
+				PipelineSimulator simulator= fRefactoring.makeSimulator(useMeasuredCosts.getSelection());
+				for (int stageNumber= 0; stageNumber < workers.length; stageNumber++) {
+					simulator.setWorkers(stageNumber + 1, workers[stageNumber].getSelection());
+				}
+				if (capacity.getSelection() > 0) {
+					simulator.setChannelCapacity(capacity.getSelection());
+				}
+				report.setText(simulator.simulate(PipelineSimulator.DEFAULT_NUMBER_OF_ITEMS).toString());
+			}
+		});
+	}
+
+	private void createInstrumentation(Composite parent) {
+		final Button instrument= new Button(parent, SWT.CHECK);
+		instrument.setText(JFlowRefactoringUIMessages.ExtractClosureInputPage_instrumentStages);
+		GridData gd= new GridData(GridData.FILL_HORIZONTAL);
+		gd.horizontalSpan= 2;
+		instrument.setLayoutData(gd);
+		instrument.setSelection(fSettings.getBoolean(INSTRUMENT_STAGES));
+		fRefactoring.setInstrumentStages(instrument.getSelection());
+		instrument.addSelectionListener(new SelectionAdapter() {
+			@Override
+			public void widgetSelected(SelectionEvent e) {
+				fRefactoring.setInstrumentStages(instrument.getSelection());
+				fSettings.put(INSTRUMENT_STAGES, instrument.getSelection());
+			}
+		});
+	}
+
+	private void createRandomSeeding(Composite parent) {
+		final Button deterministic= new Button(parent, SWT.CHECK);
+		deterministic.setText(JFlowRefactoringUIMessages.ExtractClosureInputPage_deterministicRandoms);
+		GridData gd= new GridData(GridData.FILL_HORIZONTAL);
+		gd.horizontalSpan= 2;
+		deterministic.setLayoutData(gd);
+		deterministic.setSelection(fSettings.getBoolean(DETERMINISTIC_RANDOMS));
+		fRefactoring.setDeterministicRandoms(deterministic.getSelection());
+		deterministic.addSelectionListener(new SelectionAdapter() {
+			@Override
+			public void widgetSelected(SelectionEvent e) {
+				fRefactoring.setDeterministicRandoms(deterministic.getSelection());
+				fSettings.put(DETERMINISTIC_RANDOMS, deterministic.getSelection());
+			}
+		});
+	}
+
+	/*
+	 * Privatizing the scratch objects changes which stages are data-parallel
+	 */
+	private void updateWorkers() {
+		if (fWorkers == null) {
+			return;
+		}
+		for (int stageNumber= 0; stageNumber < fWorkers.length; stageNumber++) {
+			fWorkers[stageNumber].setEnabled(fRefactoring.isDataParallel(stageNumber + 1));
+			if (!fWorkers[stageNumber].isEnabled()) {
+				fWorkers[stageNumber].setSelection(1);
+			}
+		}
+	}
+
+	// Not remembered in the settings, privatizing has to be asked for on every loop
+	private void createPrivatization(Composite parent) {
+		final Button privatize= new Button(parent, SWT.CHECK);
+		privatize.setText(JFlowRefactoringUIMessages.ExtractClosureInputPage_privatize);
+		GridData gd= new GridData(GridData.FILL_HORIZONTAL);
+		gd.horizontalSpan= 2;
+		privatize.setLayoutData(gd);
+		fRefactoring.setPrivatize(false);
+		updateWorkers();
+		privatize.addSelectionListener(new SelectionAdapter() {
+			@Override
+			public void widgetSelected(SelectionEvent e) {
+				fRefactoring.setPrivatize(privatize.getSelection());
+				updateWorkers();
+			}
+		});
+	}
+
+	// Not remembered in the settings, speculating has to be asked for on every loop
+	private void createSpeculation(Composite parent) {
+		final Button speculate= new Button(parent, SWT.CHECK);
+		speculate.setText(JFlowRefactoringUIMessages.ExtractClosureInputPage_speculate);
+		GridData gd= new GridData(GridData.FILL_HORIZONTAL);
+		gd.horizontalSpan= 2;
+		speculate.setLayoutData(gd);
+		fRefactoring.setSpeculate(false);
+		speculate.addSelectionListener(new SelectionAdapter() {
+			@Override
+			public void widgetSelected(SelectionEvent e) {
+				fRefactoring.setSpeculate(speculate.getSelection());
+			}
+		});
+	}
 
 	private void loadSettings() {
 		fSettings= getDialogSettings().getSection(ExtractClosureWizard.DIALOG_SETTING_SECTION);
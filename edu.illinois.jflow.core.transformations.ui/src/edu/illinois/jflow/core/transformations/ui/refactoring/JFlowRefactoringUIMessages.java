@@ -7,10 +7,40 @@ public class JFlowRefactoringUIMessages extends NLS {
 
 	public static String ExtractClosureInputPage_description;
 
+	public static String ExtractClosureInputPage_deterministicRandoms;
+
+	public static String ExtractClosureInputPage_estimatedCost;
+
+	public static String ExtractClosureInputPage_instrumentStages;
+
+	public static String ExtractClosureInputPage_measuredShare;
+
 	public static String ExtractClosureInputPage_parameters;
 
+	public static String ExtractClosureInputPage_privatize;
+
+	public static String ExtractClosureInputPage_channelCapacity;
+
+	public static String ExtractClosureInputPage_simulate;
+
+	public static String ExtractClosureInputPage_simulation;
+
+	public static String ExtractClosureInputPage_speculate;
+
+	public static String ExtractClosureInputPage_stage;
+
+	public static String ExtractClosureInputPage_stages;
+
+	public static String ExtractClosureInputPage_useMeasuredCosts;
+
 	public static String ExtractClosureInputPage_validation_emptyParameterName;
 
+	public static String ExtractClosureInputPage_workers;
+
+	public static String ProposeStagesInputPage_description;
+
+	public static String ProposeStagesInputPage_numberOfStages;
+
 	static {
 		// initialize resource bundle
 		NLS.initializeMessages(BUNDLE_NAME, JFlowRefactoringUIMessages.class);
@@ -0,0 +1,54 @@
+package edu.illinois.jflow.core.transformations.ui.refactoring;
+
+import org.eclipse.ltk.ui.refactoring.UserInputWizardPage;
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.events.ModifyEvent;
+import org.eclipse.swt.events.ModifyListener;
+import org.eclipse.swt.layout.GridData;
+import org.eclipse.swt.layout.GridLayout;
+import org.eclipse.swt.widgets.Composite;
+import org.eclipse.swt.widgets.Label;
+import org.eclipse.swt.widgets.Spinner;
+
+import edu.illinois.jflow.core.transformations.code.ProposeStagesRefactoring;
+
+public class ProposeStagesInputPage extends UserInputWizardPage {
+	public static final String PAGE_NAME= "ProposeStagesInputPage";//$NON-NLS-1$
+
+	// A single stage is not a pipeline
+	private static final int MINIMUM_NUMBER_OF_STAGES= 2;
+
+	private ProposeStagesRefactoring fRefactoring;
+
+	public ProposeStagesInputPage() {
+		super(PAGE_NAME);
+		setDescription(JFlowRefactoringUIMessages.ProposeStagesInputPage_description);
+	}
+
+	@Override
+	public void createControl(Composite parent) {
+		fRefactoring= (ProposeStagesRefactoring)getRefactoring();
+		Composite result= new Composite(parent, SWT.NONE);
+		setControl(result);
+		GridLayout layout= new GridLayout();
+		layout.numColumns= 2;
+		result.setLayout(layout);
+
+		Label label= new Label(result, SWT.NONE);
+		label.setText(JFlowRefactoringUIMessages.ProposeStagesInputPage_numberOfStages);
+
+		final Spinner spinner= new Spinner(result, SWT.BORDER);
+		int maximum= Math.max(MINIMUM_NUMBER_OF_STAGES, fRefactoring.getMaximumNumberOfStages());
+		spinner.setValues(Math.min(fRefactoring.getNumberOfStages(), maximum), MINIMUM_NUMBER_OF_STAGES, maximum, 0, 1, 1);
+		spinner.setLayoutData(new GridData(SWT.BEGINNING, SWT.CENTER, false, false));
+		spinner.addModifyListener(new ModifyListener() {
+			@Override
+			public void modifyText(ModifyEvent e) {
+				fRefactoring.setNumberOfStages(spinner.getSelection());
+			}
+		});
+		fRefactoring.setNumberOfStages(spinner.getSelection());
+
+		initializeDialogUnits(result);
+	}
+}
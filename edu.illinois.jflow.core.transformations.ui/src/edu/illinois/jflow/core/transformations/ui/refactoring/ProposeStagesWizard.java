@@ -0,0 +1,29 @@
+package edu.illinois.jflow.core.transformations.ui.refactoring;
+
+import org.eclipse.jdt.internal.ui.JavaPlugin;
+import org.eclipse.ltk.ui.refactoring.RefactoringWizard;
+
+import edu.illinois.jflow.core.transformations.code.ProposeStagesRefactoring;
+import edu.illinois.jflow.core.transformations.ui.JFlowRefactoringMessages;
+
+/**
+ * Propose Pipeline Stages wizard
+ * 
+ * @author Nicholas Chen
+ * 
+ */
+@SuppressWarnings("restriction")
+public class ProposeStagesWizard extends RefactoringWizard {
+
+	public ProposeStagesWizard(ProposeStagesRefactoring refactoring) {
+		super(refactoring, DIALOG_BASED_USER_INTERFACE | PREVIEW_EXPAND_FIRST_NODE);
+		setDefaultPageTitle(JFlowRefactoringMessages.ProposeStagesWizard_dialog_title);
+		setDialogSettings(JavaPlugin.getDefault().getDialogSettings());
+	}
+
+	@Override
+	protected void addUserInputPages() {
+		addPage(new ProposeStagesInputPage());
+	}
+
+}
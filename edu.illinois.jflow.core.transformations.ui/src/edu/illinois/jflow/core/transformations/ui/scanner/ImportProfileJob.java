@@ -0,0 +1,56 @@
+package edu.illinois.jflow.core.transformations.ui.scanner;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.jdt.core.IJavaProject;
+
+import edu.illinois.jflow.core.transformations.ui.Activator;
+import edu.illinois.jflow.core.transformations.ui.JFlowRefactoringMessages;
+import edu.illinois.jflow.wala.profiling.ExecutionProfile;
+import edu.illinois.jflow.wala.profiling.ProfileImporter;
+
+/**
+ * Reads a profile, keeps it with the project for the refactorings and rescans the project so that
+ * the markers reflect the measured shares.
+ * 
+ * @author Nicholas Chen
+ */
+public class ImportProfileJob extends Job {
+
+	private final IJavaProject javaProject;
+
+	private final String path;
+
+	public ImportProfileJob(IJavaProject javaProject, String path) {
+		super(JFlowRefactoringMessages.ImportProfileJob_name);
+		this.javaProject= javaProject;
+		this.path= path;
+		setUser(true);
+	}
+
+	@Override
+	protected IStatus run(IProgressMonitor monitor) {
+		try {
+			monitor.beginTask(getName(), IProgressMonitor.UNKNOWN);
+			ExecutionProfile profile= ProfileImporter.importProfile(new File(path));
+			if (profile.isEmpty()) {
+				return new Status(IStatus.WARNING, Activator.PLUGIN_ID, "No execution samples found in " + path); //$NON-NLS-1$
+			}
+			ProfileImporter.attachProfile(javaProject.getProject(), profile);
+			new ScanProjectJob(javaProject).schedule();
+			return Status.OK_STATUS;
+		} catch (IOException e) {
+			return new Status(IStatus.ERROR, Activator.PLUGIN_ID, getName(), e);
+		} catch (CoreException e) {
+			return e.getStatus();
+		} finally {
+			monitor.done();
+		}
+	}
+}
@@ -0,0 +1,56 @@
+package edu.illinois.jflow.core.transformations.ui.scanner;
+
+import org.eclipse.core.resources.IMarker;
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IWorkspaceRunnable;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+
+import edu.illinois.jflow.core.transformations.ui.Activator;
+import edu.illinois.jflow.wala.scanner.LoopCandidate;
+import edu.illinois.jflow.wala.scanner.ScanReport;
+
+/**
+ * Publishes a scan report as markers so that the loops show up in the Problems view and in the
+ * editor ruler. Double-clicking a marker jumps to the loop.
+ * 
+ * @author Nicholas Chen
+ */
+public class LoopCandidateMarkers {
+
+	public static final String MARKER_ID= Activator.PLUGIN_ID + ".loopcandidate"; //$NON-NLS-1$
+
+	public static final String RANK= "rank"; //$NON-NLS-1$
+
+	public static final String ESTIMATED_WORK= "estimatedWork"; //$NON-NLS-1$
+
+	public static final String MEASURED_SHARE= "measuredShare"; //$NON-NLS-1$
+
+	/**
+	 * Replaces the markers from any previous scan of the project.
+	 */
+	public static void publish(final IProject project, final ScanReport report) throws CoreException {
+		ResourcesPlugin.getWorkspace().run(new IWorkspaceRunnable() {
+
+			@Override
+			public void run(IProgressMonitor monitor) throws CoreException {
+				project.deleteMarkers(MARKER_ID, false, IResource.DEPTH_INFINITE);
+				int rank= 1;
+				for (LoopCandidate candidate : report.getCandidates()) {
+					IMarker marker= candidate.getResource().createMarker(MARKER_ID);
+					marker.setAttribute(IMarker.LINE_NUMBER, candidate.getLineNumber());
+					marker.setAttribute(IMarker.MESSAGE, String.format("#%d %s", rank, candidate.getDescription())); //$NON-NLS-1$
+					marker.setAttribute(IMarker.SEVERITY, IMarker.SEVERITY_INFO);
+					marker.setAttribute(RANK, rank);
+					marker.setAttribute(ESTIMATED_WORK, Long.toString(candidate.getEstimatedWork()));
+					if (candidate.hasMeasuredShare()) {
+						marker.setAttribute(MEASURED_SHARE, Double.toString(candidate.getMeasuredShare()));
+					}
+					rank++;
+				}
+			}
+		}, project, IResource.NONE, null);
+	}
+}
@@ -0,0 +1,97 @@
+package edu.illinois.jflow.core.transformations.ui.scanner;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.debug.core.ILaunch;
+import org.eclipse.debug.core.ILaunchConfiguration;
+import org.eclipse.debug.core.ILaunchManager;
+import org.eclipse.debug.core.model.IProcess;
+import org.eclipse.debug.core.model.IStreamsProxy;
+
+import edu.illinois.jflow.core.transformations.ui.Activator;
+import edu.illinois.jflow.core.transformations.ui.JFlowRefactoringMessages;
+import edu.illinois.jflow.wala.profiling.StageProfile;
+
+/**
+ * Runs a driver, e.g., a main method or a test, against code transformed with instrumented stages
+ * and keeps the service times that the stages print in a StageProfile next to the source. The next
+ * Extract Nodes on the loop uses them to recommend stage boundaries and replication.
+ * 
+ * @author Nicholas Chen
+ */
+public class MeasureStagesJob extends Job {
+
+	// How often we check whether the driver is done
+	private static final long POLL_INTERVAL= 200;
+
+	private final ILaunchConfiguration driver;
+
+	private final File profileFile;
+
+	private final IResource source;
+
+	public MeasureStagesJob(ILaunchConfiguration driver, File profileFile, IResource source) {
+		super(JFlowRefactoringMessages.MeasureStagesJob_name);
+		this.driver= driver;
+		this.profileFile= profileFile;
+		this.source= source;
+		setUser(true);
+	}
+
+	@Override
+	protected IStatus run(IProgressMonitor monitor) {
+		try {
+			monitor.beginTask(getName(), IProgressMonitor.UNKNOWN);
+			ILaunch launch= driver.launch(ILaunchManager.RUN_MODE, monitor);
+			while (!launch.isTerminated()) {
+				if (monitor.isCanceled()) {
+					launch.terminate();
+					return Status.CANCEL_STATUS;
+				}
+				Thread.sleep(POLL_INTERVAL);
+			}
+
+			StageProfile profile= new StageProfile();
+			for (IProcess process : launch.getProcesses()) {
+				IStreamsProxy streams= process.getStreamsProxy();
+				if (streams != null) {
+					addLines(profile, streams.getErrorStreamMonitor().getContents());
+				}
+			}
+			if (profile.isEmpty()) {
+				return new Status(IStatus.WARNING, Activator.PLUGIN_ID, "No instrumented stage ran in " + driver.getName() + ". Apply Extract Nodes with instrumented stages first."); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+
+			profile.write(profileFile);
+			if (source != null && source.getParent() != null) {
+				source.getParent().refreshLocal(IResource.DEPTH_ONE, monitor);
+			}
+			return Status.OK_STATUS;
+		} catch (IOException e) {
+			return new Status(IStatus.ERROR, Activator.PLUGIN_ID, getName(), e);
+		} catch (CoreException e) {
+			return e.getStatus();
+		} catch (InterruptedException e) {
+			return Status.CANCEL_STATUS;
+		} finally {
+			monitor.done();
+		}
+	}
+
+	private static void addLines(StageProfile profile, String output) throws IOException {
+		BufferedReader reader= new BufferedReader(new StringReader(output));
+		String line;
+		while ((line= reader.readLine()) != null) {
+			profile.addLine(line);
+		}
+	}
+}
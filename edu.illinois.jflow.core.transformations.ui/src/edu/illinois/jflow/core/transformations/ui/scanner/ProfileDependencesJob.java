@@ -0,0 +1,213 @@
+package edu.illinois.jflow.core.transformations.ui.scanner;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IWorkspaceRoot;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Path;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.debug.core.ILaunch;
+import org.eclipse.debug.core.ILaunchConfiguration;
+import org.eclipse.debug.core.ILaunchConfigurationWorkingCopy;
+import org.eclipse.debug.core.ILaunchManager;
+import org.eclipse.debug.core.model.IProcess;
+import org.eclipse.debug.core.model.IStreamsProxy;
+import org.eclipse.jdt.core.IClasspathEntry;
+import org.eclipse.jdt.core.IJavaProject;
+import org.eclipse.jdt.launching.IJavaLaunchConfigurationConstants;
+import org.eclipse.jdt.launching.IRuntimeClasspathEntry;
+import org.eclipse.jdt.launching.JavaRuntime;
+
+import com.ibm.wala.shrikeCT.InvalidClassFileException;
+
+import edu.illinois.jflow.core.transformations.ui.Activator;
+import edu.illinois.jflow.core.transformations.ui.JFlowRefactoringMessages;
+import edu.illinois.jflow.wala.profiling.AccessInstrumenter;
+import edu.illinois.jflow.wala.profiling.DependenceProfile;
+
+/**
+ * Runs a driver, e.g., a main method or a test, against the original loop with the classes of the
+ * project instrumented (see AccessInstrumenter) and keeps the conflicts between the stages that the
+ * run observed in a DependenceProfile next to the source. The next Extract Nodes on the loop labels
+ * its interference warnings with them.
+ *
+ * The launch configuration itself is not changed, the run uses a copy with the instrumented classes
+ * first on the classpath.
+ *
+ * @author Nicholas Chen
+ */
+public class ProfileDependencesJob extends Job {
+
+	// How often we check whether the driver is done
+	private static final long POLL_INTERVAL= 200;
+
+	/*
+	 * The instrumented methods have no stack maps, which the verifier requires of class files from
+	 * Java 7 on, so the profiled run does without verification. The flag is deprecated since JDK 13
+	 * and such VMs print a warning for it, but they still honor it. Only the classes of the project
+	 * are instrumented, the driver itself is not changed.
+	 */
+	private static final String VERIFIER_ARGUMENT= "-Xverify:none"; //$NON-NLS-1$
+
+	private final ILaunchConfiguration driver;
+
+	private final IJavaProject project;
+
+	private final String loopClass;
+
+	private final String loopMethod;
+
+	private final List<List<Integer>> stageLines;
+
+	private final File profileFile;
+
+	private final IResource source;
+
+	/**
+	 * @param loopClass e.g., pkg/Worker$Inner
+	 * @param stageLines the lines of the loop header first, then those of each stage, see
+	 *            ExtractClosureRefactoring.locateStageLines()
+	 */
+	public ProfileDependencesJob(ILaunchConfiguration driver, IJavaProject project, String loopClass, String loopMethod, List<List<Integer>> stageLines, File profileFile, IResource source) {
+		super(JFlowRefactoringMessages.ProfileDependencesJob_name);
+		this.driver= driver;
+		this.project= project;
+		this.loopClass= loopClass;
+		this.loopMethod= loopMethod;
+		this.stageLines= stageLines;
+		this.profileFile= profileFile;
+		this.source= source;
+		setUser(true);
+	}
+
+	@Override
+	protected IStatus run(IProgressMonitor monitor) {
+		File outputDirectory= null;
+		try {
+			monitor.beginTask(getName(), IProgressMonitor.UNKNOWN);
+			outputDirectory= File.createTempFile("jflow-dependences", ""); //$NON-NLS-1$ //$NON-NLS-2$
+			outputDirectory.delete();
+
+			AccessInstrumenter instrumenter= new AccessInstrumenter(loopClass, loopMethod, stageLines);
+			instrumenter.instrument(getClassDirectories(), outputDirectory);
+			if (!instrumenter.foundLoop()) {
+				return new Status(IStatus.WARNING, Activator.PLUGIN_ID, "Cannot find " + loopClass + "." + loopMethod + " with line numbers in the output folders of " + project.getElementName() + ". Build the project first."); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+			}
+
+			ILaunch launch= makeProfiledCopy(outputDirectory).launch(ILaunchManager.RUN_MODE, monitor);
+			while (!launch.isTerminated()) {
+				if (monitor.isCanceled()) {
+					launch.terminate();
+					return Status.CANCEL_STATUS;
+				}
+				Thread.sleep(POLL_INTERVAL);
+			}
+
+			DependenceProfile profile= new DependenceProfile();
+			for (String className : instrumenter.getInstrumentedClasses()) {
+				profile.addInstrumentedClass(className);
+			}
+			for (IProcess process : launch.getProcesses()) {
+				IStreamsProxy streams= process.getStreamsProxy();
+				if (streams != null) {
+					addLines(profile, streams.getErrorStreamMonitor().getContents());
+				}
+			}
+			if (profile.getIterations() == 0) {
+				return new Status(IStatus.WARNING, Activator.PLUGIN_ID, driver.getName() + " never went through the loop in " + loopMethod + "."); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+
+			profile.write(profileFile);
+			if (source != null && source.getParent() != null) {
+				source.getParent().refreshLocal(IResource.DEPTH_ONE, monitor);
+			}
+			return Status.OK_STATUS;
+		} catch (IOException e) {
+			return new Status(IStatus.ERROR, Activator.PLUGIN_ID, getName(), e);
+		} catch (InvalidClassFileException e) {
+			return new Status(IStatus.ERROR, Activator.PLUGIN_ID, getName(), e);
+		} catch (CoreException e) {
+			return e.getStatus();
+		} catch (InterruptedException e) {
+			return Status.CANCEL_STATUS;
+		} finally {
+			if (outputDirectory != null) {
+				delete(outputDirectory);
+			}
+			monitor.done();
+		}
+	}
+
+	private List<File> getClassDirectories() throws CoreException {
+		Set<IPath> outputLocations= new LinkedHashSet<IPath>();
+		outputLocations.add(project.getOutputLocation());
+		for (IClasspathEntry entry : project.getRawClasspath()) {
+			if (entry.getEntryKind() == IClasspathEntry.CPE_SOURCE && entry.getOutputLocation() != null) {
+				outputLocations.add(entry.getOutputLocation());
+			}
+		}
+
+		IWorkspaceRoot root= ResourcesPlugin.getWorkspace().getRoot();
+		List<File> directories= new ArrayList<File>();
+		for (IPath outputLocation : outputLocations) {
+			IResource folder= root.findMember(outputLocation);
+			if (folder != null && folder.getLocation() != null) {
+				directories.add(folder.getLocation().toFile());
+			}
+		}
+		return directories;
+	}
+
+	/*
+	 * The instrumented classes and the recorder go before everything else on the classpath
+	 */
+	private ILaunchConfiguration makeProfiledCopy(File outputDirectory) throws CoreException {
+		List<String> classpath= new ArrayList<String>();
+		for (File entry : new File[] { AccessInstrumenter.getInstrumentedJar(outputDirectory), AccessInstrumenter.getRuntimeDirectory(outputDirectory) }) {
+			IRuntimeClasspathEntry runtimeEntry= JavaRuntime.newArchiveRuntimeClasspathEntry(new Path(entry.getAbsolutePath()));
+			runtimeEntry.setClasspathProperty(IRuntimeClasspathEntry.USER_CLASSES);
+			classpath.add(runtimeEntry.getMemento());
+		}
+		for (IRuntimeClasspathEntry entry : JavaRuntime.computeUnresolvedRuntimeClasspath(driver)) {
+			classpath.add(entry.getMemento());
+		}
+
+		ILaunchConfigurationWorkingCopy copy= driver.getWorkingCopy();
+		copy.setAttribute(IJavaLaunchConfigurationConstants.ATTR_CLASSPATH, classpath);
+		copy.setAttribute(IJavaLaunchConfigurationConstants.ATTR_DEFAULT_CLASSPATH, false);
+		String vmArguments= copy.getAttribute(IJavaLaunchConfigurationConstants.ATTR_VM_ARGUMENTS, ""); //$NON-NLS-1$
+		copy.setAttribute(IJavaLaunchConfigurationConstants.ATTR_VM_ARGUMENTS, (VERIFIER_ARGUMENT + " " + vmArguments).trim()); //$NON-NLS-1$
+		return copy;
+	}
+
+	private static void addLines(DependenceProfile profile, String output) throws IOException {
+		BufferedReader reader= new BufferedReader(new StringReader(output));
+		String line;
+		while ((line= reader.readLine()) != null) {
+			profile.addLine(line);
+		}
+	}
+
+	private static void delete(File file) {
+		File[] children= file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+}
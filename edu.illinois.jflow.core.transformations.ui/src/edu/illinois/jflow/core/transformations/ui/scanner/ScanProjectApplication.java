@@ -0,0 +1,88 @@
+package edu.illinois.jflow.core.transformations.ui.scanner;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.PrintWriter;
+
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.equinox.app.IApplication;
+import org.eclipse.equinox.app.IApplicationContext;
+import org.eclipse.jdt.core.IJavaProject;
+import org.eclipse.jdt.core.JavaCore;
+
+import edu.illinois.jflow.wala.profiling.ProfileImporter;
+import edu.illinois.jflow.wala.scanner.ParallelizationScanner;
+import edu.illinois.jflow.wala.scanner.ScanReport;
+
+/**
+ * Headless entry point for the scanner, e.g., for a nightly build:
+ * 
+ * <pre>
+ * eclipse -nosplash -application edu.illinois.jflow.core.transformations.ui.scanner -data &lt;workspace&gt; -project &lt;name&gt; [-output &lt;file&gt;] [-threads &lt;n&gt;] [-profile &lt;file&gt;]
+ * </pre>
+ * 
+ * The project has to be part of the workspace. The report is printed to standard out unless an
+ * output file is given. Each line starts with file:line of the loop. With a profile (a JFR
+ * recording or collapsed stacks, see ProfileImporter) of a production run, the loops are ranked by
+ * how much of that run they took.
+ * 
+ * @author Nicholas Chen
+ */
+public class ScanProjectApplication implements IApplication {
+
+	private static final Integer EXIT_ERROR= Integer.valueOf(1);
+
+	@Override
+	public Object start(IApplicationContext context) throws Exception {
+		String[] args= (String[])context.getArguments().get(IApplicationContext.APPLICATION_ARGS);
+		String projectName= argument(args, "-project"); //$NON-NLS-1$
+		String output= argument(args, "-output"); //$NON-NLS-1$
+		String threads= argument(args, "-threads"); //$NON-NLS-1$
+		String profile= argument(args, "-profile"); //$NON-NLS-1$
+
+		if (projectName == null) {
+			System.err.println("Usage: -project <name> [-output <file>] [-threads <n>] [-profile <file>]"); //$NON-NLS-1$
+			return EXIT_ERROR;
+		}
+		IProject project= ResourcesPlugin.getWorkspace().getRoot().getProject(projectName);
+		if (!project.exists()) {
+			System.err.println("No project named " + projectName + " in the workspace"); //$NON-NLS-1$ //$NON-NLS-2$
+			return EXIT_ERROR;
+		}
+		if (!project.isOpen()) {
+			project.open(new NullProgressMonitor());
+		}
+
+		IJavaProject javaProject= JavaCore.create(project);
+		ParallelizationScanner scanner= threads == null ? new ParallelizationScanner(javaProject) : new ParallelizationScanner(javaProject, Integer.parseInt(threads));
+		ScanReport report= scanner.scan(new NullProgressMonitor());
+		if (profile != null) {
+			report.applyProfile(ProfileImporter.importProfile(new File(profile)));
+		}
+
+		PrintWriter writer= output == null ? new PrintWriter(System.out) : new PrintWriter(new FileWriter(output));
+		try {
+			report.write(writer);
+		} finally {
+			if (output != null) {
+				writer.close();
+			}
+		}
+		return IApplication.EXIT_OK;
+	}
+
+	@Override
+	public void stop() {
+	}
+
+	private static String argument(String[] args, String name) {
+		for (int i= 0; args != null && i < args.length - 1; i++) {
+			if (name.equals(args[i])) {
+				return args[i + 1];
+			}
+		}
+		return null;
+	}
+}
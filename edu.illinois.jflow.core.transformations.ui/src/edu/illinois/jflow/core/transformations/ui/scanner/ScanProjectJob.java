@@ -0,0 +1,55 @@
+package edu.illinois.jflow.core.transformations.ui.scanner;
+
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.jdt.core.IJavaProject;
+
+import edu.illinois.jflow.core.transformations.ui.Activator;
+import edu.illinois.jflow.core.transformations.ui.JFlowRefactoringMessages;
+import edu.illinois.jflow.wala.profiling.ExecutionProfile;
+import edu.illinois.jflow.wala.profiling.ProfileImporter;
+import edu.illinois.jflow.wala.scanner.ParallelizationScanner;
+import edu.illinois.jflow.wala.scanner.ScanReport;
+
+/**
+ * Scans a project in the background and shows the ranked loops as markers. If a profile was
+ * imported for the project, the loops are ranked by their measured share of it.
+ * 
+ * @author Nicholas Chen
+ */
+public class ScanProjectJob extends Job {
+
+	private final IJavaProject javaProject;
+
+	public ScanProjectJob(IJavaProject javaProject) {
+		super(JFlowRefactoringMessages.ScanProjectJob_name);
+		this.javaProject= javaProject;
+		setUser(true);
+		setRule(javaProject.getProject());
+	}
+
+	@Override
+	protected IStatus run(IProgressMonitor monitor) {
+		try {
+			ScanReport report= new ParallelizationScanner(javaProject).scan(monitor);
+			ExecutionProfile profile= ProfileImporter.getAttachedProfile(javaProject.getProject());
+			if (profile != null) {
+				report.applyProfile(profile);
+			}
+			LoopCandidateMarkers.publish(javaProject.getProject(), report);
+			return Status.OK_STATUS;
+		} catch (OperationCanceledException e) {
+			return Status.CANCEL_STATUS;
+		} catch (CoreException e) {
+			return e.getStatus();
+		} catch (Exception e) {
+			return new Status(IStatus.ERROR, Activator.PLUGIN_ID, getName(), e);
+		} finally {
+			monitor.done();
+		}
+	}
+}
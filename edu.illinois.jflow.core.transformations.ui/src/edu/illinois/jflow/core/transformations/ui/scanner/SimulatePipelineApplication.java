@@ -0,0 +1,137 @@
+package edu.illinois.jflow.core.transformations.ui.scanner;
+
+import java.io.FileWriter;
+import java.io.PrintWriter;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.equinox.app.IApplication;
+import org.eclipse.equinox.app.IApplicationContext;
+import org.eclipse.jdt.core.ICompilationUnit;
+import org.eclipse.jdt.core.JavaCore;
+import org.eclipse.jface.text.Document;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.ltk.core.refactoring.RefactoringStatus;
+
+import edu.illinois.jflow.core.transformations.code.ExtractClosureRefactoring;
+import edu.illinois.jflow.wala.simulator.PipelineSimulator;
+import edu.illinois.jflow.wala.simulator.SimulationResult;
+
+/**
+ * Headless entry point for the pipeline simulator, e.g., to compare replication choices in a
+ * script:
+ *
+ * <pre>
+ * eclipse -nosplash -application edu.illinois.jflow.core.transformations.ui.simulator -data &lt;workspace&gt; -project &lt;name&gt; -file &lt;path&gt; -line &lt;n&gt; [-workers &lt;w1,w2,...;...&gt;] [-capacity &lt;n&gt;] [-items &lt;n&gt;] [-profiled] [-output &lt;file&gt;]
+ * </pre>
+ *
+ * The file is relative to the project and its loop around the given line has to be annotated with
+ * stages, as for Extract Nodes. Each configuration in -workers lists the number of workers for
+ * Stage1, Stage2, etc. and is simulated in turn. Stages that are not data-parallel always get one
+ * worker. With -profiled, the stages use their share of the profile imported for the project
+ * instead of their estimated cost.
+ *
+ * @author Nicholas Chen
+ */
+public class SimulatePipelineApplication implements IApplication {
+
+	private static final Integer EXIT_ERROR= Integer.valueOf(1);
+
+	@Override
+	public Object start(IApplicationContext context) throws Exception {
+		String[] args= (String[])context.getArguments().get(IApplicationContext.APPLICATION_ARGS);
+		String projectName= argument(args, "-project"); //$NON-NLS-1$
+		String path= argument(args, "-file"); //$NON-NLS-1$
+		String line= argument(args, "-line"); //$NON-NLS-1$
+		String workers= argument(args, "-workers"); //$NON-NLS-1$
+		String capacity= argument(args, "-capacity"); //$NON-NLS-1$
+		String items= argument(args, "-items"); //$NON-NLS-1$
+		String output= argument(args, "-output"); //$NON-NLS-1$
+
+		if (projectName == null || path == null || line == null) {
+			System.err.println("Usage: -project <name> -file <path> -line <n> [-workers <w1,w2,...;...>] [-capacity <n>] [-items <n>] [-profiled] [-output <file>]"); //$NON-NLS-1$
+			return EXIT_ERROR;
+		}
+		IProject project= ResourcesPlugin.getWorkspace().getRoot().getProject(projectName);
+		if (!project.exists()) {
+			System.err.println("No project named " + projectName + " in the workspace"); //$NON-NLS-1$ //$NON-NLS-2$
+			return EXIT_ERROR;
+		}
+		if (!project.isOpen()) {
+			project.open(new NullProgressMonitor());
+		}
+		IFile file= project.getFile(path);
+		ICompilationUnit unit= JavaCore.createCompilationUnitFrom(file);
+		if (!file.exists() || unit == null) {
+			System.err.println("No Java file " + path + " in " + projectName); //$NON-NLS-1$ //$NON-NLS-2$
+			return EXIT_ERROR;
+		}
+
+		IDocument document= new Document(unit.getSource());
+		int offset= document.getLineOffset(Integer.parseInt(line) - 1);
+		ExtractClosureRefactoring refactoring= new ExtractClosureRefactoring(unit, document, offset, 0);
+		RefactoringStatus status= refactoring.checkInitialConditions(new NullProgressMonitor());
+		PipelineSimulator simulator= refactoring.makeSimulator(hasFlag(args, "-profiled")); //$NON-NLS-1$
+		if (status.hasFatalError() || simulator == null) {
+			System.err.println("Cannot analyze the loop: " + status); //$NON-NLS-1$
+			return EXIT_ERROR;
+		}
+		if (capacity != null) {
+			simulator.setChannelCapacity(Integer.parseInt(capacity));
+		}
+		int numberOfItems= items == null ? PipelineSimulator.DEFAULT_NUMBER_OF_ITEMS : Integer.parseInt(items);
+
+		PrintWriter writer= output == null ? new PrintWriter(System.out) : new PrintWriter(new FileWriter(output));
+		try {
+			String[] configurations= workers == null ? new String[] { "" } : workers.split(";"); //$NON-NLS-1$ //$NON-NLS-2$
+			for (String configuration : configurations) {
+				configureWorkers(refactoring, simulator, configuration);
+				SimulationResult result= simulator.simulate(numberOfItems);
+				result.write(writer);
+				writer.println();
+			}
+			writer.flush();
+		} finally {
+			if (output != null) {
+				writer.close();
+			}
+		}
+		return IApplication.EXIT_OK;
+	}
+
+	private static void configureWorkers(ExtractClosureRefactoring refactoring, PipelineSimulator simulator, String configuration) {
+		String[] counts= configuration.length() == 0 ? new String[0] : configuration.split(","); //$NON-NLS-1$
+		for (int stageNumber= 1; stageNumber < simulator.getNumberOfStages(); stageNumber++) {
+			int count= stageNumber <= counts.length ? Integer.parseInt(counts[stageNumber - 1].trim()) : 1;
+			if (count > 1 && !refactoring.isDataParallel(stageNumber)) {
+				System.err.println("Stage" + stageNumber + " is not data-parallel, simulating it with one worker"); //$NON-NLS-1$ //$NON-NLS-2$
+				count= 1;
+			}
+			simulator.setWorkers(stageNumber, count);
+		}
+	}
+
+	@Override
+	public void stop() {
+	}
+
+	private static String argument(String[] args, String name) {
+		for (int i= 0; args != null && i < args.length - 1; i++) {
+			if (name.equals(args[i])) {
+				return args[i + 1];
+			}
+		}
+		return null;
+	}
+
+	private static boolean hasFlag(String[] args, String name) {
+		for (int i= 0; args != null && i < args.length; i++) {
+			if (name.equals(args[i])) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
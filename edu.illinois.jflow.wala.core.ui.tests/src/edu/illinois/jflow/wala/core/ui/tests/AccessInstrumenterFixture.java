@@ -0,0 +1,31 @@
+package edu.illinois.jflow.wala.core.ui.tests;
+
+/**
+ * The driver that AccessInstrumenterTests instruments and runs. The tests refer to the lines of the
+ * loop, so keep them where they are.
+ *
+ * @author nchen
+ *
+ */
+public class AccessInstrumenterFixture {
+
+	int steps;
+
+	long total;
+
+	double[] weights= new double[4];
+
+	int[] counts= new int[4];
+
+	public static void main(String[] args) {
+		AccessInstrumenterFixture fixture= new AccessInstrumenterFixture();
+		for (int i= 0; i < 4; i++) {
+			fixture.steps++;
+			fixture.total+= i;
+			fixture.weights[i]= fixture.total * 0.5;
+
+			fixture.counts[i]= (int)fixture.weights[i] + (int)fixture.total;
+		}
+		System.out.println(fixture.steps + " " + fixture.total + " " + fixture.counts[3]);
+	}
+}
@@ -0,0 +1,172 @@
+package edu.illinois.jflow.wala.core.ui.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.ibm.wala.shrikeCT.InvalidClassFileException;
+
+import edu.illinois.jflow.wala.profiling.AccessInstrumenter;
+import edu.illinois.jflow.wala.profiling.AccessRecorder;
+import edu.illinois.jflow.wala.profiling.DependenceProfile;
+
+public class AccessInstrumenterTests {
+
+	private static final String FIXTURE= AccessInstrumenterFixture.class.getName().replace('.', '/');
+
+	// The lines of the loop in AccessInstrumenterFixture, the header first
+	private static final List<List<Integer>> FIXTURE_STAGES= Arrays.asList(Arrays.asList(22), Arrays.asList(23, 24, 25), Arrays.asList(27));
+
+	@Test
+	public void testRecorder() throws IOException {
+		Object cache= new Object();
+		Object forgotten= new Object();
+		int[] array= new int[2];
+
+		// Iteration 0
+		AccessRecorder.enterStage(0);
+		AccessRecorder.enterStage(1);
+		AccessRecorder.write(cache, "Lpkg/Cache.entries");
+		AccessRecorder.writeElement(array, 0);
+		AccessRecorder.write(forgotten, "Lpkg/Cache.forgotten");
+		AccessRecorder.enterStage(2);
+		AccessRecorder.read(cache, "Lpkg/Cache.entries");
+
+		// Iteration 1, the element was written in the previous one
+		AccessRecorder.enterStage(0);
+		AccessRecorder.enterStage(1);
+		AccessRecorder.enterStage(2);
+		AccessRecorder.readElement(array, 0);
+
+		// Iteration 2, only the accesses of iteration 1 are kept
+		AccessRecorder.enterStage(0);
+		AccessRecorder.enterStage(1);
+		AccessRecorder.enterStage(2);
+		AccessRecorder.read(forgotten, "Lpkg/Cache.forgotten");
+
+		// Nothing is recorded outside the loop
+		AccessRecorder.enterStage(-1);
+		AccessRecorder.read(cache, "Lpkg/Cache.entries");
+		AccessRecorder.writeElement(array, 0);
+
+		ByteArrayOutputStream report= new ByteArrayOutputStream();
+		AccessRecorder.report(new PrintStream(report));
+		List<String> lines= readLines(report.toString());
+		assertEquals(Arrays.asList("JFLOW-DEPENDENCE Lpkg/Cache.entries 1 2 same 1", "JFLOW-DEPENDENCE [I 1 2 cross 1", "JFLOW-ITERATIONS 3"), lines);
+
+		DependenceProfile profile= new DependenceProfile();
+		for (String line : lines) {
+			assertTrue(profile.addLine(line));
+		}
+		assertEquals(3, profile.getIterations());
+	}
+
+	@Test
+	public void testInstrumentedRun() throws IOException, InvalidClassFileException, InterruptedException {
+		File directory= createTempDirectory();
+		try {
+			File classDirectory= new File(directory, "bin");
+			copyClassFile(AccessInstrumenterFixture.class, classDirectory);
+			File outputDirectory= new File(directory, "profile");
+			AccessInstrumenter instrumenter= new AccessInstrumenter(FIXTURE, "main", FIXTURE_STAGES);
+			instrumenter.instrument(Arrays.asList(classDirectory), outputDirectory);
+			assertTrue(instrumenter.foundLoop());
+			assertEquals(Arrays.asList("L" + FIXTURE), new ArrayList<String>(instrumenter.getInstrumentedClasses()));
+
+			// The shuffled operand stacks have to leave the fields and the array elements as they were
+			String classpath= AccessInstrumenter.getInstrumentedJar(outputDirectory) + File.pathSeparator + AccessInstrumenter.getRuntimeDirectory(outputDirectory);
+			String java= new File(new File(System.getProperty("java.home"), "bin"), "java").getPath();
+			Process process= new ProcessBuilder(java, "-Xverify:none", "-cp", classpath, AccessInstrumenterFixture.class.getName()).start();
+			String output= readFully(process.getInputStream());
+			String errors= readFully(process.getErrorStream());
+			assertEquals(errors, 0, process.waitFor());
+			assertEquals("4 6 9", output.trim());
+
+			String location= "L" + FIXTURE + ".total";
+			List<String> dependences= new ArrayList<String>();
+			for (String line : readLines(errors)) {
+				if (line.startsWith(DependenceProfile.DEPENDENCE_MARKER) || line.startsWith(DependenceProfile.ITERATIONS_MARKER)) {
+					dependences.add(line);
+				}
+			}
+			assertEquals(Arrays.asList("JFLOW-DEPENDENCE " + location + " 1 2 same 4", "JFLOW-DEPENDENCE " + location + " 2 1 cross 3", "JFLOW-DEPENDENCE [D 1 2 same 4", "JFLOW-ITERATIONS 4"),
+					dependences);
+		} finally {
+			delete(directory);
+		}
+	}
+
+	private static void copyClassFile(Class<?> clazz, File classDirectory) throws IOException {
+		String name= clazz.getName().replace('.', '/') + ".class";
+		File classFile= new File(classDirectory, name);
+		classFile.getParentFile().mkdirs();
+		InputStream in= clazz.getClassLoader().getResourceAsStream(name);
+		OutputStream out= new FileOutputStream(classFile);
+		try {
+			byte[] buffer= new byte[4096];
+			int read;
+			while ((read= in.read(buffer)) != -1) {
+				out.write(buffer, 0, read);
+			}
+		} finally {
+			in.close();
+			out.close();
+		}
+	}
+
+	private static File createTempDirectory() throws IOException {
+		File directory= File.createTempFile("AccessInstrumenterTests", "");
+		directory.delete();
+		directory.mkdirs();
+		return directory;
+	}
+
+	private static void delete(File file) {
+		File[] children= file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+	private static String readFully(InputStream in) throws IOException {
+		StringBuilder sb= new StringBuilder();
+		BufferedReader reader= new BufferedReader(new InputStreamReader(in));
+		try {
+			String line;
+			while ((line= reader.readLine()) != null) {
+				sb.append(line).append('\n');
+			}
+		} finally {
+			reader.close();
+		}
+		return sb.toString();
+	}
+
+	private static List<String> readLines(String text) throws IOException {
+		List<String> lines= new ArrayList<String>();
+		BufferedReader reader= new BufferedReader(new StringReader(text));
+		String line;
+		while ((line= reader.readLine()) != null) {
+			lines.add(line);
+		}
+		return lines;
+	}
+}
@@ -0,0 +1,59 @@
+package edu.illinois.jflow.wala.core.ui.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import org.junit.Test;
+
+import com.ibm.wala.types.ClassLoaderReference;
+import com.ibm.wala.types.MethodReference;
+import com.ibm.wala.types.TypeReference;
+
+import edu.illinois.jflow.wala.modref.LibrarySpecifications;
+import edu.illinois.jflow.wala.modref.LibrarySpecifications.Kind;
+import edu.illinois.jflow.wala.modref.LibrarySpecifications.Specification;
+
+public class LibrarySpecificationsTests {
+
+	private static final MethodReference ADD_DOCUMENT= MethodReference.findOrCreate(TypeReference.findOrCreate(ClassLoaderReference.Extension, "Lorg/apache/lucene/index/IndexWriter"),
+			"addDocument", "(Lorg/apache/lucene/document/Document;)V");
+
+	private static final MethodReference SORT= MethodReference.findOrCreate(TypeReference.findOrCreate(ClassLoaderReference.Primordial, "Ljava/util/Collections"), "sort",
+			"(Ljava/util/List;)V");
+
+	@Test
+	public void testParse() throws IOException {
+		String specs= "# Lucene\n" +
+				"version 1\n" +
+				"\n" +
+				"org.apache.lucene.index.IndexWriter.addDocument(Lorg/apache/lucene/document/Document;)V thread-safe\n" +
+				"java.util.Collections.sort mutates 0\n";
+		LibrarySpecifications specifications= LibrarySpecifications.parse(new StringReader(specs));
+
+		assertEquals(Kind.THREAD_SAFE, specifications.getSpecification(ADD_DOCUMENT).getKind());
+
+		// Without a descriptor the specification covers all the overloads
+		Specification sort= specifications.getSpecification(SORT);
+		assertEquals(Kind.MUTATES, sort.getKind());
+		assertTrue(sort.mutates(0));
+		assertFalse(sort.mutates(1));
+		assertTrue(sort.reads(1));
+
+		assertNull(LibrarySpecifications.empty().getSpecification(SORT));
+	}
+
+	@Test(expected= IOException.class)
+	public void testParseWithoutVersion() throws IOException {
+		LibrarySpecifications.parse(new StringReader("java.util.Collections.sort mutates 0\n"));
+	}
+
+	@Test(expected= IOException.class)
+	public void testParseMutatesWithoutParameters() throws IOException {
+		LibrarySpecifications.parse(new StringReader("version 1\njava.util.Collections.sort mutates\n"));
+	}
+}
@@ -5,7 +5,13 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.junit.Test;
@@ -14,11 +20,35 @@ import com.ibm.wala.ide.tests.util.EclipseTestUtil.ZippedProjectData;
 import com.ibm.wala.ipa.callgraph.propagation.PointerKey;
 import com.ibm.wala.shrikeCT.InvalidClassFileException;
 import com.ibm.wala.ssa.IR;
+import com.ibm.wala.types.MethodReference;
 import com.ibm.wala.util.CancelException;
 
+import edu.illinois.jflow.jflow.wala.dataflowanalysis.ConcurrentSubstitution;
+import edu.illinois.jflow.jflow.wala.dataflowanalysis.ConcurrentSubstitution.Structure;
+import edu.illinois.jflow.jflow.wala.dataflowanalysis.ElidableLock;
+import edu.illinois.jflow.jflow.wala.dataflowanalysis.InductionVariable;
+import edu.illinois.jflow.jflow.wala.dataflowanalysis.PDGNode;
 import edu.illinois.jflow.jflow.wala.dataflowanalysis.PDGPartitionerChecker;
+import edu.illinois.jflow.jflow.wala.dataflowanalysis.PartitionRepairer;
+import edu.illinois.jflow.jflow.wala.dataflowanalysis.PartitionRepairer.Suggestion;
+import edu.illinois.jflow.jflow.wala.dataflowanalysis.PipelinePartitioner;
+import edu.illinois.jflow.jflow.wala.dataflowanalysis.PipelinePartitioner.Partition;
 import edu.illinois.jflow.jflow.wala.dataflowanalysis.PipelineStage;
+import edu.illinois.jflow.jflow.wala.dataflowanalysis.PrivatizationCandidate;
 import edu.illinois.jflow.jflow.wala.dataflowanalysis.ProgramDependenceGraph;
+import edu.illinois.jflow.jflow.wala.dataflowanalysis.Reduction;
+import edu.illinois.jflow.jflow.wala.dataflowanalysis.SharedRandom;
+import edu.illinois.jflow.jflow.wala.dataflowanalysis.SharedRandom.Source;
+import edu.illinois.jflow.jflow.wala.dataflowanalysis.SpeculativeStage;
+import edu.illinois.jflow.jflow.wala.dataflowanalysis.StageInterferenceInfo.InterferenceKind;
+import edu.illinois.jflow.jflow.wala.dataflowanalysis.Statement;
+import edu.illinois.jflow.jflow.wala.dataflowanalysis.StatementCostModel;
+import edu.illinois.jflow.wala.modref.LibrarySpecifications;
+import edu.illinois.jflow.wala.modref.PurityAnalysis;
+import edu.illinois.jflow.wala.modref.PurityAnalysis.Purity;
+import edu.illinois.jflow.wala.scanner.LoopCandidateAnalyzer;
+import edu.illinois.jflow.wala.simulator.PipelineSimulator;
+import edu.illinois.jflow.wala.simulator.SimulationResult;
 
 public class PDGPartitionCheckerTests extends JFlowTest {
 	private static final String PROJECT_NAME= "edu.illinois.jflow.test.data";
@@ -189,6 +219,153 @@ public class PDGPartitionCheckerTests extends JFlowTest {
 		assertFalse(checker.containsLoopCarriedDependency());
 	}
 
+	@Test
+	public void testProject13_checkReductions() throws IllegalArgumentException, IOException, CancelException, InvalidClassFileException {
+		IR ir= retrieveMethodIR(constructFullyQualifiedClass(), "main", "[Ljava/lang/String;", "V");
+		ProgramDependenceGraph pdg= ProgramDependenceGraph.make(ir, engine.buildClassHierarchy());
+		List<List<Integer>> selections= selectionFromArray(new int[][] { { 18 }, { 21, 22 }, { 26, 27, 28, 29 } });
+		PDGPartitionerChecker checker= PDGPartitionerChecker.makePartitionChecker(pdg, selections);
+
+		assertFalse(checker.containsLoopCarriedDependency());
+		assertTrue(checker.getLoopCarriedDependencyMessages().isEmpty());
+
+		Map<String, Reduction.Operator> operators= new HashMap<String, Reduction.Operator>();
+		for (Reduction reduction : checker.getReductions()) {
+			assertEquals(2, reduction.getStageNumber());
+			operators.put(reduction.getVariableName(), reduction.getOperator());
+		}
+		assertEquals(Reduction.Operator.SUM, operators.get("sum"));
+		assertEquals(Reduction.Operator.SUM, operators.get("count"));
+		assertEquals(Reduction.Operator.MAX, operators.get("max"));
+		assertEquals(Reduction.Operator.SET, operators.get("seen"));
+		assertTrue(checker.getReductions(1).isEmpty());
+	}
+
+	@Test
+	public void testProject14_checkInductionVariables() throws IllegalArgumentException, IOException, CancelException, InvalidClassFileException {
+		IR ir= retrieveMethodIR(constructFullyQualifiedClass(), "main", "[Ljava/lang/String;", "V");
+		ProgramDependenceGraph pdg= ProgramDependenceGraph.make(ir, engine.buildClassHierarchy());
+		List<List<Integer>> selections= selectionFromArray(new int[][] { { 14 }, { 17, 18 }, { 22 } });
+		PDGPartitionerChecker checker= PDGPartitionerChecker.makePartitionChecker(pdg, selections);
+
+		assertFalse(checker.containsLoopCarriedDependency());
+		assertTrue(checker.getLoopCarriedDependencyMessages().isEmpty());
+		assertTrue(checker.getReductions().isEmpty());
+
+		List<InductionVariable> inductionVariables= checker.getInductionVariables(2);
+		assertEquals(1, inductionVariables.size());
+		InductionVariable index= inductionVariables.get(0);
+		assertEquals("index", index.getVariableName());
+		assertEquals(2, index.getStep());
+		assertEquals(0, index.getIterationOffset(1));
+		assertTrue(checker.getInductionVariables(1).isEmpty());
+	}
+
+	@Test
+	public void testProject2_scanLoop() throws IllegalArgumentException, IOException, CancelException, InvalidClassFileException {
+		IR ir= retrieveMethodIR(constructFullyQualifiedClass(), "main", "[Ljava/lang/String;", "V");
+		ProgramDependenceGraph pdg= ProgramDependenceGraph.make(ir, engine.buildClassHierarchy());
+		List<List<Integer>> loop= selectionFromArray(new int[][] { { 20 }, { 21, 22, 23, 24, 25, 26, 27, 28, 29, 30, 31, 32, 33 } });
+
+		assertFalse(LoopCandidateAnalyzer.containsLoopCarriedDependency(pdg, loop.get(0), loop.get(1)));
+		assertTrue(LoopCandidateAnalyzer.estimateWork(pdg, loop.get(1)) > 0);
+	}
+
+	@Test
+	public void testProject2LoopCarriedDependency_scanLoop() throws IllegalArgumentException, IOException, CancelException, InvalidClassFileException {
+		IR ir= retrieveMethodIR(constructFullyQualifiedClass(), "main", "[Ljava/lang/String;", "V");
+		ProgramDependenceGraph pdg= ProgramDependenceGraph.make(ir, engine.buildClassHierarchy());
+		List<List<Integer>> loop= selectionFromArray(new int[][] { { 22 }, { 23, 24, 25, 26, 27, 28, 29, 30, 31, 32, 33, 34, 35, 36 } });
+
+		assertTrue(LoopCandidateAnalyzer.containsLoopCarriedDependency(pdg, loop.get(0), loop.get(1)));
+	}
+
+	@Test
+	public void testProject2_estimateCosts() throws IllegalArgumentException, IOException, CancelException, InvalidClassFileException {
+		IR ir= retrieveMethodIR(constructFullyQualifiedClass(), "main", "[Ljava/lang/String;", "V");
+		ProgramDependenceGraph pdg= ProgramDependenceGraph.make(ir, engine.buildClassHierarchy());
+		List<List<Integer>> selections= selectionFromArray(new int[][] { { 20 }, { 23 }, { 27 }, { 31, 32 } });
+		PDGPartitionerChecker checker= PDGPartitionerChecker.makePartitionChecker(pdg, selections);
+		StatementCostModel costModel= StatementCostModel.makeIntraproceduralModel(pdg);
+		checker.estimateCosts(costModel);
+
+		for (int stage= 1; stage < checker.getNumberOfStages(); stage++) {
+			assertTrue(checker.getStage(stage).getEstimatedCost() > 0);
+		}
+		assertTrue(checker.getImbalance() >= 1.0);
+
+		// Only the statements inside the for loop are nested
+		for (PDGNode node : pdg) {
+			if (node instanceof Statement) {
+				Statement statement= (Statement)node;
+				if (statement.getLineNumber() == 14) {
+					assertEquals(0, costModel.getLoopDepth(statement));
+				} else if (statement.getLineNumber() == 23) {
+					assertEquals(1, costModel.getLoopDepth(statement));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testProject2_proposePartitions() throws IllegalArgumentException, IOException, CancelException, InvalidClassFileException {
+		IR ir= retrieveMethodIR(constructFullyQualifiedClass(), "main", "[Ljava/lang/String;", "V");
+		ProgramDependenceGraph pdg= ProgramDependenceGraph.make(ir, engine.buildClassHierarchy());
+		List<List<Integer>> units= selectionFromArray(new int[][] { { 23 }, { 27 }, { 31 } });
+		List<Integer> header= selectionFromArray(new int[][] { { 20 } }).get(0);
+		PipelinePartitioner partitioner= PipelinePartitioner.makePartitioner(pdg, header, units, StatementCostModel.makeIntraproceduralModel(pdg));
+
+		// Only one way to put three statements into three stages
+		List<Partition> threeStages= partitioner.partition(3, 5);
+		assertEquals(1, threeStages.size());
+		assertEquals(units, threeStages.get(0).getStageLines());
+		assertEquals(3, threeStages.get(0).getStageCosts().size());
+
+		// {23} {27, 31} or {23, 27} {31}, best first
+		List<Partition> twoStages= partitioner.partition(2, 5);
+		assertEquals(2, twoStages.size());
+		assertTrue(twoStages.get(0).getBottleneck() <= twoStages.get(1).getBottleneck());
+
+		assertTrue(partitioner.partition(4, 5).isEmpty());
+	}
+
+	@Test
+	public void testProject2_calibratePartitions() throws IllegalArgumentException, IOException, CancelException, InvalidClassFileException {
+		IR ir= retrieveMethodIR(constructFullyQualifiedClass(), "main", "[Ljava/lang/String;", "V");
+		ProgramDependenceGraph pdg= ProgramDependenceGraph.make(ir, engine.buildClassHierarchy());
+		List<List<Integer>> units= selectionFromArray(new int[][] { { 23 }, { 27 }, { 31 } });
+		List<Integer> header= selectionFromArray(new int[][] { { 20 } }).get(0);
+		PipelinePartitioner partitioner= PipelinePartitioner.makePartitioner(pdg, header, units, StatementCostModel.makeIntraproceduralModel(pdg));
+
+		// The measured run says that line 23 does almost all of the work, so it gets a stage of its own
+		List<List<Integer>> measuredStages= selectionFromArray(new int[][] { { 22, 23, 24 }, { 26, 27, 28 }, { 30, 31, 32 } });
+		partitioner.calibrate(measuredStages, Arrays.asList(1000000.0, 1.0, 1.0));
+		List<Partition> twoStages= partitioner.partition(2, 1);
+		assertEquals(1, twoStages.size());
+		assertEquals(selectionFromArray(new int[][] { { 23 }, { 27, 31 } }), twoStages.get(0).getStageLines());
+	}
+
+	@Test
+	public void testProject2_simulate() throws IllegalArgumentException, IOException, CancelException, InvalidClassFileException {
+		IR ir= retrieveMethodIR(constructFullyQualifiedClass(), "main", "[Ljava/lang/String;", "V");
+		ProgramDependenceGraph pdg= ProgramDependenceGraph.make(ir, engine.buildClassHierarchy());
+		List<List<Integer>> selections= selectionFromArray(new int[][] { { 20 }, { 23 }, { 27 }, { 31, 32 } });
+		PDGPartitionerChecker checker= PDGPartitionerChecker.makePartitionChecker(pdg, selections);
+		checker.estimateCosts(StatementCostModel.makeIntraproceduralModel(pdg));
+
+		// d goes from the generator all the way to Stage3, together with field and then manipulatedField
+		assertTrue(checker.getNumberOfValuesSentAfter(0) >= 1);
+		assertTrue(checker.getNumberOfValuesSentAfter(1) >= 2);
+		assertTrue(checker.getNumberOfValuesSentAfter(2) >= 2);
+		assertEquals(0, checker.getNumberOfValuesSentAfter(3));
+
+		PipelineSimulator simulator= PipelineSimulator.makeSimulator(checker);
+		assertEquals(checker.getNumberOfStages(), simulator.getNumberOfStages());
+		SimulationResult result= simulator.simulate(100);
+		assertEquals(100, result.getNumberOfItems());
+		assertTrue(result.getThroughput() > 0);
+	}
+
 	// Illustrate that Wala doesn't properly connect java.lang.Integer pointer variables with instance keys
 	@Test
 	public void testProject0_checkHeapAnalysis() throws IOException, InvalidClassFileException, CancelException {
@@ -384,6 +561,281 @@ public class PDGPartitionCheckerTests extends JFlowTest {
 		assertFalse(checker.hasInterference());
 	}
 
+	// The stages share the arrays but only access the element of the current iteration
+	@Test
+	public void testProject15_checkArraySections() throws IOException, InvalidClassFileException, CancelException {
+		IR ir= retrieveMethodIR(constructFullyQualifiedClass(), "main", "[Ljava/lang/String;", "V");
+		ProgramDependenceGraph pdg= ProgramDependenceGraph.make(ir, engine.buildClassHierarchy());
+		List<List<Integer>> selections= selectionFromArray(new int[][] { { 14 }, { 17 }, { 21 } });
+		PDGPartitionerChecker checker= PDGPartitionerChecker.makePartitionChecker(pdg, selections);
+		checker.computeHeapDependency(callGraph, engine.getPointerAnalysis());
+		checker.checkInterference();
+		assertFalse(checker.hasInterference());
+
+		checker.checkDataParallel();
+		assertTrue(checker.isDataParallel(1));
+		assertTrue(checker.isDataParallel(2));
+	}
+
+	// Stage2 reads the element that Stage1 wrote in the previous iteration
+	@Test
+	public void testProject16_checkArraySections() throws IOException, InvalidClassFileException, CancelException {
+		IR ir= retrieveMethodIR(constructFullyQualifiedClass(), "main", "[Ljava/lang/String;", "V");
+		ProgramDependenceGraph pdg= ProgramDependenceGraph.make(ir, engine.buildClassHierarchy());
+		List<List<Integer>> selections= selectionFromArray(new int[][] { { 13 }, { 16 }, { 20 } });
+		PDGPartitionerChecker checker= PDGPartitionerChecker.makePartitionChecker(pdg, selections);
+		checker.computeHeapDependency(callGraph, engine.getPointerAnalysis());
+		checker.checkInterference();
+		assertTrue(checker.hasInterference());
+
+		// Each iteration still writes its own element of deltas
+		checker.checkDataParallel();
+		assertTrue(checker.isDataParallel(2));
+	}
+
+	// The arrays are shared but each element is only accessed in its own iteration
+	@Test
+	public void testProject15_classifyInterference() throws IOException, InvalidClassFileException, CancelException {
+		IR ir= retrieveMethodIR(constructFullyQualifiedClass(), "main", "[Ljava/lang/String;", "V");
+		ProgramDependenceGraph pdg= ProgramDependenceGraph.make(ir, engine.buildClassHierarchy());
+		List<List<Integer>> selections= selectionFromArray(new int[][] { { 14 }, { 17 }, { 21 } });
+		PDGPartitionerChecker checker= PDGPartitionerChecker.makePartitionChecker(pdg, selections);
+		checker.computeHeapDependency(callGraph, engine.getPointerAnalysis());
+		checker.checkInterference();
+
+		Collection<InterferenceKind> kinds= checker.getInterferenceKinds(2).values();
+		assertFalse(kinds.isEmpty());
+		for (InterferenceKind kind : kinds) {
+			assertEquals(InterferenceKind.SAME_ITERATION, kind);
+		}
+	}
+
+	// Stage2 reads lengths[i] while Stage1 writes lengths[i + 1] of the next iteration
+	@Test
+	public void testProject16_classifyInterference() throws IOException, InvalidClassFileException, CancelException {
+		IR ir= retrieveMethodIR(constructFullyQualifiedClass(), "main", "[Ljava/lang/String;", "V");
+		ProgramDependenceGraph pdg= ProgramDependenceGraph.make(ir, engine.buildClassHierarchy());
+		List<List<Integer>> selections= selectionFromArray(new int[][] { { 13 }, { 16 }, { 20 } });
+		PDGPartitionerChecker checker= PDGPartitionerChecker.makePartitionChecker(pdg, selections);
+		checker.computeHeapDependency(callGraph, engine.getPointerAnalysis());
+		checker.checkInterference();
+
+		assertTrue(checker.getInterferenceKinds(2).values().contains(InterferenceKind.CROSS_ITERATION));
+	}
+
+	// The factory allocates a new object for every iteration, so the stages hand it to each other
+	@Test
+	public void testProject17_checkHeapInterference() throws IOException, InvalidClassFileException, CancelException {
+		IR ir= retrieveMethodIR(constructFullyQualifiedClass(), "main", "[Ljava/lang/String;", "V");
+		ProgramDependenceGraph pdg= ProgramDependenceGraph.make(ir, engine.buildClassHierarchy());
+		List<List<Integer>> selections= selectionFromArray(new int[][] { { 26 }, { 29, 30 }, { 34 } });
+		PDGPartitionerChecker checker= PDGPartitionerChecker.makePartitionChecker(pdg, selections);
+		checker.computeHeapDependency(callGraph, engine.getPointerAnalysis());
+		checker.checkInterference();
+		assertFalse(checker.hasInterference());
+	}
+
+	// The factory caches the object in a static field, so all the iterations share it
+	@Test
+	public void testProject18_checkHeapInterference() throws IOException, InvalidClassFileException, CancelException {
+		IR ir= retrieveMethodIR(constructFullyQualifiedClass(), "main", "[Ljava/lang/String;", "V");
+		ProgramDependenceGraph pdg= ProgramDependenceGraph.make(ir, engine.buildClassHierarchy());
+		List<List<Integer>> selections= selectionFromArray(new int[][] { { 31 }, { 34, 35 }, { 39 } });
+		PDGPartitionerChecker checker= PDGPartitionerChecker.makePartitionChecker(pdg, selections);
+		checker.computeHeapDependency(callGraph, engine.getPointerAnalysis());
+		checker.checkInterference();
+		assertTrue(checker.hasInterference());
+	}
+
+	// Stage2 constructs objects at the same site as the configuration that Stage1 reads
+	@Test
+	public void testProject19_checkHeapInterference() throws IOException, InvalidClassFileException, CancelException {
+		IR ir= retrieveMethodIR(constructFullyQualifiedClass(), "main", "[Ljava/lang/String;", "V");
+		ProgramDependenceGraph pdg= ProgramDependenceGraph.make(ir, engine.buildClassHierarchy());
+		List<List<Integer>> selections= selectionFromArray(new int[][] { { 28 }, { 31 }, { 35, 36 } });
+		PDGPartitionerChecker checker= PDGPartitionerChecker.makePartitionChecker(pdg, selections);
+		checker.computeHeapDependency(callGraph, engine.getPointerAnalysis());
+		checker.checkInterference();
+		assertFalse(checker.hasInterference());
+		assertTrue(checker.getInterferenceKinds(1).values().contains(InterferenceKind.READ_ONLY));
+	}
+
+	// The object that Stage2 mutates is allocated by a helper method, once per iteration
+	@Test
+	public void testProject20_checkDataParallel() throws IOException, InvalidClassFileException, CancelException {
+		IR ir= retrieveMethodIR(constructFullyQualifiedClass(), "main", "[Ljava/lang/String;", "V");
+		ProgramDependenceGraph pdg= ProgramDependenceGraph.make(ir, engine.buildClassHierarchy());
+		List<List<Integer>> selections= selectionFromArray(new int[][] { { 18 }, { 21 }, { 25, 26 } });
+		PDGPartitionerChecker checker= PDGPartitionerChecker.makePartitionChecker(pdg, selections);
+		checker.computeHeapDependency(callGraph, engine.getPointerAnalysis());
+		checker.checkDataParallel();
+		assertTrue(checker.isDataParallel(2));
+	}
+
+	// The helper methods range from pure to writing a static field
+	@Test
+	public void testProject21_classifyPurity() throws IOException, InvalidClassFileException, CancelException {
+		IR ir= retrieveMethodIR(constructFullyQualifiedClass(), "main", "[Ljava/lang/String;", "V");
+		ProgramDependenceGraph pdg= ProgramDependenceGraph.make(ir, engine.buildClassHierarchy());
+		List<List<Integer>> selections= selectionFromArray(new int[][] { { 33 }, { 36 }, { 40, 41, 42 } });
+		PDGPartitionerChecker checker= PDGPartitionerChecker.makePartitionChecker(pdg, selections);
+		checker.computeHeapDependency(callGraph, engine.getPointerAnalysis());
+		PurityAnalysis purityAnalysis= checker.getPurityAnalysis();
+		assertEquals(Purity.PURE, purityAnalysis.getPurity(helperMethod("square", "I", "I")));
+		assertEquals(Purity.READ_ONLY, purityAnalysis.getPurity(helperMethod("describe", "Lpartitionchecker/Datum;", "Ljava/lang/Integer;")));
+		assertEquals(Purity.LOCALLY_MUTATING, purityAnalysis.getPurity(helperMethod("build", "Ljava/lang/Integer;", "Lpartitionchecker/Datum;")));
+		assertEquals(Purity.GLOBALLY_MUTATING, purityAnalysis.getPurity(helperMethod("record", "", "V")));
+	}
+
+	private MethodReference helperMethod(String methodName, String methodParameters, String returnType) {
+		return descriptorToMethodRef(String.format("Source#%s#%s#(%s)%s", constructFullyQualifiedClass(), methodName, methodParameters, returnType), engine.getClassHierarchy());
+	}
+
+	// The specifications replace what the analysis knows about StringBuilder
+	@Test
+	public void testProject22_checkLibrarySpecifications() throws IOException, InvalidClassFileException, CancelException {
+		IR ir= retrieveMethodIR(constructFullyQualifiedClass(), "main", "[Ljava/lang/String;", "V");
+		List<List<Integer>> selections= selectionFromArray(new int[][] { { 13 }, { 16 }, { 20 } });
+
+		PDGPartitionerChecker threadSafe= PDGPartitionerChecker.makePartitionChecker(ProgramDependenceGraph.make(ir, engine.buildClassHierarchy()), selections);
+		String threadSafeSpecs= "version 1\njava.lang.StringBuilder.append thread-safe\njava.lang.StringBuilder.length thread-safe\n";
+		threadSafe.computeHeapDependency(callGraph, engine.getPointerAnalysis(), LibrarySpecifications.parse(new StringReader(threadSafeSpecs)));
+		threadSafe.checkInterference();
+		assertFalse(threadSafe.hasInterference());
+
+		PDGPartitionerChecker mutating= PDGPartitionerChecker.makePartitionChecker(ProgramDependenceGraph.make(ir, engine.buildClassHierarchy()), selections);
+		String mutatingSpecs= "version 1\njava.lang.StringBuilder.append mutates 0\njava.lang.StringBuilder.length read-only\n";
+		mutating.computeHeapDependency(callGraph, engine.getPointerAnalysis(), LibrarySpecifications.parse(new StringReader(mutatingSpecs)));
+		mutating.checkInterference();
+		assertTrue(mutating.hasInterference());
+	}
+
+	// Every worker of Stage2 would write the same scratch object unless each gets a copy
+	@Test
+	public void testProject23_privatizeScratchObject() throws IOException, InvalidClassFileException, CancelException {
+		IR ir= retrieveMethodIR(constructFullyQualifiedClass(), "main", "[Ljava/lang/String;", "V");
+		ProgramDependenceGraph pdg= ProgramDependenceGraph.make(ir, engine.buildClassHierarchy());
+		List<List<Integer>> selections= selectionFromArray(new int[][] { { 13 }, { 16 }, { 20, 21 } });
+		PDGPartitionerChecker checker= PDGPartitionerChecker.makePartitionChecker(pdg, selections);
+		checker.computeHeapDependency(callGraph, engine.getPointerAnalysis());
+		checker.checkDataParallel();
+		assertFalse(checker.isDataParallel(2));
+
+		List<PrivatizationCandidate> candidates= checker.getPrivatizationCandidates(2);
+		assertEquals(1, candidates.size());
+		assertEquals("scratch", candidates.get(0).getVariableName());
+		assertTrue(candidates.get(0).isLocal());
+		assertTrue(checker.privatize(candidates.get(0)));
+		assertTrue(checker.isDataParallel(2));
+	}
+
+	// Both stages only add to the set, so a concurrent set removes the interference
+	@Test
+	public void testProject24_substituteConcurrentStructure() throws IOException, InvalidClassFileException, CancelException {
+		IR ir= retrieveMethodIR(constructFullyQualifiedClass(), "main", "[Ljava/lang/String;", "V");
+		ProgramDependenceGraph pdg= ProgramDependenceGraph.make(ir, engine.buildClassHierarchy());
+		List<List<Integer>> selections= selectionFromArray(new int[][] { { 16 }, { 19, 20 }, { 24 } });
+		PDGPartitionerChecker checker= PDGPartitionerChecker.makePartitionChecker(pdg, selections);
+		checker.computeHeapDependency(callGraph, engine.getPointerAnalysis());
+		checker.checkInterference();
+		assertTrue(checker.hasInterference());
+
+		List<ConcurrentSubstitution> substitutions= checker.getConcurrentSubstitutions();
+		assertEquals(1, substitutions.size());
+		assertEquals("seen", substitutions.get(0).getVariableName());
+		assertEquals(Structure.SET, substitutions.get(0).getStructure());
+		assertTrue(checker.substitute(substitutions.get(0)));
+		assertTrue(checker.getInterferenceKinds(2).values().contains(InterferenceKind.CONCURRENT));
+	}
+
+	@Test
+	public void testProject25_replaceSharedRandom() throws IOException, InvalidClassFileException, CancelException {
+		IR ir= retrieveMethodIR(constructFullyQualifiedClass(), "main", "[Ljava/lang/String;", "V");
+		ProgramDependenceGraph pdg= ProgramDependenceGraph.make(ir, engine.buildClassHierarchy());
+		List<List<Integer>> selections= selectionFromArray(new int[][] { { 15 }, { 18 }, { 22 } });
+		PDGPartitionerChecker checker= PDGPartitionerChecker.makePartitionChecker(pdg, selections);
+		checker.computeHeapDependency(callGraph, engine.getPointerAnalysis());
+		checker.checkInterference();
+		checker.checkDataParallel();
+
+		List<SharedRandom> randoms= checker.getSharedRandoms();
+		assertEquals(1, randoms.size());
+		assertEquals("random", randoms.get(0).getVariableName());
+		assertEquals(Source.LOCAL, randoms.get(0).getSource());
+		assertEquals(Arrays.asList(1, 2), new ArrayList<Integer>(randoms.get(0).getStageNumbers()));
+		assertTrue(checker.replaceRandom(randoms.get(0)));
+		assertTrue(checker.isDataParallel(1));
+		assertTrue(checker.isDataParallel(2));
+	}
+
+	@Test
+	public void testProject26_findElidableLocks() throws IOException, InvalidClassFileException, CancelException {
+		IR ir= retrieveMethodIR(constructFullyQualifiedClass(), "main", "[Ljava/lang/String;", "V");
+		ProgramDependenceGraph pdg= ProgramDependenceGraph.make(ir, engine.buildClassHierarchy());
+		List<List<Integer>> selections= selectionFromArray(new int[][] { { 12 }, { 15, 16 }, { 20, 21, 22 } });
+		PDGPartitionerChecker checker= PDGPartitionerChecker.makePartitionChecker(pdg, selections);
+		checker.computeHeapDependency(callGraph, engine.getPointerAnalysis());
+
+		List<ElidableLock> locks= checker.getElidableLocks();
+		assertEquals(2, locks.size());
+		assertEquals(ElidableLock.Kind.SYNCHRONIZED_CLASS, locks.get(0).getKind());
+		assertEquals(1, locks.get(0).getStageNumber());
+		assertEquals("line", locks.get(0).getVariableName());
+		assertEquals("java.lang.StringBuilder", locks.get(0).getUnsynchronizedType());
+		assertEquals(ElidableLock.Kind.MONITOR, locks.get(1).getKind());
+		assertEquals(2, locks.get(1).getStageNumber());
+		assertEquals(20, locks.get(1).getLineNumber());
+	}
+
+	// Without the monitor, notifyAll() would throw, so the synchronized block stays
+	@Test
+	public void testProject29_keepsLockForNotify() throws IOException, InvalidClassFileException, CancelException {
+		IR ir= retrieveMethodIR(constructFullyQualifiedClass(), "main", "[Ljava/lang/String;", "V");
+		ProgramDependenceGraph pdg= ProgramDependenceGraph.make(ir, engine.buildClassHierarchy());
+		List<List<Integer>> selections= selectionFromArray(new int[][] { { 12 }, { 15, 16 }, { 20, 21, 22, 23 } });
+		PDGPartitionerChecker checker= PDGPartitionerChecker.makePartitionChecker(pdg, selections);
+		checker.computeHeapDependency(callGraph, engine.getPointerAnalysis());
+
+		List<ElidableLock> locks= checker.getElidableLocks();
+		assertEquals(1, locks.size());
+		assertEquals(ElidableLock.Kind.SYNCHRONIZED_CLASS, locks.get(0).getKind());
+		assertEquals(1, locks.get(0).getStageNumber());
+	}
+
+	// Only Stage1 uses the cache, so it could run speculatively and only retry the iterations that put into it
+	@Test
+	public void testProject27_findSpeculativeStages() throws IOException, InvalidClassFileException, CancelException {
+		IR ir= retrieveMethodIR(constructFullyQualifiedClass(), "main", "[Ljava/lang/String;", "V");
+		ProgramDependenceGraph pdg= ProgramDependenceGraph.make(ir, engine.buildClassHierarchy());
+		List<List<Integer>> selections= selectionFromArray(new int[][] { { 18 }, { 21, 22, 23, 24, 25, 26 }, { 30 } });
+		PDGPartitionerChecker checker= PDGPartitionerChecker.makePartitionChecker(pdg, selections);
+		checker.computeHeapDependency(callGraph, engine.getPointerAnalysis());
+		checker.checkInterference();
+		checker.checkDataParallel();
+		assertFalse(checker.isDataParallel(1));
+
+		List<SpeculativeStage> speculativeStages= checker.getSpeculativeStages();
+		assertEquals(1, speculativeStages.size());
+		assertEquals(1, speculativeStages.get(0).getStageNumber());
+		assertTrue(speculativeStages.get(0).getWriteLines().contains(25));
+		assertFalse(speculativeStages.get(0).getConflictingKeys().isEmpty());
+	}
+
+	@Test
+	public void testProject28_findSpeculativeStages() throws IOException, InvalidClassFileException, CancelException {
+		IR ir= retrieveMethodIR(constructFullyQualifiedClass(), "main", "[Ljava/lang/String;", "V");
+		ProgramDependenceGraph pdg= ProgramDependenceGraph.make(ir, engine.buildClassHierarchy());
+		List<List<Integer>> selections= selectionFromArray(new int[][] { { 18 }, { 21, 22, 23, 24, 25, 26, 27 }, { 31 } });
+		PDGPartitionerChecker checker= PDGPartitionerChecker.makePartitionChecker(pdg, selections);
+		checker.computeHeapDependency(callGraph, engine.getPointerAnalysis());
+		checker.checkInterference();
+		checker.checkDataParallel();
+		assertFalse(checker.isDataParallel(1));
+
+		// A retried iteration would print the miss again
+		assertTrue(checker.getSpeculativeStages().isEmpty());
+	}
+
 	// There is a shared dependency with the statically allocated variable
 	@Test
 	public void testProject6_checkHeapAnalysis() throws IOException, InvalidClassFileException, CancelException {
@@ -396,6 +848,62 @@ public class PDGPartitionCheckerTests extends JFlowTest {
 		assertTrue(checker.hasInterference());
 	}
 
+	// Both stages call SHARED.mutateField() so the repair has to put both calls into the same stage
+	@Test
+	public void testProject6_suggestRepairs() throws IOException, InvalidClassFileException, CancelException {
+		IR ir= retrieveMethodIR(constructFullyQualifiedClass(), "main", "[Ljava/lang/String;", "V");
+		ProgramDependenceGraph pdg= ProgramDependenceGraph.make(ir, engine.buildClassHierarchy());
+		List<List<Integer>> selections= selectionFromArray(new int[][] { { 19 }, { 22, 23 }, { 27, 28 } });
+		PDGPartitionerChecker checker= PDGPartitionerChecker.makePartitionChecker(pdg, selections);
+		checker.computeHeapDependency(callGraph, engine.getPointerAnalysis());
+		checker.checkInterference();
+		assertTrue(checker.hasInterference());
+
+		List<List<Integer>> units= selectionFromArray(new int[][] { { 22 }, { 23 }, { 27 }, { 28 } });
+		PartitionRepairer repairer= PartitionRepairer.makeRepairer(pdg, selections.get(0), units, selections.subList(1, 3), StatementCostModel.makeIntraproceduralModel(pdg));
+		repairer.setHeapEffects(checker.getHeapEffects());
+		List<Suggestion> suggestions= repairer.suggestRepairs(checker.getInterferingStatements(), 3);
+
+		// Moving line 23 into Stage2 is the only repair that keeps two stages
+		assertEquals(1, suggestions.size());
+		assertEquals(0, suggestions.get(0).getMerges());
+		assertEquals(1, suggestions.get(0).getMovedUnits());
+		assertEquals(selectionFromArray(new int[][] { { 22 }, { 23, 27, 28 } }), suggestions.get(0).getPartition().getStageLines());
+	}
+
+	// Moving the statements around should give the same answer as building a new checker
+	@Test
+	public void testProject6_moveLines() throws IOException, InvalidClassFileException, CancelException {
+		IR ir= retrieveMethodIR(constructFullyQualifiedClass(), "main", "[Ljava/lang/String;", "V");
+		ProgramDependenceGraph pdg= ProgramDependenceGraph.make(ir, engine.buildClassHierarchy());
+		List<List<Integer>> selections= selectionFromArray(new int[][] { { 19 }, { 22, 23 }, { 27, 28 } });
+		PDGPartitionerChecker checker= PDGPartitionerChecker.makePartitionChecker(pdg, selections);
+		checker.computeHeapDependency(callGraph, engine.getPointerAnalysis());
+		checker.checkInterference();
+		checker.checkDataParallel();
+		assertTrue(checker.hasInterference());
+		assertFalse(checker.isDataParallel(1));
+
+		List<Integer> line23= selectionFromArray(new int[][] { { 23 } }).get(0);
+		checker.moveLines(line23, 1, 2);
+		assertFalse(checker.hasInterference());
+		assertEquals(selectionFromArray(new int[][] { { 22 } }).get(0), checker.getStage(1).getSelectedLines());
+		assertTrue(checker.getStage(2).getSelectedLines().contains(23));
+		// Without the write to SHARED, Stage1 only creates the object of its iteration
+		assertTrue(checker.isDataParallel(1));
+		assertFalse(checker.isDataParallel(2));
+
+		checker.moveLines(line23, 2, 1);
+		assertTrue(checker.hasInterference());
+		assertFalse(checker.isDataParallel(1));
+
+		// The statements cache their heap effects, a fresh checker can reuse them
+		PDGPartitionerChecker other= PDGPartitionerChecker.makePartitionChecker(pdg, selectionFromArray(new int[][] { { 19 }, { 22 }, { 23, 27, 28 } }));
+		other.computeHeapDependency(checker.getHeapEffects());
+		other.checkInterference();
+		assertFalse(other.hasInterference());
+	}
+
 	// There should not be any interference because we are operating on variables that can be transferred
 	@Test
 	public void testProject7_checkHeapInterference() throws IOException, InvalidClassFileException, CancelException {
@@ -0,0 +1,76 @@
+package edu.illinois.jflow.wala.core.ui.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import edu.illinois.jflow.wala.simulator.PipelineSimulator;
+import edu.illinois.jflow.wala.simulator.SimulationResult;
+
+public class PipelineSimulatorTests {
+
+	private static final double EPSILON= 0.0001;
+
+	private static final int ITEMS= 1000;
+
+	@Test
+	public void testSingleItem() {
+		PipelineSimulator simulator= PipelineSimulator.makeSimulator(Arrays.asList(1.0, 2.0, 3.0), Arrays.asList(0, 0, 0));
+		SimulationResult result= simulator.simulate(1);
+
+		assertEquals(6.0, result.getMakespan(), EPSILON);
+		assertEquals(6.0, result.getAverageLatency(), EPSILON);
+		assertEquals(1.0, result.getSpeedup(), EPSILON);
+	}
+
+	@Test
+	public void testSlowestStageIsTheBottleneck() {
+		PipelineSimulator simulator= PipelineSimulator.makeSimulator(Arrays.asList(1.0, 10.0, 20.0), Arrays.asList(0, 0, 0));
+		SimulationResult result= simulator.simulate(ITEMS);
+
+		assertEquals(0.05, result.getThroughput(), EPSILON);
+		assertEquals(2, result.getBottleneck());
+		assertEquals(1.0, result.getUtilization(2), 0.01);
+		assertTrue(result.getSpeedup() > 1.5);
+		// Stage2 cannot keep up so the items pile up in front of it
+		assertTrue(result.getMaximumOccupancy(2) > ITEMS / 4);
+	}
+
+	@Test
+	public void testReplicatedStage() {
+		PipelineSimulator simulator= PipelineSimulator.makeSimulator(Arrays.asList(1.0, 10.0, 20.0), Arrays.asList(0, 0, 0));
+		simulator.setWorkers(2, 4);
+		SimulationResult result= simulator.simulate(ITEMS);
+
+		assertEquals(0.1, result.getThroughput(), EPSILON);
+		assertEquals(1, result.getBottleneck());
+		assertEquals(0.5, result.getUtilization(2), 0.01);
+	}
+
+	@Test
+	public void testBoundedChannels() {
+		PipelineSimulator simulator= PipelineSimulator.makeSimulator(Arrays.asList(1.0, 1.0, 10.0), Arrays.asList(0, 0, 0));
+		simulator.setChannelCapacity(1);
+		SimulationResult result= simulator.simulate(ITEMS);
+
+		assertEquals(0.1, result.getThroughput(), EPSILON);
+		assertEquals(1, result.getMaximumOccupancy(1));
+		assertEquals(1, result.getMaximumOccupancy(2));
+		// Blocked workers do not count as busy
+		assertEquals(0.1, result.getUtilization(1), 0.01);
+	}
+
+	@Test
+	public void testTransferCost() {
+		PipelineSimulator simulator= PipelineSimulator.makeSimulator(Arrays.asList(0.0, 10.0, 10.0), Arrays.asList(0, 2, 0));
+		simulator.setTransferCost(5);
+		SimulationResult result= simulator.simulate(ITEMS);
+
+		assertEquals(20.0, simulator.getServiceTime(2), EPSILON);
+		assertEquals(0.05, result.getThroughput(), EPSILON);
+		assertEquals(2, result.getBottleneck());
+	}
+}
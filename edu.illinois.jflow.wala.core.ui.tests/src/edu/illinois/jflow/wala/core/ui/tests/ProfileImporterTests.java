@@ -0,0 +1,150 @@
+package edu.illinois.jflow.wala.core.ui.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.ibm.wala.types.ClassLoaderReference;
+import com.ibm.wala.types.MethodReference;
+import com.ibm.wala.types.TypeReference;
+
+import edu.illinois.jflow.wala.profiling.CollapsedStackParser;
+import edu.illinois.jflow.wala.profiling.DependenceProfile;
+import edu.illinois.jflow.wala.profiling.ExecutionProfile;
+import edu.illinois.jflow.wala.profiling.JfrPrintParser;
+import edu.illinois.jflow.wala.profiling.StageProfile;
+
+public class ProfileImporterTests {
+
+	private static final double EPSILON= 0.0001;
+
+	private static final MethodReference PROCESS= method("Lpkg/Worker", "process");
+
+	private static final MethodReference COMPUTE= method("Lpkg/Worker$Inner", "compute");
+
+	@Test
+	public void testCollapsedStacksWithLines() throws IOException {
+		String collapsed= "java/lang/Thread.run_[j];pkg/Worker.process:42_[j];pkg/Worker$Inner.compute:57_[j] 30\n" +
+				"java/lang/Thread.run_[j];pkg/Worker.process:43_[j] 10\n" +
+				"java/lang/Thread.run_[j];java/lang/Object.wait_[j] 60\n";
+		ExecutionProfile profile= CollapsedStackParser.parse(new BufferedReader(new StringReader(collapsed)));
+
+		assertEquals(100, profile.getTotalSamples());
+		assertTrue(profile.hasLineNumbers(PROCESS));
+		assertEquals(0.4, profile.getShare(PROCESS), EPSILON);
+		assertEquals(0.3, profile.getShare(PROCESS, Arrays.asList(42)), EPSILON);
+		assertEquals(0.4, profile.getShare(PROCESS, Arrays.asList(42, 43)), EPSILON);
+		assertEquals(0.3, profile.getShare(COMPUTE), EPSILON);
+	}
+
+	@Test
+	public void testCollapsedStacksWithoutLines() throws IOException {
+		String collapsed= "pkg/Worker.process;pkg/Worker.process 3\n" +
+				"pkg/Other.run 1\n";
+		ExecutionProfile profile= CollapsedStackParser.parse(new BufferedReader(new StringReader(collapsed)));
+
+		// Recursion counts once and without line numbers we fall back to the whole method
+		assertFalse(profile.hasLineNumbers(PROCESS));
+		assertEquals(0.75, profile.getShare(PROCESS, Arrays.asList(42)), EPSILON);
+	}
+
+	@Test
+	public void testJfrPrint() throws IOException {
+		String printed= "jdk.ExecutionSample {\n" +
+				"  startTime = 10:22:33.123\n" +
+				"  stackTrace = [\n" +
+				"    pkg.Worker$Inner.compute(int) line: 57\n" +
+				"    pkg.Worker.process() line: 42\n" +
+				"    ...\n" +
+				"  ]\n" +
+				"}\n" +
+				"jdk.ExecutionSample {\n" +
+				"  stackTrace = [\n" +
+				"    pkg.Worker.process() line: 44\n" +
+				"  ]\n" +
+				"}\n";
+		ExecutionProfile profile= JfrPrintParser.parse(new BufferedReader(new StringReader(printed)));
+
+		assertEquals(2, profile.getTotalSamples());
+		assertEquals(0.5, profile.getShare(COMPUTE), EPSILON);
+		assertEquals(0.5, profile.getShare(PROCESS, Arrays.asList(42, 43)), EPSILON);
+		assertEquals(1.0, profile.getShare(PROCESS), EPSILON);
+	}
+
+	@Test
+	public void testStageProfile() throws IOException {
+		StageProfile profile= new StageProfile();
+		assertTrue(profile.addLine("JFLOW-STAGE 1 100 2000"));
+		assertTrue(profile.addLine("JFLOW-STAGE 1 300 4000"));
+		assertTrue(profile.addLine("JFLOW-STAGE 2 0 12000"));
+		assertTrue(profile.addLine("JFLOW-STAGE 3 50 1000"));
+		assertFalse(profile.addLine("Exception in thread \"main\""));
+		assertFalse(profile.addLine("JFLOW-STAGE 0 1 1"));
+
+		assertEquals(3, profile.getNumberOfStages());
+		assertEquals(2, profile.getSamples(1));
+		assertEquals(3000, profile.getMeanServiceTime(1), EPSILON);
+		assertEquals(200, profile.getMeanWaitTime(1), EPSILON);
+
+		// Stage2 can be replicated and has to keep up with Stage1, Stage3 is fast enough already
+		List<Integer> workers= profile.recommendWorkers(Arrays.asList(false, true, true), 16);
+		assertEquals(Arrays.asList(1, 4, 1), workers);
+		assertEquals(Arrays.asList(1, 2, 1), profile.recommendWorkers(Arrays.asList(false, true, true), 2));
+
+		File file= File.createTempFile("Worker.process", StageProfile.FILE_EXTENSION);
+		try {
+			profile.write(file);
+			StageProfile read= StageProfile.read(file);
+			assertEquals(3, read.getNumberOfStages());
+			assertEquals(3000, read.getMeanServiceTime(1), EPSILON);
+			assertEquals(12000, read.getMeanServiceTime(2), EPSILON);
+		} finally {
+			file.delete();
+		}
+
+		assertEquals("Worker.process" + StageProfile.FILE_EXTENSION, StageProfile.getProfileFile(new File("src/pkg/Worker.java"), "process").getName());
+	}
+
+	@Test
+	public void testDependenceProfile() throws IOException {
+		DependenceProfile profile= new DependenceProfile();
+		assertTrue(profile.isEmpty());
+		profile.addInstrumentedClass("Lpkg/Worker");
+		profile.addInstrumentedClass("Lpkg/Cache");
+		assertFalse(profile.isEmpty());
+
+		assertTrue(profile.addLine("JFLOW-DEPENDENCE Lpkg/Cache.entries 1 2 cross 40"));
+		assertTrue(profile.addLine("JFLOW-DEPENDENCE [I 1 2 same 100"));
+		assertTrue(profile.addLine("JFLOW-ITERATIONS 100"));
+		assertFalse(profile.addLine("JFLOW-DEPENDENCE Lpkg/Cache.entries 1 2 sometimes 40"));
+		assertFalse(profile.addLine("JFLOW-DEPENDENCE Lpkg/Cache.entries -1 2 cross 40"));
+		assertFalse(profile.addLine("JFLOW-STAGE 1 100 2000"));
+		assertEquals(100, profile.getIterations());
+
+		File file= File.createTempFile("Worker.process", DependenceProfile.FILE_EXTENSION);
+		try {
+			profile.write(file);
+			DependenceProfile read= DependenceProfile.read(file);
+			assertEquals(100, read.getIterations());
+			assertEquals(profile.getInstrumentedClasses(), read.getInstrumentedClasses());
+		} finally {
+			file.delete();
+		}
+
+		assertEquals("Worker.process" + DependenceProfile.FILE_EXTENSION, DependenceProfile.getProfileFile(new File("src/pkg/Worker.java"), "process").getName());
+	}
+
+	private static MethodReference method(String className, String methodName) {
+		TypeReference type= TypeReference.findOrCreate(ClassLoaderReference.Application, className);
+		return MethodReference.findOrCreate(type, methodName, "()V");
+	}
+}
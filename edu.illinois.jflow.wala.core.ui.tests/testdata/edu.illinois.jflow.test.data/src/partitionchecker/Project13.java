@@ -0,0 +1,34 @@
+package partitionchecker;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * 
+ * The last stage only accumulates into variables declared before the loop.
+ * These are reductions and should not count as loop-carried dependencies.
+ * 
+ */
+public class Project13 {
+	public static void main(String[] args) {
+		int sum = 0;
+		int count = 0;
+		double max = Double.NEGATIVE_INFINITY;
+		Set<String> seen = new HashSet<String>();
+		for (String s : args) {
+
+			// Begin Stage1
+			int length = s.length();
+			double weight = Math.sqrt(length);
+			// End Stage1
+
+			// Begin Stage2
+			sum += length;
+			count++;
+			max = Math.max(max, weight);
+			seen.add(s);
+			// End Stage2
+		}
+		System.out.println(sum + " " + count + " " + max + " " + seen.size());
+	}
+}
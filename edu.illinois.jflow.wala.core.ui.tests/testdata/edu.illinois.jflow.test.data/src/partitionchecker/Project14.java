@@ -0,0 +1,27 @@
+package partitionchecker;
+
+/**
+ * 
+ * The last stage steps a counter that the first stage reads in the next iteration.
+ * The counter is an induction variable, so the first stage can compute it
+ * from the iteration instead of waiting for the last stage.
+ * 
+ */
+public class Project14 {
+	public static void main(String[] args) {
+		int[] out = new int[args.length];
+		int index = 0;
+		for (String s : args) {
+
+			// Begin Stage1
+			int length = s.length();
+			out[index] = length;
+			// End Stage1
+
+			// Begin Stage2
+			index += 2;
+			// End Stage2
+		}
+		System.out.println(index + " " + out.length);
+	}
+}
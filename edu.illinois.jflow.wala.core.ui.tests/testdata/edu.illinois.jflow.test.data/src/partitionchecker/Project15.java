@@ -0,0 +1,26 @@
+package partitionchecker;
+
+/**
+ * 
+ * Both stages index the arrays with the loop counter, so different
+ * iterations never touch the same element. There should not be any
+ * interference even though the arrays are shared.
+ * 
+ */
+public class Project15 {
+	public static void main(String[] args) {
+		int[] lengths = new int[args.length];
+		int[] squares = new int[args.length];
+		for (int i = 0; i < args.length; i++) {
+
+			// Begin Stage1
+			lengths[i] = args[i].length();
+			// End Stage1
+
+			// Begin Stage2
+			squares[i] = lengths[i] * lengths[i];
+			// End Stage2
+		}
+		System.out.println(squares.length);
+	}
+}
@@ -0,0 +1,25 @@
+package partitionchecker;
+
+/**
+ * 
+ * The second stage reads the element that the first stage wrote in the
+ * previous iteration. The sections overlap so the interference stays.
+ * 
+ */
+public class Project16 {
+	public static void main(String[] args) {
+		int[] lengths = new int[args.length + 1];
+		int[] deltas = new int[args.length];
+		for (int i = 0; i < args.length; i++) {
+
+			// Begin Stage1
+			lengths[i + 1] = args[i].length();
+			// End Stage1
+
+			// Begin Stage2
+			deltas[i] = lengths[i + 1] - lengths[i];
+			// End Stage2
+		}
+		System.out.println(deltas.length);
+	}
+}
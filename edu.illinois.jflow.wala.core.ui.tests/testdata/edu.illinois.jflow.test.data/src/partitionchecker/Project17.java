@@ -0,0 +1,38 @@
+package partitionchecker;
+
+/**
+ * 
+ * Stage1 gets a new object from a factory for every iteration and hands it
+ * to Stage2. Both mutate it, but never at the same time.
+ * 
+ */
+public class Project17 {
+
+	private String field = new String();
+
+	private Project17(String fieldArg) {
+		this.field = fieldArg;
+	}
+
+	public static Project17 create(String fieldArg) {
+		return new Project17(fieldArg);
+	}
+
+	public void mutateField() {
+		field = field + "mutated";
+	}
+
+	public static void main(String[] args) {
+		for (String s : args) {
+
+			// Begin Stage1
+			Project17 p = create(s);
+			p.mutateField();
+			// End Stage1
+
+			// Begin Stage2
+			p.mutateField();
+			// End Stage2
+		}
+	}
+}
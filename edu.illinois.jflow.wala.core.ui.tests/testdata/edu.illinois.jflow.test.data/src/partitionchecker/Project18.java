@@ -0,0 +1,43 @@
+package partitionchecker;
+
+/**
+ * 
+ * Same as Project17 but the factory always returns the same object, so
+ * Stage1 mutates it for the next iteration while Stage2 still uses it.
+ * 
+ */
+public class Project18 {
+
+	private static Project18 cached;
+
+	private String field = new String();
+
+	private Project18(String fieldArg) {
+		this.field = fieldArg;
+	}
+
+	public static Project18 create(String fieldArg) {
+		if (cached == null) {
+			cached = new Project18(fieldArg);
+		}
+		return cached;
+	}
+
+	public void mutateField() {
+		field = field + "mutated";
+	}
+
+	public static void main(String[] args) {
+		for (String s : args) {
+
+			// Begin Stage1
+			Project18 p = create(s);
+			p.mutateField();
+			// End Stage1
+
+			// Begin Stage2
+			p.mutateField();
+			// End Stage2
+		}
+	}
+}
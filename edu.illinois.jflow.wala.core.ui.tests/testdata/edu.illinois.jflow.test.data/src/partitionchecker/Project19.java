@@ -0,0 +1,40 @@
+package partitionchecker;
+
+/**
+ * 
+ * The factory allocates both the configuration before the loop and the
+ * objects in Stage2, so the pointer analysis merges them. Stage1 only
+ * reads the configuration and the only writes are in the constructor.
+ * 
+ */
+public class Project19 {
+
+	private final int scale;
+
+	private Project19(int scale) {
+		this.scale = scale;
+	}
+
+	public static Project19 create(int scale) {
+		return new Project19(scale);
+	}
+
+	public int scale(int value) {
+		return value * scale;
+	}
+
+	public static void main(String[] args) {
+		Project19 config = create(2);
+		for (String s : args) {
+
+			// Begin Stage1
+			int length = config.scale(s.length());
+			// End Stage1
+
+			// Begin Stage2
+			Project19 weighted = create(length);
+			System.out.println(weighted.scale(length));
+			// End Stage2
+		}
+	}
+}
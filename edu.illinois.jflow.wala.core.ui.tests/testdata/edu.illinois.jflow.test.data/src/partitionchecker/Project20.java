@@ -0,0 +1,30 @@
+package partitionchecker;
+
+/**
+ * 
+ * Stage2 mutates an object that a helper method allocates. Every iteration
+ * gets its own object, so several workers can run Stage2 at once.
+ * 
+ */
+public class Project20 {
+
+	private static Datum build(String s) {
+		Datum datum = new Datum(s.length());
+		datum.setField(datum.getField() + 1);
+		return datum;
+	}
+
+	public static void main(String[] args) {
+		for (String s : args) {
+
+			// Begin Stage1
+			int length = s.length();
+			// End Stage1
+
+			// Begin Stage2
+			Datum datum = build(s);
+			datum.setField(datum.getField() + length);
+			// End Stage2
+		}
+	}
+}
@@ -0,0 +1,46 @@
+package partitionchecker;
+
+/**
+ * 
+ * Helper methods with different side effects: square() is pure,
+ * describe() only reads the heap, build() only writes the object that it
+ * allocates and record() writes a static field.
+ * 
+ */
+public class Project21 {
+
+	static int recorded;
+
+	private static int square(int x) {
+		return x * x;
+	}
+
+	private static Integer describe(Datum datum) {
+		return datum.getField();
+	}
+
+	private static Datum build(Integer value) {
+		Datum datum = new Datum(value);
+		datum.setField(value);
+		return datum;
+	}
+
+	private static void record() {
+		recorded++;
+	}
+
+	public static void main(String[] args) {
+		for (String s : args) {
+
+			// Begin Stage1
+			int size = square(s.length());
+			// End Stage1
+
+			// Begin Stage2
+			Datum datum = build(size);
+			describe(datum);
+			record();
+			// End Stage2
+		}
+	}
+}
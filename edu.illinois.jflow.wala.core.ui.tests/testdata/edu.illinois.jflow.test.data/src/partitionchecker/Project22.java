@@ -0,0 +1,24 @@
+package partitionchecker;
+
+/**
+ * 
+ * Both stages use the same StringBuilder. They interfere unless the library
+ * specifications declare its methods thread-safe.
+ * 
+ */
+public class Project22 {
+
+	public static void main(String[] args) {
+		StringBuilder log = new StringBuilder();
+		for (String s : args) {
+
+			// Begin Stage1
+			log.append(s);
+			// End Stage1
+
+			// Begin Stage2
+			System.out.println(log.length());
+			// End Stage2
+		}
+	}
+}
@@ -0,0 +1,25 @@
+package partitionchecker;
+
+/**
+ * 
+ * Stage2 reuses a scratch object that is created before the loop. Nothing else
+ * uses it, so each worker of Stage2 can have its own copy.
+ * 
+ */
+public class Project23 {
+
+	public static void main(String[] args) {
+		Datum scratch = new Datum(0);
+		for (String s : args) {
+
+			// Begin Stage1
+			int length = s.length();
+			// End Stage1
+
+			// Begin Stage2
+			scratch.setField(length);
+			System.out.println(scratch.getField());
+			// End Stage2
+		}
+	}
+}
@@ -0,0 +1,29 @@
+package partitionchecker;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * 
+ * Both stages add to the same set. They only add to it, so a concurrent set
+ * removes the interference.
+ * 
+ */
+public class Project24 {
+
+	public static void main(String[] args) {
+		Set<String> seen = new HashSet<String>();
+		for (String s : args) {
+
+			// Begin Stage1
+			seen.add(s);
+			String upper = s.toUpperCase();
+			// End Stage1
+
+			// Begin Stage2
+			seen.add(upper);
+			// End Stage2
+		}
+		System.out.println(seen.size());
+	}
+}
@@ -0,0 +1,26 @@
+package partitionchecker;
+
+import java.util.Random;
+
+/**
+ * 
+ * Both stages draw from the same generator. Its seed keeps them from running
+ * on several workers, unless each worker draws from its own generator.
+ * 
+ */
+public class Project25 {
+
+	public static void main(String[] args) {
+		Random random = new Random(42);
+		for (String s : args) {
+
+			// Begin Stage1
+			double x = random.nextDouble() * s.length();
+			// End Stage1
+
+			// Begin Stage2
+			double y = random.nextGaussian() + x;
+			// End Stage2
+		}
+	}
+}
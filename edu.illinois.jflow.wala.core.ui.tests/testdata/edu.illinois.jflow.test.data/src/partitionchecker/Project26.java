@@ -0,0 +1,26 @@
+package partitionchecker;
+
+/**
+ * 
+ * Each iteration builds its own StringBuffer and hands it to the next stage,
+ * so only one worker at a time can reach it and locking it is needless.
+ * 
+ */
+public class Project26 {
+
+	public static void main(String[] args) {
+		for (String s : args) {
+
+			// Begin Stage1
+			StringBuffer line = new StringBuffer();
+			line.append(s).append(',');
+			// End Stage1
+
+			// Begin Stage2
+			synchronized (line) {
+				line.append(s.length());
+			}
+			// End Stage2
+		}
+	}
+}
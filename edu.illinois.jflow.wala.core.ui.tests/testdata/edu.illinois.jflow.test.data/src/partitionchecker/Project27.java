@@ -0,0 +1,38 @@
+package partitionchecker;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 
+ * Stage1 memoizes into a cache that only it uses. It has to stay on one
+ * worker since it writes the cache, although it rarely does once the cache is
+ * warm.
+ * 
+ */
+public class Project27 {
+
+	public static void main(String[] args) {
+		Map<Integer, Integer> cache = new HashMap<Integer, Integer>();
+		int[] results = new int[1000];
+		for (int i = 0; i < 1000; i++) {
+
+			// Begin Stage1
+			int key = i % 10;
+			Integer value = cache.get(key);
+			if (value == null) {
+				value = compute(key);
+				cache.put(key, value);
+			}
+			// End Stage1
+
+			// Begin Stage2
+			results[i] = value * 2;
+			// End Stage2
+		}
+	}
+
+	static Integer compute(int key) {
+		return key * key;
+	}
+}
@@ -0,0 +1,38 @@
+package partitionchecker;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 
+ * Like Project27, but Stage1 also logs every miss. Running an iteration of it
+ * again would log the miss twice, so it cannot run speculatively.
+ * 
+ */
+public class Project28 {
+
+	public static void main(String[] args) {
+		Map<Integer, Integer> cache = new HashMap<Integer, Integer>();
+		int[] results = new int[1000];
+		for (int i = 0; i < 1000; i++) {
+
+			// Begin Stage1
+			int key = i % 10;
+			Integer value = cache.get(key);
+			if (value == null) {
+				System.out.println("Miss " + key);
+				value = compute(key);
+				cache.put(key, value);
+			}
+			// End Stage1
+
+			// Begin Stage2
+			results[i] = value * 2;
+			// End Stage2
+		}
+	}
+
+	static Integer compute(int key) {
+		return key * key;
+	}
+}
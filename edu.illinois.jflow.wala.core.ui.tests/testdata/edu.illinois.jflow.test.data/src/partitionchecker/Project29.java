@@ -0,0 +1,27 @@
+package partitionchecker;
+
+/**
+ * 
+ * Like Project26, but Stage2 notifies on the StringBuffer, which needs the
+ * monitor even though only one worker at a time can reach it.
+ * 
+ */
+public class Project29 {
+
+	public static void main(String[] args) {
+		for (String s : args) {
+
+			// Begin Stage1
+			StringBuffer line = new StringBuffer();
+			line.append(s).append(',');
+			// End Stage1
+
+			// Begin Stage2
+			synchronized (line) {
+				line.append(s.length());
+				line.notifyAll();
+			}
+			// End Stage2
+		}
+	}
+}
@@ -0,0 +1,197 @@
+package edu.illinois.jflow.jflow.wala.dataflowanalysis;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.ibm.wala.ipa.callgraph.CGNode;
+import com.ibm.wala.ipa.callgraph.propagation.ArrayContentsKey;
+import com.ibm.wala.ipa.callgraph.propagation.InstanceKey;
+import com.ibm.wala.ipa.callgraph.propagation.PointerKey;
+import com.ibm.wala.ssa.SSAAbstractInvokeInstruction;
+import com.ibm.wala.ssa.SSAArrayReferenceInstruction;
+import com.ibm.wala.ssa.SSAInstruction;
+import com.ibm.wala.util.intset.OrdinalSet;
+
+import edu.illinois.jflow.jflow.wala.dataflowanalysis.InductionVariableAnalyzer.AffineExpression;
+
+/**
+ * The pointer analysis has a single ArrayContentsKey for all the elements of the arrays allocated
+ * at the same site, so out[i]= f(in[i]) looks like every iteration writes the element that every
+ * other iteration reads.
+ *
+ * This class looks at the indices instead. If every access of a stage to the array is directly in
+ * the loop (not in a callee) and its index is an affine function of an induction variable, e.g.,
+ * 2 * i + 1, then the elements that the stage accesses in one iteration form a section. Two sections
+ * with the same coefficient only overlap across iterations if their offsets are a multiple of the
+ * stride apart. Accesses of the same iteration are ordered by the channels between the stages.
+ *
+ * @author nchen
+ *
+ */
+public class ArraySectionAnalyzer {
+
+	private final PDGPartitionerChecker checker;
+
+	private final StatementHeapEffects heapEffects;
+
+	// The direct array accesses of each statement, grouped by the arrays that they can access
+	private Map<Statement, Map<InstanceKey, List<SSAArrayReferenceInstruction>>> statement2Accesses= new HashMap<Statement, Map<InstanceKey, List<SSAArrayReferenceInstruction>>>();
+
+	public ArraySectionAnalyzer(PDGPartitionerChecker checker, StatementHeapEffects heapEffects) {
+		this.checker= checker;
+		this.heapEffects= heapEffects;
+	}
+
+	/**
+	 * @return true if the elements of the array that the stage accesses in one iteration are never
+	 *         accessed by the other stage in a different iteration. Pass the same stage twice to
+	 *         check the workers of a data-parallel stage against each other.
+	 */
+	public boolean isDisjointAcrossIterations(PipelineStage stage, PipelineStage otherStage, ArrayContentsKey key) {
+		List<AffineExpression> sections= getSections(stage, key);
+		if (sections == null) {
+			return false;
+		}
+		List<AffineExpression> otherSections= stage == otherStage ? sections : getSections(otherStage, key);
+		if (otherSections == null) {
+			return false;
+		}
+		for (AffineExpression section : sections) {
+			for (AffineExpression otherSection : otherSections) {
+				if (!isDisjointAcrossIterations(section, otherSection)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return true if some element of the array that the stage accesses in one iteration is surely
+	 *         accessed by the other stage in another iteration, e.g., a[i] and a[i - 1]
+	 */
+	public boolean isOverlappingAcrossIterations(PipelineStage stage, PipelineStage otherStage, ArrayContentsKey key) {
+		List<AffineExpression> sections= getSections(stage, key);
+		List<AffineExpression> otherSections= getSections(otherStage, key);
+		if (sections == null || otherSections == null) {
+			return false;
+		}
+		for (AffineExpression section : sections) {
+			for (AffineExpression otherSection : otherSections) {
+				if (isOverlappingAcrossIterations(section, otherSection)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	// Assumes that the loop runs long enough for the iterations to meet
+	private static boolean isOverlappingAcrossIterations(AffineExpression section, AffineExpression otherSection) {
+		if (section.getVariable().getHeaderValue() != otherSection.getVariable().getHeaderValue() || section.getCoefficient() != otherSection.getCoefficient()) {
+			return false;
+		}
+		long stride= section.getStride();
+		long distance= otherSection.getOffset() - section.getOffset();
+		if (stride == 0) {
+			return distance == 0; // The same element in every iteration
+		}
+		return distance != 0 && distance % stride == 0;
+	}
+
+	/*
+	 * The section accesses coefficient * (start + step * t) + offset in iteration t. Two sections
+	 * with the same coefficient access the same element in iterations t and t' only if
+	 * stride * (t - t') is the difference of their offsets.
+	 */
+	private static boolean isDisjointAcrossIterations(AffineExpression section, AffineExpression otherSection) {
+		if (section.getVariable().getHeaderValue() != otherSection.getVariable().getHeaderValue() || section.getCoefficient() != otherSection.getCoefficient()) {
+			return false;
+		}
+		long stride= section.getStride();
+		if (stride == 0) {
+			return false;
+		}
+		long distance= otherSection.getOffset() - section.getOffset();
+		return distance == 0 || distance % stride != 0;
+	}
+
+	/*
+	 * Returns null if the stage accesses the array in a way that we cannot describe
+	 */
+	private List<AffineExpression> getSections(PipelineStage stage, ArrayContentsKey key) {
+		Set<Statement> accesses= new HashSet<Statement>();
+		if (stage.referringStatements(key) != null) {
+			accesses.addAll(stage.referringStatements(key));
+		}
+		if (stage.modifyingStatements(key) != null) {
+			accesses.addAll(stage.modifyingStatements(key));
+		}
+
+		List<AffineExpression> sections= new ArrayList<AffineExpression>();
+		for (Statement statement : accesses) {
+			if (accessesThroughCall(statement, key)) {
+				return null;
+			}
+			List<SSAArrayReferenceInstruction> instructions= getAccesses(statement).get(key.getInstanceKey());
+			if (instructions == null) {
+				return null; // The key came from somewhere we did not expect
+			}
+			for (SSAArrayReferenceInstruction instruction : instructions) {
+				AffineExpression section= checker.getAffineExpression(instruction.getIndex());
+				if (section == null) {
+					return null;
+				}
+				sections.add(section);
+			}
+		}
+		return sections;
+	}
+
+	private boolean accessesThroughCall(Statement statement, PointerKey key) {
+		CGNode cgNode= heapEffects.getCgNode();
+		for (SSAInstruction instruction : statement.retrieveAllSSAInstructions()) {
+			if (instruction instanceof SSAAbstractInvokeInstruction) {
+				for (CGNode target : heapEffects.getCallGraph().getPossibleTargets(cgNode, ((SSAAbstractInvokeInstruction)instruction).getCallSite())) {
+					if (contains(heapEffects.getMod().get(target), key) || contains(heapEffects.getRef().get(target), key)) {
+						return true;
+					}
+				}
+			}
+		}
+		return false;
+	}
+
+	private static boolean contains(OrdinalSet<PointerKey> set, PointerKey key) {
+		return set != null && set.contains(key);
+	}
+
+	private Map<InstanceKey, List<SSAArrayReferenceInstruction>> getAccesses(Statement statement) {
+		Map<InstanceKey, List<SSAArrayReferenceInstruction>> accesses= statement2Accesses.get(statement);
+		if (accesses != null) {
+			return accesses;
+		}
+
+		accesses= new HashMap<InstanceKey, List<SSAArrayReferenceInstruction>>();
+		for (SSAInstruction instruction : statement.retrieveAllSSAInstructions()) {
+			if (instruction instanceof SSAArrayReferenceInstruction) {
+				SSAArrayReferenceInstruction arrayInstruction= (SSAArrayReferenceInstruction)instruction;
+				PointerKey array= heapEffects.getHeapModel().getPointerKeyForLocal(heapEffects.getCgNode(), arrayInstruction.getArrayRef());
+				for (InstanceKey instanceKey : heapEffects.getPointerAnalysis().getPointsToSet(array)) {
+					List<SSAArrayReferenceInstruction> instructions= accesses.get(instanceKey);
+					if (instructions == null) {
+						instructions= new ArrayList<SSAArrayReferenceInstruction>();
+						accesses.put(instanceKey, instructions);
+					}
+					instructions.add(arrayInstruction);
+				}
+			}
+		}
+		statement2Accesses.put(statement, accesses);
+		return accesses;
+	}
+}
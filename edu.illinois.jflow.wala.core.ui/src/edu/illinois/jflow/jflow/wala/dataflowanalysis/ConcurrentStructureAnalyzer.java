@@ -0,0 +1,221 @@
+package edu.illinois.jflow.jflow.wala.dataflowanalysis;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.ibm.wala.ipa.callgraph.propagation.AllocationSiteInNode;
+import com.ibm.wala.ipa.callgraph.propagation.HeapGraph;
+import com.ibm.wala.ipa.callgraph.propagation.InstanceKey;
+import com.ibm.wala.ipa.callgraph.propagation.PointerKey;
+import com.ibm.wala.ssa.DefUse;
+import com.ibm.wala.ssa.SSAAbstractInvokeInstruction;
+import com.ibm.wala.ssa.SSAInstruction;
+import com.ibm.wala.ssa.SSANewInstruction;
+import com.ibm.wala.types.TypeReference;
+import com.ibm.wala.util.collections.Iterator2Iterable;
+import com.ibm.wala.util.intset.OrdinalSet;
+import com.ibm.wala.util.strings.Atom;
+
+import edu.illinois.jflow.jflow.wala.dataflowanalysis.ConcurrentSubstitution.Structure;
+
+/**
+ * Finds the collections and StringBuilders that the stages interfere on but only add to, e.g.,
+ *
+ * <pre>
+ * Map&lt;String, String&gt; index= new HashMap&lt;String, String&gt;();
+ * for (File file : files) {
+ * 	String word= firstWord(file); // Stage1
+ * 	index.put(word, file.getName()); // Stage2
+ * }
+ * </pre>
+ *
+ * Every use of the variable in the loop must be a call that adds to the structure and whose result
+ * is not used, e.g., put() but not get() or size(): the updates then do not depend on each other,
+ * so it does not matter that the stages and their workers make them at the same time, as long as
+ * the structure is safe to update concurrently. The structure must be created before the loop by a
+ * new that the refactoring can replace, and nothing else in the loop may reach it.
+ *
+ * Unlike a Reduction, the structure can be updated by several stages, but the updates can end up
+ * in a different order than in the sequential loop, see Structure.isOrderSensitive().
+ *
+ * @author nchen
+ *
+ */
+public class ConcurrentStructureAnalyzer {
+
+	private final PDGPartitionerChecker checker;
+
+	private final StatementHeapEffects heapEffects;
+
+	private final DefUse du;
+
+	public ConcurrentStructureAnalyzer(PDGPartitionerChecker checker, StatementHeapEffects heapEffects) {
+		this.checker= checker;
+		this.heapEffects= heapEffects;
+		this.du= new DefUse(heapEffects.getPdg().getIr());
+	}
+
+	/**
+	 * @param blockingKeys the locations that the stages interfere on
+	 * @return the structures that could be replaced by concurrent ones, each covering some of the
+	 *         blocking locations
+	 */
+	public List<ConcurrentSubstitution> findSubstitutions(Set<PointerKey> blockingKeys) {
+		List<ConcurrentSubstitution> substitutions= new ArrayList<ConcurrentSubstitution>();
+		if (blockingKeys.isEmpty()) {
+			return substitutions;
+		}
+
+		Set<Statement> loopStatements= checker.getOwnershipTransferAnalyzer().getLoopStatements();
+		for (Map.Entry<Integer, String> root : findRoots(loopStatements).entrySet()) {
+			int valueNumber= root.getKey();
+			SSANewInstruction allocation= (SSANewInstruction)du.getDef(valueNumber);
+			TypeReference type= allocation.getConcreteType();
+			Structure structure= Structure.forAllocatedType(type);
+
+			ConcurrentSubstitution substitution= new ConcurrentSubstitution(root.getValue(), structure);
+			substitution.addObjects(getStructureObjects(valueNumber, type));
+			for (PointerKey key : blockingKeys) {
+				if (substitution.owns(key)) {
+					substitution.addBlockingKey(key);
+				}
+			}
+			if (substitution.getBlockingKeys().isEmpty()) {
+				continue;
+			}
+
+			Set<Statement> updates= new HashSet<Statement>();
+			if (!collectUpdates(valueNumber, structure, loopStatements, updates) || isReachedOtherwise(substitution, updates, loopStatements)) {
+				continue;
+			}
+			for (int stageNumber= 0; stageNumber < checker.getNumberOfStages(); stageNumber++) {
+				for (PDGNode node : checker.getStage(stageNumber).getSelectedStatements()) {
+					if (updates.contains(node)) {
+						substitution.addStageNumber(stageNumber);
+					}
+				}
+			}
+			substitutions.add(substitution);
+		}
+		return substitutions;
+	}
+
+	// The locals that the loop uses and that a new of a structure that we know defines before the loop
+	private Map<Integer, String> findRoots(Set<Statement> loopStatements) {
+		Map<Integer, String> roots= new LinkedHashMap<Integer, String>();
+		for (Statement statement : loopStatements) {
+			for (SSAInstruction instruction : statement.retrieveAllSSAInstructions()) {
+				for (int use= 0; use < instruction.getNumberOfUses(); use++) {
+					int valueNumber= instruction.getUse(use);
+					SSAInstruction def= du.getDef(valueNumber);
+					if (roots.containsKey(valueNumber) || !(def instanceof SSANewInstruction) || Structure.forAllocatedType(((SSANewInstruction)def).getConcreteType()) == null) {
+						continue;
+					}
+					String[] names= statement.getLocalNames(instruction, valueNumber);
+					if (!loopStatements.contains(heapEffects.getPdg().getInstruction2Statement().get(def)) && names != null && names.length > 0 && names[0] != null) {
+						roots.put(valueNumber, names[0]);
+					}
+				}
+			}
+		}
+		return roots;
+	}
+
+	/*
+	 * Every use in the loop must be an update of the structure whose result is unused, or only used to
+	 * update it again, e.g., log.append(a).append(b)
+	 */
+	private boolean collectUpdates(int valueNumber, Structure structure, Set<Statement> loopStatements, Set<Statement> updates) {
+		for (SSAInstruction use : Iterator2Iterable.make(du.getUses(valueNumber))) {
+			Statement statement= heapEffects.getPdg().getInstruction2Statement().get(use);
+			if (!loopStatements.contains(statement)) {
+				continue; // Filled before or read after the loop
+			}
+			if (!(use instanceof SSAAbstractInvokeInstruction)) {
+				return false;
+			}
+			SSAAbstractInvokeInstruction invoke= (SSAAbstractInvokeInstruction)use;
+			if (invoke.isStatic() || invoke.getReceiver() != valueNumber || !structure.isUpdate(invoke.getDeclaredTarget().getName().toString())) {
+				return false;
+			}
+			for (int index= 1; index < invoke.getNumberOfUses(); index++) {
+				if (invoke.getUse(index) == valueNumber) {
+					return false; // e.g., list.addAll(list)
+				}
+			}
+			updates.add(statement);
+			if (invoke.hasDef() && !collectUpdates(invoke.getDef(), structure, loopStatements, updates)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// Through another variable or a field, the loop could read the structure while it is updated
+	private boolean isReachedOtherwise(ConcurrentSubstitution substitution, Set<Statement> updates, Set<Statement> loopStatements) {
+		for (Statement statement : loopStatements) {
+			if (updates.contains(statement)) {
+				continue;
+			}
+			for (PointerKey key : statement.getRefs()) {
+				if (substitution.owns(key)) {
+					return true;
+				}
+			}
+			for (PointerKey key : statement.getMods()) {
+				if (substitution.owns(key)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/*
+	 * The structure and what its own implementation allocates for it, e.g., the entries and the table
+	 * of a HashMap or the characters of a StringBuilder, but not the elements that were added to it
+	 */
+	private Set<InstanceKey> getStructureObjects(int valueNumber, TypeReference type) {
+		Set<InstanceKey> objects= new HashSet<InstanceKey>();
+		PointerKey local= heapEffects.getHeapModel().getPointerKeyForLocal(heapEffects.getCgNode(), valueNumber);
+		OrdinalSet<InstanceKey> pointsTo= heapEffects.getPointerAnalysis().getPointsToSet(local);
+		if (pointsTo == null) {
+			return objects;
+		}
+		objects.addAll(OrdinalSet.toCollection(pointsTo));
+
+		String structurePackage= type.getName().getPackage().toString();
+		HeapGraph heapGraph= heapEffects.getPointerAnalysis().getHeapGraph();
+		LinkedList<Object> worklist= new LinkedList<Object>(objects);
+		while (!worklist.isEmpty()) {
+			Object node= worklist.removeFirst();
+			if (!heapGraph.containsNode(node)) {
+				continue;
+			}
+			for (Object succ : Iterator2Iterable.make(heapGraph.getSuccNodes(node))) {
+				if (succ instanceof InstanceKey) {
+					if (isAllocatedByImplementation((InstanceKey)succ, structurePackage) && objects.add((InstanceKey)succ)) {
+						worklist.add(succ);
+					}
+				} else {
+					worklist.add(succ); // The fields of the structure
+				}
+			}
+		}
+		return objects;
+	}
+
+	// e.g., by HashMap.addEntry() or by Arrays.copyOf() when an ArrayList grows
+	private static boolean isAllocatedByImplementation(InstanceKey instanceKey, String structurePackage) {
+		if (!(instanceKey instanceof AllocationSiteInNode)) {
+			return false;
+		}
+		Atom allocatingPackage= ((AllocationSiteInNode)instanceKey).getNode().getMethod().getDeclaringClass().getName().getPackage();
+		return allocatingPackage != null && (allocatingPackage.toString().equals(structurePackage) || allocatingPackage.toString().equals("java/util"));
+	}
+}
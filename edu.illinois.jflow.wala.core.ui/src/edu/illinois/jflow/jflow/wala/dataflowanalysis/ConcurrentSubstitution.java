@@ -0,0 +1,165 @@
+package edu.illinois.jflow.jflow.wala.dataflowanalysis;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import com.ibm.wala.ipa.callgraph.propagation.InstanceKey;
+import com.ibm.wala.ipa.callgraph.propagation.PointerKey;
+import com.ibm.wala.types.TypeReference;
+
+/**
+ * A collection or StringBuilder, created before the loop, that the stages only add to, e.g.,
+ * index.put(word, file) or log.append(line). The stages interfere on its internals, but the
+ * updates do not need to see each other, so a concurrent structure of the same kind removes the
+ * interference. See ConcurrentStructureAnalyzer.
+ *
+ * @author nchen
+ *
+ */
+public class ConcurrentSubstitution {
+
+	public enum Structure {
+		MAP("java.util.concurrent.ConcurrentHashMap", "put", "putAll"),
+		SORTED_MAP("java.util.concurrent.ConcurrentSkipListMap", "put", "putAll"),
+		SET("java.util.concurrent.ConcurrentHashMap", "add", "addAll"), // Through Collections.newSetFromMap()
+		SORTED_SET("java.util.concurrent.ConcurrentSkipListSet", "add", "addAll"),
+		LIST("java.util.concurrent.ConcurrentLinkedQueue", "add", "addAll"),
+		BUFFER("java.lang.StringBuffer", "append");
+
+		private final String concurrentType;
+
+		private final List<String> updates;
+
+		private Structure(String concurrentType, String... updates) {
+			this.concurrentType= concurrentType;
+			this.updates= Arrays.asList(updates);
+		}
+
+		/**
+		 * @return the qualified name of the class that replaces the structure
+		 */
+		public String getConcurrentType() {
+			return concurrentType;
+		}
+
+		/**
+		 * @return true if the method only adds to the structure, without reading it
+		 */
+		public boolean isUpdate(String methodName) {
+			return updates.contains(methodName);
+		}
+
+		public boolean isMap() {
+			return this == MAP || this == SORTED_MAP;
+		}
+
+		/**
+		 * @return true if the concurrent structure throws a NullPointerException for a null key,
+		 *         value or element, which the original one accepts
+		 */
+		public boolean rejectsNull() {
+			return this != BUFFER;
+		}
+
+		/**
+		 * @return true if the result depends on the order of the updates: the order of the elements
+		 *         (lists and buffers) or which value is kept for a key (maps)
+		 */
+		public boolean isOrderSensitive() {
+			return this != SET && this != SORTED_SET;
+		}
+
+		/**
+		 * @return the structure that an allocation of the type creates, null if we do not substitute
+		 *         it. LinkedHashMap and LinkedHashSet are left alone since no concurrent structure
+		 *         keeps their order.
+		 */
+		static Structure forAllocatedType(TypeReference type) {
+			String name= type.getName().toString();
+			if (name.equals("Ljava/util/HashMap")) {
+				return MAP;
+			} else if (name.equals("Ljava/util/TreeMap")) {
+				return SORTED_MAP;
+			} else if (name.equals("Ljava/util/HashSet")) {
+				return SET;
+			} else if (name.equals("Ljava/util/TreeSet")) {
+				return SORTED_SET;
+			} else if (name.equals("Ljava/util/ArrayList") || name.equals("Ljava/util/LinkedList")) {
+				return LIST;
+			} else if (name.equals("Ljava/lang/StringBuilder")) {
+				return BUFFER;
+			}
+			return null;
+		}
+	}
+
+	private final String variableName;
+
+	private final Structure structure;
+
+	private final Set<InstanceKey> objects= new HashSet<InstanceKey>(); // The structure and its internals, e.g., the entries of a map
+
+	private final Set<PointerKey> blockingKeys= new HashSet<PointerKey>();
+
+	private final SortedSet<Integer> stageNumbers= new TreeSet<Integer>();
+
+	ConcurrentSubstitution(String variableName, Structure structure) {
+		this.variableName= variableName;
+		this.structure= structure;
+	}
+
+	void addObjects(Set<InstanceKey> instanceKeys) {
+		objects.addAll(instanceKeys);
+	}
+
+	void addBlockingKey(PointerKey key) {
+		blockingKeys.add(key);
+	}
+
+	void addStageNumber(int stageNumber) {
+		stageNumbers.add(stageNumber);
+	}
+
+	// For querying
+	///////////////
+
+	public String getVariableName() {
+		return variableName;
+	}
+
+	public Structure getStructure() {
+		return structure;
+	}
+
+	public boolean isOrderSensitive() {
+		return structure.isOrderSensitive();
+	}
+
+	/**
+	 * @return the stages that update the structure, Stage1 is 1 and the generator is 0
+	 */
+	public SortedSet<Integer> getStageNumbers() {
+		return stageNumbers;
+	}
+
+	/**
+	 * @return the interfering locations that the substitution removes
+	 */
+	public Set<PointerKey> getBlockingKeys() {
+		return blockingKeys;
+	}
+
+	boolean owns(PointerKey key) {
+		InstanceKey owner= OwnershipTransferAnalyzer.getOwner(key);
+		return owner != null && objects.contains(owner);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("Stage%s: %s %s", stageNumbers, structure, variableName);
+	}
+}
@@ -0,0 +1,98 @@
+package edu.illinois.jflow.jflow.wala.dataflowanalysis;
+
+/**
+ * A lock that a stage takes on objects that only one worker can reach at a time, so it never
+ * contends but still costs a monitor operation on the hot path. See LockElisionAnalyzer.
+ *
+ * @author nchen
+ *
+ */
+public class ElidableLock {
+
+	public enum Kind {
+		MONITOR, // synchronized (x) { ... }, which can become a plain block
+		SYNCHRONIZED_CLASS, // A Vector, Hashtable or StringBuffer, which can become its unsynchronized equivalent
+		SYNCHRONIZED_METHOD; // A call to a synchronized method, whose other callers may need the lock
+
+		/**
+		 * @return true if the refactoring can remove the lock in the stage itself
+		 */
+		public boolean isRemovable() {
+			return this != SYNCHRONIZED_METHOD;
+		}
+	}
+
+	private final Kind kind;
+
+	private final int stageNumber;
+
+	private final int lineNumber;
+
+	private final String variableName;
+
+	private final String typeName;
+
+	ElidableLock(Kind kind, int stageNumber, int lineNumber, String variableName, String typeName) {
+		this.kind= kind;
+		this.stageNumber= stageNumber;
+		this.lineNumber= lineNumber;
+		this.variableName= variableName;
+		this.typeName= typeName;
+	}
+
+	// For querying
+	///////////////
+
+	public Kind getKind() {
+		return kind;
+	}
+
+	/**
+	 * @return the stage that takes the lock, Stage1 is 1
+	 */
+	public int getStageNumber() {
+		return stageNumber;
+	}
+
+	public int getLineNumber() {
+		return lineNumber;
+	}
+
+	/**
+	 * @return the local variable that holds the locked object, null if it has no name
+	 */
+	public String getVariableName() {
+		return variableName;
+	}
+
+	/**
+	 * @return the qualified name of the synchronized class, or Class.method for a synchronized method
+	 */
+	public String getTypeName() {
+		return typeName;
+	}
+
+	/**
+	 * @return the qualified name of the class that does the same without locking, null if there is
+	 *         none
+	 */
+	public String getUnsynchronizedType() {
+		return getUnsynchronizedType(typeName);
+	}
+
+	static String getUnsynchronizedType(String synchronizedType) {
+		if ("java.util.Vector".equals(synchronizedType)) {
+			return "java.util.ArrayList";
+		} else if ("java.util.Hashtable".equals(synchronizedType)) {
+			return "java.util.HashMap";
+		} else if ("java.lang.StringBuffer".equals(synchronizedType)) {
+			return "java.lang.StringBuilder";
+		}
+		return null;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("Stage%d, line %d: %s %s %s", stageNumber, lineNumber, kind, variableName, typeName);
+	}
+}
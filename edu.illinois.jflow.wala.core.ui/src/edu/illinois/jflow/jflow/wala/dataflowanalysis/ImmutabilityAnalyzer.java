@@ -0,0 +1,101 @@
+package edu.illinois.jflow.jflow.wala.dataflowanalysis;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+import com.ibm.wala.classLoader.IMethod;
+import com.ibm.wala.ipa.callgraph.CGNode;
+import com.ibm.wala.ipa.callgraph.propagation.PointerKey;
+import com.ibm.wala.ssa.IR;
+import com.ibm.wala.ssa.SSAInstruction;
+import com.ibm.wala.ssa.SSAPutInstruction;
+
+import edu.illinois.jflow.wala.modref.LibraryStateKey;
+
+/**
+ * Finds the heap locations that are effectively final while the loop runs: configuration objects,
+ * lookup tables, handles like this.indexWriter, etc. They are written before the loop starts or by
+ * the constructors of the objects that they belong to, but never by anything else in the loop.
+ *
+ * The mod set of a stage that constructs an object contains the fields that the constructor
+ * initializes. Since the pointer analysis merges the objects allocated at the same site, e.g., in a
+ * factory, that looks like a write to the fields of the objects that the other stages read. But a
+ * constructor only writes the object that it is constructing, which nobody else has seen yet.
+ * Likewise, a static initializer runs once, before anything reads the class.
+ *
+ * @author nchen
+ *
+ */
+public class ImmutabilityAnalyzer {
+
+	private static final int THIS= 1; // The value number of this in an instance method
+
+	private final PDGPartitionerChecker checker;
+
+	private final StatementHeapEffects heapEffects;
+
+	private Set<PointerKey> writtenInLoop; // Other than by the constructors
+
+	public ImmutabilityAnalyzer(PDGPartitionerChecker checker, StatementHeapEffects heapEffects) {
+		this.checker= checker;
+		this.heapEffects= heapEffects;
+	}
+
+	/**
+	 * @return true if nothing in the loop writes the location, except to initialize an object that
+	 *         is being constructed
+	 */
+	public boolean isReadOnlyInLoop(PointerKey key) {
+		if (writtenInLoop == null) {
+			computeWrittenInLoop();
+		}
+		return !writtenInLoop.contains(key);
+	}
+
+	private void computeWrittenInLoop() {
+		writtenInLoop= new HashSet<PointerKey>();
+		OwnershipTransferAnalyzer ownership= checker.getOwnershipTransferAnalyzer();
+		for (Statement statement : ownership.getLoopStatements()) {
+			for (SSAInstruction instruction : statement.retrieveAllSSAInstructions()) {
+				addWrites(heapEffects.getCgNode(), instruction);
+			}
+			// Only the statements know what the library specifications declare
+			for (PointerKey key : statement.getMods()) {
+				if (key instanceof LibraryStateKey) {
+					writtenInLoop.add(key);
+				}
+			}
+		}
+		for (CGNode node : ownership.getNodesCalledFromLoop()) {
+			IR ir= node.getIR();
+			if (ir == null) {
+				continue;
+			}
+			for (Iterator<SSAInstruction> it= ir.iterateNormalInstructions(); it.hasNext();) {
+				addWrites(node, it.next());
+			}
+		}
+	}
+
+	private void addWrites(CGNode node, SSAInstruction instruction) {
+		if (isInitialization(node.getMethod(), instruction)) {
+			return;
+		}
+		for (PointerKey key : heapEffects.getModref().getMod(node, heapEffects.getHeapModel(), heapEffects.getPointerAnalysis(), instruction, heapEffects.getExclusions())) {
+			writtenInLoop.add(key);
+		}
+	}
+
+	// this.f= ... in a constructor, or C.f= ... in the static initializer
+	private static boolean isInitialization(IMethod method, SSAInstruction instruction) {
+		if (!(instruction instanceof SSAPutInstruction)) {
+			return false;
+		}
+		SSAPutInstruction put= (SSAPutInstruction)instruction;
+		if (put.isStatic()) {
+			return method.isClinit();
+		}
+		return method.isInit() && put.getRef() == THIS;
+	}
+}
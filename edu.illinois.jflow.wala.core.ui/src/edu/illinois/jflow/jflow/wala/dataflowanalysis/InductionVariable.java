@@ -0,0 +1,85 @@
+package edu.illinois.jflow.jflow.wala.dataflowanalysis;
+
+/**
+ * A variable that changes by the same constant step in every iteration, e.g., index++ in the body
+ * of a loop over a collection. Its value in any iteration is start + step * iteration, so a stage
+ * that needs it can compute it from the number of the iteration instead of waiting for the stage
+ * that updates it in the previous iteration. See InductionVariableAnalyzer.
+ *
+ * @author nchen
+ *
+ */
+public class InductionVariable {
+
+	private final String variableName;
+
+	private final int headerValue; // The phi in the loop header
+
+	private final int updatedValue;
+
+	private final long step;
+
+	private final int updateStageNumber;
+
+	InductionVariable(String variableName, int headerValue, int updatedValue, long step, int updateStageNumber) {
+		this.variableName= variableName;
+		this.headerValue= headerValue;
+		this.updatedValue= updatedValue;
+		this.step= step;
+		this.updateStageNumber= updateStageNumber;
+	}
+
+	// For querying
+	///////////////
+
+	public String getVariableName() {
+		return variableName;
+	}
+
+	/**
+	 * @return how much the variable changes in each iteration, negative if it counts down
+	 */
+	public long getStep() {
+		return step;
+	}
+
+	/**
+	 * @return the stage that updates the variable, 0 if it is the generator, e.g., i++ in the
+	 *         header of the loop
+	 */
+	public int getUpdateStageNumber() {
+		return updateStageNumber;
+	}
+
+	int getHeaderValue() {
+		return headerValue;
+	}
+
+	int getUpdatedValue() {
+		return updatedValue;
+	}
+
+	/**
+	 * Stages after the one that updates the variable see the value of the next iteration.
+	 *
+	 * @param stageNumber Stage1 is 1
+	 * @return how many steps past the start of the iteration the variable is when the stage begins
+	 */
+	public int getIterationOffset(int stageNumber) {
+		return stageNumber > updateStageNumber ? 1 : 0;
+	}
+
+	/**
+	 * @return the source code that computes the value of the variable when the stage begins, e.g.,
+	 *         "indexStart + (b.iteration + 1) * 2"
+	 */
+	public String getRecomputeExpression(String start, String iteration, int stageNumber) {
+		String steps= getIterationOffset(stageNumber) == 0 ? iteration : String.format("(%s + 1)", iteration);
+		return String.format("%s + %s * %s", start, steps, step < 0 ? "(" + step + ")" : Long.toString(step));
+	}
+
+	@Override
+	public String toString() {
+		return String.format("Stage%d: %s += %d", updateStageNumber, variableName, step);
+	}
+}
@@ -0,0 +1,254 @@
+package edu.illinois.jflow.jflow.wala.dataflowanalysis;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.ibm.wala.shrikeBT.IBinaryOpInstruction;
+import com.ibm.wala.ssa.DefUse;
+import com.ibm.wala.ssa.IR;
+import com.ibm.wala.ssa.SSABinaryOpInstruction;
+import com.ibm.wala.ssa.SSAInstruction;
+import com.ibm.wala.ssa.SSAPhiInstruction;
+import com.ibm.wala.ssa.SymbolTable;
+
+/**
+ * Finds the induction variables of the loop: a phi in the loop header that merges a value from
+ * before the loop with itself plus or minus a constant, updated exactly once in every iteration.
+ * The update can be in the header, like i++ in a for loop, or in any one stage.
+ *
+ * Also expresses the values computed from an induction variable as an affine function of it, e.g.,
+ * 2 * i + 1, so that array accesses can be compared between iterations.
+ *
+ * @author nchen
+ *
+ */
+public class InductionVariableAnalyzer {
+
+	/**
+	 * coefficient * variable + offset, where the variable is the value of the induction variable at
+	 * the start of the iteration
+	 */
+	public static class AffineExpression {
+		private final InductionVariable variable;
+
+		private final long coefficient;
+
+		private final long offset;
+
+		AffineExpression(InductionVariable variable, long coefficient, long offset) {
+			this.variable= variable;
+			this.coefficient= coefficient;
+			this.offset= offset;
+		}
+
+		public InductionVariable getVariable() {
+			return variable;
+		}
+
+		public long getCoefficient() {
+			return coefficient;
+		}
+
+		public long getOffset() {
+			return offset;
+		}
+
+		/**
+		 * @return how much the expression changes from one iteration to the next
+		 */
+		public long getStride() {
+			return coefficient * variable.getStep();
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%d * %s + %d", coefficient, variable.getVariableName(), offset);
+		}
+	}
+
+	// We give up on expressions nested deeper than this, they are rarely array indices
+	private static final int MAX_DEPTH= 8;
+
+	private final ProgramDependenceGraph pdg;
+
+	private final IR ir;
+
+	private final SymbolTable symbolTable;
+
+	private final DefUse du;
+
+	private Map<PDGNode, Integer> node2stage;
+
+	private List<InductionVariable> inductionVariables= new ArrayList<InductionVariable>();
+
+	public InductionVariableAnalyzer(ProgramDependenceGraph pdg) {
+		this.pdg= pdg;
+		this.ir= pdg.getIr();
+		this.symbolTable= ir.getSymbolTable();
+		this.du= new DefUse(ir);
+	}
+
+	/**
+	 * @param node2stage the stage of each statement in the loop, 0 is the generator
+	 * @param excluded the header phis that are already accounted for, e.g., as reductions
+	 */
+	public List<InductionVariable> findInductionVariables(Map<PDGNode, Integer> node2stage, Set<Integer> excluded) {
+		this.node2stage= node2stage;
+		inductionVariables= new ArrayList<InductionVariable>();
+
+		Set<SSAPhiInstruction> headerPhis= new HashSet<SSAPhiInstruction>();
+		for (PDGNode node : node2stage.keySet()) {
+			if (node2stage.get(node) == 0 && node instanceof Statement) {
+				for (SSAInstruction instruction : ((Statement)node).retrieveAllSSAInstructions()) {
+					if (instruction instanceof SSAPhiInstruction && !excluded.contains(instruction.getDef())) {
+						headerPhis.add((SSAPhiInstruction)instruction);
+					}
+				}
+			}
+		}
+
+		for (SSAPhiInstruction phi : headerPhis) {
+			InductionVariable variable= checkInductionVariable(phi);
+			if (variable != null) {
+				inductionVariables.add(variable);
+			}
+		}
+		return inductionVariables;
+	}
+
+	/*
+	 * The phi has to merge exactly one value from the loop, and that value has to be the phi plus or
+	 * minus a constant. Any other path back to the header, e.g., a continue before the update, would
+	 * merge the phi itself or an intermediate phi instead.
+	 */
+	private InductionVariable checkInductionVariable(SSAPhiInstruction phi) {
+		int header= phi.getDef();
+		int updated= -1;
+		for (int use= 0; use < phi.getNumberOfUses(); use++) {
+			int value= phi.getUse(use);
+			if (isDefinedInLoop(value)) {
+				if (updated != -1 && updated != value) {
+					return null;
+				}
+				updated= value;
+			}
+		}
+		if (updated == -1) {
+			return null;
+		}
+
+		SSAInstruction update= du.getDef(updated);
+		if (!(update instanceof SSABinaryOpInstruction)) {
+			return null;
+		}
+		IBinaryOpInstruction.IOperator operator= ((SSABinaryOpInstruction)update).getOperator();
+		int left= update.getUse(0);
+		int right= update.getUse(1);
+		long step;
+		if (operator == IBinaryOpInstruction.Operator.ADD && left == header && isConstant(right)) {
+			step= getConstant(right);
+		} else if (operator == IBinaryOpInstruction.Operator.ADD && right == header && isConstant(left)) {
+			step= getConstant(left);
+		} else if (operator == IBinaryOpInstruction.Operator.SUB && left == header && isConstant(right)) {
+			step= -getConstant(right);
+		} else {
+			return null;
+		}
+
+		Statement statement= pdg.getInstruction2Statement().get(update);
+		String[] names= statement.getLocalNames(update, updated);
+		if (names == null || names.length == 0 || names[0] == null) {
+			return null;
+		}
+		return new InductionVariable(names[0], header, updated, step, node2stage.get(statement));
+	}
+
+	// For querying
+	///////////////
+
+	public List<InductionVariable> getInductionVariables() {
+		return inductionVariables;
+	}
+
+	/**
+	 * @return the induction variable whose value in the header or right after its update this is,
+	 *         null if there is none
+	 */
+	public InductionVariable getInductionVariable(int valueNumber) {
+		for (InductionVariable variable : inductionVariables) {
+			if (variable.getHeaderValue() == valueNumber || variable.getUpdatedValue() == valueNumber) {
+				return variable;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return the value as an affine function of an induction variable, null if it is not one
+	 */
+	public AffineExpression getAffineExpression(int valueNumber) {
+		return getAffineExpression(valueNumber, 0);
+	}
+
+	private AffineExpression getAffineExpression(int valueNumber, int depth) {
+		InductionVariable variable= getInductionVariable(valueNumber);
+		if (variable != null) {
+			long offset= variable.getUpdatedValue() == valueNumber ? variable.getStep() : 0;
+			return new AffineExpression(variable, 1, offset);
+		}
+		if (depth == MAX_DEPTH) {
+			return null;
+		}
+
+		SSAInstruction def= du.getDef(valueNumber);
+		if (!(def instanceof SSABinaryOpInstruction)) {
+			return null;
+		}
+		IBinaryOpInstruction.IOperator operator= ((SSABinaryOpInstruction)def).getOperator();
+		int left= def.getUse(0);
+		int right= def.getUse(1);
+		if (isConstant(left) == isConstant(right)) {
+			return null;
+		}
+		AffineExpression expression= isConstant(left) ? getAffineExpression(right, depth + 1) : getAffineExpression(left, depth + 1);
+		if (expression == null) {
+			return null;
+		}
+		long constant= isConstant(left) ? getConstant(left) : getConstant(right);
+
+		if (operator == IBinaryOpInstruction.Operator.ADD) {
+			return new AffineExpression(expression.variable, expression.coefficient, expression.offset + constant);
+		} else if (operator == IBinaryOpInstruction.Operator.SUB) {
+			if (isConstant(left)) {
+				return new AffineExpression(expression.variable, -expression.coefficient, constant - expression.offset);
+			}
+			return new AffineExpression(expression.variable, expression.coefficient, expression.offset - constant);
+		} else if (operator == IBinaryOpInstruction.Operator.MUL) {
+			return new AffineExpression(expression.variable, expression.coefficient * constant, expression.offset * constant);
+		}
+		return null;
+	}
+
+	// Helpers
+	//////////
+
+	private boolean isConstant(int valueNumber) {
+		return symbolTable.isIntegerConstant(valueNumber) || symbolTable.isLongConstant(valueNumber);
+	}
+
+	private long getConstant(int valueNumber) {
+		return symbolTable.isIntegerConstant(valueNumber) ? symbolTable.getIntValue(valueNumber) : symbolTable.getLongValue(valueNumber);
+	}
+
+	private boolean isDefinedInLoop(int valueNumber) {
+		SSAInstruction def= du.getDef(valueNumber);
+		if (def == null) {
+			return false;
+		}
+		Statement statement= pdg.getInstruction2Statement().get(def);
+		return statement != null && node2stage.get(statement) != null;
+	}
+}
@@ -0,0 +1,196 @@
+package edu.illinois.jflow.jflow.wala.dataflowanalysis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import com.ibm.wala.classLoader.IMethod;
+import com.ibm.wala.ipa.callgraph.CGNode;
+import com.ibm.wala.ipa.callgraph.propagation.InstanceKey;
+import com.ibm.wala.ipa.callgraph.propagation.PointerKey;
+import com.ibm.wala.ssa.IR;
+import com.ibm.wala.ssa.SSAAbstractInvokeInstruction;
+import com.ibm.wala.ssa.SSAInstruction;
+import com.ibm.wala.ssa.SSAMonitorInstruction;
+import com.ibm.wala.ssa.SSANewInstruction;
+import com.ibm.wala.types.TypeName;
+import com.ibm.wala.util.intset.OrdinalSet;
+
+import edu.illinois.jflow.jflow.wala.dataflowanalysis.ElidableLock.Kind;
+
+/**
+ * Finds the locks that the stages take on objects that only one worker can reach at a time, e.g.,
+ *
+ * <pre>
+ * for (Order order : orders) {
+ * 	StringBuffer line= new StringBuffer(); // Every append() locks the buffer
+ * 	line.append(order.getId()).append(',').append(order.getTotal()); // Stage1
+ * 	out.write(line.toString()); // Stage2
+ * }
+ * </pre>
+ *
+ * An object that is confined to its iteration (see OwnershipTransferAnalyzer) is only accessed by
+ * the worker that runs the iteration in a stage, and the channels order the accesses of the
+ * stages. Locking it never blocks anybody, so synchronized blocks on it, its synchronized methods
+ * and the synchronized classes of java.util can do without the monitor operations. The same
+ * objects in a sequential loop are the ones that the JIT can often elide the locks for by escape
+ * analysis, but the pipeline hands them between threads, which defeats it. A synchronized block
+ * stays if the stage might wait() or notify() on the object, which needs the monitor.
+ *
+ * @author nchen
+ *
+ */
+public class LockElisionAnalyzer {
+
+	private static final List<String> WAIT_AND_NOTIFY= Arrays.asList("wait", "notify", "notifyAll");
+
+	private final PDGPartitionerChecker checker;
+
+	private final StatementHeapEffects heapEffects;
+
+	public LockElisionAnalyzer(PDGPartitionerChecker checker, StatementHeapEffects heapEffects) {
+		this.checker= checker;
+		this.heapEffects= heapEffects;
+	}
+
+	/**
+	 * @return the locks that the stages take on objects confined to their iteration, in the order of
+	 *         the stages
+	 */
+	public List<ElidableLock> findElidableLocks() {
+		List<ElidableLock> locks= new ArrayList<ElidableLock>();
+		for (int stageNumber= 1; stageNumber < checker.getNumberOfStages(); stageNumber++) {
+			for (PDGNode node : checker.getStage(stageNumber).getSelectedStatements()) {
+				Statement statement= (Statement)node;
+				for (SSAInstruction instruction : statement.retrieveAllSSAInstructions()) {
+					ElidableLock lock= findElidableLock(stageNumber, statement, instruction);
+					if (lock != null) {
+						locks.add(lock);
+					}
+				}
+			}
+		}
+		return locks;
+	}
+
+	private ElidableLock findElidableLock(int stageNumber, Statement statement, SSAInstruction instruction) {
+		if (instruction instanceof SSAMonitorInstruction) {
+			SSAMonitorInstruction monitor= (SSAMonitorInstruction)instruction;
+			if (monitor.isMonitorEnter() && isConfined(monitor.getRef()) && !waitsOrNotifies(stageNumber, monitor.getRef())) {
+				return new ElidableLock(Kind.MONITOR, stageNumber, statement.getLineNumber(), getLocalName(statement, instruction, monitor.getRef()), null);
+			}
+		} else if (instruction instanceof SSANewInstruction) {
+			SSANewInstruction allocation= (SSANewInstruction)instruction;
+			String type= toQualifiedName(allocation.getConcreteType().getName());
+			if (ElidableLock.getUnsynchronizedType(type) != null && isConfined(allocation.getDef())) {
+				return new ElidableLock(Kind.SYNCHRONIZED_CLASS, stageNumber, statement.getLineNumber(), getLocalName(statement, instruction, allocation.getDef()), type);
+			}
+		} else if (instruction instanceof SSAAbstractInvokeInstruction) {
+			SSAAbstractInvokeInstruction invoke= (SSAAbstractInvokeInstruction)instruction;
+			if (!invoke.isStatic() && callsSynchronizedMethod(invoke) && isConfined(invoke.getReceiver())) {
+				String method= invoke.getDeclaredTarget().getDeclaringClass().getName().getClassName() + "." + invoke.getDeclaredTarget().getName();
+				return new ElidableLock(Kind.SYNCHRONIZED_METHOD, stageNumber, statement.getLineNumber(), getLocalName(statement, instruction, invoke.getReceiver()), method);
+			}
+		}
+		return null;
+	}
+
+	/*
+	 * Only the methods of the application, the synchronized classes of the library are replaced as
+	 * a whole
+	 */
+	private boolean callsSynchronizedMethod(SSAAbstractInvokeInstruction invoke) {
+		Set<CGNode> targets= heapEffects.getCallGraph().getPossibleTargets(heapEffects.getCgNode(), invoke.getCallSite());
+		if (targets.isEmpty()) {
+			return false;
+		}
+		for (CGNode target : targets) {
+			IMethod method= target.getMethod();
+			if (!method.isSynchronized() || method.getDeclaringClass().getName().toString().startsWith("Ljava/")) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/*
+	 * Without the monitor, wait() and notify() on the object throw an IllegalMonitorStateException.
+	 * We do not know which statements the synchronized block covers, so any call in the stage or
+	 * its callees counts.
+	 */
+	private boolean waitsOrNotifies(int stageNumber, int valueNumber) {
+		OrdinalSet<InstanceKey> locked= getPointsTo(heapEffects.getCgNode(), valueNumber);
+		PipelineStage stage= checker.getStage(stageNumber);
+		for (PDGNode node : stage.getSelectedStatements()) {
+			for (SSAInstruction instruction : ((Statement)node).retrieveAllSSAInstructions()) {
+				if (isWaitOrNotify(instruction) && mayAlias(locked, heapEffects.getCgNode(), ((SSAAbstractInvokeInstruction)instruction).getReceiver())) {
+					return true;
+				}
+			}
+		}
+		for (CGNode node : checker.getOwnershipTransferAnalyzer().getNodesCalledFrom(stage)) {
+			IR ir= node.getIR();
+			if (ir == null) {
+				continue;
+			}
+			for (SSAInstruction instruction : ir.getInstructions()) {
+				if (isWaitOrNotify(instruction) && mayAlias(locked, node, ((SSAAbstractInvokeInstruction)instruction).getReceiver())) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	// They are final in Object, so the name is enough
+	private static boolean isWaitOrNotify(SSAInstruction instruction) {
+		if (!(instruction instanceof SSAAbstractInvokeInstruction) || ((SSAAbstractInvokeInstruction)instruction).isStatic()) {
+			return false;
+		}
+		return WAIT_AND_NOTIFY.contains(((SSAAbstractInvokeInstruction)instruction).getDeclaredTarget().getName().toString());
+	}
+
+	private boolean mayAlias(OrdinalSet<InstanceKey> locked, CGNode node, int valueNumber) {
+		OrdinalSet<InstanceKey> pointsTo= getPointsTo(node, valueNumber);
+		return pointsTo == null || locked == null || OrdinalSet.intersect(locked, pointsTo).size() > 0;
+	}
+
+	private OrdinalSet<InstanceKey> getPointsTo(CGNode node, int valueNumber) {
+		PointerKey local= heapEffects.getHeapModel().getPointerKeyForLocal(node, valueNumber);
+		return heapEffects.getPointerAnalysis().getPointsToSet(local);
+	}
+
+	// Every object that the variable can hold is confined to its iteration
+	private boolean isConfined(int valueNumber) {
+		OrdinalSet<InstanceKey> pointsTo= getPointsTo(heapEffects.getCgNode(), valueNumber);
+		if (pointsTo == null || pointsTo.isEmpty()) {
+			return false;
+		}
+		OwnershipTransferAnalyzer ownership= checker.getOwnershipTransferAnalyzer();
+		for (InstanceKey instanceKey : pointsTo) {
+			if (!ownership.isConfinedToIteration(instanceKey)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static String getLocalName(Statement statement, SSAInstruction instruction, int valueNumber) {
+		String[] names= statement.getLocalNames(instruction, valueNumber);
+		if (names != null) {
+			for (String name : names) {
+				if (name != null) {
+					return name;
+				}
+			}
+		}
+		return null;
+	}
+
+	// e.g., Ljava/util/Vector to java.util.Vector
+	private static String toQualifiedName(TypeName name) {
+		String className= name.getClassName().toString();
+		return name.getPackage() == null ? className : name.getPackage().toString().replace('/', '.') + "." + className;
+	}
+}
@@ -0,0 +1,261 @@
+package edu.illinois.jflow.jflow.wala.dataflowanalysis;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+
+import com.ibm.wala.ipa.callgraph.CGNode;
+import com.ibm.wala.ipa.callgraph.CallGraph;
+import com.ibm.wala.ipa.callgraph.propagation.AllocationSiteInNode;
+import com.ibm.wala.ipa.callgraph.propagation.ArrayContentsKey;
+import com.ibm.wala.ipa.callgraph.propagation.HeapGraph;
+import com.ibm.wala.ipa.callgraph.propagation.InstanceFieldPointerKey;
+import com.ibm.wala.ipa.callgraph.propagation.InstanceKey;
+import com.ibm.wala.ipa.callgraph.propagation.LocalPointerKey;
+import com.ibm.wala.ipa.callgraph.propagation.PointerKey;
+import com.ibm.wala.ipa.callgraph.propagation.StaticFieldKey;
+import com.ibm.wala.ssa.DefUse;
+import com.ibm.wala.ssa.SSAAbstractInvokeInstruction;
+import com.ibm.wala.ssa.SSAInstruction;
+import com.ibm.wala.ssa.SSANewInstruction;
+import com.ibm.wala.ssa.SSAPhiInstruction;
+import com.ibm.wala.util.collections.Iterator2Iterable;
+
+import edu.illinois.jflow.wala.modref.LibraryStateKey;
+
+/**
+ * Decides which objects are handed from one stage to the next instead of being shared by them.
+ *
+ * A stage runs all its statements for an iteration before it binds the bundle to its output
+ * channel, and the next stage only starts on that iteration after it receives the bundle. So the
+ * stages access the objects of the same iteration one after the other, in the order of the
+ * channels. They only access objects at the same time if the objects are used by more than one
+ * iteration.
+ *
+ * An object is confined to its iteration if it is allocated in the loop, either by the statements
+ * of the loop or by a method that they call, e.g., a factory. It must not be reachable from
+ * anything that outlives the iteration: a static field, a local variable defined before the loop, a
+ * phi in the loop header or a field of an object that is not confined itself. Such an object could
+ * also be the one from another iteration, e.g., a factory that caches what it returns.
+ *
+ * @author nchen
+ *
+ */
+public class OwnershipTransferAnalyzer {
+
+	private final PDGPartitionerChecker checker;
+
+	private final StatementHeapEffects heapEffects;
+
+	private final DefUse du;
+
+	private Set<Statement> loopStatements;
+
+	private Set<CGNode> calledFromLoop;
+
+	private Map<InstanceKey, Boolean> freshness= new HashMap<InstanceKey, Boolean>(); // Whether each object is new in every iteration
+
+	private Set<InstanceKey> deciding= new HashSet<InstanceKey>();
+
+	public OwnershipTransferAnalyzer(PDGPartitionerChecker checker, StatementHeapEffects heapEffects) {
+		this.checker= checker;
+		this.heapEffects= heapEffects;
+		this.du= new DefUse(heapEffects.getPdg().getIr());
+	}
+
+	/**
+	 * @return true if every iteration has its own instances of the object, so the stages can hand it
+	 *         to each other along the channels
+	 */
+	public boolean isConfinedToIteration(InstanceKey instanceKey) {
+		initializeLoop();
+		return isFresh(instanceKey);
+	}
+
+	/**
+	 * @return true if the iterations surely reach the same instance of the object: it is reachable
+	 *         from a static field or allocated by the method before the loop
+	 */
+	public boolean isSharedAcrossIterations(InstanceKey instanceKey) {
+		initializeLoop();
+		return isShared(instanceKey, new HashSet<InstanceKey>());
+	}
+
+	private boolean isShared(InstanceKey instanceKey, Set<InstanceKey> visited) {
+		if (!visited.add(instanceKey)) {
+			return false;
+		}
+		if (instanceKey instanceof AllocationSiteInNode && ((AllocationSiteInNode)instanceKey).getNode().equals(heapEffects.getCgNode()) && !isAllocatedInLoop(instanceKey)) {
+			return true;
+		}
+		HeapGraph heapGraph= heapEffects.getPointerAnalysis().getHeapGraph();
+		if (!heapGraph.containsNode(instanceKey)) {
+			return false;
+		}
+		for (Object pred : Iterator2Iterable.make(heapGraph.getPredNodes(instanceKey))) {
+			if (pred instanceof StaticFieldKey) {
+				return true;
+			}
+			InstanceKey owner= getOwner((PointerKey)pred);
+			if (owner != null && isShared(owner, visited)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the statements of the loop, including the generator
+	 */
+	Set<Statement> getLoopStatements() {
+		initializeLoop();
+		return loopStatements;
+	}
+
+	/**
+	 * @return the methods that the loop calls, directly or transitively
+	 */
+	Set<CGNode> getNodesCalledFromLoop() {
+		initializeLoop();
+		return calledFromLoop;
+	}
+
+	/**
+	 * @return the object that the field, array element or library state belongs to, null for static
+	 *         fields
+	 */
+	static InstanceKey getOwner(PointerKey key) {
+		if (key instanceof InstanceFieldPointerKey) {
+			return ((InstanceFieldPointerKey)key).getInstanceKey();
+		} else if (key instanceof ArrayContentsKey) {
+			return ((ArrayContentsKey)key).getInstanceKey();
+		} else if (key instanceof LibraryStateKey) {
+			return ((LibraryStateKey)key).getInstanceKey();
+		}
+		return null;
+	}
+
+	private void initializeLoop() {
+		if (loopStatements != null) {
+			return;
+		}
+		loopStatements= new HashSet<Statement>();
+		for (int stageNumber= 0; stageNumber < checker.getNumberOfStages(); stageNumber++) {
+			for (PDGNode node : checker.getStage(stageNumber).getSelectedStatements()) {
+				loopStatements.add((Statement)node);
+			}
+		}
+
+		calledFromLoop= getNodesCalledFrom(loopStatements);
+	}
+
+	/**
+	 * @return the methods that the stage calls, directly or transitively
+	 */
+	Set<CGNode> getNodesCalledFrom(PipelineStage stage) {
+		return getNodesCalledFrom(stage.getSelectedStatements());
+	}
+
+	private Set<CGNode> getNodesCalledFrom(Collection<? extends PDGNode> statements) {
+		CallGraph callGraph= heapEffects.getCallGraph();
+		Set<CGNode> called= new HashSet<CGNode>();
+		LinkedList<CGNode> worklist= new LinkedList<CGNode>();
+		for (PDGNode node : statements) {
+			for (SSAInstruction instruction : ((Statement)node).retrieveAllSSAInstructions()) {
+				if (instruction instanceof SSAAbstractInvokeInstruction) {
+					for (CGNode target : callGraph.getPossibleTargets(heapEffects.getCgNode(), ((SSAAbstractInvokeInstruction)instruction).getCallSite())) {
+						if (called.add(target)) {
+							worklist.add(target);
+						}
+					}
+				}
+			}
+		}
+		while (!worklist.isEmpty()) {
+			CGNode node= worklist.removeFirst();
+			for (CGNode succ : Iterator2Iterable.make(callGraph.getSuccNodes(node))) {
+				if (succ != heapEffects.getCgNode() && called.add(succ)) {
+					worklist.add(succ);
+				}
+			}
+		}
+		return called;
+	}
+
+	private boolean isFresh(InstanceKey instanceKey) {
+		if (deciding.contains(instanceKey)) {
+			return true; // Optimistic for cycles, e.g., the nodes of a linked list
+		}
+		Boolean fresh= freshness.get(instanceKey);
+		if (fresh != null) {
+			return fresh;
+		}
+		deciding.add(instanceKey);
+		fresh= isAllocatedInLoop(instanceKey) && !outlivesIteration(instanceKey);
+		deciding.remove(instanceKey);
+		if (!fresh) {
+			// Whatever relied on the optimistic guess has to be decided again
+			freshness.values().removeAll(Collections.singleton(Boolean.TRUE));
+		}
+		freshness.put(instanceKey, fresh);
+		return fresh;
+	}
+
+	private boolean isAllocatedInLoop(InstanceKey instanceKey) {
+		if (!(instanceKey instanceof AllocationSiteInNode)) {
+			return false;
+		}
+		AllocationSiteInNode allocNode= (AllocationSiteInNode)instanceKey;
+		if (calledFromLoop.contains(allocNode.getNode())) {
+			return true;
+		}
+		if (allocNode.getNode().equals(heapEffects.getCgNode())) {
+			for (Statement statement : loopStatements) {
+				for (SSAInstruction instruction : statement.retrieveAllSSAInstructions()) {
+					if (instruction instanceof SSANewInstruction && ((SSANewInstruction)instruction).getNewSite().equals(allocNode.getSite())) {
+						return true;
+					}
+				}
+			}
+		}
+		return false;
+	}
+
+	private boolean outlivesIteration(InstanceKey instanceKey) {
+		HeapGraph heapGraph= heapEffects.getPointerAnalysis().getHeapGraph();
+		if (!heapGraph.containsNode(instanceKey)) {
+			return false;
+		}
+		for (Object pred : Iterator2Iterable.make(heapGraph.getPredNodes(instanceKey))) {
+			if (pred instanceof StaticFieldKey) {
+				return true;
+			}
+			if (pred instanceof LocalPointerKey) {
+				LocalPointerKey local= (LocalPointerKey)pred;
+				if (local.getNode().equals(heapEffects.getCgNode()) && (!isDefinedInLoop(local.getValueNumber()) || isCarriedAcrossIterations(local.getValueNumber()))) {
+					return true;
+				}
+			}
+			InstanceKey owner= getOwner((PointerKey)pred);
+			if (owner != null && !isFresh(owner)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// The loop header merges the value of the previous iteration, e.g., prev= current
+	private boolean isCarriedAcrossIterations(int valueNumber) {
+		SSAInstruction def= du.getDef(valueNumber);
+		return def instanceof SSAPhiInstruction && checker.getGenerator().getSelectedStatements().contains(heapEffects.getPdg().getInstruction2Statement().get(def));
+	}
+
+	private boolean isDefinedInLoop(int valueNumber) {
+		SSAInstruction def= du.getDef(valueNumber);
+		return def != null && loopStatements.contains(heapEffects.getPdg().getInstruction2Statement().get(def));
+	}
+}
@@ -1,6 +1,5 @@
 package edu.illinois.jflow.jflow.wala.dataflowanalysis;
 
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -14,20 +13,24 @@ import com.ibm.wala.ipa.callgraph.CGNode;
 import com.ibm.wala.ipa.callgraph.CallGraph;
 import com.ibm.wala.ipa.callgraph.propagation.PointerAnalysis;
 import com.ibm.wala.ipa.callgraph.propagation.PointerKey;
-import com.ibm.wala.ipa.slicer.HeapExclusions;
 import com.ibm.wala.types.MethodReference;
-import com.ibm.wala.util.config.FileOfClasses;
+import com.ibm.wala.util.collections.Pair;
 import com.ibm.wala.util.debug.Assertions;
-import com.ibm.wala.util.intset.OrdinalSet;
 
-import edu.illinois.jflow.wala.modref.JFlowModRef;
+import edu.illinois.jflow.wala.modref.LibrarySpecifications;
+import edu.illinois.jflow.wala.modref.PurityAnalysis;
+import edu.illinois.jflow.wala.profiling.DependenceProfile;
+import edu.illinois.jflow.wala.profiling.DependenceProfile.Observation;
 
 /**
  * Acts as a facade to check the validity of the selected statements. Checks in sequence:
  * <ol>
  * <li>Constructs the different stages, including the generator</li>
- * <li>Checks for loop-carried dependencies of scalar variables</li>
- * <li>Checks for interference of heap variables</li>
+ * <li>Checks for loop-carried dependencies of scalar variables, other than reductions and induction
+ * variables</li>
+ * <li>Checks for interference of heap variables, other than read-only locations, objects handed
+ * from stage to stage and disjoint sections of arrays</li>
+ * <li>Estimates how balanced the stages are</li>
  * </ol>
  * 
  * @author nchen
@@ -40,26 +43,51 @@ public class PDGPartitionerChecker {
 
 	private Map<PDGNode, Integer> node2stage= new HashMap<PDGNode, Integer>();
 
-	private JFlowModRef modref;
+	private StatementHeapEffects heapEffects;
 
-	private Map<CGNode, OrdinalSet<PointerKey>> mod;
+	private ArrayList<StageInterferenceInfo> interferenceInfos;
 
-	private Map<CGNode, OrdinalSet<PointerKey>> ref;
+	private List<PipelineStageDataParallelAnalyzer> dataParallelCheckers;
 
-	private CallGraph callGraph;
+	// Warn if the slowest stage does this many times the work of a perfectly balanced stage
+	public static final double IMBALANCE_THRESHOLD= 1.5;
 
-	private Map<CGNode, OrdinalSet<MethodReference>> ignored;
+	private StatementCostModel costModel;
 
-	private ArrayList<StageInterferenceInfo> interferenceInfos;
+	private ReductionAnalyzer reductionAnalyzer;
 
-	private List<PipelineStageDataParallelAnalyzer> dataParallelCheckers;
+	private List<Reduction> reductions;
+
+	private InductionVariableAnalyzer inductionVariableAnalyzer;
+
+	private List<InductionVariable> inductionVariables;
+
+	private ArraySectionAnalyzer arraySectionAnalyzer;
+
+	private OwnershipTransferAnalyzer ownershipTransferAnalyzer;
+
+	private ImmutabilityAnalyzer immutabilityAnalyzer;
 
-	private HeapExclusions heapExclusions;
+	private PrivatizationAnalyzer privatizationAnalyzer;
+
+	private ConcurrentStructureAnalyzer concurrentStructureAnalyzer;
+
+	private List<ConcurrentSubstitution> substitutions= new ArrayList<ConcurrentSubstitution>(); // Assumed to be concurrent structures already
+
+	private RandomGeneratorAnalyzer randomGeneratorAnalyzer;
+
+	private List<SharedRandom> replacedRandoms= new ArrayList<SharedRandom>(); // Assumed to be a generator for each worker already
+
+	private LockElisionAnalyzer lockElisionAnalyzer;
+
+	private DependenceProfile dependenceProfile; // Overlaid on the interference messages, null if the loop was not profiled
 
 	public static PDGPartitionerChecker makePartitionChecker(ProgramDependenceGraph pdg, List<List<Integer>> selections) {
 		PDGPartitionerChecker temp= new PDGPartitionerChecker(pdg);
 		temp.convertSelectionToStages(selections);
 		temp.mapNodesToStages();
+		temp.findReductions();
+		temp.findInductionVariables();
 		return temp;
 	}
 
@@ -86,25 +114,182 @@ public class PDGPartitionerChecker {
 		return node2stage;
 	}
 
+	private void findReductions() {
+		if (reductionAnalyzer == null) {
+			reductionAnalyzer= new ReductionAnalyzer(pdg);
+		}
+		reductions= reductionAnalyzer.findReductions(node2stage, getGenerator().getInputDataDependences());
+	}
+
+	// Has to run after findReductions, e.g., count++ is a reduction if nothing else reads count
+	private void findInductionVariables() {
+		if (inductionVariableAnalyzer == null) {
+			inductionVariableAnalyzer= new InductionVariableAnalyzer(pdg);
+		}
+		Set<Integer> accumulated= new HashSet<Integer>();
+		for (Reduction reduction : reductions) {
+			accumulated.addAll(reduction.getValueNumbers());
+		}
+		inductionVariables= inductionVariableAnalyzer.findInductionVariables(node2stage, accumulated);
+	}
+
 	// For checking feasibility
 	///////////////////////////
 
 	// We take advantage of how WALA represents its dependencies using SSA form with Phi nodes 
 	// to check for loop carried dependencies.
 	// Basically if any of the stages (Stage1,...StageN) ever serve as an input dependence to 
-	// the generator node then we have a loop carried dependency
+	// the generator node then we have a loop carried dependency, unless the stage only
+	// accumulates into the value, see ReductionAnalyzer, or only steps it by a constant, see
+	// InductionVariableAnalyzer
 	public boolean containsLoopCarriedDependency() {
 		PipelineStage generator= getGenerator();
 		List<DataDependence> inputDataDependences= generator.getInputDataDependences();
 		for (DataDependence dependence : inputDataDependences) {
 			PDGNode source= dependence.source;
-			if (node2stage.get(source) != null) {
+			if (node2stage.get(source) != null && !isReduction(dependence) && !isInductionVariableUpdate(dependence)) {
 				return true; // We have this as one
 			}
 		}
 		return false;
 	}
 
+	private boolean isReduction(DataDependence dependence) {
+		Integer stage= node2stage.get(dependence.source);
+		for (Reduction reduction : reductions) {
+			if (stage != null && reduction.getStageNumber() == stage && reduction.accumulates(dependence.getSSAVariableNumber())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean isInductionVariableUpdate(DataDependence dependence) {
+		Integer stage= node2stage.get(dependence.source);
+		for (InductionVariable variable : inductionVariables) {
+			if (stage != null && variable.getUpdateStageNumber() == stage && variable.getUpdatedValue() == dependence.getSSAVariableNumber()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return one message for each value that a stage computes and the generator needs for the next
+	 *         iteration
+	 */
+	public List<String> getLoopCarriedDependencyMessages() {
+		List<String> messages= new ArrayList<String>();
+		for (DataDependence dependence : getGenerator().getInputDataDependences()) {
+			Integer stage= node2stage.get(dependence.source);
+			if (stage != null && !isReduction(dependence) && !isInductionVariableUpdate(dependence)) {
+				String template= "Stage%d computes %s, which the loop header needs for the next iteration.";
+				messages.add(String.format(template, stage, dependence.variableName));
+			}
+		}
+		return messages;
+	}
+
+	/**
+	 * @return the variables that the stages accumulate into instead of carrying them from one
+	 *         iteration to the next
+	 */
+	public List<Reduction> getReductions() {
+		return reductions;
+	}
+
+	/**
+	 * @param stageNumber Stage1 is 1
+	 */
+	public List<Reduction> getReductions(int stageNumber) {
+		List<Reduction> stageReductions= new ArrayList<Reduction>();
+		for (Reduction reduction : reductions) {
+			if (reduction.getStageNumber() == stageNumber) {
+				stageReductions.add(reduction);
+			}
+		}
+		return stageReductions;
+	}
+
+	/**
+	 * @return one message for each reduction, telling how it will be computed
+	 */
+	public List<String> getReductionMessages() {
+		List<String> messages= new ArrayList<String>();
+		for (Reduction reduction : reductions) {
+			String template= "Stage%d accumulates %s (%s), each worker keeps a partial result that is combined with it after the loop.";
+			messages.add(String.format(template, reduction.getStageNumber(), reduction.getVariableName(), reduction.getOperator()));
+		}
+		return messages;
+	}
+
+	/**
+	 * @return one message for each reduction whose combined result might not be the same as that of
+	 *         the sequential loop
+	 */
+	public List<String> getReductionWarnings() {
+		List<String> warnings= new ArrayList<String>();
+		for (Reduction reduction : reductions) {
+			if (!reduction.isExact()) {
+				String template= "Stage%d accumulates %s in floating point, the combined result can round differently than the sequential loop.";
+				warnings.add(String.format(template, reduction.getStageNumber(), reduction.getVariableName()));
+			}
+			if (reduction.isOrderSensitive()) {
+				String template= reduction.getOperator() == Reduction.Operator.MAP
+						? "Stage%d puts into %s, if several iterations use the same key the combined map might keep a different value than the sequential loop."
+						: "Stage%d adds to %s, the combined result might be in a different order than in the sequential loop.";
+				warnings.add(String.format(template, reduction.getStageNumber(), reduction.getVariableName()));
+			}
+		}
+		return warnings;
+	}
+
+	/**
+	 * @return the variables that change by a constant step in every iteration, including the ones
+	 *         updated in the loop header
+	 */
+	public List<InductionVariable> getInductionVariables() {
+		return inductionVariables;
+	}
+
+	/**
+	 * @param stageNumber Stage1 is 1
+	 * @return the induction variables that the stage updates, the other stages recompute them from
+	 *         the iteration
+	 */
+	public List<InductionVariable> getInductionVariables(int stageNumber) {
+		List<InductionVariable> stageVariables= new ArrayList<InductionVariable>();
+		for (InductionVariable variable : inductionVariables) {
+			if (variable.getUpdateStageNumber() == stageNumber) {
+				stageVariables.add(variable);
+			}
+		}
+		return stageVariables;
+	}
+
+	/**
+	 * @return the SSA value as an affine function of an induction variable, e.g., 2 * i + 1, null if
+	 *         it is not one
+	 */
+	public InductionVariableAnalyzer.AffineExpression getAffineExpression(int valueNumber) {
+		return inductionVariableAnalyzer.getAffineExpression(valueNumber);
+	}
+
+	/**
+	 * @return one message for each induction variable updated by a stage, telling how the other
+	 *         stages get its value
+	 */
+	public List<String> getInductionVariableMessages() {
+		List<String> messages= new ArrayList<String>();
+		for (InductionVariable variable : inductionVariables) {
+			if (variable.getUpdateStageNumber() > 0) {
+				String template= "Stage%d steps %s by %d, each stage computes its value from the number of the iteration.";
+				messages.add(String.format(template, variable.getUpdateStageNumber(), variable.getVariableName(), variable.getStep()));
+			}
+		}
+		return messages;
+	}
+
 	/**
 	 * Sets up and starts the heap dependency analysis.
 	 * 
@@ -115,23 +300,35 @@ public class PDGPartitionerChecker {
 	 * @param pointerAnalysis
 	 */
 	public void computeHeapDependency(CallGraph callGraph, PointerAnalysis pointerAnalysis) {
-		setupModRefInfrastructure(callGraph, pointerAnalysis);
-		CGNode cgNode= getCurrentCGNode();
-		for (PipelineStage stage : stages) {
-			stage.computeHeapDependencies(cgNode, callGraph, pointerAnalysis, modref, heapExclusions, mod, ref, ignored);
-		}
+		computeHeapDependency(StatementHeapEffects.make(pdg, callGraph, pointerAnalysis));
 	}
 
-	// TODO: Investigate how we can get the correct context for the current CGNode. 
-	//	Right now we are relying on the fact that there is a single context and using that
-	private CGNode getCurrentCGNode() {
-		MethodReference reference= pdg.getIr().getMethod().getReference();
-		Set<CGNode> nodes= callGraph.getNodes(reference);
-
-		Assertions.productionAssertion(nodes.size() == 1, "Expected a single corresponding CGNode, but got either 0 or more");
+	/**
+	 * Like computeHeapDependency(CallGraph, PointerAnalysis) but takes the calls to the library
+	 * methods with specifications at their word instead of ignoring or analyzing them.
+	 */
+	public void computeHeapDependency(CallGraph callGraph, PointerAnalysis pointerAnalysis, LibrarySpecifications specifications) {
+		computeHeapDependency(StatementHeapEffects.make(pdg, callGraph, pointerAnalysis, specifications));
+	}
 
-		CGNode node= nodes.iterator().next(); // Quick way to get first element of set with single entry since set doesn't implement get();
-		return node;
+	/**
+	 * Like computeHeapDependency(CallGraph, PointerAnalysis) but reuses the heap effects computed for
+	 * another partition of the same method, which makes checking it cheap.
+	 */
+	public void computeHeapDependency(StatementHeapEffects heapEffects) {
+		this.heapEffects= heapEffects;
+		this.arraySectionAnalyzer= new ArraySectionAnalyzer(this, heapEffects);
+		this.ownershipTransferAnalyzer= new OwnershipTransferAnalyzer(this, heapEffects);
+		this.immutabilityAnalyzer= new ImmutabilityAnalyzer(this, heapEffects);
+		this.privatizationAnalyzer= new PrivatizationAnalyzer(this, heapEffects);
+		this.concurrentStructureAnalyzer= new ConcurrentStructureAnalyzer(this, heapEffects);
+		this.substitutions.clear();
+		this.randomGeneratorAnalyzer= new RandomGeneratorAnalyzer(this, heapEffects);
+		this.replacedRandoms.clear();
+		this.lockElisionAnalyzer= new LockElisionAnalyzer(this, heapEffects);
+		for (PipelineStage stage : stages) {
+			stage.computeHeapDependencies(heapEffects);
+		}
 	}
 
 	// We exclude all subclasses of Throwable
@@ -140,22 +337,124 @@ public class PDGPartitionerChecker {
 			"java/lang/Throwable\n" +
 			"java/lang/StackTraceElement\n";
 
-	private void setupModRefInfrastructure(CallGraph callGraph, PointerAnalysis pointerAnalysis) {
-		this.callGraph= callGraph;
-		this.modref= new JFlowModRef();
-		try {
-			this.heapExclusions= new HeapExclusions(new FileOfClasses(exclusionsRegex));
-		} catch (IOException e) {
-			e.printStackTrace();
+	/**
+	 * Estimates the cost of each stage, including the generator. The callees are only taken into
+	 * account if the call graph contains the method of the pdg.
+	 */
+	public void estimateCosts(CallGraph callGraph) {
+		Set<CGNode> nodes= callGraph.getNodes(pdg.getIr().getMethod().getReference());
+		if (nodes.size() == 1) {
+			costModel= StatementCostModel.makeInterproceduralModel(pdg, callGraph, nodes.iterator().next());
+		} else {
+			costModel= StatementCostModel.makeIntraproceduralModel(pdg);
+		}
+		estimateCosts(costModel);
+	}
+
+	public void estimateCosts(StatementCostModel costModel) {
+		this.costModel= costModel;
+		for (PipelineStage stage : stages) {
+			stage.estimateCost(costModel);
 		}
-		this.mod= modref.computeMod(callGraph, pointerAnalysis, heapExclusions);
-		this.ref= modref.computeRef(callGraph, pointerAnalysis, heapExclusions);
-		this.ignored= modref.computeIgnoredCallee(callGraph, pointerAnalysis);
 	}
 
 	// For querying
 	///////////////
 
+	public ProgramDependenceGraph getPdg() {
+		return pdg;
+	}
+
+	/**
+	 * @return the heap effects to reuse for other partitions, only available after
+	 *         computeHeapDependency()
+	 */
+	public StatementHeapEffects getHeapEffects() {
+		return heapEffects;
+	}
+
+	/**
+	 * @return the analysis that tells apart the elements of arrays that the stages access, only
+	 *         available after computeHeapDependency()
+	 */
+	ArraySectionAnalyzer getArraySectionAnalyzer() {
+		Assertions.productionAssertion(arraySectionAnalyzer != null, "computeHeapDependency() has not been run");
+		return arraySectionAnalyzer;
+	}
+
+	/**
+	 * @return the analysis that tells which objects the stages hand to each other, only available
+	 *         after computeHeapDependency()
+	 */
+	OwnershipTransferAnalyzer getOwnershipTransferAnalyzer() {
+		Assertions.productionAssertion(ownershipTransferAnalyzer != null, "computeHeapDependency() has not been run");
+		return ownershipTransferAnalyzer;
+	}
+
+	/**
+	 * @return the analysis that tells which heap locations the loop does not change, only available
+	 *         after computeHeapDependency()
+	 */
+	ImmutabilityAnalyzer getImmutabilityAnalyzer() {
+		Assertions.productionAssertion(immutabilityAnalyzer != null, "computeHeapDependency() has not been run");
+		return immutabilityAnalyzer;
+	}
+
+	/**
+	 * @return the side effects of the methods that the loop can call, only available after
+	 *         computeHeapDependency()
+	 */
+	public PurityAnalysis getPurityAnalysis() {
+		Assertions.productionAssertion(heapEffects != null, "computeHeapDependency() has not been run");
+		return heapEffects.getPurityAnalysis();
+	}
+
+	public StatementCostModel getCostModel() {
+		return costModel;
+	}
+
+	/**
+	 * The throughput of the pipeline is bounded by its slowest stage.
+	 * 
+	 * @return the stage (ignoring the generator) with the highest estimated cost
+	 */
+	public PipelineStage getSlowestStage() {
+		PipelineStage slowest= null;
+		for (int stageNumber= 1; stageNumber < stages.size(); stageNumber++) {
+			PipelineStage stage= stages.get(stageNumber);
+			if (slowest == null || stage.getEstimatedCost() > slowest.getEstimatedCost()) {
+				slowest= stage;
+			}
+		}
+		return slowest;
+	}
+
+	/**
+	 * @return how many times the slowest stage is slower than a stage in a perfectly balanced
+	 *         pipeline, i.e., 1.0 is perfectly balanced
+	 */
+	public double getImbalance() {
+		long total= 0;
+		for (int stageNumber= 1; stageNumber < stages.size(); stageNumber++) {
+			total+= stages.get(stageNumber).getEstimatedCost();
+		}
+		if (total == 0) {
+			return 1.0;
+		}
+		double balanced= (double)total / (stages.size() - 1);
+		return getSlowestStage().getEstimatedCost() / balanced;
+	}
+
+	public boolean isImbalanced() {
+		return stages.size() > 2 && getImbalance() > IMBALANCE_THRESHOLD;
+	}
+
+	public String getImbalanceMessage() {
+		PipelineStage slowest= getSlowestStage();
+		String template= "Stage%d has an estimated cost of %d, %.1f times that of a balanced stage. The pipeline cannot run faster than its slowest stage.";
+		return String.format(template, slowest.getStageNumber(), slowest.getEstimatedCost(), getImbalance());
+	}
+
 	/**
 	 * 
 	 * @return Number of stages including the generator stage
@@ -182,6 +481,34 @@ public class PDGPartitionerChecker {
 		return stages.get(0);
 	}
 
+	/**
+	 * Values computed before the boundary and used after it have to travel through the channel
+	 * after the stage, even if they are only used a few stages later.
+	 *
+	 * @return the number of values that the stage (0 is the generator) sends to the next stage
+	 */
+	public int getNumberOfValuesSentAfter(int stageNumber) {
+		Set<Pair<PDGNode, String>> crossing= new HashSet<Pair<PDGNode, String>>();
+		for (int before= 0; before <= stageNumber; before++) {
+			for (DataDependence dependence : stages.get(before).getOutputDataDependences()) {
+				Integer destStage= node2stage.get(dependence.dest);
+				if (destStage != null && destStage > stageNumber) {
+					crossing.add(Pair.make(dependence.source, dependence.variableName));
+				}
+			}
+		}
+		return crossing.size();
+	}
+
+	/**
+	 * @return true if the stage can run on several workers at once, only available after
+	 *         checkDataParallel()
+	 */
+	public boolean isDataParallel(int stageNumber) {
+		Assertions.productionAssertion(dataParallelCheckers != null, "checkDataParallel() has not been run");
+		return stageNumber > 0 && dataParallelCheckers.get(stageNumber - 1).isDataParallelizable();
+	}
+
 	/*
 	 * Returns a set of all the stages in this pipeline minus the parameter.
 	 * XXX: This does not consider the generator.
@@ -206,6 +533,188 @@ public class PDGPartitionerChecker {
 		}
 	}
 
+	/**
+	 * Moves the statements on the given lines from one stage to another, e.g., while the user tries
+	 * out different partitions. Instead of building a new checker, only the two stages are updated
+	 * and only the pairs of stages that involve them are checked for interference again, as are the
+	 * two stages for whether they are data-parallel if that was checked. The objects privatized in
+	 * either stage are privatized again wherever they still keep one of them from running on
+	 * several workers. The stages are numbered Stage1, Stage2, etc., the generator cannot be
+	 * changed.
+	 * 
+	 * The concurrent substitutions and the replaced random number generators are still assumed but
+	 * are not checked again, e.g., a moved statement may do more with the structure than add to it,
+	 * and the stages that a generator was found in are not updated. Callers that rely on them have
+	 * to find and apply them again, see getConcurrentSubstitutions() and getSharedRandoms().
+	 * getSpeculativeStages() is computed from the current stages on every call.
+	 */
+	public void moveLines(List<Integer> lines, int fromStage, int toStage) {
+		Assertions.productionAssertion(fromStage > 0 && toStage > 0, "Statements cannot be moved to or from the generator");
+		PipelineStage from= stages.get(fromStage);
+		PipelineStage to= stages.get(toStage);
+
+		from.removeLines(lines);
+		for (PDGNode node : to.addLines(lines)) {
+			node2stage.put(node, toStage);
+		}
+		findReductions();
+		findInductionVariables();
+
+		if (costModel != null) {
+			from.estimateCost(costModel);
+			to.estimateCost(costModel);
+		}
+
+		if (interferenceInfos != null) {
+			for (StageInterferenceInfo info : interferenceInfos) {
+				info.recheckInterference(from, to);
+			}
+		}
+		if (dataParallelCheckers != null) {
+			Set<String> privatized= new HashSet<String>();
+			for (PrivatizationCandidate candidate : dataParallelCheckers.get(fromStage - 1).getPrivatized()) {
+				privatized.add(candidate.getVariableName());
+			}
+			for (PrivatizationCandidate candidate : dataParallelCheckers.get(toStage - 1).getPrivatized()) {
+				privatized.add(candidate.getVariableName());
+			}
+			recheckDataParallel(fromStage, privatized);
+			recheckDataParallel(toStage, privatized);
+		}
+	}
+
+	// The candidates are found again since the blocking locations of the stage have changed
+	private void recheckDataParallel(int stageNumber, Set<String> privatized) {
+		PipelineStageDataParallelAnalyzer dataAnalyzer= new PipelineStageDataParallelAnalyzer(this, getStage(stageNumber));
+		dataAnalyzer.checkDataParallelizable();
+		dataParallelCheckers.set(stageNumber - 1, dataAnalyzer);
+		for (PrivatizationCandidate candidate : getPrivatizationCandidates(stageNumber)) {
+			if (privatized.contains(candidate.getVariableName())) {
+				dataAnalyzer.privatize(candidate);
+			}
+		}
+	}
+
+	/**
+	 * @return the collections and StringBuilders that the stages interfere on but could update
+	 *         concurrently, only available after checkInterference()
+	 */
+	public List<ConcurrentSubstitution> getConcurrentSubstitutions() {
+		Assertions.productionAssertion(interferenceInfos != null, "checkInterference() has not been run");
+		Set<PointerKey> blockingKeys= new HashSet<PointerKey>();
+		for (StageInterferenceInfo info : interferenceInfos) {
+			blockingKeys.addAll(info.getBlockingKeys());
+		}
+		return concurrentStructureAnalyzer.findSubstitutions(blockingKeys);
+	}
+
+	/**
+	 * Checks the interference again, and whether the stages are data-parallel if that was checked,
+	 * as if the structure were already replaced by a concurrent one
+	 * 
+	 * @return true if the stages no longer interfere
+	 */
+	public boolean substitute(ConcurrentSubstitution substitution) {
+		Assertions.productionAssertion(interferenceInfos != null, "checkInterference() has not been run");
+		substitutions.add(substitution);
+		checkInterference();
+		if (dataParallelCheckers != null) {
+			checkDataParallel();
+		}
+		return !hasInterference();
+	}
+
+	/**
+	 * @return true if the location belongs to a structure that is assumed to be replaced by a
+	 *         concurrent one, see substitute()
+	 */
+	boolean isConcurrent(PointerKey key) {
+		for (ConcurrentSubstitution substitution : substitutions) {
+			if (substitution.owns(key)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the random number generators that the stages draw from but that are created outside
+	 *         the loop, only available after computeHeapDependency()
+	 */
+	public List<SharedRandom> getSharedRandoms() {
+		Assertions.productionAssertion(randomGeneratorAnalyzer != null, "computeHeapDependency() has not been run");
+		return randomGeneratorAnalyzer.findSharedRandoms();
+	}
+
+	/**
+	 * Checks whether the stages are data-parallel again, and the interference if that was checked,
+	 * as if each worker drew from its own generator. If that does not help, the generator is taken
+	 * to be shared again and the stages are left as they were checked before.
+	 * 
+	 * @return true if every stage that draws from the generator can now run on several workers
+	 */
+	public boolean replaceRandom(SharedRandom random) {
+		Assertions.productionAssertion(dataParallelCheckers != null, "checkDataParallel() has not been run");
+		replacedRandoms.add(random);
+		recheckReplacedRandoms();
+		for (int stageNumber : random.getStageNumbers()) {
+			if (!isDataParallel(stageNumber)) {
+				replacedRandoms.remove(random);
+				recheckReplacedRandoms();
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void recheckReplacedRandoms() {
+		if (interferenceInfos != null) {
+			checkInterference();
+		}
+		checkDataParallel();
+	}
+
+	/**
+	 * @return true if the location belongs to a random number generator that is assumed to be
+	 *         replaced by one for each worker, see replaceRandom()
+	 */
+	boolean isPerWorker(PointerKey key) {
+		for (SharedRandom random : replacedRandoms) {
+			if (random.owns(key)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the locks that the stages take on objects that only one worker can reach at a time,
+	 *         only available after computeHeapDependency()
+	 */
+	public List<ElidableLock> getElidableLocks() {
+		Assertions.productionAssertion(lockElisionAnalyzer != null, "computeHeapDependency() has not been run");
+		return lockElisionAnalyzer.findElidableLocks();
+	}
+
+	/**
+	 * @return the stages that only their own writes keep from running on several workers, and that
+	 *         could run their iterations speculatively instead. Only available after
+	 *         checkInterference() and checkDataParallel().
+	 */
+	public List<SpeculativeStage> getSpeculativeStages() {
+		Assertions.productionAssertion(interferenceInfos != null, "checkInterference() has not been run");
+		Assertions.productionAssertion(dataParallelCheckers != null, "checkDataParallel() has not been run");
+		return new SpeculationAnalyzer(this, heapEffects).findSpeculativeStages();
+	}
+
+	/**
+	 * @param stageNumber Stage1 is 1
+	 * @return the locations that keep the stage from running on several workers
+	 */
+	Set<PointerKey> getBlockingMods(int stageNumber) {
+		return dataParallelCheckers.get(stageNumber - 1).getBlockingMods();
+	}
+
 	public boolean hasInterference() {
 		for (StageInterferenceInfo info : interferenceInfos) {
 			if (info.hasInterference())
@@ -214,6 +723,27 @@ public class PDGPartitionerChecker {
 		return false;
 	}
 
+	/**
+	 * @param stageNumber Stage1 is 1
+	 * @return how each heap location that the stage shares with another stage is accessed, only the
+	 *         blocking kinds count as interference. Only available after checkInterference().
+	 */
+	public Map<PointerKey, StageInterferenceInfo.InterferenceKind> getInterferenceKinds(int stageNumber) {
+		return interferenceInfos.get(stageNumber - 1).getInterferenceKinds();
+	}
+
+	/**
+	 * @return pairs of statements in different stages that access the same heap location, where the
+	 *         second statement modifies it. Only available after checkInterference().
+	 */
+	public Set<Pair<Statement, Statement>> getInterferingStatements() {
+		Set<Pair<Statement, Statement>> pairs= new HashSet<Pair<Statement, Statement>>();
+		for (StageInterferenceInfo info : interferenceInfos) {
+			pairs.addAll(info.getInterferingStatements());
+		}
+		return pairs;
+	}
+
 	public void checkDataParallel() {
 		dataParallelCheckers= new ArrayList<PipelineStageDataParallelAnalyzer>();
 		for (int stage= 1; stage < stages.size(); stage++) {
@@ -223,6 +753,66 @@ public class PDGPartitionerChecker {
 		}
 	}
 
+	/**
+	 * @param stageNumber Stage1 is 1
+	 * @return the scratch objects that keep the stage from running on several workers and that each
+	 *         worker could have its own copy of, only available after checkDataParallel()
+	 */
+	public List<PrivatizationCandidate> getPrivatizationCandidates(int stageNumber) {
+		Assertions.productionAssertion(dataParallelCheckers != null, "checkDataParallel() has not been run");
+		if (stageNumber == 0) {
+			return new ArrayList<PrivatizationCandidate>();
+		}
+		PipelineStageDataParallelAnalyzer dataAnalyzer= dataParallelCheckers.get(stageNumber - 1);
+		return privatizationAnalyzer.findCandidates(getStage(stageNumber), dataAnalyzer.getBlockingMods());
+	}
+
+	/**
+	 * Checks the stage again as if each of its workers had its own copy of the object, e.g., after
+	 * the refactoring rewrites the variable into a ThreadLocal
+	 * 
+	 * @return true if the stage can now run on several workers
+	 */
+	public boolean privatize(PrivatizationCandidate candidate) {
+		Assertions.productionAssertion(dataParallelCheckers != null, "checkDataParallel() has not been run");
+		PipelineStageDataParallelAnalyzer dataAnalyzer= dataParallelCheckers.get(candidate.getStageNumber() - 1);
+		dataAnalyzer.privatize(candidate);
+		return dataAnalyzer.isDataParallelizable();
+	}
+
+	/**
+	 * Labels the interference messages with whether a profiled run of the loop observed the stages
+	 * conflicting on each location, see DependenceProfile
+	 */
+	public void setDependenceProfile(DependenceProfile dependenceProfile) {
+		this.dependenceProfile= dependenceProfile;
+	}
+
+	DependenceProfile getDependenceProfile() {
+		return dependenceProfile;
+	}
+
+	/**
+	 * @return for each location that the stages interfere on, the most that the profiled run
+	 *         observed of it between any two stages. Only available after checkInterference() and
+	 *         setDependenceProfile().
+	 */
+	public Map<PointerKey, Observation> getObservedInterference() {
+		Assertions.productionAssertion(interferenceInfos != null, "checkInterference() has not been run");
+		Assertions.productionAssertion(dependenceProfile != null, "setDependenceProfile() has not been run");
+		Map<PointerKey, Observation> observations= new HashMap<PointerKey, Observation>();
+		for (StageInterferenceInfo info : interferenceInfos) {
+			Map<PointerKey, Observation> stageObservations= info.getObservations(dependenceProfile);
+			for (PointerKey pKey : stageObservations.keySet()) {
+				Observation observation= stageObservations.get(pKey);
+				if (!observations.containsKey(pKey) || observations.get(pKey).compareTo(observation) < 0) {
+					observations.put(pKey, observation);
+				}
+			}
+		}
+		return observations;
+	}
+
 	public List<String> getInterferenceMessages() {
 		List<String> interferenceMessages= new ArrayList<String>();
 
@@ -0,0 +1,274 @@
+package edu.illinois.jflow.jflow.wala.dataflowanalysis;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.ibm.wala.util.collections.Pair;
+
+import edu.illinois.jflow.jflow.wala.dataflowanalysis.PipelinePartitioner.Partition;
+
+/**
+ * Suggests how to change stages that interfere on the heap so that they no longer do.
+ *
+ * Statements in the same stage run in program order, so two interfering statements are fine once
+ * they end up in the same stage. A repair either moves the boundary between two neighbouring stages
+ * past the interfering statements or removes the boundary, i.e., merges the two stages. Statements
+ * only ever cross the boundary next to them so the order of the statements, and thus the
+ * dependencies between them, are preserved.
+ *
+ * Repairs with fewer merges come first, then the ones that move fewer units, then the ones with the
+ * smaller bottleneck. Each suggestion is confirmed with PDGPartitionerChecker before we show it.
+ *
+ * @author nchen
+ *
+ */
+public class PartitionRepairer {
+
+	/**
+	 * A set of moves and merges that removes the interference.
+	 */
+	public static class Suggestion {
+
+		private final List<String> edits;
+
+		private final Partition partition;
+
+		private final int movedUnits;
+
+		private final int merges;
+
+		Suggestion(List<String> edits, Partition partition, int movedUnits, int merges) {
+			this.edits= edits;
+			this.partition= partition;
+			this.movedUnits= movedUnits;
+			this.merges= merges;
+		}
+
+		/**
+		 * @return the moves and merges, in terms of the stages as they are annotated now
+		 */
+		public List<String> getEdits() {
+			return edits;
+		}
+
+		/**
+		 * @return the stages after applying the edits
+		 */
+		public Partition getPartition() {
+			return partition;
+		}
+
+		public int getMovedUnits() {
+			return movedUnits;
+		}
+
+		public int getMerges() {
+			return merges;
+		}
+
+		public String getDescription() {
+			StringBuilder sb= new StringBuilder();
+			for (String edit : edits) {
+				if (sb.length() != 0) {
+					sb.append(", ");
+				}
+				sb.append(edit);
+			}
+			return sb.toString();
+		}
+
+		@Override
+		public String toString() {
+			return getDescription() + " " + partition;
+		}
+	}
+
+	private static final Comparator<Suggestion> BY_SIZE= new Comparator<Suggestion>() {
+
+		@Override
+		public int compare(Suggestion left, Suggestion right) {
+			if (left.merges != right.merges) {
+				return left.merges < right.merges ? -1 : 1;
+			}
+			if (left.movedUnits != right.movedUnits) {
+				return left.movedUnits < right.movedUnits ? -1 : 1;
+			}
+			if (left.partition.getBottleneck() != right.partition.getBottleneck()) {
+				return left.partition.getBottleneck() < right.partition.getBottleneck() ? -1 : 1;
+			}
+			return 0;
+		}
+	};
+
+	private final PipelinePartitioner partitioner;
+
+	private final List<List<Integer>> units;
+
+	// The index of the first unit of each stage as annotated
+	private final List<Integer> stageStarts;
+
+	// A stage starting at one of these units would separate two interfering statements
+	private final Set<Integer> forbiddenStarts= new HashSet<Integer>();
+
+	private List<Suggestion> candidates;
+
+	/**
+	 * @param units the indivisible groups of lines of the loop body, in order
+	 * @param stageLines the lines of the stages as annotated, Stage1 first
+	 * @return null if the stages are not made up of whole units, e.g., a stage starts in the middle
+	 *         of an if statement
+	 */
+	public static PartitionRepairer makeRepairer(ProgramDependenceGraph pdg, List<Integer> headerLines, List<List<Integer>> units, List<List<Integer>> stageLines, StatementCostModel costModel) {
+		List<List<Integer>> stageUnits= new ArrayList<List<Integer>>();
+		List<Integer> stageStarts= new ArrayList<Integer>();
+		for (List<Integer> lines : stageLines) {
+			stageStarts.add(stageUnits.size());
+			for (List<Integer> unit : units) {
+				if (lines.containsAll(unit)) {
+					stageUnits.add(unit);
+				} else if (!Collections.disjoint(lines, unit)) {
+					return null;
+				}
+			}
+			if (stageStarts.get(stageStarts.size() - 1) == stageUnits.size()) {
+				return null; // No whole unit in this stage
+			}
+		}
+
+		PipelinePartitioner partitioner= PipelinePartitioner.makePartitioner(pdg, headerLines, stageUnits, costModel);
+		return new PartitionRepairer(partitioner, stageUnits, stageStarts);
+	}
+
+	private PartitionRepairer(PipelinePartitioner partitioner, List<List<Integer>> units, List<Integer> stageStarts) {
+		this.partitioner= partitioner;
+		this.units= units;
+		this.stageStarts= stageStarts;
+	}
+
+	/**
+	 * Confirm the suggestions with the heap analysis. Without this only the interference that was
+	 * passed to suggestRepairs() is considered.
+	 */
+	public void setHeapEffects(StatementHeapEffects heapEffects) {
+		partitioner.setHeapEffects(heapEffects);
+	}
+
+	/**
+	 * @return the stages as they are annotated now
+	 */
+	public Partition getCurrentPartition() {
+		return partitioner.makePartition(stageStarts);
+	}
+
+	/**
+	 * @param interferingStatements see PDGPartitionerChecker.getInterferingStatements()
+	 * @return up to maxResults suggestions, smallest first. Empty if only merging everything into a
+	 *         single stage would help.
+	 */
+	public List<Suggestion> suggestRepairs(Set<Pair<Statement, Statement>> interferingStatements, int maxResults) {
+		computeForbiddenStarts(interferingStatements);
+
+		candidates= new ArrayList<Suggestion>();
+		enumerate(new ArrayList<Integer>(), new ArrayList<String>(), 1, 0, 0);
+		Collections.sort(candidates, BY_SIZE);
+
+		List<Suggestion> valid= new ArrayList<Suggestion>();
+		for (Suggestion candidate : candidates) {
+			if (partitioner.isValid(candidate.partition)) {
+				valid.add(candidate);
+				if (valid.size() == maxResults) {
+					break;
+				}
+			}
+		}
+		return valid;
+	}
+
+	private void computeForbiddenStarts(Set<Pair<Statement, Statement>> interferingStatements) {
+		forbiddenStarts.clear();
+		for (Pair<Statement, Statement> pair : interferingStatements) {
+			int first= findUnit(pair.fst);
+			int second= findUnit(pair.snd);
+			if (first == -1 || second == -1) {
+				continue; // Not part of any stage, e.g., in the loop header
+			}
+			for (int start= Math.min(first, second) + 1; start <= Math.max(first, second); start++) {
+				forbiddenStarts.add(start);
+			}
+		}
+	}
+
+	private int findUnit(Statement statement) {
+		for (int unit= 0; unit < units.size(); unit++) {
+			for (Integer line : units.get(unit)) {
+				if (statement.isOnLine(line)) {
+					return unit;
+				}
+			}
+		}
+		return -1;
+	}
+
+	/*
+	 * For each boundary between two stages, keep it if it does not separate interfering statements.
+	 * Otherwise try the nearest allowed position before it and after it, or drop it.
+	 */
+	private void enumerate(List<Integer> starts, List<String> edits, int stage, int movedUnits, int merges) {
+		if (stage == stageStarts.size()) {
+			if (!starts.isEmpty()) { // A single stage is not a pipeline
+				List<Integer> allStarts= new ArrayList<Integer>();
+				allStarts.add(0);
+				allStarts.addAll(starts);
+				candidates.add(new Suggestion(new ArrayList<String>(edits), partitioner.makePartition(allStarts), movedUnits, merges));
+			}
+			return;
+		}
+
+		int start= stageStarts.get(stage);
+		int previous= starts.isEmpty() ? 0 : starts.get(starts.size() - 1);
+		if (!forbiddenStarts.contains(start)) {
+			if (start > previous) {
+				starts.add(start);
+				enumerate(starts, edits, stage + 1, movedUnits, merges);
+				starts.remove(starts.size() - 1);
+			}
+			return;
+		}
+
+		for (int earlier= start - 1; earlier > previous; earlier--) {
+			if (!forbiddenStarts.contains(earlier)) {
+				starts.add(earlier);
+				edits.add(String.format("move %s from Stage%d to Stage%d", describeLines(earlier, start), stage, stage + 1));
+				enumerate(starts, edits, stage + 1, movedUnits + start - earlier, merges);
+				edits.remove(edits.size() - 1);
+				starts.remove(starts.size() - 1);
+				break;
+			}
+		}
+
+		for (int later= start + 1; later < units.size(); later++) {
+			if (!forbiddenStarts.contains(later)) {
+				starts.add(later);
+				edits.add(String.format("move %s from Stage%d to Stage%d", describeLines(start, later), stage + 1, stage));
+				enumerate(starts, edits, stage + 1, movedUnits + later - start, merges);
+				edits.remove(edits.size() - 1);
+				starts.remove(starts.size() - 1);
+				break;
+			}
+		}
+
+		edits.add(String.format("merge Stage%d and Stage%d", stage, stage + 1));
+		enumerate(starts, edits, stage + 1, movedUnits, merges + 1);
+		edits.remove(edits.size() - 1);
+	}
+
+	private String describeLines(int firstUnit, int endUnit) {
+		int first= Collections.min(units.get(firstUnit));
+		int last= Collections.max(units.get(endUnit - 1));
+		return first == last ? String.format("line %d", first) : String.format("lines %d-%d", first, last);
+	}
+}
@@ -0,0 +1,372 @@
+package edu.illinois.jflow.jflow.wala.dataflowanalysis;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.ibm.wala.util.collections.Iterator2Iterable;
+import com.ibm.wala.util.collections.Pair;
+
+/**
+ * Proposes how to split the body of a loop into a given number of pipeline stages.
+ *
+ * The body is given as a sequence of units, e.g., the top-level statements of the loop body, that
+ * must not be split. Stages are contiguous runs of units so the order of the statements, and thus
+ * the dependencies between them, are preserved. A partition is scored by its bottleneck: the most
+ * expensive stage, counting both its estimated cost and the values it has to receive from the
+ * previous stage. The best scoring partitions are then checked with PDGPartitionerChecker and the
+ * ones with heap interference are dropped.
+ *
+ * @author nchen
+ *
+ */
+public class PipelinePartitioner {
+
+	// Cost of passing one value through a channel, relative to StatementCostModel
+	public static final int TRANSFER_WEIGHT= 5;
+
+	// How many of the best scoring partitions we are willing to check for interference
+	static final int MAX_CANDIDATES= 20;
+
+	/**
+	 * A proposed split of the loop body into stages.
+	 */
+	public static class Partition {
+
+		private final List<List<Integer>> stageLines;
+
+		private final long bottleneck;
+
+		private final long transfer;
+
+		private final List<Long> stageCosts;
+
+		Partition(List<List<Integer>> stageLines, long bottleneck, long transfer, List<Long> stageCosts) {
+			this.stageLines= stageLines;
+			this.bottleneck= bottleneck;
+			this.transfer= transfer;
+			this.stageCosts= stageCosts;
+		}
+
+		/**
+		 * @return the lines of each stage, Stage1 first, in the form that AnnotatedStage and
+		 *         PDGPartitionerChecker use
+		 */
+		public List<List<Integer>> getStageLines() {
+			return stageLines;
+		}
+
+		public int getNumberOfStages() {
+			return stageLines.size();
+		}
+
+		/**
+		 * @return the score of the most expensive stage, including the cost of receiving its inputs
+		 */
+		public long getBottleneck() {
+			return bottleneck;
+		}
+
+		/**
+		 * @return the total number of values passed between stages, weighted by TRANSFER_WEIGHT
+		 */
+		public long getTransfer() {
+			return transfer;
+		}
+
+		/**
+		 * @return the estimated cost of each stage without the transfers, Stage1 first
+		 */
+		public List<Long> getStageCosts() {
+			return stageCosts;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s (bottleneck %d, transfer %d)", stageLines, bottleneck, transfer);
+		}
+	}
+
+	private static final Comparator<Partition> BY_SCORE= new Comparator<Partition>() {
+
+		@Override
+		public int compare(Partition left, Partition right) {
+			if (left.bottleneck != right.bottleneck) {
+				return left.bottleneck < right.bottleneck ? -1 : 1;
+			}
+			if (left.transfer != right.transfer) {
+				return left.transfer < right.transfer ? -1 : 1;
+			}
+			return 0;
+		}
+	};
+
+	private final ProgramDependenceGraph pdg;
+
+	private final List<Integer> headerLines;
+
+	private final List<List<Integer>> units;
+
+	private final StatementCostModel costModel;
+
+	private StatementHeapEffects heapEffects;
+
+	private long[] unitCosts;
+
+	// cutTransfers[i] is the number of values that cross the boundary before unit i
+	private long[] cutTransfers;
+
+	private List<Partition> candidates;
+
+	/**
+	 * @param headerLines the lines of the loop header, i.e., the generator
+	 * @param units the indivisible groups of lines of the loop body, in order
+	 */
+	public static PipelinePartitioner makePartitioner(ProgramDependenceGraph pdg, List<Integer> headerLines, List<List<Integer>> units, StatementCostModel costModel) {
+		PipelinePartitioner temp= new PipelinePartitioner(pdg, headerLines, units, costModel);
+		temp.computeUnitCosts();
+		temp.computeCutTransfers();
+		return temp;
+	}
+
+	private PipelinePartitioner(ProgramDependenceGraph pdg, List<Integer> headerLines, List<List<Integer>> units, StatementCostModel costModel) {
+		this.pdg= pdg;
+		this.headerLines= headerLines;
+		this.units= units;
+		this.costModel= costModel;
+	}
+
+	/**
+	 * Also reject partitions whose stages interfere on the heap. Without this only the scalar
+	 * dependencies are considered.
+	 */
+	public void setHeapEffects(StatementHeapEffects heapEffects) {
+		this.heapEffects= heapEffects;
+	}
+
+	/**
+	 * Replaces the estimated costs with measured ones, e.g., from a StageProfile of a run with the
+	 * stages as annotated. The measured cost of a stage is spread over its units in proportion to
+	 * their estimates. The measurements are scaled to the same total as the estimates so that they
+	 * stay comparable to TRANSFER_WEIGHT.
+	 *
+	 * @param stageLines the lines of the stages that were measured, Stage1 first
+	 * @param measuredCosts the measured cost of each of these stages, e.g., its mean service time
+	 */
+	public void calibrate(List<List<Integer>> stageLines, List<Double> measuredCosts) {
+		List<List<Integer>> stageUnits= new ArrayList<List<Integer>>();
+		long totalEstimate= 0;
+		double totalMeasured= 0;
+		for (int stage= 0; stage < stageLines.size(); stage++) {
+			List<Integer> unitsInStage= new ArrayList<Integer>();
+			for (int unit= 0; unit < units.size(); unit++) {
+				if (stageLines.get(stage).containsAll(units.get(unit))) {
+					unitsInStage.add(unit);
+					totalEstimate+= unitCosts[unit];
+				}
+			}
+			stageUnits.add(unitsInStage);
+			totalMeasured+= measuredCosts.get(stage);
+		}
+		if (totalMeasured == 0) {
+			return;
+		}
+
+		for (int stage= 0; stage < stageUnits.size(); stage++) {
+			List<Integer> unitsInStage= stageUnits.get(stage);
+			long estimate= 0;
+			for (Integer unit : unitsInStage) {
+				estimate+= unitCosts[unit];
+			}
+			double measured= measuredCosts.get(stage) * totalEstimate / totalMeasured;
+			for (Integer unit : unitsInStage) {
+				double fraction= estimate == 0 ? 1.0 / unitsInStage.size() : (double)unitCosts[unit] / estimate;
+				unitCosts[unit]= Math.round(measured * fraction);
+			}
+		}
+	}
+
+	/**
+	 * The stages together always cover the whole body, so whether there is a loop-carried
+	 * dependency does not depend on the partition. Only a reduction can still be split across
+	 * stages by a partition, see isValid().
+	 */
+	public boolean containsLoopCarriedDependency() {
+		List<Integer> bodyLines= new ArrayList<Integer>();
+		for (List<Integer> unit : units) {
+			bodyLines.addAll(unit);
+		}
+		List<List<Integer>> selections= new ArrayList<List<Integer>>();
+		selections.add(headerLines);
+		selections.add(bodyLines);
+		return PDGPartitionerChecker.makePartitionChecker(pdg, selections).containsLoopCarriedDependency();
+	}
+
+	/**
+	 * @return up to maxResults valid partitions into numberOfStages stages, best first. Empty if the
+	 *         loop cannot be pipelined or has fewer units than stages.
+	 */
+	public List<Partition> partition(int numberOfStages, int maxResults) {
+		List<Partition> valid= new ArrayList<Partition>();
+		if (numberOfStages < 1 || numberOfStages > units.size() || containsLoopCarriedDependency()) {
+			return valid;
+		}
+
+		candidates= new ArrayList<Partition>();
+		enumerate(new ArrayList<Integer>(), 0, numberOfStages, 0);
+
+		for (Partition candidate : candidates) {
+			if (isValid(candidate)) {
+				valid.add(candidate);
+				if (valid.size() == maxResults) {
+					break;
+				}
+			}
+		}
+		return valid;
+	}
+
+	// Scoring
+	//////////
+
+	private void computeUnitCosts() {
+		unitCosts= new long[units.size()];
+		for (int unit= 0; unit < units.size(); unit++) {
+			unitCosts[unit]= costModel.getCost(nodesOnLines(units.get(unit)));
+		}
+	}
+
+	private void computeCutTransfers() {
+		cutTransfers= new long[units.size()];
+		Set<PDGNode> before= new HashSet<PDGNode>(nodesOnLines(headerLines));
+		for (int cut= 0; cut < units.size(); cut++) {
+			Set<PDGNode> after= new HashSet<PDGNode>();
+			for (int unit= cut; unit < units.size(); unit++) {
+				after.addAll(nodesOnLines(units.get(unit)));
+			}
+			// A value is sent once no matter how many statements after the cut use it
+			Set<Pair<PDGNode, String>> crossing= new HashSet<Pair<PDGNode, String>>();
+			for (PDGNode node : before) {
+				for (PDGNode succ : Iterator2Iterable.make(pdg.getSuccNodes(node))) {
+					if (after.contains(succ)) {
+						for (DataDependence dependence : pdg.getEdgeLabels(node, succ)) {
+							crossing.add(Pair.make(dependence.source, dependence.variableName));
+						}
+					}
+				}
+			}
+			cutTransfers[cut]= crossing.size();
+			before.addAll(nodesOnLines(units.get(cut)));
+		}
+	}
+
+	private List<PDGNode> nodesOnLines(List<Integer> lines) {
+		List<PDGNode> nodes= new ArrayList<PDGNode>();
+		for (PDGNode node : pdg) {
+			for (Integer line : lines) {
+				if (node.isOnLine(line)) {
+					nodes.add(node);
+				}
+			}
+		}
+		return nodes;
+	}
+
+	private long scoreStage(int firstUnit, int endUnit) {
+		long cost= 0;
+		for (int unit= firstUnit; unit < endUnit; unit++) {
+			cost+= unitCosts[unit];
+		}
+		return cost + TRANSFER_WEIGHT * cutTransfers[firstUnit];
+	}
+
+	/*
+	 * Tries every way to place the remaining cuts, keeping the MAX_CANDIDATES best partitions.
+	 * Branches whose bottleneck is already worse than all of those are pruned.
+	 */
+	private void enumerate(List<Integer> starts, int nextUnit, int remainingStages, long bottleneck) {
+		if (candidates.size() == MAX_CANDIDATES && bottleneck > candidates.get(candidates.size() - 1).bottleneck) {
+			return;
+		}
+
+		if (remainingStages == 1) {
+			starts.add(nextUnit);
+			long finalBottleneck= Math.max(bottleneck, scoreStage(nextUnit, units.size()));
+			record(starts, finalBottleneck);
+			starts.remove(starts.size() - 1);
+			return;
+		}
+
+		// Leave at least one unit for each of the remaining stages
+		for (int end= nextUnit + 1; end <= units.size() - (remainingStages - 1); end++) {
+			starts.add(nextUnit);
+			enumerate(starts, end, remainingStages - 1, Math.max(bottleneck, scoreStage(nextUnit, end)));
+			starts.remove(starts.size() - 1);
+		}
+	}
+
+	private void record(List<Integer> starts, long bottleneck) {
+		candidates.add(makePartition(starts, bottleneck));
+		Collections.sort(candidates, BY_SCORE);
+		if (candidates.size() > MAX_CANDIDATES) {
+			candidates.remove(candidates.size() - 1);
+		}
+	}
+
+	/*
+	 * starts holds the index of the first unit of each stage, the first one is always 0
+	 */
+	Partition makePartition(List<Integer> starts) {
+		long bottleneck= 0;
+		for (int stage= 0; stage < starts.size(); stage++) {
+			bottleneck= Math.max(bottleneck, scoreStage(starts.get(stage), endOfStage(starts, stage)));
+		}
+		return makePartition(starts, bottleneck);
+	}
+
+	private Partition makePartition(List<Integer> starts, long bottleneck) {
+		List<List<Integer>> stageLines= new ArrayList<List<Integer>>();
+		List<Long> stageCosts= new ArrayList<Long>();
+		long transfer= 0;
+		for (int stage= 0; stage < starts.size(); stage++) {
+			List<Integer> lines= new ArrayList<Integer>();
+			long cost= 0;
+			for (int unit= starts.get(stage); unit < endOfStage(starts, stage); unit++) {
+				lines.addAll(units.get(unit));
+				cost+= unitCosts[unit];
+			}
+			stageLines.add(lines);
+			stageCosts.add(cost);
+			if (stage > 0) {
+				transfer+= TRANSFER_WEIGHT * cutTransfers[starts.get(stage)];
+			}
+		}
+		return new Partition(stageLines, bottleneck, transfer, stageCosts);
+	}
+
+	private int endOfStage(List<Integer> starts, int stage) {
+		return stage + 1 < starts.size() ? starts.get(stage + 1) : units.size();
+	}
+
+	// Validation
+	/////////////
+
+	boolean isValid(Partition candidate) {
+		List<List<Integer>> selections= new ArrayList<List<Integer>>();
+		selections.add(headerLines);
+		selections.addAll(candidate.getStageLines());
+		PDGPartitionerChecker checker= PDGPartitionerChecker.makePartitionChecker(pdg, selections);
+		if (checker.containsLoopCarriedDependency()) {
+			return false; // A reduction whose updates ended up in different stages
+		}
+		if (heapEffects == null) {
+			return true;
+		}
+		checker.computeHeapDependency(heapEffects);
+		checker.checkInterference();
+		return !checker.hasInterference();
+	}
+}
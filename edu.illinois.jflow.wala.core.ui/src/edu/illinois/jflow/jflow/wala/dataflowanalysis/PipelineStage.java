@@ -10,7 +10,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
-import com.ibm.wala.classLoader.CallSiteReference;
 import com.ibm.wala.ipa.callgraph.CGNode;
 import com.ibm.wala.ipa.callgraph.CallGraph;
 import com.ibm.wala.ipa.callgraph.propagation.AbstractFieldPointerKey;
@@ -24,8 +23,6 @@ import com.ibm.wala.ipa.modref.ArrayLengthKey;
 import com.ibm.wala.ipa.modref.DelegatingExtendedHeapModel;
 import com.ibm.wala.ipa.modref.ModRef;
 import com.ibm.wala.ipa.slicer.HeapExclusions;
-import com.ibm.wala.ssa.SSAAbstractInvokeInstruction;
-import com.ibm.wala.ssa.SSAInstruction;
 import com.ibm.wala.types.MethodReference;
 import com.ibm.wala.util.Predicate;
 import com.ibm.wala.util.collections.Iterator2Iterable;
@@ -72,6 +69,8 @@ public class PipelineStage {
 
 	private Map<PointerKey, Set<Statement>> mod2Statements= new HashMap<PointerKey, Set<Statement>>();
 
+	private long estimatedCost;
+
 	/*
 	 * Convenience method to create a new pipeline stage and begin the analysis immediately
 	 */
@@ -89,6 +88,10 @@ public class PipelineStage {
 
 	public void analyzeSelection() {
 		computeSelectedStatements();
+		computeDataDependences();
+	}
+
+	private void computeDataDependences() {
 		inputDataDependences= computeInput();
 		outputDataDependences= computeOutput();
 		closureLocalVariableNames= filterMethodParameters(computeLocalVariables());
@@ -175,17 +178,16 @@ public class PipelineStage {
 		return stageNumber;
 	}
 
-	private List<SSAInstruction> retrieveAllSSAInstructions() {
-		List<SSAInstruction> ssaInstructions= new ArrayList<SSAInstruction>();
-
-		for (PDGNode node : selectedStatements) {
-			if (node instanceof Statement) {
-				Statement statement= (Statement)node;
-				ssaInstructions.addAll(statement.retrieveAllSSAInstructions());
-			}
-		}
+	void estimateCost(StatementCostModel costModel) {
+		estimatedCost= costModel.getCost(selectedStatements);
+	}
 
-		return ssaInstructions;
+	/**
+	 * @return the estimated cost of one iteration of this stage, see StatementCostModel. Only
+	 *         available after PDGPartitionerChecker.estimateCosts().
+	 */
+	public long getEstimatedCost() {
+		return estimatedCost;
 	}
 
 	public Set<Statement> referringStatements(PointerKey key) {
@@ -198,175 +200,159 @@ public class PipelineStage {
 
 	// Store these values in the outer class so that it is easier for testing
 
-	private CGNode cgNode;
-
-	private PointerAnalysis pointerAnalysis;
-
-	private ModRef modref;
-
-	private DelegatingExtendedHeapModel heapModel;
-
-	private CallGraph callGraph;
-
-	private Map<CGNode, OrdinalSet<PointerKey>> mod;
-
-	private Map<CGNode, OrdinalSet<PointerKey>> ref;
-
-	private Map<CGNode, OrdinalSet<MethodReference>> ignored;
+	private StatementHeapEffects heapEffects;
 
 	public CGNode getCgNode() {
-		return cgNode;
+		return heapEffects.getCgNode();
 	}
 
 	public PointerAnalysis getPointerAnalysis() {
-		return pointerAnalysis;
+		return heapEffects.getPointerAnalysis();
 	}
 
 	public ModRef getModref() {
-		return modref;
+		return heapEffects.getModref();
 	}
 
 	public DelegatingExtendedHeapModel getHeapModel() {
-		return heapModel;
+		return heapEffects.getHeapModel();
 	}
 
 	public CallGraph getCallGraph() {
-		return callGraph;
+		return heapEffects.getCallGraph();
 	}
 
 	public Map<CGNode, OrdinalSet<PointerKey>> getMod() {
-		return mod;
+		return heapEffects.getMod();
 	}
 
 	public Map<CGNode, OrdinalSet<PointerKey>> getRef() {
-		return ref;
+		return heapEffects.getRef();
 	}
 
-	private HeapExclusions heapExclusions;
-
 	public HeapExclusions getExclusions() {
-		return heapExclusions;
+		return heapEffects.getExclusions();
 	}
 
 	// Modref analysis
 	// Though this might look more complicated, we intentionally split this up (not doing modref upfront).
 	// This facilitates a staged approach to determining feasibility of each pipeline stage and also makes
 	// it easier to test in isolation.
-	void computeHeapDependencies(CGNode cgNode, CallGraph callGraph, PointerAnalysis pointerAnalysis, ModRef modref, HeapExclusions heapExclusions, Map<CGNode, OrdinalSet<PointerKey>> mod,
-			Map<CGNode, OrdinalSet<PointerKey>> ref,
-			Map<CGNode, OrdinalSet<MethodReference>> ignored) {
-		this.cgNode= cgNode;
-		this.callGraph= callGraph;
-		this.pointerAnalysis= pointerAnalysis;
-		this.modref= modref;
-		this.heapExclusions= heapExclusions;
-		this.mod= mod;
-		this.ignored= ignored;
-		this.ref= ref;
-		this.heapModel= new DelegatingExtendedHeapModel(pointerAnalysis.getHeapModel());
-
-
-		PipelineStageModRef pipelineStageModRef= new PipelineStageModRef();
-		pipelineStageModRef.computeHeapDependencies();
+	// The mods/refs of each statement (transitively) are computed once by StatementHeapEffects, the
+	// stage only keeps their union and which statements contribute to it.
+	void computeHeapDependencies(StatementHeapEffects heapEffects) {
+		this.heapEffects= heapEffects;
+		for (PDGNode node : selectedStatements) {
+			addHeapEffects(node);
+		}
 	}
 
-	/**
-	 * This records the mods/refs for each pipeline stage (transitively).
-	 * 
-	 * @author nchen
-	 * 
-	 */
-	class PipelineStageModRef {
+	boolean hasHeapDependencies() {
+		return heapEffects != null;
+	}
 
-		void computeHeapDependencies() {
-			computeRefs();
-			computeMods();
-			computeIgnores();
+	private void addHeapEffects(PDGNode node) {
+		if (node instanceof Statement) {
+			Statement statement= (Statement)node;
+			refs.addAll(statement.getRefs());
+			mods.addAll(statement.getMods());
+			addPointerKeyRecord(ref2Statements, statement.getRefs(), statement);
+			addPointerKeyRecord(mod2Statements, statement.getMods(), statement);
+			ignoreds.addAll(heapEffects.getIgnoreds(statement));
 		}
+	}
 
-		private void addPointerKeyRecord(Map<PointerKey, Set<Statement>> record, Collection<PointerKey> pointerKeys, Statement statement) {
-			for (PointerKey key : pointerKeys) {
-				Set<Statement> set= record.get(key);
-				if (set == null) {
-					set= new HashSet<Statement>();
-					record.put(key, set);
+	private void removeHeapEffects(PDGNode node) {
+		if (node instanceof Statement) {
+			Statement statement= (Statement)node;
+			removePointerKeyRecord(ref2Statements, refs, statement.getRefs(), statement);
+			removePointerKeyRecord(mod2Statements, mods, statement.getMods(), statement);
+			ignoreds.clear();
+			for (PDGNode remaining : selectedStatements) {
+				if (remaining instanceof Statement) {
+					ignoreds.addAll(heapEffects.getIgnoreds((Statement)remaining));
 				}
-				set.add(statement);
 			}
 		}
+	}
 
-		private void computeIgnores() {
-			List<SSAInstruction> instructions= retrieveAllSSAInstructions();
-
-			for (SSAInstruction instruction : instructions) {
-				if (instruction instanceof SSAAbstractInvokeInstruction) {
-					SSAAbstractInvokeInstruction call= (SSAAbstractInvokeInstruction)instruction;
-					CallSiteReference callSite= call.getCallSite();
-					Set<CGNode> possibleTargets= callGraph.getPossibleTargets(cgNode, callSite);
-					for (CGNode target : possibleTargets) {
-						OrdinalSet<MethodReference> ordinalSet= ignored.get(target);
-						ignoreds.addAll(OrdinalSet.toCollection(ordinalSet));
-					}
-				}
+	private static void addPointerKeyRecord(Map<PointerKey, Set<Statement>> record, Collection<PointerKey> pointerKeys, Statement statement) {
+		for (PointerKey key : pointerKeys) {
+			Set<Statement> set= record.get(key);
+			if (set == null) {
+				set= new HashSet<Statement>();
+				record.put(key, set);
 			}
+			set.add(statement);
+		}
+	}
 
+	// A key stays in the union as long as some other statement of the stage still accesses it
+	private static void removePointerKeyRecord(Map<PointerKey, Set<Statement>> record, Set<PointerKey> union, Collection<PointerKey> pointerKeys, Statement statement) {
+		for (PointerKey key : pointerKeys) {
+			Set<Statement> set= record.get(key);
+			if (set != null) {
+				set.remove(statement);
+				if (set.isEmpty()) {
+					record.remove(key);
+					union.remove(key);
+				}
+			}
 		}
+	}
 
-		private void computeMods() {
-			List<SSAInstruction> instructions= retrieveAllSSAInstructions();
-			Map<SSAInstruction, Statement> map= pdg.getInstruction2Statement();
-
-			for (SSAInstruction instruction : instructions) {
-				Statement statement= map.get(instruction);
-
-				// These are direct modifications x.f = <something>
-				Set<PointerKey> instructionMod= modref.getMod(cgNode, heapModel, pointerAnalysis, instruction, heapExclusions);
-				mods.addAll(instructionMod);
-				addPointerKeyRecord(mod2Statements, instructionMod, statement);
-
-				// These are indirect modifications through calls
-				if (instruction instanceof SSAAbstractInvokeInstruction) {
-					SSAAbstractInvokeInstruction call= (SSAAbstractInvokeInstruction)instruction;
-					CallSiteReference callSite= call.getCallSite();
-					Set<CGNode> possibleTargets= callGraph.getPossibleTargets(cgNode, callSite);
-					for (CGNode target : possibleTargets) {
-						OrdinalSet<PointerKey> ordinalSet= mod.get(target);
-						Collection<PointerKey> pointerKeys= OrdinalSet.toCollection(ordinalSet);
-						mods.addAll(pointerKeys);
-						addPointerKeyRecord(mod2Statements, pointerKeys, statement);
+	// For moving statements between stages
+	////////////////////////////////////////
+
+	/*
+	 * Adds the statements on the lines to this stage and returns them
+	 */
+	List<PDGNode> addLines(List<Integer> lines) {
+		List<PDGNode> added= new ArrayList<PDGNode>();
+		selectedLines= new ArrayList<Integer>(selectedLines); // Do not change the selection that we were created with
+		for (Integer line : lines) {
+			if (!selectedLines.contains(line)) {
+				selectedLines.add(line);
+				for (PDGNode node : pdg) {
+					if (node.isOnLine(line)) {
+						added.add(node);
 					}
 				}
 			}
 		}
+		selectedStatements.addAll(added);
+		computeDataDependences();
+		if (heapEffects != null) {
+			for (PDGNode node : added) {
+				addHeapEffects(node);
+			}
+		}
+		return added;
+	}
 
-		private void computeRefs() {
-			List<SSAInstruction> instructions= retrieveAllSSAInstructions();
-			Map<SSAInstruction, Statement> map= pdg.getInstruction2Statement();
-
-			for (SSAInstruction instruction : instructions) {
-				Statement statement= map.get(instruction);
-
-				// These are direct references x.f
-				Set<PointerKey> instructionRef= modref.getRef(cgNode, heapModel, pointerAnalysis, instruction, heapExclusions);
-				refs.addAll(instructionRef);
-				addPointerKeyRecord(ref2Statements, instructionRef, statement);
-
-				// These are indirect modifications through calls
-				if (instruction instanceof SSAAbstractInvokeInstruction) {
-					SSAAbstractInvokeInstruction call= (SSAAbstractInvokeInstruction)instruction;
-					CallSiteReference callSite= call.getCallSite();
-					Set<CGNode> possibleTargets= callGraph.getPossibleTargets(cgNode, callSite);
-					for (CGNode target : possibleTargets) {
-						OrdinalSet<PointerKey> ordinalSet= ref.get(target);
-						Collection<PointerKey> pointerKeys= OrdinalSet.toCollection(ordinalSet);
-						refs.addAll(pointerKeys);
-						addPointerKeyRecord(ref2Statements, pointerKeys, statement);
-					}
+	void removeLines(List<Integer> lines) {
+		List<PDGNode> removed= new ArrayList<PDGNode>();
+		selectedLines= new ArrayList<Integer>(selectedLines);
+		selectedLines.removeAll(lines);
+		for (PDGNode node : selectedStatements) {
+			for (Integer line : lines) {
+				if (node.isOnLine(line)) {
+					removed.add(node);
 				}
 			}
 		}
+		selectedStatements.removeAll(removed);
+		computeDataDependences();
+		if (heapEffects != null) {
+			for (PDGNode node : removed) {
+				removeHeapEffects(node);
+			}
+		}
 	}
 
+	public List<Integer> getSelectedLines() {
+		return selectedLines;
+	}
 
 	/*
 	 * REMEMBER that we are not doing anything flow-sensitive inside the method bodies. Thus, we are not
@@ -389,11 +375,11 @@ public class PipelineStage {
 	// For some simple eyeballing statistics of the "shape" of the mod/ref
 
 	public String getPrettyPrintMods() {
-		return prettyPrint(mods, pointerAnalysis);
+		return prettyPrint(mods, getPointerAnalysis());
 	}
 
 	public String getPrettyPrintRefs() {
-		return prettyPrint(refs, pointerAnalysis);
+		return prettyPrint(refs, getPointerAnalysis());
 	}
 
 	public String getPrettyPrintIgnored() {
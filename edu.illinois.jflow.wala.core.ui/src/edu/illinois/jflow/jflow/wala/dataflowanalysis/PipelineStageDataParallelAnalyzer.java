@@ -3,6 +3,7 @@ package edu.illinois.jflow.jflow.wala.dataflowanalysis;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
 
@@ -11,6 +12,8 @@ import com.ibm.wala.classLoader.NewSiteReference;
 import com.ibm.wala.ipa.callgraph.CGNode;
 import com.ibm.wala.ipa.callgraph.Context;
 import com.ibm.wala.ipa.callgraph.propagation.AllocationSiteInNode;
+import com.ibm.wala.ipa.callgraph.propagation.ArrayContentsKey;
+import com.ibm.wala.ipa.callgraph.propagation.HeapGraph;
 import com.ibm.wala.ipa.callgraph.propagation.InstanceFieldKey;
 import com.ibm.wala.ipa.callgraph.propagation.InstanceFieldPointerKey;
 import com.ibm.wala.ipa.callgraph.propagation.InstanceKey;
@@ -19,6 +22,7 @@ import com.ibm.wala.ipa.callgraph.propagation.StaticFieldKey;
 import com.ibm.wala.ipa.modref.DelegatingExtendedHeapModel;
 import com.ibm.wala.ssa.SSAInstruction;
 import com.ibm.wala.ssa.SSANewInstruction;
+import com.ibm.wala.types.TypeReference;
 import com.ibm.wala.util.collections.Iterator2Iterable;
 import com.ibm.wala.util.collections.Pair;
 import com.ibm.wala.util.debug.Assertions;
@@ -36,6 +40,8 @@ public class PipelineStageDataParallelAnalyzer {
 
 	private Set<PointerKey> mods;
 
+	private List<PrivatizationCandidate> privatized= new ArrayList<PrivatizationCandidate>(); // Each worker has its own copy of these
+
 	public PipelineStageDataParallelAnalyzer(PDGPartitionerChecker checker, PipelineStage stage) {
 		this.checker= checker;
 		this.stage= stage;
@@ -43,11 +49,154 @@ public class PipelineStageDataParallelAnalyzer {
 
 	public void checkDataParallelizable() {
 		initAllocatedObjects();
-		mods= stage.getMods();
+		mods= new HashSet<PointerKey>(stage.getMods()); // Our own copy since we prune it, the stage keeps its mods
 		Set<PointerKey> snapshot= new HashSet(mods); // We need a snapshot since we are removing things as we iterate
 		for (PointerKey key : snapshot) {
 			checkPointerKeyAllocatedInStage(key);
 		}
+		pruneReductionCollections();
+		pruneDisjointArraySections();
+		pruneIterationConfinedObjects();
+		pruneConcurrentStructures();
+		prunePerWorkerRandoms();
+		prunePrivatizedObjects();
+	}
+
+	// The workers can add to a structure that is replaced by a concurrent one, see ConcurrentStructureAnalyzer
+	private void pruneConcurrentStructures() {
+		Set<PointerKey> snapshot= new HashSet<PointerKey>(mods);
+		for (PointerKey key : snapshot) {
+			if (checker.isConcurrent(key)) {
+				mods.remove(key);
+			}
+		}
+	}
+
+	// Each worker draws from its own random number generator, see RandomGeneratorAnalyzer
+	private void prunePerWorkerRandoms() {
+		Set<PointerKey> snapshot= new HashSet<PointerKey>(mods);
+		for (PointerKey key : snapshot) {
+			if (checker.isPerWorker(key)) {
+				mods.remove(key);
+			}
+		}
+	}
+
+	/**
+	 * Checks again as if each worker had its own copy of the objects, see PrivatizationAnalyzer
+	 */
+	public void privatize(PrivatizationCandidate candidate) {
+		privatized.add(candidate);
+		prunePrivatizedObjects();
+	}
+
+	List<PrivatizationCandidate> getPrivatized() {
+		return privatized;
+	}
+
+	private void prunePrivatizedObjects() {
+		for (PrivatizationCandidate candidate : privatized) {
+			Set<PointerKey> snapshot= new HashSet<PointerKey>(mods);
+			for (PointerKey key : snapshot) {
+				if (candidate.owns(key)) {
+					mods.remove(key);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the locations that the stage writes and that keep it from running on several workers
+	 */
+	Set<PointerKey> getBlockingMods() {
+		return mods;
+	}
+
+	/*
+	 * The workers run different iterations, and objects that every iteration allocates for itself,
+	 * however deep in the callees, never reach another iteration, see OwnershipTransferAnalyzer.
+	 * This covers the temporary objects that helper methods build, unlike the allocation sites
+	 * that checkPointerKeyAllocatedInStage looks at.
+	 */
+	private void pruneIterationConfinedObjects() {
+		OwnershipTransferAnalyzer ownership= checker.getOwnershipTransferAnalyzer();
+		Set<PointerKey> snapshot= new HashSet<PointerKey>(mods);
+		for (PointerKey key : snapshot) {
+			InstanceKey owner= OwnershipTransferAnalyzer.getOwner(key);
+			if (owner != null && ownership.isConfinedToIteration(owner)) {
+				mods.remove(key);
+			}
+		}
+	}
+
+	/*
+	 * The workers run different iterations, so they do not conflict on an array if each iteration
+	 * accesses its own elements, e.g., out[i], see ArraySectionAnalyzer
+	 */
+	private void pruneDisjointArraySections() {
+		ArraySectionAnalyzer arraySections= checker.getArraySectionAnalyzer();
+		Set<PointerKey> snapshot= new HashSet<PointerKey>(mods);
+		for (PointerKey key : snapshot) {
+			if (key instanceof ArrayContentsKey && arraySections.isDisjointAcrossIterations(stage, stage, (ArrayContentsKey)key)) {
+				mods.remove(key);
+			}
+		}
+	}
+
+	/*
+	 * Each worker adds to its own partial collection (see Reduction), so the internals of the
+	 * collection do not keep the stage from running on several workers. We only follow the
+	 * objects of java.util from the collection, not the elements that were added to it.
+	 */
+	private void pruneReductionCollections() {
+		Set<InstanceKey> owned= new HashSet<InstanceKey>();
+		for (Reduction reduction : checker.getReductions(stage.getStageNumber())) {
+			if (!reduction.isCollection()) {
+				continue;
+			}
+			for (Integer receiver : reduction.getValueNumbers()) {
+				collectCollectionObjects(stage.getHeapModel().getPointerKeyForLocal(stage.getCgNode(), receiver), owned);
+			}
+		}
+
+		Set<PointerKey> snapshot= new HashSet<PointerKey>(mods);
+		for (PointerKey key : snapshot) {
+			if (key instanceof InstanceFieldPointerKey && owned.contains(((InstanceFieldPointerKey)key).getInstanceKey())) {
+				mods.remove(key);
+			}
+		}
+	}
+
+	private void collectCollectionObjects(PointerKey root, Set<InstanceKey> owned) {
+		HeapGraph heapGraph= stage.getPointerAnalysis().getHeapGraph();
+		LinkedList<Object> worklist= new LinkedList<Object>();
+		worklist.add(root);
+		while (!worklist.isEmpty()) {
+			Object node= worklist.removeFirst();
+			if (!heapGraph.containsNode(node)) {
+				continue;
+			}
+			for (Object succ : Iterator2Iterable.make(heapGraph.getSuccNodes(node))) {
+				if (succ instanceof InstanceKey) {
+					if (isCollectionInternal((InstanceKey)succ) && owned.add((InstanceKey)succ)) {
+						worklist.add(succ);
+					}
+				} else {
+					worklist.add(succ); // The fields of an object we own
+				}
+			}
+		}
+	}
+
+	private static boolean isCollectionInternal(InstanceKey instanceKey) {
+		if (instanceKey.getConcreteType() == null) {
+			return false;
+		}
+		TypeReference type= instanceKey.getConcreteType().getReference();
+		if (type.isArrayType()) {
+			type= type.getInnermostElementType();
+		}
+		return type.getName().toString().startsWith("Ljava/util/");
 	}
 
 	public boolean isDataParallelizable() {
@@ -110,7 +259,8 @@ public class PipelineStageDataParallelAnalyzer {
 		System.err.println("Unhandled key: " + key);
 	}
 
-	// The fact that we modify a static field means that is definitely not data-parallelizable
+	// The fact that we modify a static field means that is definitely not data-parallelizable. Only
+	// the objects that a static field holds can be privatized, not the field itself.
 	private void handle(StaticFieldKey staticFieldKey) {
 		// Do nothing for now
 	}
@@ -15,6 +15,8 @@ import com.ibm.wala.types.MethodReference;
 import com.ibm.wala.types.TypeReference;
 import com.ibm.wala.util.debug.Assertions;
 
+import edu.illinois.jflow.wala.modref.LibraryStateKey;
+
 /**
  * Takes a set of pointer keys and pretty prints them.
  * 
@@ -55,6 +57,9 @@ public class PointerKeyPrettyPrinter {
 		} else if (key instanceof StaticFieldKey) {
 			StaticFieldKey staticFieldKey= (StaticFieldKey)key;
 			return handle(staticFieldKey);
+		} else if (key instanceof LibraryStateKey) {
+			LibraryStateKey libraryStateKey= (LibraryStateKey)key;
+			return handle(libraryStateKey);
 		} else {
 			return handle(key);
 		}
@@ -146,6 +151,26 @@ public class PointerKeyPrettyPrinter {
 		return sb.toString();
 	}
 
+	static String handle(LibraryStateKey libraryStateKey) {
+		StringBuilder sb= new StringBuilder();
+		String template= "State of instance[@%d] of class <%s> allocated in method <%s>, as declared by the library specifications.%n";
+		int instanceID= -1;
+		String typeName= null;
+		String methodName= null;
+
+		InstanceKey instanceKey= libraryStateKey.getInstanceKey();
+		typeName= formatTypeName(instanceKey.getConcreteType().getReference());
+		if (instanceKey instanceof AllocationSiteInNode) {
+			AllocationSiteInNode allocSiteInNode= (AllocationSiteInNode)instanceKey;
+			instanceID= allocSiteInNode.getSite().getProgramCounter();
+			methodName= allocSiteInNode.getNode().getMethod().getReference().getSignature();
+			sb.append(String.format(template, instanceID, typeName, methodName));
+		} else {
+			sb.append(String.format("State of %s, as declared by the library specifications.%n", typeName));
+		}
+		return sb.toString();
+	}
+
 	// Default fall-back: this shouldn't happen in our case but it best to be safe
 	static String handle(PointerKey key) {
 		StringBuilder sb= new StringBuilder();
@@ -0,0 +1,228 @@
+package edu.illinois.jflow.jflow.wala.dataflowanalysis;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.ibm.wala.ipa.callgraph.propagation.AllocationSiteInNode;
+import com.ibm.wala.ipa.callgraph.propagation.HeapGraph;
+import com.ibm.wala.ipa.callgraph.propagation.InstanceKey;
+import com.ibm.wala.ipa.callgraph.propagation.PointerKey;
+import com.ibm.wala.ipa.callgraph.propagation.StaticFieldKey;
+import com.ibm.wala.ssa.DefUse;
+import com.ibm.wala.ssa.SSAGetInstruction;
+import com.ibm.wala.ssa.SSAInstruction;
+import com.ibm.wala.ssa.SSANewInstruction;
+import com.ibm.wala.types.FieldReference;
+import com.ibm.wala.util.collections.Iterator2Iterable;
+import com.ibm.wala.util.intset.OrdinalSet;
+
+/**
+ * Finds the scratch objects that keep a stage from running on several workers, e.g.,
+ *
+ * <pre>
+ * SimpleDateFormat format= new SimpleDateFormat(&quot;yyyy-MM-dd&quot;);
+ * for (String line : lines) {
+ * 	Date date= format.parse(line); // Writes the calendar of the format
+ * 	...
+ * }
+ * </pre>
+ *
+ * Every iteration of the stage writes the object, so the workers would race on it. But if nothing
+ * else uses the object, i.e., no other stage and nothing before or after the loop other than the
+ * declaration that creates it, each worker can have its own copy created by the same declaration.
+ * The objects that the constructors allocate for the object, e.g., the calendar above, come along
+ * with the copy.
+ *
+ * This assumes that an iteration does not need what the earlier iterations left in the object. That
+ * holds for buffers that are reset before they are used and for caches, which only get fewer hits,
+ * but not for an object that accumulates something over the whole loop. The analysis cannot tell
+ * them apart, so privatizing stays the choice of the user.
+ *
+ * @author nchen
+ *
+ */
+public class PrivatizationAnalyzer {
+
+	private final PDGPartitionerChecker checker;
+
+	private final StatementHeapEffects heapEffects;
+
+	private final DefUse du;
+
+	public PrivatizationAnalyzer(PDGPartitionerChecker checker, StatementHeapEffects heapEffects) {
+		this.checker= checker;
+		this.heapEffects= heapEffects;
+		this.du= new DefUse(heapEffects.getPdg().getIr());
+	}
+
+	/**
+	 * @param blockingMods the locations that the stage writes and that still keep it from running on
+	 *            several workers
+	 * @return the scratch objects that the stage could have a copy of for each worker, each covering
+	 *         some of the blocking locations
+	 */
+	public List<PrivatizationCandidate> findCandidates(PipelineStage stage, Set<PointerKey> blockingMods) {
+		List<PrivatizationCandidate> candidates= new ArrayList<PrivatizationCandidate>();
+		if (blockingMods.isEmpty()) {
+			return candidates;
+		}
+
+		Map<String, Set<InstanceKey>> locals= new LinkedHashMap<String, Set<InstanceKey>>();
+		Map<String, Statement> declarations= new LinkedHashMap<String, Statement>();
+		Map<String, Set<InstanceKey>> statics= new LinkedHashMap<String, Set<InstanceKey>>();
+		findRoots(stage, locals, declarations, statics);
+
+		for (Map.Entry<String, Set<InstanceKey>> entry : locals.entrySet()) {
+			addCandidate(candidates, new PrivatizationCandidate(entry.getKey(), true, stage.getStageNumber()), entry.getValue(), stage, blockingMods, declarations.get(entry.getKey()));
+		}
+		for (Map.Entry<String, Set<InstanceKey>> entry : statics.entrySet()) {
+			addCandidate(candidates, new PrivatizationCandidate(entry.getKey(), false, stage.getStageNumber()), entry.getValue(), stage, blockingMods, null);
+		}
+		return candidates;
+	}
+
+	private void addCandidate(List<PrivatizationCandidate> candidates, PrivatizationCandidate candidate, Set<InstanceKey> roots, PipelineStage stage, Set<PointerKey> blockingMods,
+			Statement declaration) {
+		candidate.addObjects(getPrivateObjects(roots));
+		for (PointerKey key : blockingMods) {
+			if (candidate.owns(key)) {
+				candidate.addBlockingMod(key);
+			}
+		}
+		if (!candidate.getBlockingMods().isEmpty() && !isUsedElsewhere(candidate, stage, declaration)) {
+			candidates.add(candidate);
+		}
+	}
+
+	/*
+	 * The variables that the stage reads its scratch objects from: locals that a new before the loop
+	 * defines, and static fields
+	 */
+	private void findRoots(PipelineStage stage, Map<String, Set<InstanceKey>> locals, Map<String, Statement> declarations, Map<String, Set<InstanceKey>> statics) {
+		Set<Statement> loopStatements= checker.getOwnershipTransferAnalyzer().getLoopStatements();
+		for (PDGNode node : stage.getSelectedStatements()) {
+			Statement statement= (Statement)node;
+			for (SSAInstruction instruction : statement.retrieveAllSSAInstructions()) {
+				if (instruction instanceof SSAGetInstruction && ((SSAGetInstruction)instruction).isStatic()) {
+					FieldReference field= ((SSAGetInstruction)instruction).getDeclaredField();
+					String name= field.getDeclaringClass().getName().getClassName() + "." + field.getName();
+					addPointsTo(statics, name, instruction.getDef());
+				}
+				for (int use= 0; use < instruction.getNumberOfUses(); use++) {
+					int valueNumber= instruction.getUse(use);
+					SSAInstruction def= du.getDef(valueNumber);
+					if (!(def instanceof SSANewInstruction)) {
+						continue;
+					}
+					Statement declaration= heapEffects.getPdg().getInstruction2Statement().get(def);
+					String name= getLocalName(statement, instruction, valueNumber);
+					if (declaration != null && !loopStatements.contains(declaration) && name != null) {
+						addPointsTo(locals, name, valueNumber);
+						declarations.put(name, declaration);
+					}
+				}
+			}
+		}
+	}
+
+	private static String getLocalName(Statement statement, SSAInstruction instruction, int valueNumber) {
+		String[] names= statement.getLocalNames(instruction, valueNumber);
+		if (names != null) {
+			for (String name : names) {
+				if (name != null) {
+					return name;
+				}
+			}
+		}
+		return null;
+	}
+
+	private void addPointsTo(Map<String, Set<InstanceKey>> roots, String name, int valueNumber) {
+		Set<InstanceKey> objects= roots.get(name);
+		if (objects == null) {
+			objects= new HashSet<InstanceKey>();
+			roots.put(name, objects);
+		}
+		PointerKey local= heapEffects.getHeapModel().getPointerKeyForLocal(heapEffects.getCgNode(), valueNumber);
+		OrdinalSet<InstanceKey> pointsTo= heapEffects.getPointerAnalysis().getPointsToSet(local);
+		if (pointsTo != null) {
+			objects.addAll(OrdinalSet.toCollection(pointsTo));
+		}
+	}
+
+	// The objects and what their constructors allocated for them, e.g., the calendar of a SimpleDateFormat
+	private Set<InstanceKey> getPrivateObjects(Set<InstanceKey> roots) {
+		HeapGraph heapGraph= heapEffects.getPointerAnalysis().getHeapGraph();
+		Set<InstanceKey> objects= new HashSet<InstanceKey>(roots);
+		LinkedList<Object> worklist= new LinkedList<Object>(roots);
+		while (!worklist.isEmpty()) {
+			Object node= worklist.removeFirst();
+			if (!heapGraph.containsNode(node)) {
+				continue;
+			}
+			for (Object succ : Iterator2Iterable.make(heapGraph.getSuccNodes(node))) {
+				if (succ instanceof InstanceKey) {
+					if (isAllocatedByCallee((InstanceKey)succ) && objects.add((InstanceKey)succ)) {
+						worklist.add(succ);
+					}
+				} else {
+					worklist.add(succ); // The fields of an object we copy
+				}
+			}
+		}
+		return objects;
+	}
+
+	// Objects that the method itself allocates, e.g., the pattern of the format, exist once
+	private boolean isAllocatedByCallee(InstanceKey instanceKey) {
+		if (!(instanceKey instanceof AllocationSiteInNode) || ((AllocationSiteInNode)instanceKey).getNode().equals(heapEffects.getCgNode())) {
+			return false;
+		}
+		HeapGraph heapGraph= heapEffects.getPointerAnalysis().getHeapGraph();
+		for (Object pred : Iterator2Iterable.make(heapGraph.getPredNodes(instanceKey))) {
+			if (pred instanceof StaticFieldKey) {
+				return false; // A shared constant, e.g., the default locale
+			}
+		}
+		return true;
+	}
+
+	/*
+	 * The copies would hide the writes of the stage from anything else that uses the objects: the
+	 * other stages, including the generator, and the method before and after the loop
+	 */
+	private boolean isUsedElsewhere(PrivatizationCandidate candidate, PipelineStage stage, Statement declaration) {
+		for (int stageNumber= 0; stageNumber < checker.getNumberOfStages(); stageNumber++) {
+			PipelineStage other= checker.getStage(stageNumber);
+			if (other != stage && (ownsAny(candidate, other.getRefs()) || ownsAny(candidate, other.getMods()))) {
+				return true;
+			}
+		}
+		Set<Statement> loopStatements= checker.getOwnershipTransferAnalyzer().getLoopStatements();
+		for (PDGNode node : heapEffects.getPdg()) {
+			if (!(node instanceof Statement) || node == declaration || loopStatements.contains(node)) {
+				continue;
+			}
+			Statement statement= (Statement)node;
+			if (ownsAny(candidate, statement.getRefs()) || ownsAny(candidate, statement.getMods())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean ownsAny(PrivatizationCandidate candidate, Collection<PointerKey> keys) {
+		for (PointerKey key : keys) {
+			if (candidate.owns(key)) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,91 @@
+package edu.illinois.jflow.jflow.wala.dataflowanalysis;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import com.ibm.wala.ipa.callgraph.propagation.InstanceKey;
+import com.ibm.wala.ipa.callgraph.propagation.PointerKey;
+
+/**
+ * A scratch object that only one stage uses, e.g., a reused StringBuilder, a SimpleDateFormat or a
+ * cache, held by a local variable declared before the loop or by a static field. The workers of
+ * the stage would all write the same instance, but since nothing else sees it each worker can have
+ * its own copy. See PrivatizationAnalyzer.
+ *
+ * @author nchen
+ *
+ */
+public class PrivatizationCandidate {
+
+	private final String variableName;
+
+	private final boolean local;
+
+	private final int stageNumber;
+
+	private final Set<InstanceKey> objects= new HashSet<InstanceKey>(); // The object and what it allocated for itself
+
+	private final Set<PointerKey> blockingMods= new HashSet<PointerKey>();
+
+	PrivatizationCandidate(String variableName, boolean local, int stageNumber) {
+		this.variableName= variableName;
+		this.local= local;
+		this.stageNumber= stageNumber;
+	}
+
+	void addObjects(Set<InstanceKey> instanceKeys) {
+		objects.addAll(instanceKeys);
+	}
+
+	void addBlockingMod(PointerKey key) {
+		blockingMods.add(key);
+	}
+
+	// For querying
+	///////////////
+
+	/**
+	 * @return the name of the local variable, or Class.field for a static field
+	 */
+	public String getVariableName() {
+		return variableName;
+	}
+
+	/**
+	 * @return true if the object is held by a local variable declared before the loop, whose
+	 *         declaration can create a copy for each worker. A static field could also be used by
+	 *         other methods, so we leave it to the user.
+	 */
+	public boolean isLocal() {
+		return local;
+	}
+
+	/**
+	 * @return the stage that uses the object, Stage1 is 1
+	 */
+	public int getStageNumber() {
+		return stageNumber;
+	}
+
+	Set<InstanceKey> getObjects() {
+		return objects;
+	}
+
+	/**
+	 * @return the locations of the object that the stage writes, which keep it from running on
+	 *         several workers
+	 */
+	public Set<PointerKey> getBlockingMods() {
+		return blockingMods;
+	}
+
+	boolean owns(PointerKey key) {
+		InstanceKey owner= OwnershipTransferAnalyzer.getOwner(key);
+		return owner != null && objects.contains(owner);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("Stage%d: %s %s", stageNumber, local ? "local" : "static", variableName);
+	}
+}
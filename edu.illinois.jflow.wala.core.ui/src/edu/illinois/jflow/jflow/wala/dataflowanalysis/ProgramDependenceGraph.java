@@ -55,12 +55,26 @@ public class ProgramDependenceGraph extends SlowSparseNumberedLabeledGraph<PDGNo
 
 	private AstJavaTypeInference typeInferrer;
 
+	// Read once per graph so that graphs built concurrently do not depend on each other's setting
+	private boolean debug= DEBUG;
+
 	public static ProgramDependenceGraph make(IR ir, IClassHierarchy classHierarchy) throws InvalidClassFileException {
 		ProgramDependenceGraph g= new ProgramDependenceGraph(ir, classHierarchy);
 		g.populate();
 		return g;
 	}
 
+	/**
+	 * Like make(IR, IClassHierarchy) but decides for this graph alone whether to print the
+	 * instructions while building it, instead of following DEBUG
+	 */
+	public static ProgramDependenceGraph make(IR ir, IClassHierarchy classHierarchy, boolean debug) throws InvalidClassFileException {
+		ProgramDependenceGraph g= new ProgramDependenceGraph(ir, classHierarchy);
+		g.debug= debug;
+		g.populate();
+		return g;
+	}
+
 	public static ProgramDependenceGraph makeWithSourceCode(IR ir, IClassHierarchy classHierarchy, IDocument doc) throws InvalidClassFileException {
 		ProgramDependenceGraph g= new ProgramDependenceGraph(ir, classHierarchy);
 		g.setDocument(doc);
@@ -177,7 +191,7 @@ public class ProgramDependenceGraph extends SlowSparseNumberedLabeledGraph<PDGNo
 	 * @param index The index of the instruction in the IR instruction array
 	 */
 	private void mapInstruction(int lineNumber, SSAInstruction instruction, int index) {
-		if (DEBUG) {
+		if (debug) {
 			System.out.println("LINE: " + lineNumber + ": " + instruction);
 		}
 		if (instruction != null) {
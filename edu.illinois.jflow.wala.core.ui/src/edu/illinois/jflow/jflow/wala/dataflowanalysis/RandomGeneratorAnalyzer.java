@@ -0,0 +1,198 @@
+package edu.illinois.jflow.jflow.wala.dataflowanalysis;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.ibm.wala.ipa.callgraph.propagation.AllocationSiteInNode;
+import com.ibm.wala.ipa.callgraph.propagation.HeapGraph;
+import com.ibm.wala.ipa.callgraph.propagation.InstanceKey;
+import com.ibm.wala.ipa.callgraph.propagation.PointerKey;
+import com.ibm.wala.ssa.DefUse;
+import com.ibm.wala.ssa.SSAAbstractInvokeInstruction;
+import com.ibm.wala.ssa.SSAGetInstruction;
+import com.ibm.wala.ssa.SSAInstruction;
+import com.ibm.wala.ssa.SSANewInstruction;
+import com.ibm.wala.types.FieldReference;
+import com.ibm.wala.types.MethodReference;
+import com.ibm.wala.util.collections.Iterator2Iterable;
+import com.ibm.wala.util.intset.OrdinalSet;
+
+import edu.illinois.jflow.jflow.wala.dataflowanalysis.SharedRandom.Source;
+
+/**
+ * Finds the random number generators that the stages share, e.g., in a Monte Carlo simulation
+ *
+ * <pre>
+ * Random random= new Random(seed);
+ * for (int i= 0; i &lt; paths; i++) {
+ * 	double[] path= simulatePath(random.nextGaussian()); // Stage1
+ * 	results.add(price(path)); // Stage2
+ * }
+ * </pre>
+ *
+ * Every draw writes the seed of the generator, so a stage that draws from it cannot run on
+ * several workers and two stages that draw from it interfere. A Random created inside the loop
+ * belongs to its iteration and is left alone. Math.random() draws from one generator for the whole
+ * program.
+ *
+ * The iterations only need numbers with the same distribution, not the same sequence, so each
+ * worker can draw from its own generator instead. The numbers then depend on how the workers
+ * share the iterations; the refactoring can also seed a generator from the iteration number so
+ * that they do not.
+ *
+ * @author nchen
+ *
+ */
+public class RandomGeneratorAnalyzer {
+
+	private static final String RANDOM= "Ljava/util/Random";
+
+	private final PDGPartitionerChecker checker;
+
+	private final StatementHeapEffects heapEffects;
+
+	private final DefUse du;
+
+	public RandomGeneratorAnalyzer(PDGPartitionerChecker checker, StatementHeapEffects heapEffects) {
+		this.checker= checker;
+		this.heapEffects= heapEffects;
+		this.du= new DefUse(heapEffects.getPdg().getIr());
+	}
+
+	/**
+	 * @return the generators that the stages draw from, in the order that the stages first use them
+	 */
+	public List<SharedRandom> findSharedRandoms() {
+		Map<String, SharedRandom> randoms= new LinkedHashMap<String, SharedRandom>();
+		Set<Statement> loopStatements= checker.getOwnershipTransferAnalyzer().getLoopStatements();
+		for (int stageNumber= 0; stageNumber < checker.getNumberOfStages(); stageNumber++) {
+			for (PDGNode node : checker.getStage(stageNumber).getSelectedStatements()) {
+				Statement statement= (Statement)node;
+				for (SSAInstruction instruction : statement.retrieveAllSSAInstructions()) {
+					if (instruction instanceof SSAAbstractInvokeInstruction) {
+						SharedRandom random= findRandom(randoms, statement, (SSAAbstractInvokeInstruction)instruction, loopStatements);
+						if (random != null) {
+							random.addStageNumber(stageNumber);
+						}
+					}
+				}
+			}
+		}
+		return new ArrayList<SharedRandom>(randoms.values());
+	}
+
+	private SharedRandom findRandom(Map<String, SharedRandom> randoms, Statement statement, SSAAbstractInvokeInstruction invoke, Set<Statement> loopStatements) {
+		MethodReference target= invoke.getDeclaredTarget();
+		if (invoke.isStatic()) {
+			if (target.getDeclaringClass().getName().toString().equals("Ljava/lang/Math") && target.getName().toString().equals("random")) {
+				SharedRandom random= randoms.get(SharedRandom.MATH_RANDOM_NAME);
+				if (random == null) {
+					random= new SharedRandom(SharedRandom.MATH_RANDOM_NAME, Source.MATH_RANDOM);
+					random.addObjects(getGeneratorObjects(findMathGenerators()));
+					randoms.put(SharedRandom.MATH_RANDOM_NAME, random);
+				}
+				return random;
+			}
+			return null;
+		}
+		if (!target.getDeclaringClass().getName().toString().equals(RANDOM) || target.isInit()) {
+			return null;
+		}
+
+		int receiver= invoke.getReceiver();
+		SSAInstruction def= du.getDef(receiver);
+		Source source;
+		String name;
+		if (def instanceof SSANewInstruction) {
+			if (loopStatements.contains(heapEffects.getPdg().getInstruction2Statement().get(def))) {
+				return null; // A generator for each iteration
+			}
+			source= Source.LOCAL;
+			name= getLocalName(statement, invoke, receiver);
+		} else if (def instanceof SSAGetInstruction) {
+			FieldReference field= ((SSAGetInstruction)def).getDeclaredField();
+			source= Source.SHARED;
+			name= ((SSAGetInstruction)def).isStatic() ? field.getDeclaringClass().getName().getClassName() + "." + field.getName() : "this." + field.getName();
+		} else {
+			source= Source.SHARED; // A parameter, or returned by a call
+			name= getLocalName(statement, invoke, receiver);
+		}
+		if (name == null) {
+			return null;
+		}
+
+		SharedRandom random= randoms.get(name);
+		if (random == null) {
+			random= new SharedRandom(name, source);
+			random.addObjects(getGeneratorObjects(getPointsTo(receiver)));
+			randoms.put(name, random);
+		}
+		return random;
+	}
+
+	private static String getLocalName(Statement statement, SSAInstruction instruction, int valueNumber) {
+		String[] names= statement.getLocalNames(instruction, valueNumber);
+		if (names != null) {
+			for (String name : names) {
+				if (name != null) {
+					return name;
+				}
+			}
+		}
+		return null;
+	}
+
+	private Set<InstanceKey> getPointsTo(int valueNumber) {
+		Set<InstanceKey> objects= new HashSet<InstanceKey>();
+		PointerKey local= heapEffects.getHeapModel().getPointerKeyForLocal(heapEffects.getCgNode(), valueNumber);
+		OrdinalSet<InstanceKey> pointsTo= heapEffects.getPointerAnalysis().getPointsToSet(local);
+		if (pointsTo != null) {
+			objects.addAll(OrdinalSet.toCollection(pointsTo));
+		}
+		return objects;
+	}
+
+	// The generators that Math allocates for Math.random() when it is first called
+	private Set<InstanceKey> findMathGenerators() {
+		Set<InstanceKey> generators= new HashSet<InstanceKey>();
+		for (InstanceKey instanceKey : heapEffects.getPointerAnalysis().getInstanceKeys()) {
+			if (instanceKey instanceof AllocationSiteInNode && instanceKey.getConcreteType() != null && instanceKey.getConcreteType().getName().toString().equals(RANDOM)
+					&& ((AllocationSiteInNode)instanceKey).getNode().getMethod().getDeclaringClass().getName().toString().startsWith("Ljava/lang/Math")) {
+				generators.add(instanceKey);
+			}
+		}
+		return generators;
+	}
+
+	// The generators and what their constructors allocated for them, i.e., the AtomicLong of the seed
+	private Set<InstanceKey> getGeneratorObjects(Set<InstanceKey> generators) {
+		HeapGraph heapGraph= heapEffects.getPointerAnalysis().getHeapGraph();
+		Set<InstanceKey> objects= new HashSet<InstanceKey>(generators);
+		LinkedList<Object> worklist= new LinkedList<Object>(generators);
+		while (!worklist.isEmpty()) {
+			Object node= worklist.removeFirst();
+			if (!heapGraph.containsNode(node)) {
+				continue;
+			}
+			for (Object succ : Iterator2Iterable.make(heapGraph.getSuccNodes(node))) {
+				if (succ instanceof InstanceKey) {
+					if (isAllocatedByRandom((InstanceKey)succ) && objects.add((InstanceKey)succ)) {
+						worklist.add(succ);
+					}
+				} else {
+					worklist.add(succ); // The fields of the generator
+				}
+			}
+		}
+		return objects;
+	}
+
+	private static boolean isAllocatedByRandom(InstanceKey instanceKey) {
+		return instanceKey instanceof AllocationSiteInNode && ((AllocationSiteInNode)instanceKey).getNode().getMethod().getDeclaringClass().getName().toString().equals(RANDOM);
+	}
+}
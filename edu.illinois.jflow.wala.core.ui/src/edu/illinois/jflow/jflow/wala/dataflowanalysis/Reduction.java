@@ -0,0 +1,177 @@
+package edu.illinois.jflow.jflow.wala.dataflowanalysis;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import com.ibm.wala.types.TypeReference;
+
+/**
+ * A variable that a stage only ever accumulates into, e.g., sum += x, count++, max= Math.max(max,
+ * x) or seen.add(x). Its value does not have to travel from one iteration to the next: each worker
+ * of the stage can keep a partial result starting from the identity of the operator and the
+ * partial results are combined with the variable after the loop. See ReductionAnalyzer.
+ *
+ * @author nchen
+ *
+ */
+public class Reduction {
+
+	public enum Operator {
+		SUM, PRODUCT, AND, OR, XOR, MAX, MIN, SET, LIST, MAP;
+
+		public boolean isCollection() {
+			return this == SET || this == LIST || this == MAP;
+		}
+	}
+
+	private final Operator operator;
+
+	private final String variableName;
+
+	private final int stageNumber;
+
+	private final TypeReference type;
+
+	private final Set<Integer> valueNumbers= new HashSet<Integer>(); // The accumulated values, or the collection
+
+	private final Set<Statement> statements= new HashSet<Statement>();
+
+	private boolean orderSensitive;
+
+	Reduction(Operator operator, String variableName, int stageNumber, TypeReference type) {
+		this.operator= operator;
+		this.variableName= variableName;
+		this.stageNumber= stageNumber;
+		this.type= type;
+	}
+
+	void addValueNumber(int valueNumber) {
+		valueNumbers.add(valueNumber);
+	}
+
+	void addStatement(Statement statement) {
+		statements.add(statement);
+	}
+
+	void setOrderSensitive(boolean orderSensitive) {
+		this.orderSensitive= orderSensitive;
+	}
+
+	// For querying
+	///////////////
+
+	public Operator getOperator() {
+		return operator;
+	}
+
+	public String getVariableName() {
+		return variableName;
+	}
+
+	/**
+	 * @return the stage that accumulates, Stage1 is 1
+	 */
+	public int getStageNumber() {
+		return stageNumber;
+	}
+
+	public TypeReference getType() {
+		return type;
+	}
+
+	public boolean isCollection() {
+		return operator.isCollection();
+	}
+
+	boolean accumulates(int valueNumber) {
+		return valueNumbers.contains(valueNumber);
+	}
+
+	/**
+	 * @return the SSA values of the accumulator, or of the collection
+	 */
+	Set<Integer> getValueNumbers() {
+		return valueNumbers;
+	}
+
+	public Set<Statement> getStatements() {
+		return statements;
+	}
+
+	/**
+	 * Floating point sums and products are not associative, so combining partial results can round
+	 * differently than the sequential loop.
+	 */
+	public boolean isExact() {
+		boolean floatingPoint= type == TypeReference.Float || type == TypeReference.Double;
+		return !(floatingPoint && (operator == Operator.SUM || operator == Operator.PRODUCT));
+	}
+
+	/**
+	 * @return true if the combined result can differ from the sequential one in the order of its
+	 *         elements (lists) or in which value is kept for a key (maps)
+	 */
+	public boolean isOrderSensitive() {
+		return orderSensitive;
+	}
+
+	/**
+	 * @return the source code for the value that each partial result starts from, null for
+	 *         collections
+	 */
+	public String getIdentity() {
+		boolean isLong= type == TypeReference.Long;
+		boolean isFloat= type == TypeReference.Float;
+		boolean isDouble= type == TypeReference.Double;
+		boolean isBoolean= type == TypeReference.Boolean;
+		switch (operator) {
+			case SUM:
+			case OR:
+			case XOR:
+				return isBoolean ? "false" : isLong ? "0L" : isFloat ? "0.0f" : isDouble ? "0.0" : "0";
+			case PRODUCT:
+				return isLong ? "1L" : isFloat ? "1.0f" : isDouble ? "1.0" : "1";
+			case AND:
+				return isBoolean ? "true" : isLong ? "-1L" : "-1";
+			case MAX:
+				return isLong ? "Long.MIN_VALUE" : isFloat ? "Float.NEGATIVE_INFINITY" : isDouble ? "Double.NEGATIVE_INFINITY" : "Integer.MIN_VALUE";
+			case MIN:
+				return isLong ? "Long.MAX_VALUE" : isFloat ? "Float.POSITIVE_INFINITY" : isDouble ? "Double.POSITIVE_INFINITY" : "Integer.MAX_VALUE";
+			default:
+				return null;
+		}
+	}
+
+	/**
+	 * @return the source code that combines the partial result into the variable, e.g., "sum = sum
+	 *         + partial" or "seen.addAll(partial)"
+	 */
+	public String getCombineStatement(String partial) {
+		String v= variableName;
+		switch (operator) {
+			case SUM:
+				return String.format("%s = %s + %s;", v, v, partial);
+			case PRODUCT:
+				return String.format("%s = %s * %s;", v, v, partial);
+			case AND:
+				return String.format("%s = %s & %s;", v, v, partial);
+			case OR:
+				return String.format("%s = %s | %s;", v, v, partial);
+			case XOR:
+				return String.format("%s = %s ^ %s;", v, v, partial);
+			case MAX:
+				return String.format("%s = Math.max(%s, %s);", v, v, partial);
+			case MIN:
+				return String.format("%s = Math.min(%s, %s);", v, v, partial);
+			case MAP:
+				return String.format("%s.putAll(%s);", v, partial);
+			default:
+				return String.format("%s.addAll(%s);", v, partial);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return String.format("Stage%d: %s %s", stageNumber, operator, variableName);
+	}
+}
@@ -0,0 +1,318 @@
+package edu.illinois.jflow.jflow.wala.dataflowanalysis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.ibm.wala.shrikeBT.IBinaryOpInstruction;
+import com.ibm.wala.ssa.DefUse;
+import com.ibm.wala.ssa.IR;
+import com.ibm.wala.ssa.SSABinaryOpInstruction;
+import com.ibm.wala.ssa.SSAInstruction;
+import com.ibm.wala.ssa.SSAInvokeInstruction;
+import com.ibm.wala.ssa.SSAPhiInstruction;
+import com.ibm.wala.types.MethodReference;
+import com.ibm.wala.util.collections.Iterator2Iterable;
+
+import edu.illinois.jflow.jflow.wala.dataflowanalysis.Reduction.Operator;
+
+/**
+ * Finds the variables that the stages only accumulate into, so that they do not count as
+ * loop-carried dependencies. Both kinds are recognized on the SSA form of the method:
+ * <ul>
+ * <li>Scalars: the loop header has a phi s1= phi(s0, sN) where sN is computed by a single stage
+ * from s1 with one associative operator (+, -, *, &amp;, |, ^, Math.max or Math.min) and an operand
+ * that does not depend on s1, possibly through phis for conditional updates. Neither s1 nor the
+ * values in between may be used anywhere else in the loop.</li>
+ * <li>Collections: a Set, List or Map from java.util that is created before the loop and only used
+ * in the loop by a single stage to add or put into, without looking at the result.</li>
+ * </ul>
+ *
+ * @author nchen
+ *
+ */
+public class ReductionAnalyzer {
+
+	private static final String MATH_CLASS= "Ljava/lang/Math";
+
+	private static final Set<String> SET_CLASSES= new HashSet<String>(Arrays.asList("Ljava/util/Set", "Ljava/util/HashSet", "Ljava/util/LinkedHashSet", "Ljava/util/SortedSet",
+			"Ljava/util/NavigableSet", "Ljava/util/TreeSet"));
+
+	private static final Set<String> LIST_CLASSES= new HashSet<String>(Arrays.asList("Ljava/util/List", "Ljava/util/ArrayList", "Ljava/util/LinkedList"));
+
+	private static final Set<String> MAP_CLASSES= new HashSet<String>(Arrays.asList("Ljava/util/Map", "Ljava/util/HashMap", "Ljava/util/LinkedHashMap", "Ljava/util/SortedMap",
+			"Ljava/util/NavigableMap", "Ljava/util/TreeMap"));
+
+	private final ProgramDependenceGraph pdg;
+
+	private final IR ir;
+
+	private final DefUse du;
+
+	private Map<PDGNode, Integer> node2stage;
+
+	public ReductionAnalyzer(ProgramDependenceGraph pdg) {
+		this.pdg= pdg;
+		this.ir= pdg.getIr();
+		this.du= new DefUse(ir);
+	}
+
+	/**
+	 * @param node2stage the stage of each statement in the loop, 0 is the generator
+	 * @param generatorInputs what the loop header uses from the statements of the loop and before
+	 */
+	public List<Reduction> findReductions(Map<PDGNode, Integer> node2stage, List<DataDependence> generatorInputs) {
+		this.node2stage= node2stage;
+		List<Reduction> reductions= new ArrayList<Reduction>();
+
+		Set<SSAPhiInstruction> headerPhis= new HashSet<SSAPhiInstruction>();
+		for (DataDependence dependence : generatorInputs) {
+			Integer stage= node2stage.get(dependence.source);
+			if (stage == null || stage == 0 || dependence.getSSAVariableNumber() == DataDependence.DEFAULT_SSAVARIABLENUMBER) {
+				continue;
+			}
+			SSAPhiInstruction phi= findHeaderPhi(dependence.getSSAVariableNumber());
+			if (phi != null && headerPhis.add(phi)) {
+				Reduction reduction= checkScalarReduction(phi, stage, dependence);
+				if (reduction != null) {
+					reductions.add(reduction);
+				}
+			}
+		}
+
+		Set<Integer> receivers= new HashSet<Integer>();
+		for (PDGNode node : node2stage.keySet()) {
+			Integer stage= node2stage.get(node);
+			if (stage == 0 || !(node instanceof Statement)) {
+				continue;
+			}
+			for (SSAInstruction instruction : ((Statement)node).retrieveAllSSAInstructions()) {
+				if (collectionOperator(instruction) != null && receivers.add(instruction.getUse(0))) {
+					Reduction reduction= checkCollectionReduction((SSAInvokeInstruction)instruction, stage);
+					if (reduction != null) {
+						reductions.add(reduction);
+					}
+				}
+			}
+		}
+		return reductions;
+	}
+
+	// Scalars
+	//////////
+
+	private SSAPhiInstruction findHeaderPhi(int valueNumber) {
+		for (SSAInstruction use : Iterator2Iterable.make(du.getUses(valueNumber))) {
+			if (use instanceof SSAPhiInstruction && stageOf(use) != null && stageOf(use) == 0) {
+				return (SSAPhiInstruction)use;
+			}
+		}
+		return null;
+	}
+
+	private Reduction checkScalarReduction(SSAPhiInstruction headerPhi, int stage, DataDependence dependence) {
+		int start= headerPhi.getDef();
+
+		// Everything in the loop that is computed from the value at the start of the iteration
+		Set<Integer> chain= new HashSet<Integer>();
+		Set<SSAInstruction> chainInstructions= new HashSet<SSAInstruction>();
+		LinkedList<Integer> worklist= new LinkedList<Integer>();
+		chain.add(start);
+		worklist.add(start);
+		while (!worklist.isEmpty()) {
+			int value= worklist.removeFirst();
+			for (SSAInstruction use : Iterator2Iterable.make(du.getUses(value))) {
+				Integer useStage= stageOf(use);
+				if (use == headerPhi || useStage == null) {
+					continue; // Back to the header, or after the loop
+				}
+				if (useStage != stage || !(use instanceof SSAPhiInstruction || use instanceof SSABinaryOpInstruction || minMaxOperator(use) != null)) {
+					return null;
+				}
+				if (chainInstructions.add(use)) {
+					chain.add(use.getDef());
+					worklist.add(use.getDef());
+				}
+			}
+		}
+		if (!chain.contains(dependence.getSSAVariableNumber())) {
+			return null;
+		}
+
+		Operator operator= null;
+		for (SSAInstruction instruction : chainInstructions) {
+			if (instruction instanceof SSAPhiInstruction) {
+				// Merging a value from outside the chain would be a reset, e.g., if (...) sum= 0
+				for (int use= 0; use < instruction.getNumberOfUses(); use++) {
+					if (!chain.contains(instruction.getUse(use))) {
+						return null;
+					}
+				}
+				continue;
+			}
+			Operator instructionOperator= accumulatingOperator(instruction, chain);
+			if (instructionOperator == null || (operator != null && operator != instructionOperator)) {
+				return null;
+			}
+			operator= instructionOperator;
+		}
+		if (operator == null) {
+			return null;
+		}
+
+		// The header may only merge the chain with the value from before the loop
+		for (int use= 0; use < headerPhi.getNumberOfUses(); use++) {
+			int value= headerPhi.getUse(use);
+			if (!chain.contains(value) && isDefinedInLoop(value)) {
+				return null;
+			}
+		}
+
+		Reduction reduction= new Reduction(operator, getVariableName(dependence), stage, dependence.variableType);
+		for (Integer value : chain) {
+			reduction.addValueNumber(value);
+		}
+		for (SSAInstruction instruction : chainInstructions) {
+			reduction.addStatement(pdg.getInstruction2Statement().get(instruction));
+		}
+		return reduction;
+	}
+
+	/*
+	 * Exactly one operand has to come from the chain, and for a subtraction it has to be the first:
+	 * sum -= x accumulates -x but x - sum does not accumulate anything.
+	 */
+	private Operator accumulatingOperator(SSAInstruction instruction, Set<Integer> chain) {
+		int fromChain= 0;
+		for (int use= 0; use < instruction.getNumberOfUses(); use++) {
+			if (chain.contains(instruction.getUse(use))) {
+				fromChain++;
+			}
+		}
+		if (fromChain != 1 || instruction.getNumberOfUses() != 2) {
+			return null;
+		}
+		if (!(instruction instanceof SSABinaryOpInstruction)) {
+			return minMaxOperator(instruction);
+		}
+
+		IBinaryOpInstruction.IOperator binaryOperator= ((SSABinaryOpInstruction)instruction).getOperator();
+		if (binaryOperator == IBinaryOpInstruction.Operator.ADD) {
+			return Operator.SUM;
+		} else if (binaryOperator == IBinaryOpInstruction.Operator.SUB) {
+			return chain.contains(instruction.getUse(0)) ? Operator.SUM : null;
+		} else if (binaryOperator == IBinaryOpInstruction.Operator.MUL) {
+			return Operator.PRODUCT;
+		} else if (binaryOperator == IBinaryOpInstruction.Operator.AND) {
+			return Operator.AND;
+		} else if (binaryOperator == IBinaryOpInstruction.Operator.OR) {
+			return Operator.OR;
+		} else if (binaryOperator == IBinaryOpInstruction.Operator.XOR) {
+			return Operator.XOR;
+		}
+		return null;
+	}
+
+	private Operator minMaxOperator(SSAInstruction instruction) {
+		if (!(instruction instanceof SSAInvokeInstruction)) {
+			return null;
+		}
+		SSAInvokeInstruction invoke= (SSAInvokeInstruction)instruction;
+		MethodReference target= invoke.getDeclaredTarget();
+		if (!invoke.isStatic() || invoke.getNumberOfParameters() != 2 || !MATH_CLASS.equals(target.getDeclaringClass().getName().toString())) {
+			return null;
+		}
+		String name= target.getName().toString();
+		return "max".equals(name) ? Operator.MAX : "min".equals(name) ? Operator.MIN : null;
+	}
+
+	private String getVariableName(DataDependence dependence) {
+		List<String> names= dependence.getLocalVariableNames();
+		return names.isEmpty() ? dependence.variableName : names.get(0);
+	}
+
+	// Collections
+	//////////////
+
+	private Operator collectionOperator(SSAInstruction instruction) {
+		if (!(instruction instanceof SSAInvokeInstruction) || ((SSAInvokeInstruction)instruction).isStatic()) {
+			return null;
+		}
+		MethodReference target= ((SSAInvokeInstruction)instruction).getDeclaredTarget();
+		String type= target.getDeclaringClass().getName().toString();
+		String name= target.getName().toString();
+		if ((SET_CLASSES.contains(type) || LIST_CLASSES.contains(type)) && ("add".equals(name) || "addAll".equals(name)) && target.getNumberOfParameters() == 1) {
+			return SET_CLASSES.contains(type) ? Operator.SET : Operator.LIST;
+		}
+		if (MAP_CLASSES.contains(type) && (("put".equals(name) && target.getNumberOfParameters() == 2) || ("putAll".equals(name) && target.getNumberOfParameters() == 1))) {
+			return Operator.MAP;
+		}
+		return null;
+	}
+
+	private Reduction checkCollectionReduction(SSAInvokeInstruction first, int stage) {
+		int receiver= first.getUse(0);
+		if (isDefinedInLoop(receiver)) {
+			return null;
+		}
+
+		Operator operator= null;
+		Reduction reduction= null;
+		for (SSAInstruction use : Iterator2Iterable.make(du.getUses(receiver))) {
+			Integer useStage= stageOf(use);
+			if (useStage == null) {
+				continue; // Before or after the loop
+			}
+			Operator useOperator= collectionOperator(use);
+			if (useStage != stage || useOperator == null || use.getUse(0) != receiver || (operator != null && operator != useOperator)) {
+				return null;
+			}
+			// Something in the loop looking at what add() or put() returned depends on the order
+			if (use.hasDef() && du.getNumberOfUses(use.getDef()) > 0) {
+				return null;
+			}
+			for (int argument= 1; argument < use.getNumberOfUses(); argument++) {
+				if (use.getUse(argument) == receiver) {
+					return null;
+				}
+			}
+			operator= useOperator;
+			if (reduction == null) {
+				String name= getLocalName(use, receiver);
+				if (name == null) {
+					return null;
+				}
+				reduction= new Reduction(operator, name, stage, first.getDeclaredTarget().getDeclaringClass());
+				reduction.addValueNumber(receiver);
+			}
+			reduction.addStatement(pdg.getInstruction2Statement().get(use));
+			String type= ((SSAInvokeInstruction)use).getDeclaredTarget().getDeclaringClass().getName().toString();
+			if (operator != Operator.SET || type.equals("Ljava/util/LinkedHashSet")) {
+				reduction.setOrderSensitive(true); // Lists keep the order of insertion, maps keep the last value for a key
+			}
+		}
+		return reduction;
+	}
+
+	private String getLocalName(SSAInstruction instruction, int valueNumber) {
+		String[] names= pdg.getInstruction2Statement().get(instruction).getLocalNames(instruction, valueNumber);
+		return names == null || names.length == 0 ? null : names[0];
+	}
+
+	// Helpers
+	//////////
+
+	private Integer stageOf(SSAInstruction instruction) {
+		Statement statement= pdg.getInstruction2Statement().get(instruction);
+		return statement == null ? null : node2stage.get(statement);
+	}
+
+	private boolean isDefinedInLoop(int valueNumber) {
+		SSAInstruction def= du.getDef(valueNumber);
+		return def != null && stageOf(def) != null;
+	}
+}
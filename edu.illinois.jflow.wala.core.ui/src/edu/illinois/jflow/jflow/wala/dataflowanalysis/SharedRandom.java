@@ -0,0 +1,93 @@
+package edu.illinois.jflow.jflow.wala.dataflowanalysis;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import com.ibm.wala.ipa.callgraph.propagation.InstanceKey;
+import com.ibm.wala.ipa.callgraph.propagation.PointerKey;
+import com.ibm.wala.ipa.callgraph.propagation.StaticFieldKey;
+
+/**
+ * A java.util.Random that the stages draw from although it is created outside the loop, or the
+ * generator behind Math.random(). Every draw writes its seed, so the workers of a stage and the
+ * stages that share it race on it, while the numbers themselves do not need to come from the same
+ * sequence. See RandomGeneratorAnalyzer.
+ *
+ * @author nchen
+ *
+ */
+public class SharedRandom {
+
+	public enum Source {
+		LOCAL, // A local variable that a new before the loop defines, which the refactoring can replace
+		SHARED, // A field or a parameter, which other code could also draw from
+		MATH_RANDOM; // Math.random(), which the refactoring can replace in the stages
+
+		/**
+		 * @return true if the refactoring can give each worker its own generator
+		 */
+		public boolean isReplaceable() {
+			return this != SHARED;
+		}
+	}
+
+	public static final String MATH_RANDOM_NAME= "Math.random()";
+
+	private final String variableName;
+
+	private final Source source;
+
+	private final Set<InstanceKey> objects= new HashSet<InstanceKey>(); // The generator and its seed
+
+	private final SortedSet<Integer> stageNumbers= new TreeSet<Integer>();
+
+	SharedRandom(String variableName, Source source) {
+		this.variableName= variableName;
+		this.source= source;
+	}
+
+	void addObjects(Set<InstanceKey> instanceKeys) {
+		objects.addAll(instanceKeys);
+	}
+
+	void addStageNumber(int stageNumber) {
+		stageNumbers.add(stageNumber);
+	}
+
+	// For querying
+	///////////////
+
+	/**
+	 * @return the name of the local variable, Class.field for a field, or Math.random()
+	 */
+	public String getVariableName() {
+		return variableName;
+	}
+
+	public Source getSource() {
+		return source;
+	}
+
+	/**
+	 * @return the stages that draw from the generator, Stage1 is 1 and the generator is 0
+	 */
+	public SortedSet<Integer> getStageNumbers() {
+		return stageNumbers;
+	}
+
+	boolean owns(PointerKey key) {
+		if (key instanceof StaticFieldKey) {
+			// The field that holds the generator of Math.random(), Math.randomNumberGenerator or in a holder class
+			return source == Source.MATH_RANDOM && ((StaticFieldKey)key).getField().getDeclaringClass().getName().toString().startsWith("Ljava/lang/Math");
+		}
+		InstanceKey owner= OwnershipTransferAnalyzer.getOwner(key);
+		return owner != null && objects.contains(owner);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("Stage%s: %s %s", stageNumbers, source, variableName);
+	}
+}
@@ -0,0 +1,186 @@
+package edu.illinois.jflow.jflow.wala.dataflowanalysis;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.ibm.wala.ipa.callgraph.CGNode;
+import com.ibm.wala.ipa.callgraph.propagation.AllocationSiteInNode;
+import com.ibm.wala.ipa.callgraph.propagation.InstanceKey;
+import com.ibm.wala.ipa.callgraph.propagation.PointerKey;
+import com.ibm.wala.ssa.SSAAbstractInvokeInstruction;
+import com.ibm.wala.ssa.SSAInstruction;
+import com.ibm.wala.ssa.SSANewInstruction;
+
+import edu.illinois.jflow.jflow.wala.dataflowanalysis.StageInterferenceInfo.InterferenceKind;
+
+/**
+ * Finds the stages that could run their iterations speculatively, e.g., a memoizing stage
+ *
+ * <pre>
+ * for (Request request : requests) {
+ * 	Result result= cache.get(request.getKey()); // Stage1
+ * 	if (result == null) {
+ * 		result= compute(request);
+ * 		cache.put(request.getKey(), result); // Rarely, once the cache is warm
+ * 	}
+ * 	reply(request, result); // Stage2
+ * }
+ * </pre>
+ *
+ * The stage writes the cache, so the checker has to keep it on one worker although most iterations
+ * only read it. If no other stage accesses the locations that keep the stage from running on
+ * several workers, the refactoring can run its iterations speculatively: an iteration runs until it
+ * would write one of these locations, in which case it runs again in the order of the loop, and it
+ * only commits if no iteration before it wrote them in the meantime.
+ *
+ * An iteration that runs again runs the whole stage again, and nothing undoes what the first
+ * attempt did before it stopped. So every other location that the stage writes has to belong to an
+ * object that the stage allocates itself, which the next attempt allocates anew, and the stage must
+ * not call anything whose effects we do not know, e.g., I/O.
+ *
+ * Whether the writes are rare is up to the user, e.g., from a profile. A stage that writes them in
+ * most iterations runs slower than on one worker.
+ *
+ * @author nchen
+ *
+ */
+public class SpeculationAnalyzer {
+
+	// Calls into these packages have effects outside the heap that an attempt cannot take back
+	private static final String[] IO_PACKAGES= { "Ljava/io/", "Ljava/nio/", "Ljava/net/", "Ljava/sql/" };
+
+	private final PDGPartitionerChecker checker;
+
+	private final StatementHeapEffects heapEffects;
+
+	public SpeculationAnalyzer(PDGPartitionerChecker checker, StatementHeapEffects heapEffects) {
+		this.checker= checker;
+		this.heapEffects= heapEffects;
+	}
+
+	/**
+	 * @return the stages that could run speculatively, in the order of the stages
+	 */
+	public List<SpeculativeStage> findSpeculativeStages() {
+		List<SpeculativeStage> speculativeStages= new ArrayList<SpeculativeStage>();
+		for (int stageNumber= 1; stageNumber < checker.getNumberOfStages(); stageNumber++) {
+			SpeculativeStage speculativeStage= findSpeculativeStage(stageNumber);
+			if (speculativeStage != null) {
+				speculativeStages.add(speculativeStage);
+			}
+		}
+		return speculativeStages;
+	}
+
+	private SpeculativeStage findSpeculativeStage(int stageNumber) {
+		if (checker.isDataParallel(stageNumber) || hasCollectionReduction(stageNumber)) {
+			return null; // A retried iteration would add to the partial collection twice
+		}
+
+		PipelineStage stage= checker.getStage(stageNumber);
+		Map<PointerKey, InterferenceKind> kinds= checker.getInterferenceKinds(stageNumber);
+		SpeculativeStage speculativeStage= new SpeculativeStage(stageNumber);
+		Set<PointerKey> blockingMods= checker.getBlockingMods(stageNumber);
+		for (PointerKey key : blockingMods) {
+			InterferenceKind kind= kinds.get(key);
+			if (kind != null && kind.isBlocking()) {
+				return null; // Speculation only orders the iterations of the stage, not other stages
+			}
+			Set<Statement> writers= stage.modifyingStatements(key);
+			if (writers == null || writers.isEmpty()) {
+				return null;
+			}
+			speculativeStage.addConflictingKey(key);
+			for (Statement writer : writers) {
+				speculativeStage.addWriteLine(writer.getLineNumber());
+			}
+		}
+
+		if (!isRepeatable(stage, blockingMods)) {
+			return null;
+		}
+		return speculativeStage;
+	}
+
+	/*
+	 * Running the stage again from the top only redoes what the first attempt did to objects that
+	 * the attempt allocated itself
+	 */
+	private boolean isRepeatable(PipelineStage stage, Set<PointerKey> guardedKeys) {
+		OwnershipTransferAnalyzer ownership= checker.getOwnershipTransferAnalyzer();
+		Set<CGNode> calledFromStage= ownership.getNodesCalledFrom(stage);
+		for (CGNode node : calledFromStage) {
+			if (isIO(node.getMethod().getDeclaringClass().getName().toString())) {
+				return false;
+			}
+		}
+		for (PDGNode node : stage.getSelectedStatements()) {
+			Statement statement= (Statement)node;
+			if (!heapEffects.getIgnoreds(statement).isEmpty()) {
+				return false; // We do not know what they do
+			}
+			for (SSAInstruction instruction : statement.retrieveAllSSAInstructions()) {
+				if (instruction instanceof SSAAbstractInvokeInstruction && isIO(((SSAAbstractInvokeInstruction)instruction).getDeclaredTarget().getDeclaringClass().getName().toString())) {
+					return false;
+				}
+			}
+		}
+
+		Set<CGNode> calledFromOtherStages= new HashSet<CGNode>();
+		for (int stageNumber= 0; stageNumber < checker.getNumberOfStages(); stageNumber++) {
+			if (stageNumber != stage.getStageNumber()) {
+				calledFromOtherStages.addAll(ownership.getNodesCalledFrom(checker.getStage(stageNumber)));
+			}
+		}
+		for (PointerKey key : stage.getMods()) {
+			if (!guardedKeys.contains(key) && !isAllocatedByAttempt(OwnershipTransferAnalyzer.getOwner(key), stage, calledFromStage, calledFromOtherStages)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/*
+	 * Allocated by the statements of the stage, or by a method that only this stage calls. Objects
+	 * that the stage receives from an earlier stage, or that outlive the loop, are written for good.
+	 */
+	private boolean isAllocatedByAttempt(InstanceKey owner, PipelineStage stage, Set<CGNode> calledFromStage, Set<CGNode> calledFromOtherStages) {
+		if (!(owner instanceof AllocationSiteInNode)) {
+			return false; // Static fields, among others
+		}
+		AllocationSiteInNode allocation= (AllocationSiteInNode)owner;
+		CGNode allocatingNode= allocation.getNode();
+		if (allocatingNode.equals(heapEffects.getCgNode())) {
+			for (PDGNode node : stage.getSelectedStatements()) {
+				for (SSAInstruction instruction : ((Statement)node).retrieveAllSSAInstructions()) {
+					if (instruction instanceof SSANewInstruction && ((SSANewInstruction)instruction).getNewSite().equals(allocation.getSite())) {
+						return true;
+					}
+				}
+			}
+			return false;
+		}
+		return calledFromStage.contains(allocatingNode) && !calledFromOtherStages.contains(allocatingNode);
+	}
+
+	private static boolean isIO(String typeName) {
+		for (String ioPackage : IO_PACKAGES) {
+			if (typeName.startsWith(ioPackage)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean hasCollectionReduction(int stageNumber) {
+		for (Reduction reduction : checker.getReductions(stageNumber)) {
+			if (reduction.isCollection()) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,67 @@
+package edu.illinois.jflow.jflow.wala.dataflowanalysis;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import com.ibm.wala.ipa.callgraph.propagation.PointerKey;
+
+/**
+ * A stage that is not data-parallel only because of locations that it alone writes, so its
+ * iterations could run on several workers speculatively and only the ones that write them would
+ * have to run again in order. See SpeculationAnalyzer.
+ *
+ * @author nchen
+ *
+ */
+public class SpeculativeStage {
+
+	private final int stageNumber;
+
+	private final Set<PointerKey> conflictingKeys= new HashSet<PointerKey>();
+
+	private final SortedSet<Integer> writeLines= new TreeSet<Integer>();
+
+	SpeculativeStage(int stageNumber) {
+		this.stageNumber= stageNumber;
+	}
+
+	void addConflictingKey(PointerKey key) {
+		conflictingKeys.add(key);
+	}
+
+	void addWriteLine(int lineNumber) {
+		writeLines.add(lineNumber);
+	}
+
+	// For querying
+	///////////////
+
+	/**
+	 * @return the stage, Stage1 is 1
+	 */
+	public int getStageNumber() {
+		return stageNumber;
+	}
+
+	/**
+	 * @return the locations that keep the stage from running on several workers
+	 */
+	public Set<PointerKey> getConflictingKeys() {
+		return conflictingKeys;
+	}
+
+	/**
+	 * @return the lines of the statements that write the conflicting locations, an iteration that
+	 *         reaches one of them runs again in order
+	 */
+	public SortedSet<Integer> getWriteLines() {
+		return writeLines;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("Stage%d: writes on lines %s", stageNumber, writeLines);
+	}
+}
@@ -7,22 +7,14 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
-import com.ibm.wala.classLoader.NewSiteReference;
-import com.ibm.wala.ipa.callgraph.CGNode;
-import com.ibm.wala.ipa.callgraph.Context;
-import com.ibm.wala.ipa.callgraph.propagation.AllocationSiteInNode;
-import com.ibm.wala.ipa.callgraph.propagation.InstanceFieldPointerKey;
+import com.ibm.wala.ipa.callgraph.propagation.ArrayContentsKey;
 import com.ibm.wala.ipa.callgraph.propagation.InstanceKey;
 import com.ibm.wala.ipa.callgraph.propagation.PointerKey;
-import com.ibm.wala.ipa.modref.DelegatingExtendedHeapModel;
-import com.ibm.wala.ssa.SSAInstruction;
-import com.ibm.wala.ssa.SSANewInstruction;
+import com.ibm.wala.ipa.callgraph.propagation.StaticFieldKey;
 import com.ibm.wala.util.collections.Pair;
-import com.ibm.wala.util.debug.Assertions;
 
-import edu.illinois.jflow.wala.pointeranalysis.JFlowCustomContextSelector;
-import edu.illinois.jflow.wala.pointeranalysis.ReceiverString;
-import edu.illinois.jflow.wala.pointeranalysis.ReceiverStringContext;
+import edu.illinois.jflow.wala.profiling.DependenceProfile;
+import edu.illinois.jflow.wala.profiling.DependenceProfile.Observation;
 
 /**
  * This class checks for interferences between different stages.
@@ -35,19 +27,57 @@ import edu.illinois.jflow.wala.pointeranalysis.ReceiverStringContext;
  * another stage. More concretely, we check if the elements of the REF set of stageK is part of the
  * MOD set of the other stages.
  * 
+ * Each such PointerKey is labeled with an InterferenceKind. The ones that the stages only access in
+ * the same iteration, one after the other, do not count as interference, and neither do the ones
+ * that only constructors write while the loop runs, that belong to a structure that the
+ * refactoring replaces by a concurrent one, or to a random number generator that it replaces by one
+ * for each worker.
+ * 
  * We do this for each stage.
  * 
+ * If the loop was profiled (see DependenceProfile), each interfering PointerKey is also labeled
+ * with whether the stages actually conflicted on it in the profiled run.
+ * 
  * @author nchen
  * 
  */
 public class StageInterferenceInfo {
+
+	/**
+	 * How two stages that access the same PointerKey can run into each other. The stages work on
+	 * different iterations at the same time, and on the same iteration one after the other.
+	 */
+	public enum InterferenceKind {
+		SAME_ITERATION("same iteration"), // Only the objects of the same iteration, ordered by the channels
+		READ_ONLY("read-only"), // Only written by the constructors of the objects, see ImmutabilityAnalyzer
+		CONCURRENT("concurrent"), // Only added to, in a structure that is replaced by a concurrent one, see ConcurrentStructureAnalyzer
+		PER_WORKER("per-worker"), // The seed of a random number generator that is replaced by one for each worker, see RandomGeneratorAnalyzer
+		UNKNOWN("unknown"),
+		CROSS_ITERATION("cross-iteration"); // The same objects in different iterations, a race
+
+		private final String description;
+
+		private InterferenceKind(String description) {
+			this.description= description;
+		}
+
+		public boolean isBlocking() {
+			return this == UNKNOWN || this == CROSS_ITERATION;
+		}
+
+		@Override
+		public String toString() {
+			return description;
+		}
+	}
+
 	private final PDGPartitionerChecker pdgPartitionerChecker;
 
 	private final PipelineStage pipelineStage;
 
-	Map<PipelineStage, Set<PointerKey>> interferences;
+	Map<PipelineStage, Set<PointerKey>> interferences; // Only the ones that block parallelization
 
-	private List<NewSiteReference> newSiteRefsInPipeline= new ArrayList<NewSiteReference>(); // Use to keep track of things allocated freshly
+	Map<PipelineStage, Map<PointerKey, InterferenceKind>> interferenceKinds;
 
 	public StageInterferenceInfo(PDGPartitionerChecker pdgPartitionerChecker, PipelineStage pipelineStage) {
 		this.pdgPartitionerChecker= pdgPartitionerChecker;
@@ -55,103 +85,195 @@ public class StageInterferenceInfo {
 	}
 
 	public void checkInterference() {
-		initRecords();
-		for (PipelineStage stage : interferences.keySet()) {
-			Set<PointerKey> set= interferences.get(stage);
-			set.retainAll(stage.getMods());
+		interferences= new HashMap<PipelineStage, Set<PointerKey>>();
+		interferenceKinds= new HashMap<PipelineStage, Map<PointerKey, InterferenceKind>>();
+		for (PipelineStage stage : pdgPartitionerChecker.getSetOfAllStagesExcluding(pipelineStage)) {
+			checkInterferenceWith(stage);
 		}
+	}
 
-		// Filter out the pointers that are passed between stages
-		DelegatingExtendedHeapModel heapModel= pipelineStage.getHeapModel();
-		CGNode cgNode= pipelineStage.getCgNode();
+	/*
+	 * Statements moved between the two stages. Only the pairs that involve them can change.
+	 */
+	void recheckInterference(PipelineStage changed, PipelineStage otherChanged) {
+		if (pipelineStage == changed || pipelineStage == otherChanged) {
+			checkInterference();
+		} else {
+			checkInterferenceWith(changed);
+			checkInterferenceWith(otherChanged);
+		}
+	}
 
-		// Gather all the data that could be produced from any of the other stages
-		// This is a shortcut that is safe because
-		// flow is implicitly considered through the use of SSAVariables and also the fact
-		// that we only allow linear pipelines.
-		List<DataDependence> dataDependencies= new ArrayList<DataDependence>();
-		dataDependencies.addAll(pipelineStage.getOutputDataDependences());
-		for (PipelineStage stage : interferences.keySet()) {
-			dataDependencies.addAll(stage.getOutputDataDependences());
+	private void checkInterferenceWith(PipelineStage otherStage) {
+		// We start with a copy of (Ref U Mod) so that we can do retainAll(), i.e., set intersection, which is destructive in Java
+		Set<PointerKey> set= new HashSet<PointerKey>(pipelineStage.getRefs());
+		set.addAll(pipelineStage.getMods());
+		set.retainAll(otherStage.getMods());
+		Set<PointerKey> overlap= new HashSet<PointerKey>(set);
+		Set<PointerKey> readOnly= pruneReadOnly(set);
+		Set<PointerKey> concurrent= pruneConcurrent(set);
+		Set<PointerKey> perWorker= prunePerWorker(set);
+
+		// What we prune next is only accessed by the stages in the same iteration
+		pruneHandedOffObjects(set);
+		pruneDisjointArraySections(set, otherStage);
+		interferences.put(otherStage, set);
+		classifyInterference(otherStage, overlap, readOnly, concurrent, perWorker, set);
+	}
+
+	/*
+	 * Removes and returns the locations of the structures that are replaced by concurrent ones
+	 */
+	private Set<PointerKey> pruneConcurrent(Set<PointerKey> set) {
+		Set<PointerKey> concurrent= new HashSet<PointerKey>();
+		for (PointerKey pKey : set) {
+			if (pdgPartitionerChecker.isConcurrent(pKey)) {
+				concurrent.add(pKey);
+			}
 		}
+		set.removeAll(concurrent);
+		return concurrent;
+	}
 
-		// Gather all the locally allocated objects from stages
-		getLocallyAllocatedObjects();
-
-		for (DataDependence dDep : dataDependencies) {
-			int SSAVariableNumber= dDep.getSSAVariableNumber();
-			if (SSAVariableNumber != DataDependence.DEFAULT_SSAVARIABLENUMBER) {
-				PointerKey ref= heapModel.getPointerKeyForLocal(cgNode, SSAVariableNumber);
-				if (ref != null) {
-					// Remove this pointer key from the interference of sets
-					for (PipelineStage stage : interferences.keySet()) {
-						Set<PointerKey> set= interferences.get(stage);
-						pruneTransferredObject(set);
-					}
-				}
+	/*
+	 * Removes and returns the locations of the random number generators that are replaced by one for
+	 * each worker
+	 */
+	private Set<PointerKey> prunePerWorker(Set<PointerKey> set) {
+		Set<PointerKey> perWorker= new HashSet<PointerKey>();
+		for (PointerKey pKey : set) {
+			if (pdgPartitionerChecker.isPerWorker(pKey)) {
+				perWorker.add(pKey);
 			}
 		}
+		set.removeAll(perWorker);
+		return perWorker;
 	}
 
-	private void getLocallyAllocatedObjects() {
-		// Get all the stages
-		Set<PipelineStage> stages= pdgPartitionerChecker.getSetOfAllStagesExcluding(pipelineStage);
-		stages.add(pipelineStage);
-
-		for (PipelineStage stage : stages) {
-			List<PDGNode> selectedStatements= stage.getSelectedStatements();
-			for (PDGNode node : selectedStatements) {
-				if (node instanceof Statement) {
-					Statement stmt= (Statement)node;
-					List<SSAInstruction> ssaInstructions= stmt.retrieveAllSSAInstructions();
-					for (SSAInstruction ssaInstruction : ssaInstructions) {
-						if (ssaInstruction instanceof SSANewInstruction) { // We are only interested in new instructions
-							SSANewInstruction newInstruction= (SSANewInstruction)ssaInstruction;
-							newSiteRefsInPipeline.add(newInstruction.getNewSite());
-						}
-					}
-				} else {
-					// This should not happen since we are dealing only with statements
-					Assertions.UNREACHABLE("Found something that was not a Statement node.");
-				}
+	/*
+	 * Removes and returns the locations that only constructors write while the loop runs
+	 */
+	private Set<PointerKey> pruneReadOnly(Set<PointerKey> set) {
+		ImmutabilityAnalyzer immutability= pdgPartitionerChecker.getImmutabilityAnalyzer();
+		Set<PointerKey> readOnly= new HashSet<PointerKey>();
+		for (PointerKey pKey : set) {
+			if (immutability.isReadOnlyInLoop(pKey)) {
+				readOnly.add(pKey);
 			}
 		}
+		set.removeAll(readOnly);
+		return readOnly;
 	}
 
-	// We can only transfer non-static objects - all static objects are otherwise shared
-	// Also transfer all the other objects that it creates transitively
-	private void pruneTransferredObject(Set<PointerKey> set) {
-		Set<PointerKey> snapshot= new HashSet<PointerKey>(set); // We are going to remove things so let's snapshot the contents and iterate through that
+	private void classifyInterference(PipelineStage otherStage, Set<PointerKey> overlap, Set<PointerKey> readOnly, Set<PointerKey> concurrent, Set<PointerKey> perWorker,
+			Set<PointerKey> remaining) {
+		Map<PointerKey, InterferenceKind> kinds= new HashMap<PointerKey, InterferenceKind>();
+		for (PointerKey pKey : overlap) {
+			if (readOnly.contains(pKey)) {
+				kinds.put(pKey, InterferenceKind.READ_ONLY);
+			} else if (concurrent.contains(pKey)) {
+				kinds.put(pKey, InterferenceKind.CONCURRENT);
+			} else if (perWorker.contains(pKey)) {
+				kinds.put(pKey, InterferenceKind.PER_WORKER);
+			} else if (!remaining.contains(pKey)) {
+				// Only pruned if confined to its iteration or in disjoint array sections
+				kinds.put(pKey, InterferenceKind.SAME_ITERATION);
+			} else if (isSharedAcrossIterations(pKey, otherStage)) {
+				kinds.put(pKey, InterferenceKind.CROSS_ITERATION);
+			} else {
+				kinds.put(pKey, InterferenceKind.UNKNOWN);
+			}
+		}
+		interferenceKinds.put(otherStage, kinds);
+	}
+
+	/*
+	 * Static fields, objects that every iteration reaches, and array elements that another iteration
+	 * of the other stage also accesses
+	 */
+	private boolean isSharedAcrossIterations(PointerKey pKey, PipelineStage otherStage) {
+		if (pKey instanceof StaticFieldKey) {
+			return true;
+		}
+		if (pKey instanceof ArrayContentsKey && pdgPartitionerChecker.getArraySectionAnalyzer().isOverlappingAcrossIterations(pipelineStage, otherStage, (ArrayContentsKey)pKey)) {
+			return true;
+		}
+		InstanceKey owner= OwnershipTransferAnalyzer.getOwner(pKey);
+		return owner != null && pdgPartitionerChecker.getOwnershipTransferAnalyzer().isSharedAcrossIterations(owner);
+	}
+
+	/*
+	 * Objects that every iteration allocates for itself are handed from stage to stage along the
+	 * channels, see OwnershipTransferAnalyzer. This follows the flow of the objects instead of where
+	 * they are allocated, so it also covers objects that factories called in the loop allocate, and
+	 * not the objects that an iteration allocates but stores where later iterations reach them.
+	 */
+	private void pruneHandedOffObjects(Set<PointerKey> set) {
+		OwnershipTransferAnalyzer ownership= pdgPartitionerChecker.getOwnershipTransferAnalyzer();
+		Set<PointerKey> snapshot= new HashSet<PointerKey>(set);
 		for (PointerKey pKey : snapshot) {
-			if (pKey instanceof InstanceFieldPointerKey) {
-				InstanceFieldPointerKey instanceFieldPointerKey= (InstanceFieldPointerKey)pKey;
-				InstanceKey instanceKey= instanceFieldPointerKey.getInstanceKey();
-
-				if (instanceKey instanceof AllocationSiteInNode) {
-					AllocationSiteInNode allocNode= (AllocationSiteInNode)instanceKey;
-					Context context= allocNode.getNode().getContext();
-					if (newSiteRefsInPipeline.contains(allocNode.getSite())) {
-						set.remove(pKey);
-					}
-					if (context instanceof ReceiverStringContext) {
-						ReceiverStringContext receiverContext= (ReceiverStringContext)context;
-						ReceiverString contextItem= (ReceiverString)receiverContext.get(JFlowCustomContextSelector.RECEIVER_STRING);
-						InstanceKey[] instances= contextItem.getInstances();
-						for (InstanceKey instance : instances) {
-							removePointerKeyIfAllocatedLocally(set, pKey, instance);
-						}
-					}
+			InstanceKey owner= OwnershipTransferAnalyzer.getOwner(pKey);
+			if (owner != null && ownership.isConfinedToIteration(owner)) {
+				set.remove(pKey);
+			}
+		}
+	}
+
+	// The stages might access different elements of the array in different iterations, see ArraySectionAnalyzer
+	private void pruneDisjointArraySections(Set<PointerKey> set, PipelineStage otherStage) {
+		ArraySectionAnalyzer arraySections= pdgPartitionerChecker.getArraySectionAnalyzer();
+		Set<PointerKey> snapshot= new HashSet<PointerKey>(set);
+		for (PointerKey pKey : snapshot) {
+			if (pKey instanceof ArrayContentsKey && arraySections.isDisjointAcrossIterations(pipelineStage, otherStage, (ArrayContentsKey)pKey)) {
+				set.remove(pKey);
+			}
+		}
+	}
+
+	/**
+	 * @return every PointerKey that this stage and another stage both access, including the ones
+	 *         that do not block parallelization. If the stages interfere differently with different
+	 *         stages, the worst kind is kept.
+	 */
+	public Map<PointerKey, InterferenceKind> getInterferenceKinds() {
+		Map<PointerKey, InterferenceKind> kinds= new HashMap<PointerKey, InterferenceKind>();
+		for (Map<PointerKey, InterferenceKind> stageKinds : interferenceKinds.values()) {
+			for (PointerKey pKey : stageKinds.keySet()) {
+				InterferenceKind kind= stageKinds.get(pKey);
+				if (!kinds.containsKey(pKey) || kinds.get(pKey).compareTo(kind) < 0) {
+					kinds.put(pKey, kind);
 				}
 			}
 		}
+		return kinds;
 	}
 
-	private void removePointerKeyIfAllocatedLocally(Set<PointerKey> set, PointerKey pKey, InstanceKey instanceKey) {
-		AllocationSiteInNode allocNode= (AllocationSiteInNode)instanceKey;
-		NewSiteReference site= allocNode.getSite();
-		if (newSiteRefsInPipeline.contains(site)) {
-			set.remove(pKey);
+	/**
+	 * @return the locations that this stage interferes on with any other stage
+	 */
+	Set<PointerKey> getBlockingKeys() {
+		Set<PointerKey> blockingKeys= new HashSet<PointerKey>();
+		for (Set<PointerKey> pKeys : interferences.values()) {
+			blockingKeys.addAll(pKeys);
 		}
+		return blockingKeys;
+	}
+
+	/**
+	 * @return for each location that this stage interferes on, the most that the profiled run
+	 *         observed of it with any other stage
+	 */
+	Map<PointerKey, Observation> getObservations(DependenceProfile profile) {
+		Map<PointerKey, Observation> observations= new HashMap<PointerKey, Observation>();
+		for (PipelineStage otherStage : interferences.keySet()) {
+			for (PointerKey pKey : interferences.get(otherStage)) {
+				Observation observation= profile.getObservation(pKey, pipelineStage.getStageNumber(), otherStage.getStageNumber());
+				if (!observations.containsKey(pKey) || observations.get(pKey).compareTo(observation) < 0) {
+					observations.put(pKey, observation);
+				}
+			}
+		}
+		return observations;
 	}
 
 	public boolean hasInterference() {
@@ -162,6 +284,35 @@ public class StageInterferenceInfo {
 		return false;
 	}
 
+	/*
+	 * Pairs every statement of this stage that accesses an interfering PointerKey with every
+	 * statement of the other stage that modifies it
+	 */
+	Set<Pair<Statement, Statement>> getInterferingStatements() {
+		Set<Pair<Statement, Statement>> pairs= new HashSet<Pair<Statement, Statement>>();
+		for (PipelineStage otherStage : interferences.keySet()) {
+			for (PointerKey pKey : interferences.get(otherStage)) {
+				Set<Statement> accesses= new HashSet<Statement>();
+				if (pipelineStage.referringStatements(pKey) != null) {
+					accesses.addAll(pipelineStage.referringStatements(pKey));
+				}
+				if (pipelineStage.modifyingStatements(pKey) != null) {
+					accesses.addAll(pipelineStage.modifyingStatements(pKey));
+				}
+				Set<Statement> otherStageModStatements= otherStage.modifyingStatements(pKey);
+				if (otherStageModStatements == null) {
+					continue;
+				}
+				for (Statement access : accesses) {
+					for (Statement otherStageMod : otherStageModStatements) {
+						pairs.add(Pair.make(access, otherStageMod));
+					}
+				}
+			}
+		}
+		return pairs;
+	}
+
 	Map<Pair<Statement, Statement>, InterferencePair> interferingPairQuickLookUp= new HashMap<Pair<Statement, Statement>, InterferencePair>();
 
 	class InterferencePair {
@@ -194,9 +345,18 @@ public class StageInterferenceInfo {
 			String otherStageSourcecode= otherStageStmt.getSourceCode().isEmpty() ? otherStageStmt.toString() : otherStageStmt.getSourceCode();
 			sb.append(String.format(template, pipelineStage.getStageNumber(), currentStageSourceCode, otherStage.getStageNumber(), otherStageSourcecode));
 
+			DependenceProfile profile= pdgPartitionerChecker.getDependenceProfile();
+			boolean unobserved= profile != null;
 			for (int index= 0; index < Math.min(interferringAccesses.size(), THRESHOLD); index++) {
 				PointerKey pKey= interferringAccesses.get(index);
-				sb.append(String.format("%s", PointerKeyPrettyPrinter.prettyPrint(pKey)));
+				InterferenceKind kind= interferenceKinds.get(otherStage).get(pKey);
+				if (profile == null) {
+					sb.append(String.format("[%s] %s", kind, PointerKeyPrettyPrinter.prettyPrint(pKey)));
+				} else {
+					Observation observation= profile.getObservation(pKey, pipelineStage.getStageNumber(), otherStage.getStageNumber());
+					unobserved&= observation == Observation.NOT_OBSERVED || observation == Observation.SAME_ITERATION;
+					sb.append(String.format("[%s, %s] %s", kind, observation, PointerKeyPrettyPrinter.prettyPrint(pKey)));
+				}
 			}
 
 			if (interferringAccesses.size() > THRESHOLD) {
@@ -204,11 +364,17 @@ public class StageInterferenceInfo {
 				sb.append(String.format("Suppressing more than %d concurrent accesses reported. Please inspect manually since these are likely to be spurious.%n", THRESHOLD));
 			}
 
+			// We only looked up the accesses that we show, so only a pair shown in full can be called spurious
+			if (unobserved && interferringAccesses.size() <= THRESHOLD) {
+				sb.append(String.format("The stages never accessed these in different iterations of the profiled run, so this is likely spurious.%n"));
+			}
+
 			return sb.toString();
 		}
 	}
 
 	public void constructInterferenceInformation() {
+		interferingPairQuickLookUp.clear(); // The stages might have changed since the last time
 		for (PipelineStage otherStage : interferences.keySet()) {
 			Set<PointerKey> pKeys= interferences.get(otherStage);
 			for (PointerKey pKey : pKeys) {
@@ -289,15 +455,4 @@ public class StageInterferenceInfo {
 
 		return sb.toString();
 	}
-
-	private void initRecords() {
-		interferences= new HashMap<PipelineStage, Set<PointerKey>>();
-		Set<PipelineStage> otherStages= pdgPartitionerChecker.getSetOfAllStagesExcluding(pipelineStage);
-		for (PipelineStage stage : otherStages) {
-			// We pre-populate the set with a copy of (Ref U Mod) so that we can do retainAll(), i.e., set intersection, which is destructive in Java
-			Set<PointerKey> refs= pipelineStage.getRefs();
-			refs.addAll(pipelineStage.getMods());
-			interferences.put(stage, new HashSet<PointerKey>(refs));
-		}
-	}
 }
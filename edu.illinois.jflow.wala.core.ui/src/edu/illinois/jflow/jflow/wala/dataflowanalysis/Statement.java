@@ -111,6 +111,30 @@ public class Statement implements PDGNode {
 		return ssaInstructions;
 	}
 
+	/**
+	 * @return the index into the IR of each instruction, UNKNOWN_INSTRUCTION_INDEX for phis
+	 */
+	public List<Integer> retrieveAllInstructionIndices() {
+		List<Integer> indices= new ArrayList<Integer>();
+		for (Pair<? extends SSAInstruction, Integer> pair : instructions) {
+			indices.add(pair.snd);
+		}
+		return indices;
+	}
+
+	/**
+	 * @return the names of the value right after the instruction, null if the instruction is a phi
+	 *         or the value has no name in the source
+	 */
+	public String[] getLocalNames(SSAInstruction instruction, int valueNumber) {
+		for (Pair<? extends SSAInstruction, Integer> pair : instructions) {
+			if (pair.fst == instruction && !UNKNOWN_INSTRUCTION_INDEX.equals(pair.snd)) {
+				return ir.getLocalNames(pair.snd, valueNumber);
+			}
+		}
+		return null;
+	}
+
 	@Override
 	public Set<PointerKey> getRefs() {
 		return refs;
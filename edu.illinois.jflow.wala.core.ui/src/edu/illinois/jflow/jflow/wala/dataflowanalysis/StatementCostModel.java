@@ -0,0 +1,259 @@
+package edu.illinois.jflow.jflow.wala.dataflowanalysis;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Stack;
+
+import com.ibm.wala.ipa.callgraph.CGNode;
+import com.ibm.wala.ipa.callgraph.CallGraph;
+import com.ibm.wala.ssa.IR;
+import com.ibm.wala.ssa.ISSABasicBlock;
+import com.ibm.wala.ssa.SSAAbstractInvokeInstruction;
+import com.ibm.wala.ssa.SSACFG;
+import com.ibm.wala.ssa.SSAInstruction;
+import com.ibm.wala.ssa.SSANewInstruction;
+import com.ibm.wala.ssa.SSAPhiInstruction;
+import com.ibm.wala.util.collections.Iterator2Iterable;
+import com.ibm.wala.util.graph.dominators.Dominators;
+
+/**
+ * A static estimate of how much work each statement does, so that we can tell how balanced the
+ * stages of a pipeline are. The estimate combines
+ * <ul>
+ * <li>a weight per SSA instruction, with allocations weighing more than simple instructions,</li>
+ * <li>for calls, the number of instructions in the methods reachable from the callee in the call
+ * graph (if we have one), and</li>
+ * <li>the loop nesting depth of the statement in the method, assuming each loop runs
+ * NESTED_LOOP_TRIP_COUNT times.</li>
+ * </ul>
+ *
+ * The numbers are unitless and only meaningful relative to each other. Loops that enclose all the
+ * statements being compared, e.g., the loop that we are pipelining, scale all of them alike.
+ *
+ * @author nchen
+ *
+ */
+public class StatementCostModel {
+
+	// Rough relative costs, a call does some unknown amount of work so weigh it more than a simple instruction
+	public static final int INSTRUCTION_WEIGHT= 1;
+
+	public static final int INVOKE_WEIGHT= 10;
+
+	public static final int ALLOCATION_WEIGHT= 5;
+
+	// Assume that a nested loop runs this many times per iteration of its enclosing loop
+	public static final int NESTED_LOOP_TRIP_COUNT= 10;
+
+	// Recursion and large libraries would otherwise dwarf everything else
+	static final int CALLEE_SIZE_LIMIT= 10000;
+
+	private final IR ir;
+
+	private final CallGraph callGraph;
+
+	private final CGNode cgNode;
+
+	private final Map<ISSABasicBlock, Integer> loopDepths= new HashMap<ISSABasicBlock, Integer>();
+
+	private final Map<CGNode, Long> calleeSizes= new HashMap<CGNode, Long>();
+
+	private final Map<Statement, Long> costs= new HashMap<Statement, Long>();
+
+	/**
+	 * A model that only looks at the method itself. Calls get INVOKE_WEIGHT regardless of the callee.
+	 */
+	public static StatementCostModel makeIntraproceduralModel(ProgramDependenceGraph pdg) {
+		return new StatementCostModel(pdg.getIr(), null, null);
+	}
+
+	/**
+	 * @param cgNode the node of the method of the pdg in the call graph
+	 */
+	public static StatementCostModel makeInterproceduralModel(ProgramDependenceGraph pdg, CallGraph callGraph, CGNode cgNode) {
+		return new StatementCostModel(pdg.getIr(), callGraph, cgNode);
+	}
+
+	private StatementCostModel(IR ir, CallGraph callGraph, CGNode cgNode) {
+		this.ir= ir;
+		this.callGraph= callGraph;
+		this.cgNode= cgNode;
+		computeLoopDepths();
+	}
+
+	// For querying
+	///////////////
+
+	public long getCost(Statement statement) {
+		Long cost= costs.get(statement);
+		if (cost == null) {
+			cost= computeCost(statement);
+			costs.put(statement, cost);
+		}
+		return cost;
+	}
+
+	public long getCost(Collection<? extends PDGNode> nodes) {
+		long cost= 0;
+		for (PDGNode node : nodes) {
+			if (node instanceof Statement) {
+				cost+= getCost((Statement)node);
+			}
+		}
+		return cost;
+	}
+
+	/**
+	 * @return the cost of the statement ignoring loop nesting and callees
+	 */
+	public static long weigh(Statement statement) {
+		long weight= 0;
+		for (SSAInstruction instruction : statement.retrieveAllSSAInstructions()) {
+			weight+= weigh(instruction);
+		}
+		return weight;
+	}
+
+	private static long weigh(SSAInstruction instruction) {
+		if (instruction instanceof SSAPhiInstruction) {
+			return 0; // Not real work
+		} else if (instruction instanceof SSAAbstractInvokeInstruction) {
+			return INVOKE_WEIGHT;
+		} else if (instruction instanceof SSANewInstruction) {
+			return ALLOCATION_WEIGHT;
+		} else {
+			return INSTRUCTION_WEIGHT;
+		}
+	}
+
+	public int getLoopDepth(Statement statement) {
+		int depth= 0;
+		SSACFG cfg= ir.getControlFlowGraph();
+		for (Integer index : statement.retrieveAllInstructionIndices()) {
+			if (index != Statement.UNKNOWN_INSTRUCTION_INDEX) {
+				Integer blockDepth= loopDepths.get(cfg.getBlockForInstruction(index));
+				if (blockDepth != null) {
+					depth= Math.max(depth, blockDepth);
+				}
+			}
+		}
+		return depth;
+	}
+
+	private long computeCost(Statement statement) {
+		long cost= 0;
+		for (SSAInstruction instruction : statement.retrieveAllSSAInstructions()) {
+			cost+= weigh(instruction);
+			if (instruction instanceof SSAAbstractInvokeInstruction && callGraph != null) {
+				cost+= computeCalleeSize((SSAAbstractInvokeInstruction)instruction);
+			}
+		}
+		return cost * (long)Math.pow(NESTED_LOOP_TRIP_COUNT, getLoopDepth(statement));
+	}
+
+	// Callees
+	//////////
+
+	/*
+	 * For virtual calls with several possible targets, assume the most expensive one
+	 */
+	private long computeCalleeSize(SSAAbstractInvokeInstruction call) {
+		long size= 0;
+		for (CGNode target : callGraph.getPossibleTargets(cgNode, call.getCallSite())) {
+			size= Math.max(size, computeReachableSize(target));
+		}
+		return size;
+	}
+
+	private long computeReachableSize(CGNode root) {
+		Long cached= calleeSizes.get(root);
+		if (cached != null) {
+			return cached;
+		}
+
+		long size= 0;
+		Set<CGNode> visited= new HashSet<CGNode>();
+		Stack<CGNode> worklist= new Stack<CGNode>();
+		worklist.push(root);
+		while (!worklist.isEmpty() && size < CALLEE_SIZE_LIMIT) {
+			CGNode node= worklist.pop();
+			if (!visited.add(node)) {
+				continue;
+			}
+			size+= countInstructions(node.getIR());
+			for (CGNode succ : Iterator2Iterable.make(callGraph.getSuccNodes(node))) {
+				worklist.push(succ);
+			}
+		}
+		size= Math.min(size, CALLEE_SIZE_LIMIT);
+		calleeSizes.put(root, size);
+		return size;
+	}
+
+	private static long countInstructions(IR calleeIR) {
+		if (calleeIR == null) {
+			return 0; // Native methods
+		}
+		long count= 0;
+		for (SSAInstruction instruction : calleeIR.getInstructions()) {
+			if (instruction != null) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	// Loops
+	////////
+
+	/*
+	 * A back edge goes from a block to one of its dominators, the header of a natural loop. The body
+	 * of the loop is everything that reaches the back edge without going through the header.
+	 */
+	private void computeLoopDepths() {
+		SSACFG cfg= ir.getControlFlowGraph();
+		Dominators<ISSABasicBlock> dominators= Dominators.make(cfg, cfg.entry());
+
+		Map<ISSABasicBlock, Set<ISSABasicBlock>> header2Body= new HashMap<ISSABasicBlock, Set<ISSABasicBlock>>();
+		for (ISSABasicBlock block : cfg) {
+			for (ISSABasicBlock succ : Iterator2Iterable.make(cfg.getSuccNodes(block))) {
+				if (dominators.isDominatedBy(block, succ)) {
+					Set<ISSABasicBlock> body= header2Body.get(succ);
+					if (body == null) {
+						body= new HashSet<ISSABasicBlock>();
+						body.add(succ);
+						header2Body.put(succ, body);
+					}
+					collectLoopBody(cfg, block, body);
+				}
+			}
+		}
+
+		for (Set<ISSABasicBlock> body : header2Body.values()) {
+			for (ISSABasicBlock block : body) {
+				Integer depth= loopDepths.get(block);
+				loopDepths.put(block, depth == null ? 1 : depth + 1);
+			}
+		}
+	}
+
+	private void collectLoopBody(SSACFG cfg, ISSABasicBlock latch, Set<ISSABasicBlock> body) {
+		List<ISSABasicBlock> worklist= new ArrayList<ISSABasicBlock>();
+		if (body.add(latch)) {
+			worklist.add(latch);
+		}
+		while (!worklist.isEmpty()) {
+			ISSABasicBlock block= worklist.remove(worklist.size() - 1);
+			for (ISSABasicBlock pred : Iterator2Iterable.make(cfg.getPredNodes(block))) {
+				if (body.add(pred)) {
+					worklist.add(pred);
+				}
+			}
+		}
+	}
+}
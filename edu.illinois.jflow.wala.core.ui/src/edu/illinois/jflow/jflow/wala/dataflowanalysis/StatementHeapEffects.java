@@ -0,0 +1,303 @@
+package edu.illinois.jflow.jflow.wala.dataflowanalysis;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+
+import com.ibm.wala.classLoader.CallSiteReference;
+import com.ibm.wala.ipa.callgraph.CGNode;
+import com.ibm.wala.ipa.callgraph.CallGraph;
+import com.ibm.wala.ipa.callgraph.propagation.InstanceKey;
+import com.ibm.wala.ipa.callgraph.propagation.PointerAnalysis;
+import com.ibm.wala.ipa.callgraph.propagation.PointerKey;
+import com.ibm.wala.ipa.modref.DelegatingExtendedHeapModel;
+import com.ibm.wala.ipa.modref.ModRef;
+import com.ibm.wala.ipa.slicer.HeapExclusions;
+import com.ibm.wala.ssa.SSAAbstractInvokeInstruction;
+import com.ibm.wala.ssa.IR;
+import com.ibm.wala.ssa.SSAInstruction;
+import com.ibm.wala.types.MethodReference;
+import com.ibm.wala.util.collections.Iterator2Iterable;
+import com.ibm.wala.util.config.FileOfClasses;
+import com.ibm.wala.util.debug.Assertions;
+import com.ibm.wala.util.intset.OrdinalSet;
+
+import edu.illinois.jflow.wala.modref.JFlowModRef;
+import edu.illinois.jflow.wala.modref.LibrarySpecifications;
+import edu.illinois.jflow.wala.modref.LibrarySpecifications.Specification;
+import edu.illinois.jflow.wala.modref.LibraryStateKey;
+import edu.illinois.jflow.wala.modref.PurityAnalysis;
+
+/**
+ * The heap locations that each statement of a method reads and writes, either directly or through
+ * its callees. They are computed once and recorded on the Statements themselves (see
+ * Statement.getRefs() and Statement.getMods()) so that the mod/ref of a stage is just the union over
+ * its statements.
+ *
+ * Computing the mod/ref of the whole call graph is by far the most expensive part of checking a
+ * partition. Share one instance between all the checkers for the same pdg, e.g., when trying out
+ * different partitions, and only the set operations are left.
+ *
+ * A call to a library method with a specification (see LibrarySpecifications) gets the effects
+ * that the specification declares instead of those of the callee, and is no longer reported as
+ * ignored. Calls deeper in the callees only add their declared effects, what we know about those
+ * callees is kept.
+ *
+ * @author nchen
+ *
+ */
+public class StatementHeapEffects {
+
+	private final ProgramDependenceGraph pdg;
+
+	private final CallGraph callGraph;
+
+	private final PointerAnalysis pointerAnalysis;
+
+	private final LibrarySpecifications specifications;
+
+	private CGNode cgNode;
+
+	private JFlowModRef modref;
+
+	private HeapExclusions heapExclusions;
+
+	private DelegatingExtendedHeapModel heapModel;
+
+	private Map<CGNode, OrdinalSet<PointerKey>> mod;
+
+	private Map<CGNode, OrdinalSet<PointerKey>> ref;
+
+	private Map<CGNode, OrdinalSet<MethodReference>> ignored;
+
+	private Map<Statement, Set<MethodReference>> statement2Ignoreds= new HashMap<Statement, Set<MethodReference>>();
+
+	private PurityAnalysis purityAnalysis;
+
+	// The effects that the specifications declare for the calls in each method, not including its callees
+	private Map<CGNode, Set<PointerKey>> specifiedRefs= new HashMap<CGNode, Set<PointerKey>>();
+
+	private Map<CGNode, Set<PointerKey>> specifiedMods= new HashMap<CGNode, Set<PointerKey>>();
+
+	public static StatementHeapEffects make(ProgramDependenceGraph pdg, CallGraph callGraph, PointerAnalysis pointerAnalysis) {
+		return make(pdg, callGraph, pointerAnalysis, LibrarySpecifications.empty());
+	}
+
+	public static StatementHeapEffects make(ProgramDependenceGraph pdg, CallGraph callGraph, PointerAnalysis pointerAnalysis, LibrarySpecifications specifications) {
+		StatementHeapEffects temp= new StatementHeapEffects(pdg, callGraph, pointerAnalysis, specifications);
+		temp.setupModRefInfrastructure();
+		temp.computeStatementEffects();
+		return temp;
+	}
+
+	private StatementHeapEffects(ProgramDependenceGraph pdg, CallGraph callGraph, PointerAnalysis pointerAnalysis, LibrarySpecifications specifications) {
+		this.pdg= pdg;
+		this.callGraph= callGraph;
+		this.pointerAnalysis= pointerAnalysis;
+		this.specifications= specifications;
+	}
+
+	private void setupModRefInfrastructure() {
+		cgNode= findCGNode();
+		modref= new JFlowModRef();
+		try {
+			heapExclusions= new HeapExclusions(new FileOfClasses(PDGPartitionerChecker.exclusionsRegex));
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		heapModel= new DelegatingExtendedHeapModel(pointerAnalysis.getHeapModel());
+		mod= modref.computeMod(callGraph, pointerAnalysis, heapExclusions);
+		ref= modref.computeRef(callGraph, pointerAnalysis, heapExclusions);
+		ignored= modref.computeIgnoredCallee(callGraph, pointerAnalysis);
+	}
+
+	// TODO: Investigate how we can get the correct context for the current CGNode.
+	//	Right now we are relying on the fact that there is a single context and using that
+	private CGNode findCGNode() {
+		MethodReference reference= pdg.getIr().getMethod().getReference();
+		Set<CGNode> nodes= callGraph.getNodes(reference);
+
+		Assertions.productionAssertion(nodes.size() == 1, "Expected a single corresponding CGNode, but got either 0 or more");
+
+		return nodes.iterator().next();
+	}
+
+	private void computeStatementEffects() {
+		for (PDGNode node : pdg) {
+			if (node instanceof Statement) {
+				computeStatementEffects((Statement)node);
+			}
+		}
+	}
+
+	private void computeStatementEffects(Statement statement) {
+		Set<MethodReference> ignoreds= new HashSet<MethodReference>();
+		for (SSAInstruction instruction : statement.retrieveAllSSAInstructions()) {
+			// These are direct accesses x.f and x.f = <something>
+			for (PointerKey key : modref.getRef(cgNode, heapModel, pointerAnalysis, instruction, heapExclusions)) {
+				statement.addRef(key);
+			}
+			for (PointerKey key : modref.getMod(cgNode, heapModel, pointerAnalysis, instruction, heapExclusions)) {
+				statement.addMod(key);
+			}
+
+			// These are indirect accesses through calls
+			if (instruction instanceof SSAAbstractInvokeInstruction) {
+				SSAAbstractInvokeInstruction invoke= (SSAAbstractInvokeInstruction)instruction;
+				Specification specification= specifications.getSpecification(invoke.getDeclaredTarget());
+				if (specification != null) {
+					addSpecifiedEffects(cgNode, invoke, specification, statement.getRefs(), statement.getMods());
+					continue;
+				}
+				CallSiteReference callSite= invoke.getCallSite();
+				for (CGNode target : callGraph.getPossibleTargets(cgNode, callSite)) {
+					for (PointerKey key : toCollection(ref.get(target))) {
+						statement.addRef(key);
+					}
+					for (PointerKey key : toCollection(mod.get(target))) {
+						statement.addMod(key);
+					}
+					for (MethodReference method : toCollection(ignored.get(target))) {
+						if (specifications.getSpecification(method) == null) {
+							ignoreds.add(method);
+						}
+					}
+					addNestedSpecifiedEffects(statement, target);
+				}
+			}
+		}
+		statement2Ignoreds.put(statement, ignoreds);
+	}
+
+	private void addSpecifiedEffects(CGNode node, SSAAbstractInvokeInstruction invoke, Specification specification, Set<PointerKey> refs, Set<PointerKey> mods) {
+		for (int use= 0; use < invoke.getNumberOfParameters(); use++) {
+			PointerKey parameter= heapModel.getPointerKeyForLocal(node, invoke.getUse(use));
+			for (InstanceKey instanceKey : pointerAnalysis.getPointsToSet(parameter)) {
+				if (specification.reads(use)) {
+					refs.add(new LibraryStateKey(instanceKey));
+				}
+				if (specification.mutates(use)) {
+					mods.add(new LibraryStateKey(instanceKey));
+				}
+			}
+		}
+	}
+
+	private void addNestedSpecifiedEffects(Statement statement, CGNode target) {
+		if (specifications.isEmpty()) {
+			return;
+		}
+		Set<CGNode> visited= new HashSet<CGNode>();
+		LinkedList<CGNode> worklist= new LinkedList<CGNode>();
+		visited.add(target);
+		worklist.add(target);
+		while (!worklist.isEmpty()) {
+			CGNode node= worklist.removeFirst();
+			computeSpecifiedEffects(node);
+			for (PointerKey key : specifiedRefs.get(node)) {
+				statement.addRef(key);
+			}
+			for (PointerKey key : specifiedMods.get(node)) {
+				statement.addMod(key);
+			}
+			for (CGNode succ : Iterator2Iterable.make(callGraph.getSuccNodes(node))) {
+				if (visited.add(succ)) {
+					worklist.add(succ);
+				}
+			}
+		}
+	}
+
+	private void computeSpecifiedEffects(CGNode node) {
+		if (specifiedRefs.containsKey(node)) {
+			return;
+		}
+		Set<PointerKey> refs= new HashSet<PointerKey>();
+		Set<PointerKey> mods= new HashSet<PointerKey>();
+		IR ir= node.getIR();
+		if (ir != null) {
+			for (SSAInstruction instruction : Iterator2Iterable.make(ir.iterateNormalInstructions())) {
+				if (instruction instanceof SSAAbstractInvokeInstruction) {
+					SSAAbstractInvokeInstruction invoke= (SSAAbstractInvokeInstruction)instruction;
+					Specification specification= specifications.getSpecification(invoke.getDeclaredTarget());
+					if (specification != null) {
+						addSpecifiedEffects(node, invoke, specification, refs, mods);
+					}
+				}
+			}
+		}
+		specifiedRefs.put(node, refs);
+		specifiedMods.put(node, mods);
+	}
+
+	private static <T> Collection<T> toCollection(OrdinalSet<T> set) {
+		return set == null ? Collections.<T> emptySet() : OrdinalSet.toCollection(set);
+	}
+
+	// For querying
+	///////////////
+
+	/**
+	 * @return the library methods that the statement calls (transitively) but that we do not analyze
+	 */
+	public Set<MethodReference> getIgnoreds(Statement statement) {
+		Set<MethodReference> ignoreds= statement2Ignoreds.get(statement);
+		return ignoreds == null ? Collections.<MethodReference> emptySet() : ignoreds;
+	}
+
+	/**
+	 * @return the side effects of the methods in the call graph, classified from the same mod/ref
+	 *         summaries
+	 */
+	public PurityAnalysis getPurityAnalysis() {
+		if (purityAnalysis == null) {
+			purityAnalysis= new PurityAnalysis(callGraph, pointerAnalysis, mod, ref, ignored);
+		}
+		return purityAnalysis;
+	}
+
+	public LibrarySpecifications getSpecifications() {
+		return specifications;
+	}
+
+	public ProgramDependenceGraph getPdg() {
+		return pdg;
+	}
+
+	public CGNode getCgNode() {
+		return cgNode;
+	}
+
+	public CallGraph getCallGraph() {
+		return callGraph;
+	}
+
+	public PointerAnalysis getPointerAnalysis() {
+		return pointerAnalysis;
+	}
+
+	public ModRef getModref() {
+		return modref;
+	}
+
+	public HeapExclusions getExclusions() {
+		return heapExclusions;
+	}
+
+	public DelegatingExtendedHeapModel getHeapModel() {
+		return heapModel;
+	}
+
+	public Map<CGNode, OrdinalSet<PointerKey>> getMod() {
+		return mod;
+	}
+
+	public Map<CGNode, OrdinalSet<PointerKey>> getRef() {
+		return ref;
+	}
+}
@@ -0,0 +1,206 @@
+package edu.illinois.jflow.wala.modref;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.runtime.CoreException;
+
+import com.ibm.wala.types.MethodReference;
+
+/**
+ * What the user tells us about library methods that we either ignore or would rather not analyze.
+ * The specifications live in a jflow.specs file at the root of the project:
+ *
+ * <pre>
+ * # Comments start with #
+ * version 1
+ * org.apache.lucene.index.IndexWriter.addDocument(Lorg/apache/lucene/document/Document;)V thread-safe
+ * java.lang.Math.sqrt pure
+ * java.util.List.get read-only
+ * java.util.Collections.sort mutates 0
+ * </pre>
+ *
+ * A method is named by its signature, or without the descriptor to cover all its overloads. The
+ * parameters of mutates count the uses of the call, so 0 is the receiver of an instance method and
+ * the first argument of a static one.
+ *
+ * A pure method does not access the heap at all. A read-only method reads the state of its receiver
+ * and arguments. A thread-safe method has the same effects as a read-only one: it synchronizes its
+ * own writes, so calls from different stages only interfere with the calls that are not thread-safe.
+ * A method that mutates some parameters also reads all of them.
+ *
+ * @author nchen
+ *
+ */
+public class LibrarySpecifications {
+
+	public static final String FILE_NAME= "jflow.specs";
+
+	public static final int VERSION= 1;
+
+	private static final String VERSION_KEYWORD= "version";
+
+	private static final String COMMENT= "#";
+
+	public enum Kind {
+		PURE("pure"), READ_ONLY("read-only"), THREAD_SAFE("thread-safe"), MUTATES("mutates");
+
+		private final String keyword;
+
+		private Kind(String keyword) {
+			this.keyword= keyword;
+		}
+
+		static Kind fromKeyword(String keyword) {
+			for (Kind kind : values()) {
+				if (kind.keyword.equals(keyword)) {
+					return kind;
+				}
+			}
+			return null;
+		}
+
+		@Override
+		public String toString() {
+			return keyword;
+		}
+	}
+
+	public static class Specification {
+		private final Kind kind;
+
+		private final Set<Integer> mutatedParameters;
+
+		Specification(Kind kind, Set<Integer> mutatedParameters) {
+			this.kind= kind;
+			this.mutatedParameters= mutatedParameters;
+		}
+
+		public Kind getKind() {
+			return kind;
+		}
+
+		/**
+		 * @param use the index of the parameter among the uses of the call, 0 is the receiver of an
+		 *            instance method
+		 */
+		public boolean reads(int use) {
+			return kind != Kind.PURE;
+		}
+
+		public boolean mutates(int use) {
+			return mutatedParameters.contains(use);
+		}
+
+		@Override
+		public String toString() {
+			return kind == Kind.MUTATES ? kind + " " + mutatedParameters : kind.toString();
+		}
+	}
+
+	private final Map<String, Specification> method2Specification= new HashMap<String, Specification>();
+
+	public static LibrarySpecifications empty() {
+		return new LibrarySpecifications();
+	}
+
+	/**
+	 * @return the specifications in the jflow.specs file of the project, none if it does not have
+	 *         one
+	 */
+	public static LibrarySpecifications load(IProject project) throws IOException, CoreException {
+		IFile file= project.getFile(FILE_NAME);
+		if (!file.exists()) {
+			return empty();
+		}
+		Reader reader= new InputStreamReader(file.getContents(), file.getCharset());
+		try {
+			return parse(reader);
+		} finally {
+			reader.close();
+		}
+	}
+
+	public static LibrarySpecifications parse(Reader input) throws IOException {
+		LibrarySpecifications specifications= new LibrarySpecifications();
+		BufferedReader reader= new BufferedReader(input);
+		boolean hasVersion= false;
+		int lineNumber= 0;
+		String line;
+		while ((line= reader.readLine()) != null) {
+			lineNumber++;
+			line= line.trim();
+			if (line.length() == 0 || line.startsWith(COMMENT)) {
+				continue;
+			}
+			String[] tokens= line.split("\\s+");
+			if (!hasVersion) {
+				if (tokens.length != 2 || !tokens[0].equals(VERSION_KEYWORD) || !tokens[1].equals(Integer.toString(VERSION))) {
+					throw new IOException(String.format("Line %d: expected \"%s %d\" before the specifications", lineNumber, VERSION_KEYWORD, VERSION));
+				}
+				hasVersion= true;
+				continue;
+			}
+			specifications.method2Specification.put(tokens[0], parseSpecification(tokens, lineNumber));
+		}
+		return specifications;
+	}
+
+	private static Specification parseSpecification(String[] tokens, int lineNumber) throws IOException {
+		Kind kind= tokens.length < 2 ? null : Kind.fromKeyword(tokens[1]);
+		if (kind == null) {
+			throw new IOException(String.format("Line %d: expected a method followed by pure, read-only, thread-safe or mutates", lineNumber));
+		}
+		if (kind != Kind.MUTATES) {
+			if (tokens.length != 2) {
+				throw new IOException(String.format("Line %d: only mutates takes parameters", lineNumber));
+			}
+			return new Specification(kind, Collections.<Integer> emptySet());
+		}
+
+		Set<Integer> mutatedParameters= new HashSet<Integer>();
+		for (int index= 2; index < tokens.length; index++) {
+			for (String parameter : tokens[index].split(",")) {
+				try {
+					if (parameter.length() != 0) {
+						mutatedParameters.add(Integer.parseInt(parameter));
+					}
+				} catch (NumberFormatException e) {
+					throw new IOException(String.format("Line %d: %s is not the index of a parameter", lineNumber, parameter));
+				}
+			}
+		}
+		if (mutatedParameters.isEmpty()) {
+			throw new IOException(String.format("Line %d: mutates needs the indices of the parameters that it mutates", lineNumber));
+		}
+		return new Specification(kind, mutatedParameters);
+	}
+
+	// For querying
+	///////////////
+
+	/**
+	 * @return the specification of the method or of all its overloads, null if there is none
+	 */
+	public Specification getSpecification(MethodReference method) {
+		String signature= method.getSignature();
+		Specification specification= method2Specification.get(signature);
+		if (specification == null) {
+			specification= method2Specification.get(signature.substring(0, signature.indexOf('(')));
+		}
+		return specification;
+	}
+
+	public boolean isEmpty() {
+		return method2Specification.isEmpty();
+	}
+}
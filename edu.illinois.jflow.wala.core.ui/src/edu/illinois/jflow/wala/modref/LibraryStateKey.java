@@ -0,0 +1,41 @@
+package edu.illinois.jflow.wala.modref;
+
+import com.ibm.wala.ipa.callgraph.propagation.InstanceKey;
+import com.ibm.wala.ipa.callgraph.propagation.PointerKey;
+
+/**
+ * The internal state of an object as seen by library methods with a specification (see
+ * LibrarySpecifications). We do not know which fields a library method accesses, so the whole
+ * object is one location: a method declared to mutate its receiver writes this key, one declared
+ * read-only reads it.
+ *
+ * @author nchen
+ *
+ */
+public class LibraryStateKey implements PointerKey {
+
+	private final InstanceKey instanceKey;
+
+	public LibraryStateKey(InstanceKey instanceKey) {
+		this.instanceKey= instanceKey;
+	}
+
+	public InstanceKey getInstanceKey() {
+		return instanceKey;
+	}
+
+	@Override
+	public int hashCode() {
+		return 1291 * instanceKey.hashCode();
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof LibraryStateKey && instanceKey.equals(((LibraryStateKey)obj).instanceKey);
+	}
+
+	@Override
+	public String toString() {
+		return "[state of " + instanceKey + "]";
+	}
+}
@@ -0,0 +1,248 @@
+package edu.illinois.jflow.wala.modref;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+
+import com.ibm.wala.ipa.callgraph.CGNode;
+import com.ibm.wala.ipa.callgraph.CallGraph;
+import com.ibm.wala.ipa.callgraph.propagation.AllocationSiteInNode;
+import com.ibm.wala.ipa.callgraph.propagation.ArrayContentsKey;
+import com.ibm.wala.ipa.callgraph.propagation.HeapGraph;
+import com.ibm.wala.ipa.callgraph.propagation.InstanceFieldPointerKey;
+import com.ibm.wala.ipa.callgraph.propagation.InstanceKey;
+import com.ibm.wala.ipa.callgraph.propagation.PointerAnalysis;
+import com.ibm.wala.ipa.callgraph.propagation.PointerKey;
+import com.ibm.wala.ipa.callgraph.propagation.StaticFieldKey;
+import com.ibm.wala.ipa.slicer.HeapExclusions;
+import com.ibm.wala.types.MethodReference;
+import com.ibm.wala.util.collections.Iterator2Iterable;
+import com.ibm.wala.util.intset.OrdinalSet;
+
+/**
+ * Classifies the methods of the call graph by their side effects, using the mod/ref summaries of
+ * JFlowModRef. The summaries include the callees, so a method is only pure if everything that it
+ * calls is pure as well.
+ *
+ * The results are cached per MethodReference so that the partition checker, the code generators
+ * and the views can all ask without recomputing mod/ref. A method with several contexts gets the
+ * worst classification of its CGNodes.
+ *
+ * Library methods that we do not analyze (see JFlowModRef.computeIgnoredCallee()) have no effects
+ * as far as the summaries are concerned. Clients that need a guarantee, e.g., to memoize a call,
+ * should also check getUnanalyzedCallees().
+ *
+ * @author nchen
+ *
+ */
+public class PurityAnalysis {
+
+	public enum Purity {
+		PURE("pure: does not access the heap"),
+		READ_ONLY("read-only: reads the heap but does not write it"),
+		LOCALLY_MUTATING("locally-mutating: only writes objects that it allocates itself"),
+		GLOBALLY_MUTATING("globally-mutating: writes objects that its callers can see");
+
+		private final String description;
+
+		private Purity(String description) {
+			this.description= description;
+		}
+
+		@Override
+		public String toString() {
+			return description;
+		}
+	}
+
+	private final CallGraph callGraph;
+
+	private final PointerAnalysis pointerAnalysis;
+
+	private final Map<CGNode, OrdinalSet<PointerKey>> mod;
+
+	private final Map<CGNode, OrdinalSet<PointerKey>> ref;
+
+	private final Map<CGNode, OrdinalSet<MethodReference>> ignored;
+
+	private Map<MethodReference, Purity> method2Purity= new HashMap<MethodReference, Purity>();
+
+	private Map<MethodReference, Set<MethodReference>> method2Unanalyzed= new HashMap<MethodReference, Set<MethodReference>>();
+
+	/**
+	 * Computes the mod/ref summaries of the whole call graph. Prefer the constructor when they are
+	 * already available, e.g., from StatementHeapEffects.
+	 */
+	public static PurityAnalysis make(CallGraph callGraph, PointerAnalysis pointerAnalysis, HeapExclusions heapExclusions) {
+		JFlowModRef modref= new JFlowModRef();
+		return new PurityAnalysis(callGraph, pointerAnalysis, modref.computeMod(callGraph, pointerAnalysis, heapExclusions), modref.computeRef(callGraph, pointerAnalysis, heapExclusions),
+				modref.computeIgnoredCallee(callGraph, pointerAnalysis));
+	}
+
+	public PurityAnalysis(CallGraph callGraph, PointerAnalysis pointerAnalysis, Map<CGNode, OrdinalSet<PointerKey>> mod, Map<CGNode, OrdinalSet<PointerKey>> ref,
+			Map<CGNode, OrdinalSet<MethodReference>> ignored) {
+		this.callGraph= callGraph;
+		this.pointerAnalysis= pointerAnalysis;
+		this.mod= mod;
+		this.ref= ref;
+		this.ignored= ignored;
+	}
+
+	// For querying
+	///////////////
+
+	/**
+	 * @return the classification of the method, null if it is not in the call graph
+	 */
+	public Purity getPurity(MethodReference method) {
+		if (method2Purity.containsKey(method)) {
+			return method2Purity.get(method);
+		}
+		Purity purity= null;
+		for (CGNode node : callGraph.getNodes(method)) {
+			Purity nodePurity= getPurity(node);
+			if (purity == null || nodePurity.compareTo(purity) > 0) {
+				purity= nodePurity;
+			}
+		}
+		method2Purity.put(method, purity);
+		return purity;
+	}
+
+	/**
+	 * @return the library methods that the method calls (transitively) but that we do not analyze
+	 */
+	public Set<MethodReference> getUnanalyzedCallees(MethodReference method) {
+		Set<MethodReference> unanalyzed= method2Unanalyzed.get(method);
+		if (unanalyzed == null) {
+			unanalyzed= new HashSet<MethodReference>();
+			for (CGNode node : callGraph.getNodes(method)) {
+				unanalyzed.addAll(toCollection(ignored.get(node)));
+			}
+			method2Unanalyzed.put(method, unanalyzed);
+		}
+		return unanalyzed;
+	}
+
+	public boolean isPure(MethodReference method) {
+		return getPurity(method) == Purity.PURE;
+	}
+
+	/**
+	 * @return true if calling the method does not change anything that its callers can see, so
+	 *         calls can be reordered or replicated
+	 */
+	public boolean isSideEffectFree(MethodReference method) {
+		Purity purity= getPurity(method);
+		return purity != null && purity != Purity.GLOBALLY_MUTATING;
+	}
+
+	private Purity getPurity(CGNode node) {
+		Collection<PointerKey> mods= toCollection(mod.get(node));
+		if (mods.isEmpty()) {
+			return toCollection(ref.get(node)).isEmpty() ? Purity.PURE : Purity.READ_ONLY;
+		}
+
+		Set<CGNode> callees= getTransitiveCallees(node);
+		Set<InstanceKey> fromParameters= getReachableFromParameters(node);
+		for (PointerKey key : mods) {
+			InstanceKey owner= getOwner(key);
+			if (owner == null || !isAllocatedBy(owner, callees) || fromParameters.contains(owner) || isReachableFromStatic(owner)) {
+				return Purity.GLOBALLY_MUTATING;
+			}
+		}
+		return Purity.LOCALLY_MUTATING;
+	}
+
+	// The node itself and everything that it calls
+	private Set<CGNode> getTransitiveCallees(CGNode node) {
+		Set<CGNode> callees= new HashSet<CGNode>();
+		LinkedList<CGNode> worklist= new LinkedList<CGNode>();
+		callees.add(node);
+		worklist.add(node);
+		while (!worklist.isEmpty()) {
+			for (CGNode succ : Iterator2Iterable.make(callGraph.getSuccNodes(worklist.removeFirst()))) {
+				if (callees.add(succ)) {
+					worklist.add(succ);
+				}
+			}
+		}
+		return callees;
+	}
+
+	private static boolean isAllocatedBy(InstanceKey instanceKey, Set<CGNode> nodes) {
+		return instanceKey instanceof AllocationSiteInNode && nodes.contains(((AllocationSiteInNode)instanceKey).getNode());
+	}
+
+	/*
+	 * The pointer analysis merges the objects allocated at the same site, so an object that the
+	 * method allocates could also be one that the caller passed in, e.g., from an earlier call
+	 */
+	private Set<InstanceKey> getReachableFromParameters(CGNode node) {
+		HeapGraph heapGraph= pointerAnalysis.getHeapGraph();
+		Set<InstanceKey> reachable= new HashSet<InstanceKey>();
+		LinkedList<Object> worklist= new LinkedList<Object>();
+		for (int parameter= 1; parameter <= node.getMethod().getNumberOfParameters(); parameter++) {
+			PointerKey key= pointerAnalysis.getHeapModel().getPointerKeyForLocal(node, parameter);
+			if (heapGraph.containsNode(key)) {
+				worklist.add(key);
+			}
+		}
+		while (!worklist.isEmpty()) {
+			for (Object succ : Iterator2Iterable.make(heapGraph.getSuccNodes(worklist.removeFirst()))) {
+				if (succ instanceof InstanceKey) {
+					if (reachable.add((InstanceKey)succ)) {
+						worklist.add(succ);
+					}
+				} else {
+					worklist.add(succ); // The fields of the object
+				}
+			}
+		}
+		return reachable;
+	}
+
+	private boolean isReachableFromStatic(InstanceKey instanceKey) {
+		HeapGraph heapGraph= pointerAnalysis.getHeapGraph();
+		Set<InstanceKey> visited= new HashSet<InstanceKey>();
+		LinkedList<InstanceKey> worklist= new LinkedList<InstanceKey>();
+		visited.add(instanceKey);
+		worklist.add(instanceKey);
+		while (!worklist.isEmpty()) {
+			InstanceKey current= worklist.removeFirst();
+			if (!heapGraph.containsNode(current)) {
+				continue;
+			}
+			for (Object pred : Iterator2Iterable.make(heapGraph.getPredNodes(current))) {
+				if (pred instanceof StaticFieldKey) {
+					return true;
+				}
+				InstanceKey owner= getOwner((PointerKey)pred);
+				if (owner != null && visited.add(owner)) {
+					worklist.add(owner);
+				}
+			}
+		}
+		return false;
+	}
+
+	// The object that the field, array element or library state belongs to, null for static fields
+	private static InstanceKey getOwner(PointerKey key) {
+		if (key instanceof InstanceFieldPointerKey) {
+			return ((InstanceFieldPointerKey)key).getInstanceKey();
+		} else if (key instanceof ArrayContentsKey) {
+			return ((ArrayContentsKey)key).getInstanceKey();
+		} else if (key instanceof LibraryStateKey) {
+			return ((LibraryStateKey)key).getInstanceKey();
+		}
+		return null;
+	}
+
+	private static <T> Collection<T> toCollection(OrdinalSet<T> set) {
+		return set == null ? Collections.<T> emptySet() : OrdinalSet.toCollection(set);
+	}
+}
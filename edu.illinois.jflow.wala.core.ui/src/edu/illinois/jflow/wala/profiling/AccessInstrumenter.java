@@ -0,0 +1,277 @@
+package edu.illinois.jflow.wala.profiling;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import com.ibm.wala.shrikeBT.ConstantInstruction;
+import com.ibm.wala.shrikeBT.DupInstruction;
+import com.ibm.wala.shrikeBT.IArrayLoadInstruction;
+import com.ibm.wala.shrikeBT.IArrayStoreInstruction;
+import com.ibm.wala.shrikeBT.IGetInstruction;
+import com.ibm.wala.shrikeBT.IInstruction;
+import com.ibm.wala.shrikeBT.IPutInstruction;
+import com.ibm.wala.shrikeBT.Instruction;
+import com.ibm.wala.shrikeBT.MethodData;
+import com.ibm.wala.shrikeBT.MethodEditor;
+import com.ibm.wala.shrikeBT.PopInstruction;
+import com.ibm.wala.shrikeBT.Util;
+import com.ibm.wala.shrikeBT.shrikeCT.ClassInstrumenter;
+import com.ibm.wala.shrikeBT.shrikeCT.OfflineInstrumenter;
+import com.ibm.wala.shrikeCT.ClassReader;
+import com.ibm.wala.shrikeCT.CodeReader;
+import com.ibm.wala.shrikeCT.InvalidClassFileException;
+import com.ibm.wala.shrikeCT.LineNumberTableReader;
+
+/**
+ * Rewrites the compiled classes of a project so that a run records the heap locations that the
+ * stages of a loop access (see AccessRecorder):
+ *
+ * <ul>
+ * <li>every field access and array element access of every class calls the recorder first, and</li>
+ * <li>the method with the loop tells the recorder which stage it is in before every instruction on
+ * the lines of the loop.</li>
+ * </ul>
+ *
+ * The callees of the loop do not know about the stages, their accesses count for the stage that
+ * called them. The rewritten classes go into a jar, and the recorder into a directory of its own,
+ * both of which have to come before the original classes on the classpath of the run.
+ *
+ * The rewritten methods have no stack maps, so the run has to use the old verifier.
+ *
+ * @author nchen
+ *
+ */
+public class AccessInstrumenter {
+
+	private static final String RECORDER_CLASS_FILE= AccessRecorder.class.getName().replace('.', '/') + ".class";
+
+	private static final String JAR_NAME= "instrumented.jar";
+
+	private static final String RUNTIME_DIRECTORY_NAME= "runtime";
+
+	private static final int OUTSIDE_LOOP= -1;
+
+	private final String loopClass;
+
+	private final String loopMethod;
+
+	private final Map<Integer, Integer> line2Stage= new HashMap<Integer, Integer>();
+
+	private int firstLine= Integer.MAX_VALUE;
+
+	private int lastLine= Integer.MIN_VALUE;
+
+	private final Set<String> instrumentedClasses= new TreeSet<String>();
+
+	private boolean foundLoop;
+
+	/**
+	 * @param loopClass e.g., pkg/Worker$Inner
+	 * @param loopMethod the name of the method with the loop, all its overloads are rewritten
+	 * @param stageLines the lines of the loop header (the generator) first, then those of each
+	 *            stage, Stage1 first
+	 */
+	public AccessInstrumenter(String loopClass, String loopMethod, List<List<Integer>> stageLines) {
+		this.loopClass= loopClass;
+		this.loopMethod= loopMethod;
+		for (int stageNumber= 0; stageNumber < stageLines.size(); stageNumber++) {
+			for (Integer line : stageLines.get(stageNumber)) {
+				line2Stage.put(line, stageNumber);
+				firstLine= Math.min(firstLine, line);
+				lastLine= Math.max(lastLine, line);
+			}
+		}
+	}
+
+	/**
+	 * @param classDirectories the output folders of the project
+	 * @param outputDirectory where to put the rewritten classes and the recorder
+	 */
+	public void instrument(List<File> classDirectories, File outputDirectory) throws IOException, InvalidClassFileException {
+		outputDirectory.mkdirs();
+		OfflineInstrumenter instrumenter= new OfflineInstrumenter();
+		for (File classDirectory : classDirectories) {
+			instrumenter.addInputDirectory(classDirectory, classDirectory);
+		}
+		instrumenter.setOutputJar(getInstrumentedJar(outputDirectory));
+		instrumenter.setPassUnmodifiedClasses(true);
+		instrumenter.beginTraversal();
+		ClassInstrumenter classInstrumenter;
+		while ((classInstrumenter= instrumenter.nextClass()) != null) {
+			instrumentClass(classInstrumenter);
+			if (classInstrumenter.isChanged()) {
+				instrumenter.outputModifiedClass(classInstrumenter, classInstrumenter.emitClass());
+			}
+		}
+		instrumenter.close();
+		copyRecorder(getRuntimeDirectory(outputDirectory));
+	}
+
+	private void instrumentClass(ClassInstrumenter classInstrumenter) throws InvalidClassFileException {
+		ClassReader reader= classInstrumenter.getReader();
+		instrumentedClasses.add("L" + reader.getName());
+		for (int m= 0; m < reader.getMethodCount(); m++) {
+			MethodData data= classInstrumenter.visitMethod(m);
+			if (data == null) {
+				continue; // Abstract or native
+			}
+			int[] lines= null;
+			if (reader.getName().equals(loopClass) && reader.getMethodName(m).equals(loopMethod)) {
+				lines= getLineNumbers(reader, m);
+				foundLoop|= lines != null;
+			}
+			instrumentMethod(data, lines);
+		}
+	}
+
+	/*
+	 * @param lines the line of each bytecode offset, null outside the method with the loop
+	 */
+	private void instrumentMethod(MethodData data, int[] lines) {
+		MethodEditor editor= new MethodEditor(data);
+		editor.beginPass();
+		IInstruction[] instructions= editor.getInstructions();
+		int[] offsets= data.getInstructionsToBytecodes();
+		for (int i= 0; i < instructions.length; i++) {
+			if (lines != null) {
+				Integer stageNumber= getStage(lines[offsets[i]]);
+				if (stageNumber != null) {
+					editor.insertBefore(i, makeCall("enterStage", ConstantInstruction.make(stageNumber)));
+				}
+			}
+			MethodEditor.Patch access= makeAccess(instructions[i]);
+			if (access != null) {
+				editor.insertBefore(i, access);
+			}
+		}
+		editor.applyPatches();
+		editor.endPass();
+	}
+
+	// Lines in between the stages, e.g., blank ones, keep the stage that the loop is in
+	private Integer getStage(int line) {
+		if (line < firstLine || line > lastLine) {
+			return OUTSIDE_LOOP;
+		}
+		return line2Stage.get(line);
+	}
+
+	private static MethodEditor.Patch makeAccess(IInstruction instruction) {
+		if (instruction instanceof IGetInstruction) {
+			IGetInstruction get= (IGetInstruction)instruction;
+			String location= getFieldLocation(get.getClassType(), get.getFieldName());
+			if (get.isStatic()) {
+				return makeCall("readStatic", ConstantInstruction.makeString(location));
+			}
+			// ..., object -> ..., object, object, location
+			return makeCall("read", DupInstruction.make(1, 0), ConstantInstruction.makeString(location));
+		} else if (instruction instanceof IPutInstruction) {
+			IPutInstruction put= (IPutInstruction)instruction;
+			String location= getFieldLocation(put.getClassType(), put.getFieldName());
+			if (put.isStatic()) {
+				return makeCall("writeStatic", ConstantInstruction.makeString(location));
+			}
+			// ..., object, value -> ..., object, value, object, location
+			if (Util.getWordSize(put.getFieldType()) == 1) {
+				return makeCall("write", DupInstruction.make(2, 0), PopInstruction.make(1), ConstantInstruction.makeString(location));
+			}
+			return makeCall("write", DupInstruction.make(2, 1), PopInstruction.make(2), DupInstruction.make(1, 2), ConstantInstruction.makeString(location));
+		} else if (instruction instanceof IArrayLoadInstruction) {
+			// ..., array, index -> ..., array, index, array, index
+			return makeCall("readElement", DupInstruction.make(2, 0));
+		} else if (instruction instanceof IArrayStoreInstruction) {
+			// ..., array, index, value -> ..., array, index, value, array, index
+			if (Util.getWordSize(((IArrayStoreInstruction)instruction).getType()) == 1) {
+				return makeCall("writeElement", DupInstruction.make(1, 2), PopInstruction.make(1), DupInstruction.make(2, 1));
+			}
+			return makeCall("writeElement", DupInstruction.make(2, 2), PopInstruction.make(2), DupInstruction.make(2, 2));
+		}
+		return null;
+	}
+
+	/*
+	 * Pushes the arguments, then calls the method of the recorder
+	 */
+	private static MethodEditor.Patch makeCall(String method, final Instruction... arguments) {
+		final Instruction invoke= Util.makeInvoke(AccessRecorder.class, method);
+		return new MethodEditor.Patch() {
+			@Override
+			public void emitTo(MethodEditor.Output w) {
+				for (Instruction argument : arguments) {
+					w.emit(argument);
+				}
+				w.emit(invoke);
+			}
+		};
+	}
+
+	// e.g., Lpkg/Cache; and entries to Lpkg/Cache.entries, the way WALA names the declaring class
+	private static String getFieldLocation(String classType, String fieldName) {
+		String className= classType.endsWith(";") ? classType.substring(0, classType.length() - 1) : classType;
+		return className + "." + fieldName;
+	}
+
+	private static int[] getLineNumbers(ClassReader reader, int method) throws InvalidClassFileException {
+		ClassReader.AttrIterator attributes= new ClassReader.AttrIterator();
+		reader.initMethodAttributeIterator(method, attributes);
+		for (; attributes.isValid(); attributes.advance()) {
+			if ("Code".equals(attributes.getName())) {
+				return LineNumberTableReader.makeBytecodeToSourceMap(new CodeReader(attributes));
+			}
+		}
+		return null;
+	}
+
+	private static void copyRecorder(File runtimeDirectory) throws IOException {
+		File recorder= new File(runtimeDirectory, RECORDER_CLASS_FILE);
+		recorder.getParentFile().mkdirs();
+		InputStream in= AccessRecorder.class.getClassLoader().getResourceAsStream(RECORDER_CLASS_FILE);
+		if (in == null) {
+			throw new IOException("Cannot find " + RECORDER_CLASS_FILE + " to copy next to the instrumented classes");
+		}
+		OutputStream out= new FileOutputStream(recorder);
+		try {
+			byte[] buffer= new byte[4096];
+			int read;
+			while ((read= in.read(buffer)) != -1) {
+				out.write(buffer, 0, read);
+			}
+		} finally {
+			in.close();
+			out.close();
+		}
+	}
+
+	// For querying
+	///////////////
+
+	public static File getInstrumentedJar(File outputDirectory) {
+		return new File(outputDirectory, JAR_NAME);
+	}
+
+	public static File getRuntimeDirectory(File outputDirectory) {
+		return new File(outputDirectory, RUNTIME_DIRECTORY_NAME);
+	}
+
+	/**
+	 * @return e.g., Lpkg/Worker, the way WALA names them, see DependenceProfile
+	 */
+	public Set<String> getInstrumentedClasses() {
+		return instrumentedClasses;
+	}
+
+	/**
+	 * @return false if none of the classes had the method with the loop, or it had no line numbers
+	 */
+	public boolean foundLoop() {
+		return foundLoop;
+	}
+}
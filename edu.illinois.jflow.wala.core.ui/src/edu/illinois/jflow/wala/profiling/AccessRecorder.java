@@ -0,0 +1,232 @@
+package edu.illinois.jflow.wala.profiling;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Records which heap locations the stages of a loop access in a profiled run. AccessInstrumenter
+ * rewrites the classes of the project to call it before every field and array access and to tell it
+ * which stage the loop is in. It is copied next to the rewritten classes, so it must only depend on
+ * the JDK and must not have nested classes.
+ *
+ * Two accesses to the same location by different stages conflict if at least one of them is a
+ * write. When the driver exits, the conflicts are printed to standard error, one line per location
+ * and pair of stages,
+ *
+ * <pre>
+ * JFLOW-DEPENDENCE &lt;location&gt; &lt;stage&gt; &lt;laterStage&gt; &lt;same|cross&gt; &lt;count&gt;
+ * JFLOW-ITERATIONS &lt;count&gt;
+ * </pre>
+ *
+ * where stage accessed the location before laterStage did, in the same iteration or in the one
+ * before. The generator of the loop is stage 0. See DependenceProfile, whose constants the compiler
+ * inlines here.
+ *
+ * Only the accesses of the current and the previous iteration are kept, so that the recorder does
+ * not keep every object that the loop ever touched alive. Conflicts between iterations further
+ * apart are not recorded, the profile only confirms those between neighboring iterations, which
+ * the pipeline overlaps the most.
+ *
+ * Only the thread that runs the loop is recorded, and only while it is in the loop.
+ *
+ * @author nchen
+ *
+ */
+public final class AccessRecorder extends Thread {
+
+	private static final int OUTSIDE_LOOP= -1;
+
+	private static final int NONE= -1;
+
+	// The index of the stage that last wrote the location, the iteration it did so in, then the last iteration each stage read it in
+	private static final int WRITE_STAGE= 0;
+
+	private static final int WRITE_ITERATION= 1;
+
+	private static final int FIRST_READ= 2;
+
+	private static Thread loopThread;
+
+	private static int currentStage= OUTSIDE_LOOP;
+
+	private static long currentIteration;
+
+	// The iterations that got past the generator, over every execution of the loop
+	private static long iterations;
+
+	// Object (or interned name of a static field) -> field name or array index -> access state, for the objects accessed in the current iteration
+	private static Map<Object, Map<Object, long[]>> accesses= new IdentityHashMap<Object, Map<Object, long[]>>();
+
+	// The same for the previous iteration, an object moves to accesses when the current one accesses it again
+	private static Map<Object, Map<Object, long[]>> previousAccesses= new IdentityHashMap<Object, Map<Object, long[]>>();
+
+	// "location stage laterStage same|cross" -> count
+	private static final Map<String, long[]> conflicts= new HashMap<String, long[]>();
+
+	static {
+		Runtime.getRuntime().addShutdownHook(new AccessRecorder());
+	}
+
+	private AccessRecorder() {
+	}
+
+	// Called by the rewritten classes
+	//////////////////////////////////
+
+	/**
+	 * The loop moves on to the statements of the stage, -1 if it left the loop. Going back to the
+	 * generator from any other stage starts the next iteration.
+	 */
+	public static synchronized void enterStage(int stageNumber) {
+		if (stageNumber == currentStage) {
+			return;
+		}
+		if (stageNumber == OUTSIDE_LOOP) {
+			if (Thread.currentThread() == loopThread) {
+				currentStage= OUTSIDE_LOOP;
+				accesses.clear(); // Only the accesses of one execution of the loop can conflict in the pipeline
+				previousAccesses.clear();
+			}
+			return;
+		}
+		if (currentStage == OUTSIDE_LOOP) {
+			loopThread= Thread.currentThread();
+		} else if (Thread.currentThread() != loopThread) {
+			return;
+		} else if (stageNumber == 0) {
+			currentIteration++;
+			startIteration();
+		} else if (currentStage == 0) {
+			iterations++;
+		}
+		currentStage= stageNumber;
+	}
+
+	public static synchronized void read(Object object, String field) {
+		if (isRecording() && object != null) {
+			access(object, field, field, false);
+		}
+	}
+
+	public static synchronized void write(Object object, String field) {
+		if (isRecording() && object != null) {
+			access(object, field, field, true);
+		}
+	}
+
+	public static synchronized void readStatic(String field) {
+		if (isRecording()) {
+			access(field, field, field, false);
+		}
+	}
+
+	public static synchronized void writeStatic(String field) {
+		if (isRecording()) {
+			access(field, field, field, true);
+		}
+	}
+
+	public static synchronized void readElement(Object array, int index) {
+		if (isRecording() && array != null) {
+			access(array, Integer.valueOf(index), getArrayLocation(array), false);
+		}
+	}
+
+	public static synchronized void writeElement(Object array, int index) {
+		if (isRecording() && array != null) {
+			access(array, Integer.valueOf(index), getArrayLocation(array), true);
+		}
+	}
+
+	// Recording
+	////////////
+
+	private static boolean isRecording() {
+		return currentStage != OUTSIDE_LOOP && Thread.currentThread() == loopThread;
+	}
+
+	// Forgets the accesses of the iteration before the previous one
+	private static void startIteration() {
+		Map<Object, Map<Object, long[]>> forgotten= previousAccesses;
+		forgotten.clear();
+		previousAccesses= accesses;
+		accesses= forgotten;
+	}
+
+	private static void access(Object object, Object member, String location, boolean isWrite) {
+		Map<Object, long[]> members= accesses.get(object);
+		if (members == null) {
+			members= previousAccesses.remove(object);
+			if (members == null) {
+				members= new HashMap<Object, long[]>();
+			}
+			accesses.put(object, members);
+		}
+		long[] state= members.get(member);
+		if (state == null) {
+			state= new long[FIRST_READ + currentStage + 1];
+			Arrays.fill(state, NONE);
+		} else if (state.length <= FIRST_READ + currentStage) {
+			int oldLength= state.length;
+			state= Arrays.copyOf(state, FIRST_READ + currentStage + 1);
+			Arrays.fill(state, oldLength, state.length, NONE);
+		}
+		members.put(member, state);
+
+		if (state[WRITE_STAGE] != NONE && state[WRITE_STAGE] != currentStage) {
+			addConflict(location, (int)state[WRITE_STAGE], state[WRITE_ITERATION]);
+		}
+		if (isWrite) {
+			for (int stage= 0; stage < state.length - FIRST_READ; stage++) {
+				if (stage != currentStage && state[FIRST_READ + stage] != NONE) {
+					addConflict(location, stage, state[FIRST_READ + stage]);
+				}
+			}
+			Arrays.fill(state, FIRST_READ, state.length, NONE); // The later accesses only conflict with this write
+			state[WRITE_STAGE]= currentStage;
+			state[WRITE_ITERATION]= currentIteration;
+		} else {
+			state[FIRST_READ + currentStage]= currentIteration;
+		}
+	}
+
+	private static void addConflict(String location, int earlierStage, long earlierIteration) {
+		String relation= earlierIteration == currentIteration ? "same" : "cross";
+		String key= location + " " + earlierStage + " " + currentStage + " " + relation;
+		long[] count= conflicts.get(key);
+		if (count == null) {
+			count= new long[1];
+			conflicts.put(key, count);
+		}
+		count[0]++;
+	}
+
+	// e.g., [I or [Ljava/lang/String, the way WALA names the type of the array
+	private static String getArrayLocation(Object array) {
+		String name= array.getClass().getName().replace('.', '/');
+		return name.endsWith(";") ? name.substring(0, name.length() - 1) : name;
+	}
+
+	// Reporting
+	////////////
+
+	@Override
+	public void run() {
+		report(System.err);
+	}
+
+	/**
+	 * Prints the conflicts recorded so far, which the shutdown hook does when the driver exits
+	 */
+	public static synchronized void report(PrintStream out) {
+		for (Map.Entry<String, long[]> conflict : new TreeMap<String, long[]>(conflicts).entrySet()) {
+			out.println(DependenceProfile.DEPENDENCE_MARKER + " " + conflict.getKey() + " " + conflict.getValue()[0]);
+		}
+		out.println(DependenceProfile.ITERATIONS_MARKER + " " + iterations);
+		out.flush();
+	}
+}
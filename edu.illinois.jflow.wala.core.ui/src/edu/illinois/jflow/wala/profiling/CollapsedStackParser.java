@@ -0,0 +1,76 @@
+package edu.illinois.jflow.wala.profiling;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the collapsed stack format used by async-profiler (-o collapsed) and the flame graph
+ * scripts: one stack per line, frames from the root to the leaf separated by ';', followed by the
+ * number of samples, e.g.,
+ *
+ * <pre>
+ * java/lang/Thread.run;pkg/Worker.process:42;pkg/Worker.compute:57_[j] 118
+ * </pre>
+ *
+ * The :line suffixes are only there if the profiler was asked for line numbers. Frame type
+ * annotations (_[j], _[i], ...) and signatures are dropped.
+ *
+ * @author nchen
+ *
+ */
+public class CollapsedStackParser {
+
+	public static ExecutionProfile parse(BufferedReader reader) throws IOException {
+		ExecutionProfile profile= new ExecutionProfile();
+		String line;
+		while ((line= reader.readLine()) != null) {
+			line= line.trim();
+			int separator= line.lastIndexOf(' ');
+			if (separator <= 0) {
+				continue;
+			}
+
+			long count;
+			try {
+				count= Long.parseLong(line.substring(separator + 1));
+			} catch (NumberFormatException e) {
+				continue; // Not a stack, e.g., a header
+			}
+
+			List<String> frames= new ArrayList<String>();
+			List<Integer> lines= new ArrayList<Integer>();
+			for (String frame : line.substring(0, separator).split(";")) {
+				parseFrame(frame, frames, lines);
+			}
+			profile.addStack(frames, lines, count);
+		}
+		return profile;
+	}
+
+	private static void parseFrame(String frame, List<String> frames, List<Integer> lines) {
+		if (frame.endsWith("]") && frame.lastIndexOf("_[") > 0) {
+			frame= frame.substring(0, frame.lastIndexOf("_["));
+		}
+
+		int lineNumber= ExecutionProfile.UNKNOWN_LINE;
+		int colon= frame.lastIndexOf(':');
+		if (colon > 0) {
+			try {
+				lineNumber= Integer.parseInt(frame.substring(colon + 1));
+				frame= frame.substring(0, colon);
+			} catch (NumberFormatException e) {
+				// Part of the name
+			}
+		}
+
+		int signature= frame.indexOf('(');
+		if (signature > 0) {
+			frame= frame.substring(0, signature);
+		}
+
+		frames.add(frame);
+		lines.add(lineNumber);
+	}
+}
@@ -0,0 +1,324 @@
+package edu.illinois.jflow.wala.profiling;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import com.ibm.wala.ipa.callgraph.propagation.AllocationSiteInNode;
+import com.ibm.wala.ipa.callgraph.propagation.ArrayContentsKey;
+import com.ibm.wala.ipa.callgraph.propagation.InstanceFieldKey;
+import com.ibm.wala.ipa.callgraph.propagation.InstanceKey;
+import com.ibm.wala.ipa.callgraph.propagation.PointerKey;
+import com.ibm.wala.ipa.callgraph.propagation.StaticFieldKey;
+import com.ibm.wala.types.FieldReference;
+
+/**
+ * The heap locations that the stages of a loop actually conflicted on in a profiled run of the
+ * original, sequential loop, see AccessInstrumenter and AccessRecorder. Overlaid on the
+ * interference that StageInterferenceInfo reports, it tells the warnings that the run confirmed
+ * apart from the ones that are likely spurious, e.g., because the pointer analysis merged objects
+ * that the iterations never share.
+ *
+ * The recorder prints one line per location and pair of stages to standard error,
+ *
+ * <pre>
+ * JFLOW-DEPENDENCE &lt;location&gt; &lt;stage&gt; &lt;laterStage&gt; &lt;same|cross&gt; &lt;count&gt;
+ * JFLOW-ITERATIONS &lt;count&gt;
+ * </pre>
+ *
+ * where a location is a field, e.g., Lpkg/Cache.entries, or the type of an array, e.g., [I. The
+ * run does not know the allocation sites that the pointer analysis tells objects apart by, so a
+ * PointerKey matches every location with the same field name or array type. This can only confirm
+ * too much, never too little.
+ *
+ * Only the classes of the project are instrumented. The locations of the other classes, e.g., the
+ * fields of a HashMap, are not profiled rather than unobserved.
+ *
+ * The profile is kept in a file next to the source of the method, like a StageProfile, see
+ * getProfileFile().
+ *
+ * @author nchen
+ *
+ */
+public class DependenceProfile {
+
+	public static final String DEPENDENCE_MARKER= "JFLOW-DEPENDENCE";
+
+	public static final String ITERATIONS_MARKER= "JFLOW-ITERATIONS";
+
+	public static final String FILE_EXTENSION= ".jflow-dependences";
+
+	private static final String FILE_HEADER= "# iterations <count> | instrumented <class> | <location> <stage> <laterStage> same|cross <count>";
+
+	private static final String ITERATIONS= "iterations";
+
+	private static final String INSTRUMENTED= "instrumented";
+
+	private static final String SAME_ITERATION= "same";
+
+	private static final String CROSS_ITERATION= "cross";
+
+	/**
+	 * What the profiled run tells about a location that two stages both access. Ordered from the
+	 * least to the most confirmed.
+	 */
+	public enum Observation {
+		NOT_PROFILED("not profiled"), // The run did not instrument the accesses
+		NOT_OBSERVED("not observed"), // The stages never accessed it in a conflicting way
+		SAME_ITERATION("observed in the same iteration"), // Only the stages of the same iteration, which the channels order
+		CROSS_ITERATION("observed across iterations"); // Different iterations, a race in the pipeline
+
+		private final String description;
+
+		private Observation(String description) {
+			this.description= description;
+		}
+
+		@Override
+		public String toString() {
+			return description;
+		}
+	}
+
+	private static class Dependence {
+		final String location;
+
+		final int stageNumber;
+
+		final int laterStageNumber;
+
+		final boolean crossIteration;
+
+		final long count;
+
+		Dependence(String location, int stageNumber, int laterStageNumber, boolean crossIteration, long count) {
+			this.location= location;
+			this.stageNumber= stageNumber;
+			this.laterStageNumber= laterStageNumber;
+			this.crossIteration= crossIteration;
+			this.count= count;
+		}
+
+		boolean isBetween(int stage, int otherStage) {
+			return (stageNumber == stage && laterStageNumber == otherStage) || (stageNumber == otherStage && laterStageNumber == stage);
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s %d %d %s %d", location, stageNumber, laterStageNumber, crossIteration ? CROSS_ITERATION : SAME_ITERATION, count);
+		}
+	}
+
+	private final List<Dependence> dependences= new ArrayList<Dependence>();
+
+	private final Set<String> instrumentedClasses= new TreeSet<String>();
+
+	private long iterations;
+
+	/**
+	 * @param location e.g., Lpkg/Cache.entries or [I
+	 * @param stageNumber the stage that accessed the location first, the generator is 0
+	 */
+	public void addDependence(String location, int stageNumber, int laterStageNumber, boolean crossIteration, long count) {
+		dependences.add(new Dependence(location, stageNumber, laterStageNumber, crossIteration, count));
+	}
+
+	/**
+	 * @param className e.g., Lpkg/Cache
+	 */
+	public void addInstrumentedClass(String className) {
+		instrumentedClasses.add(className);
+	}
+
+	public void addIterations(long count) {
+		iterations+= count;
+	}
+
+	/**
+	 * Picks the lines of the recorder out of everything else that the driver printed.
+	 *
+	 * @return false if the line is not from the recorder
+	 */
+	public boolean addLine(String line) {
+		String[] fields= line.trim().split("\\s+");
+		try {
+			if (fields.length == 2 && ITERATIONS_MARKER.equals(fields[0])) {
+				addIterations(Long.parseLong(fields[1]));
+				return true;
+			}
+			if (fields.length == 6 && DEPENDENCE_MARKER.equals(fields[0])) {
+				return addDependence(fields, 1);
+			}
+		} catch (NumberFormatException e) {
+			return false;
+		}
+		return false;
+	}
+
+	private boolean addDependence(String[] fields, int start) {
+		String relation= fields[start + 3];
+		if (!SAME_ITERATION.equals(relation) && !CROSS_ITERATION.equals(relation)) {
+			return false;
+		}
+		int stageNumber= Integer.parseInt(fields[start + 1]);
+		int laterStageNumber= Integer.parseInt(fields[start + 2]);
+		if (stageNumber < 0 || laterStageNumber < 0) {
+			return false;
+		}
+		addDependence(fields[start], stageNumber, laterStageNumber, CROSS_ITERATION.equals(relation), Long.parseLong(fields[start + 4]));
+		return true;
+	}
+
+	// For querying
+	///////////////
+
+	/**
+	 * @return true if nothing was instrumented, an empty profile of instrumented classes means that
+	 *         the stages never conflicted
+	 */
+	public boolean isEmpty() {
+		return instrumentedClasses.isEmpty();
+	}
+
+	/**
+	 * @return how many iterations of the loop the profiled run went through
+	 */
+	public long getIterations() {
+		return iterations;
+	}
+
+	public Set<String> getInstrumentedClasses() {
+		return instrumentedClasses;
+	}
+
+	/**
+	 * @param stageNumber the generator is 0, Stage1 is 1
+	 * @return what the run observed of the two stages accessing the location, in either order
+	 */
+	public Observation getObservation(PointerKey pKey, int stageNumber, int otherStageNumber) {
+		if (!isProfiled(pKey)) {
+			return Observation.NOT_PROFILED;
+		}
+		Observation observation= Observation.NOT_OBSERVED;
+		for (Dependence dependence : dependences) {
+			if (dependence.isBetween(stageNumber, otherStageNumber) && matches(pKey, dependence.location)) {
+				if (dependence.crossIteration) {
+					return Observation.CROSS_ITERATION;
+				}
+				observation= Observation.SAME_ITERATION;
+			}
+		}
+		return observation;
+	}
+
+	private boolean isProfiled(PointerKey pKey) {
+		if (pKey instanceof InstanceFieldKey) {
+			return isInstrumented(((InstanceFieldKey)pKey).getField().getReference());
+		} else if (pKey instanceof StaticFieldKey) {
+			return isInstrumented(((StaticFieldKey)pKey).getField().getReference());
+		} else if (pKey instanceof ArrayContentsKey) {
+			// Arrays that the library allocates are mostly accessed by the library, e.g., the table of a HashMap
+			InstanceKey instanceKey= ((ArrayContentsKey)pKey).getInstanceKey();
+			if (instanceKey instanceof AllocationSiteInNode) {
+				return instrumentedClasses.contains(((AllocationSiteInNode)instanceKey).getNode().getMethod().getDeclaringClass().getName().toString());
+			}
+			return true;
+		}
+		return false; // The state of the library specifications and the length of arrays are not instrumented
+	}
+
+	private boolean isInstrumented(FieldReference field) {
+		return instrumentedClasses.contains(field.getDeclaringClass().getName().toString());
+	}
+
+	private static boolean matches(PointerKey pKey, String location) {
+		if (pKey instanceof InstanceFieldKey) {
+			return getFieldName(location).equals(((InstanceFieldKey)pKey).getField().getName().toString());
+		} else if (pKey instanceof StaticFieldKey) {
+			return getFieldName(location).equals(((StaticFieldKey)pKey).getField().getName().toString());
+		} else if (pKey instanceof ArrayContentsKey) {
+			return location.equals(((ArrayContentsKey)pKey).getInstanceKey().getConcreteType().getName().toString());
+		}
+		return false;
+	}
+
+	// The field of Lpkg/Cache.entries is entries, arrays have none
+	private static String getFieldName(String location) {
+		if (location.startsWith("[")) {
+			return "";
+		}
+		return location.substring(location.lastIndexOf('.') + 1);
+	}
+
+	// Persistence
+	//////////////
+
+	/**
+	 * @return e.g., Worker.process.jflow-dependences next to Worker.java for the loop in
+	 *         Worker.process(), see StageProfile.getProfileFile()
+	 */
+	public static File getProfileFile(File sourceFile, String methodName) {
+		String name= sourceFile.getName();
+		int dot= name.lastIndexOf('.');
+		String base= dot > 0 ? name.substring(0, dot) : name;
+		return new File(sourceFile.getParentFile(), base + "." + methodName + FILE_EXTENSION);
+	}
+
+	/**
+	 * @return the profile, or null if there is no such file
+	 */
+	public static DependenceProfile read(File file) throws IOException {
+		if (!file.exists()) {
+			return null;
+		}
+		DependenceProfile profile= new DependenceProfile();
+		BufferedReader reader= new BufferedReader(new FileReader(file));
+		try {
+			String line;
+			while ((line= reader.readLine()) != null) {
+				line= line.trim();
+				if (line.length() == 0 || line.startsWith("#")) {
+					continue;
+				}
+				String[] fields= line.split("\\s+");
+				try {
+					if (fields.length == 2 && ITERATIONS.equals(fields[0])) {
+						profile.addIterations(Long.parseLong(fields[1]));
+					} else if (fields.length == 2 && INSTRUMENTED.equals(fields[0])) {
+						profile.addInstrumentedClass(fields[1]);
+					} else if (fields.length != 5 || !profile.addDependence(fields, 0)) {
+						throw new IOException("Malformed dependence profile line in " + file + ": " + line);
+					}
+				} catch (NumberFormatException e) {
+					throw new IOException("Malformed dependence profile line in " + file + ": " + line);
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		return profile;
+	}
+
+	public void write(File file) throws IOException {
+		PrintWriter writer= new PrintWriter(new FileWriter(file));
+		try {
+			writer.println(FILE_HEADER);
+			writer.println(ITERATIONS + " " + iterations);
+			for (String className : instrumentedClasses) {
+				writer.println(INSTRUMENTED + " " + className);
+			}
+			for (Dependence dependence : dependences) {
+				writer.println(dependence);
+			}
+		} finally {
+			writer.close();
+		}
+	}
+}
@@ -0,0 +1,161 @@
+package edu.illinois.jflow.wala.profiling;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.ibm.wala.types.MethodReference;
+import com.ibm.wala.types.TypeName;
+
+import edu.illinois.jflow.jflow.wala.dataflowanalysis.Statement;
+
+/**
+ * The CPU samples of a profiled run, indexed by method so that we can ask what share of the
+ * samples were spent in some lines of a method, e.g., in a loop or in a pipeline stage.
+ *
+ * The shares are inclusive: a sample counts for a line if that line is anywhere on the sampled
+ * stack, i.e., the time spent in callees is attributed to the line of the call. Each stack is
+ * counted once even if a recursive method appears on it several times.
+ *
+ * Methods are matched by declaring class and name only. Profilers do not agree on how (or whether)
+ * to print signatures, so overloads share their samples.
+ *
+ * @author nchen
+ *
+ */
+public class ExecutionProfile {
+
+	public static final int UNKNOWN_LINE= -1;
+
+	/*
+	 * A method appearing on one sampled stack
+	 */
+	private static class Occurrence {
+		final int stack;
+
+		final int line;
+
+		Occurrence(int stack, int line) {
+			this.stack= stack;
+			this.line= line;
+		}
+	}
+
+	private final List<Long> stackCounts= new ArrayList<Long>();
+
+	private final Map<String, List<Occurrence>> method2Occurrences= new HashMap<String, List<Occurrence>>();
+
+	private final Set<String> methodsWithLines= new HashSet<String>();
+
+	private long totalSamples;
+
+	/**
+	 * @param frames the qualified method names (pkg.Class.method) of the stack, in any order
+	 * @param lines the line number of each frame or UNKNOWN_LINE
+	 * @param count how many samples had this stack
+	 */
+	void addStack(List<String> frames, List<Integer> lines, long count) {
+		if (count <= 0) {
+			return;
+		}
+		int stack= stackCounts.size();
+		stackCounts.add(count);
+		totalSamples+= count;
+
+		for (int i= 0; i < frames.size(); i++) {
+			String method= normalize(frames.get(i));
+			int line= lines.get(i);
+			List<Occurrence> occurrences= method2Occurrences.get(method);
+			if (occurrences == null) {
+				occurrences= new ArrayList<Occurrence>();
+				method2Occurrences.put(method, occurrences);
+			}
+			occurrences.add(new Occurrence(stack, line));
+			if (line != UNKNOWN_LINE) {
+				methodsWithLines.add(method);
+			}
+		}
+	}
+
+	// For querying
+	///////////////
+
+	public long getTotalSamples() {
+		return totalSamples;
+	}
+
+	public boolean isEmpty() {
+		return totalSamples == 0;
+	}
+
+	/**
+	 * @return the fraction (0..1) of all samples with the method on the stack
+	 */
+	public double getShare(MethodReference method) {
+		List<Occurrence> occurrences= method2Occurrences.get(keyOf(method));
+		if (occurrences == null || isEmpty()) {
+			return 0;
+		}
+		Set<Integer> stacks= new HashSet<Integer>();
+		for (Occurrence occurrence : occurrences) {
+			stacks.add(occurrence.stack);
+		}
+		return fractionOf(stacks);
+	}
+
+	/**
+	 * @return the fraction (0..1) of all samples that were executing one of the lines of the method.
+	 *         If the profile has no line numbers for this method we cannot tell the lines apart and
+	 *         return the share of the whole method, which is an upper bound.
+	 */
+	public double getShare(MethodReference method, Collection<Integer> lines) {
+		String key= keyOf(method);
+		if (!methodsWithLines.contains(key)) {
+			return getShare(method);
+		}
+		List<Occurrence> occurrences= method2Occurrences.get(key);
+		Set<Integer> stacks= new HashSet<Integer>();
+		for (Occurrence occurrence : occurrences) {
+			if (lines.contains(occurrence.line)) {
+				stacks.add(occurrence.stack);
+			}
+		}
+		return fractionOf(stacks);
+	}
+
+	public double getShare(MethodReference method, Statement statement) {
+		List<Integer> lines= new ArrayList<Integer>();
+		lines.add(statement.getLineNumber());
+		return getShare(method, lines);
+	}
+
+	public boolean hasLineNumbers(MethodReference method) {
+		return methodsWithLines.contains(keyOf(method));
+	}
+
+	private double fractionOf(Set<Integer> stacks) {
+		long samples= 0;
+		for (Integer stack : stacks) {
+			samples+= stackCounts.get(stack);
+		}
+		return (double)samples / totalSamples;
+	}
+
+	/*
+	 * WALA and the profilers disagree on the separators of packages and inner classes, so normalize
+	 * both to dots
+	 */
+	private static String keyOf(MethodReference method) {
+		TypeName type= method.getDeclaringClass().getName();
+		String className= type.getPackage() == null ? type.getClassName().toString() : type.getPackage() + "." + type.getClassName();
+		return normalize(className + "." + method.getName().toString());
+	}
+
+	private static String normalize(String qualifiedMethod) {
+		return qualifiedMethod.replace('/', '.').replace('$', '.');
+	}
+}
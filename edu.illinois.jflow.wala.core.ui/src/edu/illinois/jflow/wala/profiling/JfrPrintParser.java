@@ -0,0 +1,82 @@
+package edu.illinois.jflow.wala.profiling;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the execution samples of a JFR recording as printed by the jfr tool of the JDK:
+ *
+ * <pre>
+ * jfr print --events jdk.ExecutionSample recording.jfr
+ * </pre>
+ *
+ * Each event has a stackTrace block with one frame per line, from the leaf to the root:
+ *
+ * <pre>
+ * stackTrace = [
+ *   pkg.Worker.compute(int) line: 57
+ *   pkg.Worker.process() line: 42
+ *   ...
+ * ]
+ * </pre>
+ *
+ * Every event is one sample. Everything outside of the stackTrace blocks is ignored.
+ *
+ * @author nchen
+ *
+ */
+public class JfrPrintParser {
+
+	private static final String STACK_TRACE_START= "stackTrace = [";
+
+	private static final String STACK_TRACE_END= "]";
+
+	private static final String LINE_PREFIX= "line:";
+
+	public static ExecutionProfile parse(BufferedReader reader) throws IOException {
+		ExecutionProfile profile= new ExecutionProfile();
+		List<String> frames= null;
+		List<Integer> lines= null;
+
+		String line;
+		while ((line= reader.readLine()) != null) {
+			line= line.trim();
+			if (line.equals(STACK_TRACE_START)) {
+				frames= new ArrayList<String>();
+				lines= new ArrayList<Integer>();
+			} else if (frames != null && line.equals(STACK_TRACE_END)) {
+				profile.addStack(frames, lines, 1);
+				frames= null;
+				lines= null;
+			} else if (frames != null) {
+				parseFrame(line, frames, lines);
+			}
+		}
+		return profile;
+	}
+
+	private static void parseFrame(String frame, List<String> frames, List<Integer> lines) {
+		int signature= frame.indexOf('(');
+		if (signature <= 0) {
+			return; // "..." for truncated stacks
+		}
+
+		int lineNumber= ExecutionProfile.UNKNOWN_LINE;
+		int linePrefix= frame.indexOf(LINE_PREFIX, signature);
+		if (linePrefix > 0) {
+			String rest= frame.substring(linePrefix + LINE_PREFIX.length()).trim();
+			int end= 0;
+			while (end < rest.length() && Character.isDigit(rest.charAt(end))) {
+				end++;
+			}
+			if (end > 0) {
+				lineNumber= Integer.parseInt(rest.substring(0, end));
+			}
+		}
+
+		frames.add(frame.substring(0, signature));
+		lines.add(lineNumber);
+	}
+}
@@ -0,0 +1,135 @@
+package edu.illinois.jflow.wala.profiling;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.QualifiedName;
+
+import edu.illinois.jflow.wala.core.Activator;
+
+/**
+ * Reads a sampling profile from disk. We understand
+ * <ul>
+ * <li>JFR recordings (*.jfr), which are converted with the jfr tool of the JDK since we cannot
+ * depend on jdk.jfr on our execution environment,</li>
+ * <li>the text output of jfr print --events jdk.ExecutionSample, and</li>
+ * <li>collapsed stacks, e.g., from async-profiler.</li>
+ * </ul>
+ *
+ * The imported profile is kept with the project for the rest of the session so that the scanner
+ * and the refactorings can use it.
+ *
+ * @author nchen
+ *
+ */
+public class ProfileImporter {
+
+	private static final QualifiedName PROFILE_PROPERTY= new QualifiedName(Activator.PLUGIN_ID, "executionProfile");
+
+	private static final String JFR_EXTENSION= ".jfr";
+
+	private static final String JFR_EVENT= "jdk.ExecutionSample";
+
+	public static ExecutionProfile importProfile(File file) throws IOException {
+		if (file.getName().endsWith(JFR_EXTENSION)) {
+			return importRecording(file);
+		}
+
+		BufferedReader reader= new BufferedReader(new FileReader(file));
+		try {
+			reader.mark(8192);
+			boolean isJfrText= looksLikeJfrText(reader);
+			reader.reset();
+			return isJfrText ? JfrPrintParser.parse(reader) : CollapsedStackParser.parse(reader);
+		} finally {
+			reader.close();
+		}
+	}
+
+	private static boolean looksLikeJfrText(BufferedReader reader) throws IOException {
+		String line;
+		while ((line= reader.readLine()) != null) {
+			if (line.trim().length() != 0) {
+				return line.trim().startsWith(JFR_EVENT);
+			}
+		}
+		return false;
+	}
+
+	private static ExecutionProfile importRecording(File recording) throws IOException {
+		ProcessBuilder builder= new ProcessBuilder(jfrTool(), "print", "--events", JFR_EVENT, recording.getAbsolutePath());
+		Process process= builder.start();
+		process.getOutputStream().close();
+		// jfr writes very little to stderr, but drain it so that it cannot block
+		final BufferedReader errors= new BufferedReader(new InputStreamReader(process.getErrorStream()));
+		final StringBuilder errorText= new StringBuilder();
+		Thread errorDrainer= new Thread() {
+			@Override
+			public void run() {
+				try {
+					String line;
+					while ((line= errors.readLine()) != null) {
+						errorText.append(line).append('\n');
+					}
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		};
+		errorDrainer.start();
+
+		BufferedReader reader= new BufferedReader(new InputStreamReader(process.getInputStream()));
+		try {
+			ExecutionProfile profile= JfrPrintParser.parse(reader);
+			int exitCode= process.waitFor();
+			errorDrainer.join();
+			if (exitCode != 0) {
+				throw new IOException("jfr print failed for " + recording + ": " + errorText);
+			}
+			return profile;
+		} catch (InterruptedException e) {
+			process.destroy();
+			throw new IOException("Interrupted while converting " + recording);
+		} finally {
+			reader.close();
+		}
+	}
+
+	/*
+	 * Prefer the jfr of the JDK in JAVA_HOME, otherwise hope that it is on the path
+	 */
+	private static String jfrTool() {
+		String javaHome= System.getenv("JAVA_HOME");
+		if (javaHome != null) {
+			File jfr= new File(new File(javaHome, "bin"), "jfr");
+			if (jfr.canExecute()) {
+				return jfr.getAbsolutePath();
+			}
+		}
+		return "jfr";
+	}
+
+	// For keeping the profile with the project
+	///////////////////////////////////////////
+
+	public static void attachProfile(IProject project, ExecutionProfile profile) throws CoreException {
+		project.setSessionProperty(PROFILE_PROPERTY, profile);
+	}
+
+	/**
+	 * @return the profile imported for the project in this session, or null if there is none
+	 */
+	public static ExecutionProfile getAttachedProfile(IProject project) {
+		try {
+			return (ExecutionProfile)project.getSessionProperty(PROFILE_PROPERTY);
+		} catch (CoreException e) {
+			// The project is closed or gone
+			return null;
+		}
+	}
+}
@@ -0,0 +1,214 @@
+package edu.illinois.jflow.wala.profiling;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Service and queue wait times of the stages of a pipeline, measured by running the transformed
+ * loop with instrumented stages (see ExtractClosureRefactoring.setInstrumentStages()).
+ *
+ * Each instrumented stage prints one line per item to standard error,
+ *
+ * <pre>
+ * JFLOW-STAGE &lt;stage&gt; &lt;wait&gt; &lt;service&gt;
+ * </pre>
+ *
+ * where wait is the time in nanoseconds between the previous stage binding the item to the channel
+ * and this stage starting on it, and service is the time this stage spent on it. Stages are numbered
+ * Stage1, Stage2, etc.
+ *
+ * The profile is kept in a file next to the source of the method so that later runs of the
+ * refactorings can use it, see getProfileFile().
+ *
+ * @author nchen
+ *
+ */
+public class StageProfile {
+
+	public static final String STAGE_MARKER= "JFLOW-STAGE";
+
+	public static final String FILE_EXTENSION= ".jflow-stages";
+
+	private static final String FILE_HEADER= "# stage samples totalWaitNanos totalServiceNanos";
+
+	private final List<Long> samples= new ArrayList<Long>();
+
+	private final List<Long> totalWaits= new ArrayList<Long>();
+
+	private final List<Long> totalServices= new ArrayList<Long>();
+
+	/**
+	 * @param stageNumber Stage1 is 1
+	 */
+	public void addSample(int stageNumber, long waitNanos, long serviceNanos) {
+		addSamples(stageNumber, 1, waitNanos, serviceNanos);
+	}
+
+	private void addSamples(int stageNumber, long count, long waitNanos, long serviceNanos) {
+		while (samples.size() < stageNumber) {
+			samples.add(0L);
+			totalWaits.add(0L);
+			totalServices.add(0L);
+		}
+		int index= stageNumber - 1;
+		samples.set(index, samples.get(index) + count);
+		totalWaits.set(index, totalWaits.get(index) + waitNanos);
+		totalServices.set(index, totalServices.get(index) + serviceNanos);
+	}
+
+	/**
+	 * Picks the lines of the instrumented stages out of everything else that the driver printed.
+	 *
+	 * @return false if the line is not from an instrumented stage
+	 */
+	public boolean addLine(String line) {
+		String[] fields= line.trim().split("\\s+");
+		if (fields.length != 4 || !STAGE_MARKER.equals(fields[0])) {
+			return false;
+		}
+		try {
+			int stageNumber= Integer.parseInt(fields[1]);
+			if (stageNumber < 1) {
+				return false;
+			}
+			addSample(stageNumber, Math.max(0, Long.parseLong(fields[2])), Long.parseLong(fields[3]));
+			return true;
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+
+	// For querying
+	///////////////
+
+	public boolean isEmpty() {
+		for (Long count : samples) {
+			if (count > 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public int getNumberOfStages() {
+		return samples.size();
+	}
+
+	public long getSamples(int stageNumber) {
+		return stageNumber <= samples.size() ? samples.get(stageNumber - 1) : 0;
+	}
+
+	/**
+	 * @return the average time in nanoseconds the stage spent on an item, 0 if it never ran
+	 */
+	public double getMeanServiceTime(int stageNumber) {
+		long count= getSamples(stageNumber);
+		return count == 0 ? 0 : (double)totalServices.get(stageNumber - 1) / count;
+	}
+
+	/**
+	 * @return the average time in nanoseconds an item waited in the channel before the stage
+	 */
+	public double getMeanWaitTime(int stageNumber) {
+		long count= getSamples(stageNumber);
+		return count == 0 ? 0 : (double)totalWaits.get(stageNumber - 1) / count;
+	}
+
+	/**
+	 * A stage that can run on several workers should get enough of them to keep up with the slowest
+	 * stage that cannot. If every stage can, they are matched to the fastest one instead.
+	 *
+	 * @param dataParallel for each stage, Stage1 first, whether it can run on several workers
+	 * @return the number of workers for each stage, Stage1 first
+	 */
+	public List<Integer> recommendWorkers(List<Boolean> dataParallel, int maximumWorkers) {
+		double target= 0;
+		for (int stageNumber= 1; stageNumber <= dataParallel.size(); stageNumber++) {
+			if (!dataParallel.get(stageNumber - 1)) {
+				target= Math.max(target, getMeanServiceTime(stageNumber));
+			}
+		}
+		if (target == 0) {
+			target= Double.MAX_VALUE;
+			for (int stageNumber= 1; stageNumber <= dataParallel.size(); stageNumber++) {
+				if (getMeanServiceTime(stageNumber) > 0) {
+					target= Math.min(target, getMeanServiceTime(stageNumber));
+				}
+			}
+		}
+
+		List<Integer> workers= new ArrayList<Integer>();
+		for (int stageNumber= 1; stageNumber <= dataParallel.size(); stageNumber++) {
+			int count= 1;
+			if (dataParallel.get(stageNumber - 1) && target > 0 && target != Double.MAX_VALUE) {
+				count= (int)Math.ceil(getMeanServiceTime(stageNumber) / target);
+			}
+			workers.add(Math.max(1, Math.min(count, maximumWorkers)));
+		}
+		return workers;
+	}
+
+	// Persistence
+	//////////////
+
+	/**
+	 * @return e.g., Worker.process.jflow-stages next to Worker.java for the loop in Worker.process().
+	 *         We go by the method rather than the line since the transformation moves the loop.
+	 */
+	public static File getProfileFile(File sourceFile, String methodName) {
+		String name= sourceFile.getName();
+		int dot= name.lastIndexOf('.');
+		String base= dot > 0 ? name.substring(0, dot) : name;
+		return new File(sourceFile.getParentFile(), base + "." + methodName + FILE_EXTENSION);
+	}
+
+	/**
+	 * @return the profile, or null if there is no such file
+	 */
+	public static StageProfile read(File file) throws IOException {
+		if (!file.exists()) {
+			return null;
+		}
+		StageProfile profile= new StageProfile();
+		BufferedReader reader= new BufferedReader(new FileReader(file));
+		try {
+			String line;
+			while ((line= reader.readLine()) != null) {
+				line= line.trim();
+				if (line.length() == 0 || line.startsWith("#")) {
+					continue;
+				}
+				String[] fields= line.split("\\s+");
+				if (fields.length != 4) {
+					throw new IOException("Malformed stage profile line in " + file + ": " + line);
+				}
+				try {
+					profile.addSamples(Integer.parseInt(fields[0]), Long.parseLong(fields[1]), Long.parseLong(fields[2]), Long.parseLong(fields[3]));
+				} catch (NumberFormatException e) {
+					throw new IOException("Malformed stage profile line in " + file + ": " + line);
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		return profile;
+	}
+
+	public void write(File file) throws IOException {
+		PrintWriter writer= new PrintWriter(new FileWriter(file));
+		try {
+			writer.println(FILE_HEADER);
+			for (int stageNumber= 1; stageNumber <= samples.size(); stageNumber++) {
+				writer.println(String.format("%d %d %d %d", stageNumber, samples.get(stageNumber - 1), totalWaits.get(stageNumber - 1), totalServices.get(stageNumber - 1)));
+			}
+		} finally {
+			writer.close();
+		}
+	}
+}
@@ -0,0 +1,184 @@
+package edu.illinois.jflow.wala.scanner;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.core.resources.IResource;
+
+import com.ibm.wala.types.MethodReference;
+
+/**
+ * A loop (ForStatement or EnhancedForStatement) that the scanner found in the source code together
+ * with what we learned about it. The lines follow the editor convention, i.e., they are 1-based.
+ *
+ * The header lines are what the refactoring would use as the generator stage. The body lines are
+ * everything else inside the loop.
+ *
+ * @author nchen
+ *
+ */
+public class LoopCandidate {
+
+	/**
+	 * Loops without loop-carried dependencies come first, then the ones that took more of the
+	 * profiled run, then the ones with more estimated work.
+	 */
+	public static final Comparator<LoopCandidate> RANKING= new Comparator<LoopCandidate>() {
+
+		@Override
+		public int compare(LoopCandidate left, LoopCandidate right) {
+			if (left.isPipelinable() != right.isPipelinable()) {
+				return left.isPipelinable() ? -1 : 1;
+			}
+			if (left.measuredShare != right.measuredShare) {
+				return left.measuredShare > right.measuredShare ? -1 : 1;
+			}
+			if (left.estimatedWork != right.estimatedWork) {
+				return left.estimatedWork > right.estimatedWork ? -1 : 1;
+			}
+			return left.getLocation().compareTo(right.getLocation());
+		}
+	};
+
+	private final IResource resource;
+
+	private final MethodReference method;
+
+	private final List<Integer> headerLines;
+
+	private final List<Integer> bodyLines;
+
+	// How deep each body line is nested in other loops inside this loop, lines not in the map are at depth 0
+	private final Map<Integer, Integer> nestingDepths;
+
+	private boolean analyzed;
+
+	private boolean loopCarriedDependency;
+
+	private long estimatedWork;
+
+	private String problem;
+
+	// Fraction of the samples of a profiled run spent in this loop, negative if there is no profile
+	private double measuredShare= -1;
+
+	public LoopCandidate(IResource resource, MethodReference method, List<Integer> headerLines, List<Integer> bodyLines, Map<Integer, Integer> nestingDepths) {
+		this.resource= resource;
+		this.method= method;
+		this.headerLines= headerLines;
+		this.bodyLines= bodyLines;
+		this.nestingDepths= nestingDepths;
+	}
+
+	void setResult(boolean loopCarriedDependency, long estimatedWork) {
+		this.analyzed= true;
+		this.loopCarriedDependency= loopCarriedDependency;
+		this.estimatedWork= estimatedWork;
+	}
+
+	void setProblem(String problem) {
+		this.problem= problem;
+	}
+
+	void setMeasuredShare(double measuredShare) {
+		this.measuredShare= measuredShare;
+	}
+
+	// For querying
+	///////////////
+
+	public IResource getResource() {
+		return resource;
+	}
+
+	public MethodReference getMethod() {
+		return method;
+	}
+
+	public int getLineNumber() {
+		return headerLines.get(0);
+	}
+
+	public List<Integer> getHeaderLines() {
+		return headerLines;
+	}
+
+	public List<Integer> getBodyLines() {
+		return bodyLines;
+	}
+
+	public int getNestingDepth(int line) {
+		Integer depth= nestingDepths.get(line);
+		return depth == null ? 0 : depth;
+	}
+
+	public boolean isAnalyzed() {
+		return analyzed;
+	}
+
+	public boolean hasLoopCarriedDependency() {
+		return loopCarriedDependency;
+	}
+
+	/**
+	 * @return true if we could analyze the loop and it does not carry scalar dependencies across
+	 *         iterations
+	 */
+	public boolean isPipelinable() {
+		return analyzed && !loopCarriedDependency;
+	}
+
+	public long getEstimatedWork() {
+		return estimatedWork;
+	}
+
+	public boolean hasMeasuredShare() {
+		return measuredShare >= 0;
+	}
+
+	/**
+	 * @return the fraction (0..1) of the profiled samples spent in the loop, only meaningful if
+	 *         hasMeasuredShare()
+	 */
+	public double getMeasuredShare() {
+		return measuredShare;
+	}
+
+	/**
+	 * @return why the loop could not be analyzed, or null if it was
+	 */
+	public String getProblem() {
+		return problem;
+	}
+
+	/**
+	 * @return file:line, which most consoles and editors turn into a link
+	 */
+	public String getLocation() {
+		String path= resource.getLocation() != null ? resource.getLocation().toOSString() : resource.getFullPath().toString();
+		return path + ":" + getLineNumber();
+	}
+
+	public String getDescription() {
+		if (hasMeasuredShare()) {
+			return String.format("%s, %.1f%% of profiled samples", getStaticDescription(), measuredShare * 100);
+		}
+		return getStaticDescription();
+	}
+
+	private String getStaticDescription() {
+		if (!analyzed) {
+			return String.format("Loop in %s could not be analyzed: %s", method.getName(), problem);
+		}
+		if (loopCarriedDependency) {
+			return String.format("Loop in %s, estimated work %d, has loop-carried scalar dependencies", method.getName(), estimatedWork);
+		}
+		return String.format("Loop in %s, estimated work %d, no loop-carried scalar dependencies", method.getName(), estimatedWork);
+	}
+
+	@Override
+	public String toString() {
+		return getLocation() + " " + getDescription();
+	}
+}
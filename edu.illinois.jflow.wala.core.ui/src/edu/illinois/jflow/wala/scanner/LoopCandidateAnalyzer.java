@@ -0,0 +1,73 @@
+package edu.illinois.jflow.wala.scanner;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.illinois.jflow.jflow.wala.dataflowanalysis.PDGNode;
+import edu.illinois.jflow.jflow.wala.dataflowanalysis.PDGPartitionerChecker;
+import edu.illinois.jflow.jflow.wala.dataflowanalysis.ProgramDependenceGraph;
+import edu.illinois.jflow.jflow.wala.dataflowanalysis.Statement;
+import edu.illinois.jflow.jflow.wala.dataflowanalysis.StatementCostModel;
+
+/**
+ * Cheap, intraprocedural checks that decide how promising a loop is. We deliberately do not compute
+ * the heap dependencies here: that requires a call graph and is far too expensive to do for every
+ * loop in a project. The user still has to go through the refactoring, which performs the full
+ * check, for the loops that look interesting.
+ *
+ * The work is estimated with the weights of StatementCostModel. The nesting comes from the source
+ * since we know exactly which loop the candidate is.
+ *
+ * @author nchen
+ *
+ */
+public class LoopCandidateAnalyzer {
+
+	public static void analyze(ProgramDependenceGraph pdg, LoopCandidate candidate) {
+		boolean loopCarried= containsLoopCarriedDependency(pdg, candidate.getHeaderLines(), candidate.getBodyLines());
+		long work= estimateWork(pdg, candidate.getBodyLines(), candidate);
+		candidate.setResult(loopCarried, work);
+	}
+
+	/**
+	 * Treats the whole loop body as a single stage. If the body feeds anything back into the loop
+	 * header there is a scalar loop-carried dependency that no partitioning can get rid of.
+	 */
+	public static boolean containsLoopCarriedDependency(ProgramDependenceGraph pdg, List<Integer> headerLines, List<Integer> bodyLines) {
+		List<List<Integer>> selections= new ArrayList<List<Integer>>();
+		selections.add(headerLines);
+		selections.add(bodyLines);
+		PDGPartitionerChecker checker= PDGPartitionerChecker.makePartitionChecker(pdg, selections);
+		return checker.containsLoopCarriedDependency();
+	}
+
+	public static long estimateWork(ProgramDependenceGraph pdg, List<Integer> bodyLines) {
+		return estimateWork(pdg, bodyLines, null);
+	}
+
+	private static long estimateWork(ProgramDependenceGraph pdg, List<Integer> bodyLines, LoopCandidate candidate) {
+		Map<Integer, Statement> line2Statement= mapLinesToStatements(pdg);
+		long work= 0;
+		for (Integer line : bodyLines) {
+			Statement statement= line2Statement.get(line);
+			if (statement != null) {
+				int depth= candidate == null ? 0 : candidate.getNestingDepth(line);
+				work+= StatementCostModel.weigh(statement) * (long)Math.pow(StatementCostModel.NESTED_LOOP_TRIP_COUNT, depth);
+			}
+		}
+		return work;
+	}
+
+	private static Map<Integer, Statement> mapLinesToStatements(ProgramDependenceGraph pdg) {
+		Map<Integer, Statement> line2Statement= new HashMap<Integer, Statement>();
+		for (PDGNode node : pdg) {
+			if (node instanceof Statement) {
+				Statement statement= (Statement)node;
+				line2Statement.put(statement.getLineNumber(), statement);
+			}
+		}
+		return line2Statement;
+	}
+}
@@ -0,0 +1,142 @@
+package edu.illinois.jflow.wala.scanner;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.core.resources.IResource;
+import org.eclipse.jdt.core.dom.ASTNode;
+import org.eclipse.jdt.core.dom.ASTVisitor;
+import org.eclipse.jdt.core.dom.CompilationUnit;
+import org.eclipse.jdt.core.dom.EnhancedForStatement;
+import org.eclipse.jdt.core.dom.ForStatement;
+import org.eclipse.jdt.core.dom.IMethodBinding;
+import org.eclipse.jdt.core.dom.MethodDeclaration;
+
+import com.ibm.wala.cast.java.ipa.callgraph.JavaSourceAnalysisScope;
+import com.ibm.wala.cast.java.translator.jdt.JDTIdentityMapper;
+import com.ibm.wala.types.MethodReference;
+
+/**
+ * Collects the loops in a compilation unit, grouped by their enclosing method. Only the line
+ * information is kept so the (large) AST can be discarded right after the visit.
+ *
+ * The header/body split follows ExtractClosureRefactoring: the header runs from the start of the
+ * loop up to, and including, the line where the body starts.
+ *
+ * @author nchen
+ *
+ */
+public class LoopFinder extends ASTVisitor {
+
+	private final CompilationUnit ast;
+
+	private final IResource resource;
+
+	private final JDTIdentityMapper mapper;
+
+	private final Map<MethodReference, List<LoopCandidate>> method2Loops= new HashMap<MethodReference, List<LoopCandidate>>();
+
+	public LoopFinder(CompilationUnit ast, IResource resource) {
+		this.ast= ast;
+		this.resource= resource;
+		this.mapper= new JDTIdentityMapper(JavaSourceAnalysisScope.SOURCE, ast.getAST());
+	}
+
+	public static Map<MethodReference, List<LoopCandidate>> findLoops(CompilationUnit ast, IResource resource) {
+		LoopFinder finder= new LoopFinder(ast, resource);
+		ast.accept(finder);
+		return finder.method2Loops;
+	}
+
+	@Override
+	public boolean visit(ForStatement node) {
+		recordLoop(node, node.getBody());
+		return true;
+	}
+
+	@Override
+	public boolean visit(EnhancedForStatement node) {
+		recordLoop(node, node.getBody());
+		return true;
+	}
+
+	private void recordLoop(ASTNode loop, ASTNode body) {
+		MethodReference method= enclosingMethod(loop);
+		if (method == null) {
+			return; // Loops in initializers cannot be transformed
+		}
+
+		int start= lineOf(loop.getStartPosition());
+		int bodyStart= lineOf(body.getStartPosition());
+		int end= lineOf(loop.getStartPosition() + loop.getLength() - 1);
+
+		List<Integer> headerLines= new ArrayList<Integer>();
+		for (int line= start; line <= bodyStart; line++) {
+			headerLines.add(line);
+		}
+		List<Integer> bodyLines= new ArrayList<Integer>();
+		for (int line= bodyStart + 1; line <= end; line++) {
+			bodyLines.add(line);
+		}
+
+		LoopCandidate candidate= new LoopCandidate(resource, method, headerLines, bodyLines, nestingDepths(body));
+		List<LoopCandidate> loops= method2Loops.get(method);
+		if (loops == null) {
+			loops= new ArrayList<LoopCandidate>();
+			method2Loops.put(method, loops);
+		}
+		loops.add(candidate);
+	}
+
+	/*
+	 * For each line in the body, how many loops inside the body enclose it
+	 */
+	private Map<Integer, Integer> nestingDepths(ASTNode body) {
+		final Map<Integer, Integer> depths= new HashMap<Integer, Integer>();
+		body.accept(new ASTVisitor() {
+
+			@Override
+			public boolean visit(ForStatement node) {
+				increment(node.getBody());
+				return true;
+			}
+
+			@Override
+			public boolean visit(EnhancedForStatement node) {
+				increment(node.getBody());
+				return true;
+			}
+
+			private void increment(ASTNode innerBody) {
+				int start= lineOf(innerBody.getStartPosition());
+				int end= lineOf(innerBody.getStartPosition() + innerBody.getLength() - 1);
+				for (int line= start; line <= end; line++) {
+					Integer depth= depths.get(line);
+					depths.put(line, depth == null ? 1 : depth + 1);
+				}
+			}
+		});
+		return depths;
+	}
+
+	private MethodReference enclosingMethod(ASTNode node) {
+		ASTNode current= node.getParent();
+		while (current != null && !(current instanceof MethodDeclaration)) {
+			current= current.getParent();
+		}
+		if (current == null) {
+			return null;
+		}
+		IMethodBinding binding= ((MethodDeclaration)current).resolveBinding();
+		if (binding == null) {
+			return null;
+		}
+		return mapper.getMethodRef(binding);
+	}
+
+	private int lineOf(int offset) {
+		return ast.getLineNumber(offset);
+	}
+}
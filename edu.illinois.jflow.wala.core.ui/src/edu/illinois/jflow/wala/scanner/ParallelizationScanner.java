@@ -0,0 +1,217 @@
+package edu.illinois.jflow.wala.scanner;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.core.runtime.SubMonitor;
+import org.eclipse.jdt.core.ICompilationUnit;
+import org.eclipse.jdt.core.IJavaElement;
+import org.eclipse.jdt.core.IJavaProject;
+import org.eclipse.jdt.core.IPackageFragment;
+import org.eclipse.jdt.core.IPackageFragmentRoot;
+import org.eclipse.jdt.core.dom.AST;
+import org.eclipse.jdt.core.dom.ASTParser;
+import org.eclipse.jdt.core.dom.ASTRequestor;
+import org.eclipse.jdt.core.dom.CompilationUnit;
+
+import com.ibm.wala.classLoader.IMethod;
+import com.ibm.wala.ipa.callgraph.AnalysisCache;
+import com.ibm.wala.ipa.callgraph.AnalysisOptions;
+import com.ibm.wala.ipa.callgraph.impl.Everywhere;
+import com.ibm.wala.ipa.cha.IClassHierarchy;
+import com.ibm.wala.ssa.IR;
+import com.ibm.wala.types.MethodReference;
+import com.ibm.wala.util.debug.UnimplementedError;
+
+import edu.illinois.jflow.jflow.wala.dataflowanalysis.ProgramDependenceGraph;
+import edu.illinois.jflow.wala.utils.EclipseProjectAnalysisEngine;
+
+/**
+ * Finds the loops of a whole project and ranks them by how promising they are for pipelining. See
+ * {@link LoopCandidateAnalyzer} for what is checked.
+ *
+ * This only needs the class hierarchy, not a call graph, so it scales to large code bases. The
+ * program dependence graphs are independent of each other and are built on a pool of worker
+ * threads, one method at a time; each task gets its own AnalysisCache since those are not thread
+ * safe.
+ *
+ * @author nchen
+ *
+ */
+public class ParallelizationScanner {
+
+	// Parse this many compilation units at a time, the ASTs with bindings are big
+	private static final int PARSER_BATCH_SIZE= 50;
+
+	private final IJavaProject javaProject;
+
+	private final int numberOfThreads;
+
+	public ParallelizationScanner(IJavaProject javaProject) {
+		this(javaProject, Runtime.getRuntime().availableProcessors());
+	}
+
+	public ParallelizationScanner(IJavaProject javaProject, int numberOfThreads) {
+		this.javaProject= javaProject;
+		this.numberOfThreads= numberOfThreads;
+	}
+
+	public ScanReport scan(IProgressMonitor monitor) throws IOException, CoreException {
+		SubMonitor progress= SubMonitor.convert(monitor, "Scanning " + javaProject.getElementName() + " for parallelizable loops", 100);
+
+		progress.subTask("Building class hierarchy");
+		EclipseProjectAnalysisEngine engine= new EclipseProjectAnalysisEngine(javaProject);
+		engine.buildAnalysisScope();
+		IClassHierarchy classHierarchy= engine.buildClassHierarchy();
+		progress.worked(20);
+		checkCanceled(progress);
+
+		progress.subTask("Locating loops");
+		Map<MethodReference, List<LoopCandidate>> method2Loops= findLoops(progress.newChild(20));
+
+		progress.subTask("Building program dependence graphs");
+		List<LoopCandidate> candidates= analyzeInParallel(engine, classHierarchy, method2Loops, progress.newChild(60));
+
+		return new ScanReport(javaProject.getElementName(), candidates);
+	}
+
+	private Map<MethodReference, List<LoopCandidate>> findLoops(IProgressMonitor monitor) throws CoreException {
+		List<ICompilationUnit> units= getSourceCompilationUnits();
+		SubMonitor progress= SubMonitor.convert(monitor, units.size());
+		final Map<MethodReference, List<LoopCandidate>> method2Loops= new HashMap<MethodReference, List<LoopCandidate>>();
+
+		for (int start= 0; start < units.size(); start+= PARSER_BATCH_SIZE) {
+			List<ICompilationUnit> batch= units.subList(start, Math.min(start + PARSER_BATCH_SIZE, units.size()));
+			ASTParser parser= ASTParser.newParser(AST.JLS4);
+			parser.setProject(javaProject);
+			parser.setResolveBindings(true);
+			parser.createASTs(batch.toArray(new ICompilationUnit[batch.size()]), new String[0], new ASTRequestor() {
+
+				@Override
+				public void acceptAST(ICompilationUnit source, CompilationUnit ast) {
+					Map<MethodReference, List<LoopCandidate>> loops= LoopFinder.findLoops(ast, source.getResource());
+					for (MethodReference method : loops.keySet()) {
+						List<LoopCandidate> existing= method2Loops.get(method);
+						if (existing == null) {
+							method2Loops.put(method, loops.get(method));
+						} else {
+							existing.addAll(loops.get(method));
+						}
+					}
+				}
+			}, progress.newChild(batch.size()));
+			checkCanceled(progress);
+		}
+		return method2Loops;
+	}
+
+	private List<ICompilationUnit> getSourceCompilationUnits() throws CoreException {
+		List<ICompilationUnit> units= new ArrayList<ICompilationUnit>();
+		for (IPackageFragmentRoot root : javaProject.getPackageFragmentRoots()) {
+			if (root.getKind() != IPackageFragmentRoot.K_SOURCE) {
+				continue;
+			}
+			for (IJavaElement child : root.getChildren()) {
+				if (child instanceof IPackageFragment) {
+					for (ICompilationUnit unit : ((IPackageFragment)child).getCompilationUnits()) {
+						units.add(unit);
+					}
+				}
+			}
+		}
+		return units;
+	}
+
+	private List<LoopCandidate> analyzeInParallel(final EclipseProjectAnalysisEngine engine, final IClassHierarchy classHierarchy, Map<MethodReference, List<LoopCandidate>> method2Loops,
+			IProgressMonitor monitor) {
+		SubMonitor progress= SubMonitor.convert(monitor, method2Loops.size());
+		ExecutorService executor= Executors.newFixedThreadPool(numberOfThreads);
+		List<Future<List<LoopCandidate>>> results= new ArrayList<Future<List<LoopCandidate>>>();
+		List<List<LoopCandidate>> submitted= new ArrayList<List<LoopCandidate>>(); // The loops of each result
+
+		for (final MethodReference method : method2Loops.keySet()) {
+			final List<LoopCandidate> loops= method2Loops.get(method);
+			submitted.add(loops);
+			results.add(executor.submit(new Callable<List<LoopCandidate>>() {
+
+				@Override
+				public List<LoopCandidate> call() throws Exception {
+					analyzeMethod(engine.makeDefaultCache(), classHierarchy, method, loops);
+					return loops;
+				}
+			}));
+		}
+		executor.shutdown();
+
+		List<LoopCandidate> candidates= new ArrayList<LoopCandidate>();
+		try {
+			for (int index= 0; index < results.size(); index++) {
+				if (progress.isCanceled()) {
+					executor.shutdownNow();
+					throw new OperationCanceledException();
+				}
+				try {
+					candidates.addAll(results.get(index).get());
+				} catch (ExecutionException e) {
+					// What analyzeMethod does not catch, e.g., a StackOverflowError on a huge method
+					for (LoopCandidate loop : submitted.get(index)) {
+						loop.setProblem(e.getCause().toString());
+					}
+					candidates.addAll(submitted.get(index));
+				}
+				progress.worked(1);
+			}
+			executor.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			executor.shutdownNow();
+			throw new OperationCanceledException();
+		}
+		return candidates;
+	}
+
+	static void analyzeMethod(AnalysisCache cache, IClassHierarchy classHierarchy, MethodReference method, List<LoopCandidate> loops) {
+		IMethod resolvedMethod= classHierarchy.resolveMethod(method);
+		if (resolvedMethod == null) {
+			for (LoopCandidate loop : loops) {
+				loop.setProblem("method not found in the class hierarchy");
+			}
+			return;
+		}
+
+		try {
+			IR ir= cache.getSSACache().findOrCreateIR(resolvedMethod, Everywhere.EVERYWHERE, new AnalysisOptions().getSSAOptions());
+			// Printing every instruction of every method is far too verbose for a whole project
+			ProgramDependenceGraph pdg= ProgramDependenceGraph.make(ir, classHierarchy, false);
+			for (LoopCandidate loop : loops) {
+				LoopCandidateAnalyzer.analyze(pdg, loop);
+			}
+		} catch (Exception e) {
+			for (LoopCandidate loop : loops) {
+				loop.setProblem(e.toString());
+			}
+		} catch (UnimplementedError e) {
+			// Failed assertions inside WALA, one odd method should not bring down the scan of a whole project
+			for (LoopCandidate loop : loops) {
+				loop.setProblem(e.toString());
+			}
+		}
+	}
+
+	private static void checkCanceled(IProgressMonitor monitor) {
+		if (monitor.isCanceled()) {
+			throw new OperationCanceledException();
+		}
+	}
+}
@@ -0,0 +1,68 @@
+package edu.illinois.jflow.wala.scanner;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import edu.illinois.jflow.wala.profiling.ExecutionProfile;
+
+/**
+ * The loops of a project, ranked from most to least promising.
+ *
+ * @author nchen
+ *
+ */
+public class ScanReport {
+
+	private final String projectName;
+
+	private final List<LoopCandidate> candidates;
+
+	public ScanReport(String projectName, List<LoopCandidate> candidates) {
+		this.projectName= projectName;
+		this.candidates= new ArrayList<LoopCandidate>(candidates);
+		Collections.sort(this.candidates, LoopCandidate.RANKING);
+	}
+
+	/**
+	 * Annotates every loop with its share of the profiled samples and ranks them again. Loops that
+	 * never showed up in the profile get a share of 0, i.e., they drop below the hot ones.
+	 */
+	public void applyProfile(ExecutionProfile profile) {
+		for (LoopCandidate candidate : candidates) {
+			List<Integer> lines= new ArrayList<Integer>(candidate.getHeaderLines());
+			lines.addAll(candidate.getBodyLines());
+			candidate.setMeasuredShare(profile.getShare(candidate.getMethod(), lines));
+		}
+		Collections.sort(candidates, LoopCandidate.RANKING);
+	}
+
+	public String getProjectName() {
+		return projectName;
+	}
+
+	/**
+	 * @return the candidates in rank order
+	 */
+	public List<LoopCandidate> getCandidates() {
+		return Collections.unmodifiableList(candidates);
+	}
+
+	public int getRank(LoopCandidate candidate) {
+		return candidates.indexOf(candidate) + 1;
+	}
+
+	/**
+	 * One line per loop, prefixed with file:line so that the report can be navigated from a terminal
+	 * or from the console of the IDE.
+	 */
+	public void write(PrintWriter writer) {
+		writer.printf("Parallelization opportunities in %s (%d loops)%n", projectName, candidates.size());
+		int rank= 1;
+		for (LoopCandidate candidate : candidates) {
+			writer.printf("%4d. %s: %s%n", rank++, candidate.getLocation(), candidate.getDescription());
+		}
+		writer.flush();
+	}
+}
@@ -0,0 +1,360 @@
+package edu.illinois.jflow.wala.simulator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import com.ibm.wala.util.debug.Assertions;
+
+import edu.illinois.jflow.jflow.wala.dataflowanalysis.PDGPartitionerChecker;
+import edu.illinois.jflow.jflow.wala.dataflowanalysis.PipelinePartitioner;
+
+/**
+ * Predicts how a pipeline behaves without generating and running it.
+ *
+ * This is a discrete-event simulation of the generated code: the generator (stage 0) produces one
+ * item per iteration of the loop and each stage takes items from the channel before it, works on
+ * them and puts them into the channel after it. A stage with several workers, i.e., a data-parallel
+ * stage, works on that many items at once. A worker that cannot put its item into a full channel
+ * waits until there is room again.
+ *
+ * An item takes the cost of the stage plus the cost of receiving its values from the previous stage
+ * (the message size times the transfer cost). The times are in the same units as the costs, i.e.,
+ * the units of StatementCostModel for static estimates.
+ *
+ * @author nchen
+ *
+ */
+public class PipelineSimulator {
+
+	// The channels in the generated code (DataflowQueue) are unbounded
+	public static final int UNBOUNDED= Integer.MAX_VALUE;
+
+	public static final int DEFAULT_NUMBER_OF_ITEMS= 1000;
+
+	private final List<Double> costs;
+
+	private final List<Integer> messageSizes;
+
+	private final List<Integer> workers;
+
+	private double transferCost= PipelinePartitioner.TRANSFER_WEIGHT;
+
+	private int channelCapacity= UNBOUNDED;
+
+	/**
+	 * @param costs the cost of one item in each stage, the generator first
+	 * @param messageSizes the number of values that each stage sends to the next one, the generator
+	 *            first. The last stage does not send anything so its entry is ignored.
+	 */
+	public static PipelineSimulator makeSimulator(List<Double> costs, List<Integer> messageSizes) {
+		Assertions.productionAssertion(costs.size() == messageSizes.size(), "Expected a message size for each stage");
+		return new PipelineSimulator(costs, messageSizes);
+	}
+
+	/**
+	 * Simulates the stages of the checker with their estimated costs, see
+	 * PDGPartitionerChecker.estimateCosts(). Every stage starts out with a single worker.
+	 */
+	public static PipelineSimulator makeSimulator(PDGPartitionerChecker checker) {
+		Assertions.productionAssertion(checker.getCostModel() != null, "The costs of the stages have not been estimated");
+		List<Double> costs= new ArrayList<Double>();
+		List<Integer> messageSizes= new ArrayList<Integer>();
+		for (int stageNumber= 0; stageNumber < checker.getNumberOfStages(); stageNumber++) {
+			costs.add((double)checker.getStage(stageNumber).getEstimatedCost());
+			messageSizes.add(checker.getNumberOfValuesSentAfter(stageNumber));
+		}
+		return new PipelineSimulator(costs, messageSizes);
+	}
+
+	private PipelineSimulator(List<Double> costs, List<Integer> messageSizes) {
+		this.costs= new ArrayList<Double>(costs);
+		this.messageSizes= new ArrayList<Integer>(messageSizes);
+		this.workers= new ArrayList<Integer>(Collections.nCopies(costs.size(), 1));
+	}
+
+	// For configuring
+	//////////////////
+
+	/**
+	 * Replaces the cost of a stage, e.g., with one derived from a profile.
+	 */
+	public void setCost(int stageNumber, double cost) {
+		costs.set(stageNumber, cost);
+	}
+
+	/**
+	 * Only data-parallel stages (see PDGPartitionerChecker.isDataParallel()) can have more than one
+	 * worker. The generator always has exactly one.
+	 */
+	public void setWorkers(int stageNumber, int numberOfWorkers) {
+		Assertions.productionAssertion(numberOfWorkers > 0, "A stage needs at least one worker");
+		Assertions.productionAssertion(stageNumber > 0 || numberOfWorkers == 1, "The generator cannot be replicated");
+		workers.set(stageNumber, numberOfWorkers);
+	}
+
+	/**
+	 * @param capacity the number of items each channel can hold, UNBOUNDED by default
+	 */
+	public void setChannelCapacity(int capacity) {
+		Assertions.productionAssertion(capacity > 0, "A channel has to hold at least one item");
+		this.channelCapacity= capacity;
+	}
+
+	/**
+	 * @param transferCost the cost of receiving one value, PipelinePartitioner.TRANSFER_WEIGHT by
+	 *            default
+	 */
+	public void setTransferCost(double transferCost) {
+		this.transferCost= transferCost;
+	}
+
+	public int getNumberOfStages() {
+		return costs.size();
+	}
+
+	public double getCost(int stageNumber) {
+		return costs.get(stageNumber);
+	}
+
+	public int getWorkers(int stageNumber) {
+		return workers.get(stageNumber);
+	}
+
+	public int getChannelCapacity() {
+		return channelCapacity;
+	}
+
+	/**
+	 * @return the time one item spends in the stage, including receiving its values
+	 */
+	public double getServiceTime(int stageNumber) {
+		double receive= stageNumber == 0 ? 0 : messageSizes.get(stageNumber - 1) * transferCost;
+		return costs.get(stageNumber) + receive;
+	}
+
+	// Simulation
+	/////////////
+
+	private static class Item {
+		final double createdAt;
+
+		Item(double createdAt) {
+			this.createdAt= createdAt;
+		}
+	}
+
+	private static class Worker {
+		final int stageNumber;
+
+		Item item;
+
+		// Done with item but the next channel is full
+		boolean blocked;
+
+		Worker(int stageNumber) {
+			this.stageNumber= stageNumber;
+		}
+	}
+
+	private static class Event implements Comparable<Event> {
+		final double time;
+
+		final long sequence;
+
+		final Worker worker;
+
+		Event(double time, long sequence, Worker worker) {
+			this.time= time;
+			this.sequence= sequence;
+			this.worker= worker;
+		}
+
+		@Override
+		public int compareTo(Event other) {
+			if (time != other.time) {
+				return time < other.time ? -1 : 1;
+			}
+			return sequence < other.sequence ? -1 : sequence == other.sequence ? 0 : 1;
+		}
+	}
+
+	// State of a run
+	private List<List<Worker>> stageWorkers;
+
+	// channels.get(s) holds the items waiting for stage s, channels.get(0) is unused
+	private List<LinkedList<Item>> channels;
+
+	private PriorityQueue<Event> events;
+
+	private long sequence;
+
+	private double now;
+
+	private double lastEventTime;
+
+	private int generated;
+
+	private int numberOfItems;
+
+	private double[] busyTime;
+
+	private double[] occupancyArea;
+
+	private int[] maximumOccupancy;
+
+	private List<Double> completions;
+
+	private List<Double> latencies;
+
+	/**
+	 * Pushes numberOfItems items (iterations of the loop) through the pipeline.
+	 */
+	public SimulationResult simulate(int numberOfItems) {
+		Assertions.productionAssertion(numberOfItems > 0, "Expected at least one item");
+		initializeRun(numberOfItems);
+
+		dispatch();
+		while (!events.isEmpty()) {
+			Event event= events.poll();
+			advanceTo(event.time);
+			finish(event.worker);
+			dispatch();
+		}
+
+		return makeResult();
+	}
+
+	private void initializeRun(int items) {
+		int stageCount= costs.size();
+		numberOfItems= items;
+		stageWorkers= new ArrayList<List<Worker>>();
+		channels= new ArrayList<LinkedList<Item>>();
+		for (int stageNumber= 0; stageNumber < stageCount; stageNumber++) {
+			List<Worker> list= new ArrayList<Worker>();
+			for (int i= 0; i < workers.get(stageNumber); i++) {
+				list.add(new Worker(stageNumber));
+			}
+			stageWorkers.add(list);
+			channels.add(new LinkedList<Item>());
+		}
+		events= new PriorityQueue<Event>();
+		sequence= 0;
+		now= 0;
+		lastEventTime= 0;
+		generated= 0;
+		busyTime= new double[stageCount];
+		occupancyArea= new double[stageCount];
+		maximumOccupancy= new int[stageCount];
+		completions= new ArrayList<Double>();
+		latencies= new ArrayList<Double>();
+	}
+
+	private void advanceTo(double time) {
+		for (int stageNumber= 1; stageNumber < channels.size(); stageNumber++) {
+			occupancyArea[stageNumber]+= channels.get(stageNumber).size() * (time - lastEventTime);
+		}
+		lastEventTime= time;
+		now= time;
+	}
+
+	private void finish(Worker worker) {
+		if (worker.stageNumber == costs.size() - 1) {
+			completions.add(now);
+			latencies.add(now - worker.item.createdAt);
+			worker.item= null;
+		} else {
+			worker.blocked= true;
+		}
+	}
+
+	/*
+	 * Hands items on and starts new work until nothing changes. Later stages go first so that items
+	 * leaving a full channel make room for the stage before it in the same pass.
+	 */
+	private void dispatch() {
+		boolean changed= true;
+		while (changed) {
+			changed= false;
+			for (int stageNumber= costs.size() - 1; stageNumber >= 0; stageNumber--) {
+				for (Worker worker : stageWorkers.get(stageNumber)) {
+					if (worker.blocked && hasRoom(stageNumber + 1)) {
+						put(stageNumber + 1, worker.item);
+						worker.item= null;
+						worker.blocked= false;
+						changed= true;
+					}
+					if (worker.item == null) {
+						Item next= take(stageNumber);
+						if (next != null) {
+							worker.item= next;
+							double serviceTime= getServiceTime(stageNumber);
+							busyTime[stageNumber]+= serviceTime;
+							events.add(new Event(now + serviceTime, sequence++, worker));
+							changed= true;
+						}
+					}
+				}
+			}
+		}
+	}
+
+	private boolean hasRoom(int stageNumber) {
+		return channels.get(stageNumber).size() < channelCapacity;
+	}
+
+	private void put(int stageNumber, Item item) {
+		LinkedList<Item> channel= channels.get(stageNumber);
+		channel.addLast(item);
+		maximumOccupancy[stageNumber]= Math.max(maximumOccupancy[stageNumber], channel.size());
+	}
+
+	private Item take(int stageNumber) {
+		if (stageNumber == 0) {
+			if (generated == numberOfItems) {
+				return null;
+			}
+			generated++;
+			return new Item(now);
+		}
+		return channels.get(stageNumber).pollFirst();
+	}
+
+	private SimulationResult makeResult() {
+		int stageCount= costs.size();
+		double makespan= now;
+
+		double sequentialTime= 0;
+		for (Double cost : costs) {
+			sequentialTime+= cost * numberOfItems;
+		}
+
+		// The rate at which items come out once the pipeline is full
+		double first= completions.get(0);
+		double last= completions.get(completions.size() - 1);
+		double throughput= last > first ? (completions.size() - 1) / (last - first) : (makespan > 0 ? numberOfItems / makespan : 0);
+
+		double latencySum= 0;
+		double maximumLatency= 0;
+		for (Double latency : latencies) {
+			latencySum+= latency;
+			maximumLatency= Math.max(maximumLatency, latency);
+		}
+
+		double[] utilization= new double[stageCount];
+		double[] averageOccupancy= new double[stageCount];
+		int bottleneck= 0;
+		for (int stageNumber= 0; stageNumber < stageCount; stageNumber++) {
+			utilization[stageNumber]= makespan > 0 ? busyTime[stageNumber] / (workers.get(stageNumber) * makespan) : 0;
+			averageOccupancy[stageNumber]= makespan > 0 ? occupancyArea[stageNumber] / makespan : 0;
+			if (utilization[stageNumber] > utilization[bottleneck]) {
+				bottleneck= stageNumber;
+			}
+		}
+
+		return new SimulationResult(numberOfItems, makespan, sequentialTime, throughput, latencySum / latencies.size(), maximumLatency, new ArrayList<Integer>(workers), utilization, averageOccupancy,
+				maximumOccupancy.clone(), bottleneck);
+	}
+}
@@ -0,0 +1,145 @@
+package edu.illinois.jflow.wala.simulator;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.List;
+
+/**
+ * What PipelineSimulator predicts for one configuration of the pipeline. Stages are numbered as in
+ * PDGPartitionerChecker, i.e., 0 is the generator.
+ *
+ * @author nchen
+ *
+ */
+public class SimulationResult {
+
+	private final int numberOfItems;
+
+	private final double makespan;
+
+	private final double sequentialTime;
+
+	private final double throughput;
+
+	private final double averageLatency;
+
+	private final double maximumLatency;
+
+	private final List<Integer> workers;
+
+	private final double[] utilization;
+
+	private final double[] averageOccupancy;
+
+	private final int[] maximumOccupancy;
+
+	private final int bottleneck;
+
+	SimulationResult(int numberOfItems, double makespan, double sequentialTime, double throughput, double averageLatency, double maximumLatency, List<Integer> workers, double[] utilization,
+			double[] averageOccupancy, int[] maximumOccupancy, int bottleneck) {
+		this.numberOfItems= numberOfItems;
+		this.makespan= makespan;
+		this.sequentialTime= sequentialTime;
+		this.throughput= throughput;
+		this.averageLatency= averageLatency;
+		this.maximumLatency= maximumLatency;
+		this.workers= workers;
+		this.utilization= utilization;
+		this.averageOccupancy= averageOccupancy;
+		this.maximumOccupancy= maximumOccupancy;
+		this.bottleneck= bottleneck;
+	}
+
+	public int getNumberOfItems() {
+		return numberOfItems;
+	}
+
+	/**
+	 * @return the time until the last item leaves the pipeline
+	 */
+	public double getMakespan() {
+		return makespan;
+	}
+
+	/**
+	 * @return how many times faster than running all the stages one after the other, ignoring the
+	 *         cost of passing values
+	 */
+	public double getSpeedup() {
+		return makespan > 0 ? sequentialTime / makespan : 1.0;
+	}
+
+	/**
+	 * @return the number of items leaving the pipeline per unit of time once it is full
+	 */
+	public double getThroughput() {
+		return throughput;
+	}
+
+	/**
+	 * @return the time from the generator starting on an item to the last stage finishing it
+	 */
+	public double getAverageLatency() {
+		return averageLatency;
+	}
+
+	public double getMaximumLatency() {
+		return maximumLatency;
+	}
+
+	public int getNumberOfStages() {
+		return utilization.length;
+	}
+
+	/**
+	 * @return the fraction of time the workers of the stage spent working, as opposed to waiting
+	 *         for items or for room in the next channel
+	 */
+	public double getUtilization(int stageNumber) {
+		return utilization[stageNumber];
+	}
+
+	/**
+	 * @return the time-weighted average number of items waiting in the channel before the stage
+	 */
+	public double getAverageOccupancy(int stageNumber) {
+		return averageOccupancy[stageNumber];
+	}
+
+	public int getMaximumOccupancy(int stageNumber) {
+		return maximumOccupancy[stageNumber];
+	}
+
+	/**
+	 * @return the stage with the highest utilization, the one to split or replicate next
+	 */
+	public int getBottleneck() {
+		return bottleneck;
+	}
+
+	public void write(PrintWriter writer) {
+		writer.println(String.format("Items: %d, makespan %.1f, speedup %.2f", numberOfItems, makespan, getSpeedup()));
+		writer.println(String.format("Throughput: %.4f items per unit of time", throughput));
+		writer.println(String.format("Latency: average %.1f, maximum %.1f", averageLatency, maximumLatency));
+		for (int stageNumber= 0; stageNumber < utilization.length; stageNumber++) {
+			String name= stageNumber == 0 ? "Generator" : String.format("Stage%d", stageNumber);
+			StringBuilder line= new StringBuilder();
+			line.append(String.format("%s: %d worker(s), utilization %.0f%%", name, workers.get(stageNumber), utilization[stageNumber] * 100));
+			if (stageNumber > 0) {
+				line.append(String.format(", queue average %.1f, maximum %d", averageOccupancy[stageNumber], maximumOccupancy[stageNumber]));
+			}
+			if (stageNumber == bottleneck) {
+				line.append(" (bottleneck)");
+			}
+			writer.println(line);
+		}
+		writer.flush();
+	}
+
+	@Override
+	public String toString() {
+		StringWriter out= new StringWriter();
+		write(new PrintWriter(out));
+		return out.toString();
+	}
+}
@@ -17,15 +17,19 @@ import com.ibm.wala.ide.util.EclipseFileProvider;
 import com.ibm.wala.ipa.callgraph.AnalysisCache;
 import com.ibm.wala.ipa.callgraph.AnalysisOptions;
 import com.ibm.wala.ipa.callgraph.AnalysisScope;
+import com.ibm.wala.ipa.callgraph.CallGraph;
 import com.ibm.wala.ipa.callgraph.CallGraphBuilder;
 import com.ibm.wala.ipa.callgraph.Entrypoint;
 import com.ibm.wala.ipa.callgraph.MethodTargetSelector;
 import com.ibm.wala.ipa.callgraph.impl.Util;
+import com.ibm.wala.ipa.callgraph.propagation.PointerAnalysis;
 import com.ibm.wala.ipa.cha.IClassHierarchy;
 import com.ibm.wala.ipa.summaries.BypassMethodTargetSelector;
 import com.ibm.wala.ipa.summaries.MethodSummary;
 import com.ibm.wala.types.MemberReference;
 import com.ibm.wala.types.MethodReference;
+import com.ibm.wala.util.CancelException;
+import com.ibm.wala.util.MonitorUtil.IProgressMonitor;
 import com.ibm.wala.util.config.FileOfClasses;
 import com.ibm.wala.util.strings.Atom;
 
@@ -39,10 +43,39 @@ import edu.illinois.jflow.wala.pointeranalysis.AnalysisUtils;
  */
 public class EclipseProjectAnalysisEngine extends JDTJavaSourceAnalysisEngine {
 
+	private PointerAnalysis monitoredPointerAnalysis;
+
 	public EclipseProjectAnalysisEngine(IJavaProject project) throws IOException, CoreException {
 		super(project);
 	}
 
+	/**
+	 * Same as {@link #buildDefaultCallGraph()} but reports progress to the monitor. The propagation
+	 * checks the monitor regularly and aborts with a {@link CancelException} once it is canceled so
+	 * long running builds can be stopped from the UI.
+	 * 
+	 * @param monitor the WALA monitor, use ProgressMonitorDelegate to wrap an Eclipse monitor
+	 * @return the call graph
+	 */
+	public CallGraph buildDefaultCallGraph(IProgressMonitor monitor) throws IOException, CancelException {
+		buildAnalysisScope();
+		IClassHierarchy cha= buildClassHierarchy();
+		setClassHierarchy(cha);
+		AnalysisOptions options= getDefaultOptions(makeDefaultEntrypoints(scope, cha));
+		CallGraphBuilder builder= getCallGraphBuilder(cha, options, makeDefaultCache());
+		CallGraph callGraph= builder.makeCallGraph(options, monitor);
+		monitoredPointerAnalysis= builder.getPointerAnalysis();
+		return callGraph;
+	}
+
+	@Override
+	public PointerAnalysis getPointerAnalysis() {
+		if (monitoredPointerAnalysis != null) {
+			return monitoredPointerAnalysis;
+		}
+		return super.getPointerAnalysis();
+	}
+
 	private String retrieveExclusionFile() throws IOException {
 		return new EclipseFileProvider().getFileFromPlugin(Activator.getDefault(), "EclipseDefaultExclusions.txt").getAbsolutePath();
 	}
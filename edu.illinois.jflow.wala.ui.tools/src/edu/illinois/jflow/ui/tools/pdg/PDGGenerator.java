@@ -27,19 +27,25 @@ public class PDGGenerator {
 
 	public static ProgramDependenceGraph makePDGForSelectedMethodInEditor(JavaEditor javaEditor, ICompilationUnit inputAsCompilationUnit, IJavaProject javaProject) throws IOException, CoreException,
 			InvalidClassFileException {
-		AbstractAnalysisEngine engine= new EclipseProjectAnalysisEngine(javaProject);
-		engine.buildAnalysisScope();
-		IClassHierarchy classHierarchy= engine.buildClassHierarchy();
-		AnalysisOptions options= new AnalysisOptions();
-		AnalysisCache cache= engine.makeDefaultCache();
-
 		MethodReference method= JavaEditorUtil.findSelectedMethodDeclaration(javaEditor, inputAsCompilationUnit);
+		IDocument document= javaEditor.getDocumentProvider().getDocument(javaEditor.getEditorInput());
+		return makePDGForMethod(javaProject, method, document);
+	}
 
+	/**
+	 * Does not touch the editor so it is safe to call from a background job.
+	 */
+	public static ProgramDependenceGraph makePDGForMethod(IJavaProject javaProject, MethodReference method, IDocument document) throws IOException, CoreException, InvalidClassFileException {
 		if (method != null) {
+			AbstractAnalysisEngine engine= new EclipseProjectAnalysisEngine(javaProject);
+			engine.buildAnalysisScope();
+			IClassHierarchy classHierarchy= engine.buildClassHierarchy();
+			AnalysisOptions options= new AnalysisOptions();
+			AnalysisCache cache= engine.makeDefaultCache();
+
 			IMethod resolvedMethod= classHierarchy.resolveMethod(method);
 			if (resolvedMethod != null) {
-				IDocument document= javaEditor.getDocumentProvider().getDocument(javaEditor.getEditorInput());
-				return buildPDGFromIMethod(options, classHierarchy,cache, resolvedMethod, document);
+				return buildPDGFromIMethod(options, classHierarchy, cache, resolvedMethod, document);
 			}
 		}
 		return null;
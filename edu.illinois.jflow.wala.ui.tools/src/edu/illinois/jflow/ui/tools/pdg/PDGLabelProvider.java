@@ -14,6 +14,7 @@ import edu.illinois.jflow.jflow.wala.dataflowanalysis.MethodParameter;
 import edu.illinois.jflow.jflow.wala.dataflowanalysis.PDGNode;
 import edu.illinois.jflow.jflow.wala.dataflowanalysis.ProgramDependenceGraph;
 import edu.illinois.jflow.jflow.wala.dataflowanalysis.Statement;
+import edu.illinois.jflow.wala.ui.tools.graph.view.GraphSlice.NodeCluster;
 
 public class PDGLabelProvider extends LabelProvider implements IEntityStyleProvider {
 
@@ -25,6 +26,9 @@ public class PDGLabelProvider extends LabelProvider implements IEntityStyleProvi
 
 	@Override
 	public String getText(Object element) {
+		if (element instanceof NodeCluster) {
+			return element.toString();
+		}
 		if (element instanceof Statement) {
 			StringBuilder sb= new StringBuilder();
 			Statement statement= (Statement)element;
@@ -39,6 +43,10 @@ public class PDGLabelProvider extends LabelProvider implements IEntityStyleProvi
 		}
 		if (element instanceof EntityConnectionData) {
 			EntityConnectionData data= (EntityConnectionData)element;
+			if (!(data.source instanceof PDGNode) || !(data.dest instanceof PDGNode)) {
+				// Edges into or out of a collapsed component stand for several dependencies
+				return "";
+			}
 			PDGNode source= (PDGNode)data.source;
 			PDGNode dest= (PDGNode)data.dest;
 
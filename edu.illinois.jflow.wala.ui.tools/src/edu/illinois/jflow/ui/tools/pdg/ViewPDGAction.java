@@ -1,8 +1,9 @@
 package edu.illinois.jflow.ui.tools.pdg;
 
-import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
-import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.jdt.core.ICompilationUnit;
 import org.eclipse.jdt.core.IJavaProject;
 import org.eclipse.jdt.internal.ui.actions.SelectionConverter;
@@ -10,10 +11,13 @@ import org.eclipse.jdt.internal.ui.javaeditor.JavaEditor;
 import org.eclipse.jface.action.Action;
 import org.eclipse.jface.text.IDocument;
 
-import com.ibm.wala.shrikeCT.InvalidClassFileException;
+import com.ibm.wala.types.MethodReference;
 
+import edu.illinois.jflow.jflow.wala.dataflowanalysis.PDGNode;
 import edu.illinois.jflow.jflow.wala.dataflowanalysis.ProgramDependenceGraph;
 import edu.illinois.jflow.wala.ui.tools.graph.jdt.util.JavaEditorUtil;
+import edu.illinois.jflow.wala.ui.tools.graph.view.GraphAnalysisJob;
+import edu.illinois.jflow.wala.ui.tools.graph.view.GraphSlice;
 
 @SuppressWarnings("restriction")
 public class ViewPDGAction extends Action {
@@ -30,21 +34,62 @@ public class ViewPDGAction extends Action {
 		if (javaEditor != null) {
 			ICompilationUnit inputAsCompilationUnit= SelectionConverter.getInputAsCompilationUnit(javaEditor);
 			IJavaProject javaProject= inputAsCompilationUnit.getJavaProject();
-			try {
-				ProgramDependenceGraph graph= PDGGenerator.makePDGForSelectedMethodInEditor(javaEditor, inputAsCompilationUnit, javaProject);
-				IDocument document= javaEditor.getDocumentProvider().getDocument(javaEditor.getEditorInput());
-				view.setDocument(document);
-				view.setPDG(graph);
-				view.updateGraph(graph);
-			} catch (IOException e) {
-				e.printStackTrace();
-			} catch (CoreException e) {
-				e.printStackTrace();
-			} catch (InvalidClassFileException e) {
-				e.printStackTrace();
+			MethodReference method= JavaEditorUtil.findSelectedMethodDeclaration(javaEditor, inputAsCompilationUnit);
+			IDocument document= javaEditor.getDocumentProvider().getDocument(javaEditor.getEditorInput());
+			if (method != null) {
+				new ViewPDGJob(view, javaProject, method, document).scheduleCoalesced();
 			}
+		}
+
+	}
+
+	static class PDGResult {
+		ProgramDependenceGraph pdg;
+
+		GraphSlice slice;
+	}
+
+	static class ViewPDGJob extends GraphAnalysisJob<PDGResult> {
+
+		private final IJavaProject javaProject;
 
+		private final MethodReference method;
+
+		private final IDocument document;
+
+		ViewPDGJob(PDGView view, IJavaProject javaProject, MethodReference method, IDocument document) {
+			super("Generating PDG for " + method.getName(), view);
+			this.javaProject= javaProject;
+			this.method= method;
+			this.document= document;
 		}
 
+		@Override
+		protected PDGResult analyze(IProgressMonitor monitor) throws Exception {
+			monitor.beginTask(getName(), IProgressMonitor.UNKNOWN);
+			ProgramDependenceGraph pdg= PDGGenerator.makePDGForMethod(javaProject, method, document);
+			if (pdg == null) {
+				return null;
+			}
+			// Method parameters and statements without incoming dependencies are the natural starting points
+			List<PDGNode> roots= new ArrayList<PDGNode>();
+			for (PDGNode node : pdg) {
+				if (pdg.getPredNodeCount(node) == 0) {
+					roots.add(node);
+				}
+			}
+			PDGResult result= new PDGResult();
+			result.pdg= pdg;
+			result.slice= GraphSlice.make(pdg, roots, GraphSlice.DEFAULT_NODE_BUDGET);
+			return result;
+		}
+
+		@Override
+		protected void publish(PDGResult result) {
+			PDGView pdgView= (PDGView)view;
+			pdgView.setDocument(document);
+			pdgView.setPDG(result.pdg);
+			pdgView.updateSlice(result.slice);
+		}
 	}
 }
@@ -1,11 +1,10 @@
 package edu.illinois.jflow.wala.ui.tools.pdg;
 
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
 
-import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.jdt.core.ICompilationUnit;
 import org.eclipse.jdt.core.IJavaProject;
 import org.eclipse.jdt.internal.ui.actions.SelectionConverter;
@@ -13,10 +12,8 @@ import org.eclipse.jdt.internal.ui.javaeditor.JavaEditor;
 import org.eclipse.jface.action.Action;
 
 import com.ibm.wala.cast.java.loader.JavaSourceLoaderImpl;
-import com.ibm.wala.client.AbstractAnalysisEngine;
 import com.ibm.wala.ipa.callgraph.CGNode;
 import com.ibm.wala.ipa.callgraph.CallGraph;
-import com.ibm.wala.ipa.callgraph.CallGraphBuilder;
 import com.ibm.wala.ipa.slicer.MethodEntryStatement;
 import com.ibm.wala.ipa.slicer.MethodExitStatement;
 import com.ibm.wala.ipa.slicer.PDG;
@@ -25,13 +22,14 @@ import com.ibm.wala.ipa.slicer.Slicer.ControlDependenceOptions;
 import com.ibm.wala.ipa.slicer.Slicer.DataDependenceOptions;
 import com.ibm.wala.ipa.slicer.Statement;
 import com.ibm.wala.types.MethodReference;
-import com.ibm.wala.util.CancelException;
 import com.ibm.wala.util.Predicate;
 import com.ibm.wala.util.graph.Graph;
 import com.ibm.wala.util.graph.GraphSlicer;
 
 import edu.illinois.jflow.wala.modref.JFlowModRef;
 import edu.illinois.jflow.wala.ui.tools.graph.jdt.util.JavaEditorUtil;
+import edu.illinois.jflow.wala.ui.tools.graph.view.GraphAnalysisJob;
+import edu.illinois.jflow.wala.ui.tools.graph.view.GraphSlice;
 import edu.illinois.jflow.wala.ui.tools.graph.view.WalaGraphView;
 import edu.illinois.jflow.wala.utils.EclipseProjectAnalysisEngine;
 
@@ -50,50 +48,69 @@ public class GeneratePDG extends Action {
 		if (javaEditor != null) {
 			ICompilationUnit inputAsCompilationUnit= SelectionConverter.getInputAsCompilationUnit(javaEditor);
 			IJavaProject javaProject= inputAsCompilationUnit.getJavaProject();
-			try {
-				AbstractAnalysisEngine engine= new EclipseProjectAnalysisEngine(javaProject);
-				CallGraphBuilder builder= engine.defaultCallGraphBuilder();
-				CallGraph callGraph= engine.buildDefaultCallGraph();
-				MethodReference method= JavaEditorUtil.findSelectedMethodDeclaration(javaEditor, inputAsCompilationUnit);
-				if (method != null) {
-					final SDG sdg= new SDG(callGraph, builder.getPointerAnalysis(), new JFlowModRef(), DataDependenceOptions.NO_EXCEPTIONS, ControlDependenceOptions.NONE);
-					Set<CGNode> nodes= callGraph.getNodes(method);
-					if (!nodes.isEmpty()) {
-						// Take the first one for now
-						List<CGNode> list= new ArrayList<CGNode>(nodes);
-						CGNode node= list.get(0);
-						PDG pdg= sdg.getPDG(node);
-						System.err.println("Unpruned PDG number of nodes: " + pdg.getNumberOfNodes());
-						Graph<Statement> prunedPDG= GraphSlicer.prune(pdg, new Predicate<Statement>() {
-
-							@Override
-							public boolean test(Statement node) {
-								if (node.getNode().getMethod().getDeclaringClass().getClassLoader() instanceof JavaSourceLoaderImpl) {
-									if (node.getNode().equals(sdg.getCallGraph().getFakeRootNode())) {
-										return false;
-									} else if (node instanceof MethodExitStatement || node instanceof MethodEntryStatement) {
-										return false;
-									} else {
-										return true;
-									}
-								}
-								return false;
-							}
-						});
-						System.err.println("Pruned PDG number of nodes: " + prunedPDG.getNumberOfNodes());
-						view.updateGraph(prunedPDG);
+			MethodReference method= JavaEditorUtil.findSelectedMethodDeclaration(javaEditor, inputAsCompilationUnit);
+			if (method != null) {
+				new GeneratePDGJob(view, javaProject, method).scheduleCoalesced();
+			}
+		}
+	}
+
+	static class GeneratePDGJob extends GraphAnalysisJob<GraphSlice> {
+
+		private final IJavaProject javaProject;
+
+		private final MethodReference method;
+
+		GeneratePDGJob(WalaGraphView view, IJavaProject javaProject, MethodReference method) {
+			super("Generating SDG-based PDG for " + method.getName(), view);
+			this.javaProject= javaProject;
+			this.method= method;
+		}
+
+		@Override
+		protected GraphSlice analyze(IProgressMonitor monitor) throws Exception {
+			EclipseProjectAnalysisEngine engine= new EclipseProjectAnalysisEngine(javaProject);
+			CallGraph callGraph= engine.buildDefaultCallGraph(toWalaMonitor(monitor));
+			checkCanceled(monitor);
+			final SDG sdg= new SDG(callGraph, engine.getPointerAnalysis(), new JFlowModRef(), DataDependenceOptions.NO_EXCEPTIONS, ControlDependenceOptions.NONE);
+			Set<CGNode> nodes= callGraph.getNodes(method);
+			if (nodes.isEmpty()) {
+				return null;
+			}
+			// Take the first one for now
+			List<CGNode> list= new ArrayList<CGNode>(nodes);
+			CGNode node= list.get(0);
+			PDG pdg= sdg.getPDG(node);
+			System.err.println("Unpruned PDG number of nodes: " + pdg.getNumberOfNodes());
+			Graph<Statement> prunedPDG= GraphSlicer.prune(pdg, new Predicate<Statement>() {
+
+				@Override
+				public boolean test(Statement node) {
+					if (node.getNode().getMethod().getDeclaringClass().getClassLoader() instanceof JavaSourceLoaderImpl) {
+						if (node.getNode().equals(sdg.getCallGraph().getFakeRootNode())) {
+							return false;
+						} else if (node instanceof MethodExitStatement || node instanceof MethodEntryStatement) {
+							return false;
+						} else {
+							return true;
+						}
 					}
+					return false;
+				}
+			});
+			System.err.println("Pruned PDG number of nodes: " + prunedPDG.getNumberOfNodes());
+			List<Statement> roots= new ArrayList<Statement>();
+			for (Statement statement : prunedPDG) {
+				if (prunedPDG.getPredNodeCount(statement) == 0) {
+					roots.add(statement);
 				}
-			} catch (IllegalArgumentException e) {
-				e.printStackTrace();
-			} catch (CancelException e) {
-				e.printStackTrace();
-			} catch (IOException e) {
-				e.printStackTrace();
-			} catch (CoreException e) {
-				e.printStackTrace();
 			}
+			return GraphSlice.make(prunedPDG, roots, GraphSlice.DEFAULT_NODE_BUDGET);
+		}
 
+		@Override
+		protected void publish(GraphSlice result) {
+			view.updateSlice(result);
 		}
 	}
 
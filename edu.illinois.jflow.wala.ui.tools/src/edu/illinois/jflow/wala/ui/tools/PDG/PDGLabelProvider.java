@@ -11,6 +11,8 @@ import com.ibm.wala.ipa.callgraph.CGNode;
 import com.ibm.wala.ipa.slicer.Statement;
 import com.ibm.wala.ipa.slicer.StatementWithInstructionIndex;
 
+import edu.illinois.jflow.wala.ui.tools.graph.view.GraphSlice.NodeCluster;
+
 public class PDGLabelProvider extends LabelProvider implements IEntityStyleProvider {
 
 	private final PDGView pdgView;
@@ -21,6 +23,9 @@ public class PDGLabelProvider extends LabelProvider implements IEntityStyleProvi
 
 	@Override
 	public String getText(Object element) {
+		if (element instanceof NodeCluster) {
+			return element.toString();
+		}
 		// Do it in this order, prefer StatementWithInstruction when possible
 		if (element instanceof StatementWithInstructionIndex) {
 			StatementWithInstructionIndex statement= (StatementWithInstructionIndex)element;
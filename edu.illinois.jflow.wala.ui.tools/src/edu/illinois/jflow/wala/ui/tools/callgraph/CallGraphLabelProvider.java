@@ -8,11 +8,24 @@ import org.eclipse.zest.core.viewers.EntityConnectionData;
 import org.eclipse.zest.core.viewers.IEntityStyleProvider;
 
 import com.ibm.wala.ipa.callgraph.CGNode;
+import com.ibm.wala.types.MethodReference;
+
+import edu.illinois.jflow.wala.modref.PurityAnalysis;
+import edu.illinois.jflow.wala.ui.tools.graph.view.GraphSlice.NodeCluster;
 
 public class CallGraphLabelProvider extends LabelProvider implements IEntityStyleProvider {
 
+	private final CallGraphView view;
+
+	public CallGraphLabelProvider(CallGraphView view) {
+		this.view= view;
+	}
+
 	@Override
 	public String getText(Object element) {
+		if (element instanceof NodeCluster) {
+			return element.toString();
+		}
 		if (element instanceof CGNode) {
 			CGNode node= (CGNode)element;
 			StringBuilder sb= new StringBuilder("Method: " + node.getMethod().toString() + "\n");
@@ -30,6 +43,14 @@ public class CallGraphLabelProvider extends LabelProvider implements IEntityStyl
 			CGNode node= (CGNode)entity;
 			StringBuilder sb= new StringBuilder();
 			sb.append("Context: " + node.getContext().toString());
+			PurityAnalysis purityAnalysis= view.getPurityAnalysis();
+			if (purityAnalysis != null) {
+				MethodReference method= node.getMethod().getReference();
+				sb.append("\nSide effects: " + purityAnalysis.getPurity(method));
+				if (!purityAnalysis.getUnanalyzedCallees(method).isEmpty()) {
+					sb.append("\nUnanalyzed callees: " + purityAnalysis.getUnanalyzedCallees(method).size());
+				}
+			}
 			return new Label(sb.toString());
 		}
 		return null;
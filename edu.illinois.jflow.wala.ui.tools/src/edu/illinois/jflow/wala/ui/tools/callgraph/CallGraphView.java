@@ -6,6 +6,7 @@ import org.eclipse.jface.viewers.IStructuredContentProvider;
 import org.eclipse.jface.viewers.LabelProvider;
 import org.eclipse.zest.core.viewers.ZoomContributionViewItem;
 
+import edu.illinois.jflow.wala.modref.PurityAnalysis;
 import edu.illinois.jflow.wala.ui.tools.graph.view.WalaGraphView;
 
 
@@ -13,9 +14,23 @@ public class CallGraphView extends WalaGraphView {
 
 	public static final String CallGraphViewID= "edu.illinois.jflow.wala.ui.tools.callgraph.CallGraphView";
 
+	private PurityAnalysis purityAnalysis;
+
 	@Override
 	protected LabelProvider getLabelProvider() {
-		return new CallGraphLabelProvider();
+		return new CallGraphLabelProvider(this);
+	}
+
+	/**
+	 * @return the side effects of the methods in the current call graph, null until one has been
+	 *         generated
+	 */
+	public PurityAnalysis getPurityAnalysis() {
+		return purityAnalysis;
+	}
+
+	public void setPurityAnalysis(PurityAnalysis purityAnalysis) {
+		this.purityAnalysis= purityAnalysis;
 	}
 
 	@Override
@@ -1,8 +1,11 @@
 package edu.illinois.jflow.wala.ui.tools.callgraph;
 
-import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
 
-import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.jdt.core.ICompilationUnit;
 import org.eclipse.jdt.core.IJavaProject;
 import org.eclipse.jdt.internal.ui.actions.SelectionConverter;
@@ -10,23 +13,28 @@ import org.eclipse.jdt.internal.ui.javaeditor.JavaEditor;
 import org.eclipse.jface.action.Action;
 
 import com.ibm.wala.cast.java.loader.JavaSourceLoaderImpl;
-import com.ibm.wala.client.AbstractAnalysisEngine;
 import com.ibm.wala.ipa.callgraph.CGNode;
-import com.ibm.wala.util.CancelException;
+import com.ibm.wala.ipa.callgraph.CallGraph;
+import com.ibm.wala.ipa.slicer.HeapExclusions;
+import com.ibm.wala.types.MethodReference;
 import com.ibm.wala.util.Predicate;
+import com.ibm.wala.util.config.FileOfClasses;
 import com.ibm.wala.util.graph.Graph;
 import com.ibm.wala.util.graph.GraphSlicer;
 
+import edu.illinois.jflow.jflow.wala.dataflowanalysis.PDGPartitionerChecker;
+import edu.illinois.jflow.wala.modref.PurityAnalysis;
 import edu.illinois.jflow.wala.ui.tools.graph.jdt.util.JavaEditorUtil;
-import edu.illinois.jflow.wala.ui.tools.graph.view.WalaGraphView;
+import edu.illinois.jflow.wala.ui.tools.graph.view.GraphAnalysisJob;
+import edu.illinois.jflow.wala.ui.tools.graph.view.GraphSlice;
 import edu.illinois.jflow.wala.utils.EclipseProjectAnalysisEngine;
 
 @SuppressWarnings("restriction")
 public class GenerateCallGraph extends Action {
 
-	private final WalaGraphView view;
+	private final CallGraphView view;
 
-	public GenerateCallGraph(WalaGraphView view) {
+	public GenerateCallGraph(CallGraphView view) {
 		this.view= view;
 	}
 
@@ -37,26 +45,71 @@ public class GenerateCallGraph extends Action {
 		if (javaEditor != null) {
 			ICompilationUnit inputAsCompilationUnit= SelectionConverter.getInputAsCompilationUnit(javaEditor);
 			IJavaProject javaProject= inputAsCompilationUnit.getJavaProject();
-			try {
-				AbstractAnalysisEngine engine= new EclipseProjectAnalysisEngine(javaProject);
-				Graph<CGNode> callGraph= engine.buildDefaultCallGraph();
-				Graph<CGNode> prunedGraph= GraphSlicer.prune(callGraph, new Predicate<CGNode>() {
-
-					@Override
-					public boolean test(CGNode node) {
-						return node.getMethod().getDeclaringClass().getClassLoader() instanceof JavaSourceLoaderImpl;
-					}
-				});
-				view.updateGraph(prunedGraph);
-			} catch (IllegalArgumentException e) {
-				e.printStackTrace();
-			} catch (CancelException e) {
-				e.printStackTrace();
-			} catch (IOException e) {
-				e.printStackTrace();
-			} catch (CoreException e) {
-				e.printStackTrace();
+			MethodReference focus= JavaEditorUtil.findSelectedMethodDeclaration(javaEditor, inputAsCompilationUnit);
+			new GenerateCallGraphJob(view, javaProject, focus).scheduleCoalesced();
+		}
+	}
+
+	static class GenerateCallGraphJob extends GraphAnalysisJob<GraphSlice> {
+
+		private final IJavaProject javaProject;
+
+		private final MethodReference focus;
+
+		private final CallGraphView callGraphView;
+
+		private PurityAnalysis purityAnalysis;
+
+		GenerateCallGraphJob(CallGraphView view, IJavaProject javaProject, MethodReference focus) {
+			super("Generating call graph for " + javaProject.getElementName(), view);
+			this.javaProject= javaProject;
+			this.focus= focus;
+			this.callGraphView= view;
+		}
+
+		@Override
+		protected GraphSlice analyze(IProgressMonitor monitor) throws Exception {
+			EclipseProjectAnalysisEngine engine= new EclipseProjectAnalysisEngine(javaProject);
+			CallGraph callGraph= engine.buildDefaultCallGraph(toWalaMonitor(monitor));
+			checkCanceled(monitor);
+			Graph<CGNode> prunedGraph= GraphSlicer.prune(callGraph, new Predicate<CGNode>() {
+
+				@Override
+				public boolean test(CGNode node) {
+					return node.getMethod().getDeclaringClass().getClassLoader() instanceof JavaSourceLoaderImpl;
+				}
+			});
+			checkCanceled(monitor);
+			// Shown in the tooltips of the nodes
+			purityAnalysis= PurityAnalysis.make(callGraph, engine.getPointerAnalysis(), new HeapExclusions(new FileOfClasses(PDGPartitionerChecker.exclusionsRegex)));
+			checkCanceled(monitor);
+			return GraphSlice.make(prunedGraph, focusNodes(callGraph, prunedGraph), GraphSlice.DEFAULT_NODE_BUDGET);
+		}
+
+		/*
+		 * Start from the method under the cursor, or from the entrypoints when there is none
+		 */
+		private Collection<CGNode> focusNodes(CallGraph callGraph, Graph<CGNode> prunedGraph) {
+			Set<CGNode> result= new HashSet<CGNode>();
+			Collection<CGNode> candidates= new ArrayList<CGNode>();
+			if (focus != null) {
+				candidates= callGraph.getNodes(focus);
 			}
+			if (candidates.isEmpty()) {
+				candidates= callGraph.getEntrypointNodes();
+			}
+			for (CGNode node : candidates) {
+				if (prunedGraph.containsNode(node)) {
+					result.add(node);
+				}
+			}
+			return result;
+		}
+
+		@Override
+		protected void publish(GraphSlice result) {
+			callGraphView.setPurityAnalysis(purityAnalysis);
+			view.updateSlice(result);
 		}
 	}
 
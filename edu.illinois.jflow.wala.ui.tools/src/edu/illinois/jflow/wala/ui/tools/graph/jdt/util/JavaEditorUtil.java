@@ -39,6 +39,9 @@ public class JavaEditorUtil {
 
 		// 3) From the selected node, get the closest MethodDeclaration
 		MethodDeclaration methodDeclaration= (MethodDeclaration)ASTNodes.getParent(coveringNode, MethodDeclaration.class);
+		if (methodDeclaration == null) {
+			return null;
+		}
 		JDTIdentityMapper mapper= new JDTIdentityMapper(JavaSourceAnalysisScope.SOURCE, ast.getAST());
 		return mapper.getMethodRef(methodDeclaration.resolveBinding());
 
@@ -0,0 +1,118 @@
+package edu.illinois.jflow.wala.ui.tools.graph.view;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.ISchedulingRule;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.swt.widgets.Display;
+
+import com.ibm.wala.ide.util.ProgressMonitorDelegate;
+import com.ibm.wala.util.CancelException;
+
+import edu.illinois.jflow.wala.ui.tools.Activator;
+
+/**
+ * Runs a (potentially very long) WALA analysis off the UI thread and hands the result back to its
+ * view on the UI thread.
+ *
+ * Jobs belong to the family of their view. Scheduling a new job for a view cancels whatever job is
+ * still pending or running for it so that repeated clicks on the toolbar coalesce into the last
+ * request. Jobs for the same view also share a scheduling rule so at most one of them runs at a
+ * time.
+ *
+ * @param <T> the result of the analysis
+ */
+public abstract class GraphAnalysisJob<T> extends Job {
+
+	protected final WalaGraphView view;
+
+	public GraphAnalysisJob(String name, WalaGraphView view) {
+		super(name);
+		this.view= view;
+		setUser(true);
+		setRule(view.getAnalysisRule());
+	}
+
+	/**
+	 * Cancels the jobs that are already queued up for the view and schedules this one in their place.
+	 */
+	public void scheduleCoalesced() {
+		Job.getJobManager().cancel(view);
+		schedule();
+	}
+
+	@Override
+	public boolean belongsTo(Object family) {
+		return family == view;
+	}
+
+	@Override
+	protected IStatus run(IProgressMonitor monitor) {
+		try {
+			final T result= analyze(monitor);
+			if (monitor.isCanceled()) {
+				return Status.CANCEL_STATUS;
+			}
+			if (result != null) {
+				Display.getDefault().asyncExec(new Runnable() {
+
+					@Override
+					public void run() {
+						// The view might have been closed while we were computing
+						if (!view.isDisposed()) {
+							publish(result);
+						}
+					}
+				});
+			}
+			return Status.OK_STATUS;
+		} catch (CancelException e) {
+			return Status.CANCEL_STATUS;
+		} catch (OperationCanceledException e) {
+			return Status.CANCEL_STATUS;
+		} catch (Exception e) {
+			return new Status(IStatus.ERROR, Activator.PLUGIN_ID, getName(), e);
+		} finally {
+			monitor.done();
+		}
+	}
+
+	/**
+	 * Wraps the Eclipse monitor so that it can be passed into WALA, e.g., when building call graphs.
+	 * Canceling the job then surfaces as a {@link CancelException} from WALA.
+	 */
+	protected com.ibm.wala.util.MonitorUtil.IProgressMonitor toWalaMonitor(IProgressMonitor monitor) {
+		return ProgressMonitorDelegate.createProgressMonitorDelegate(monitor);
+	}
+
+	protected void checkCanceled(IProgressMonitor monitor) {
+		if (monitor.isCanceled()) {
+			throw new OperationCanceledException();
+		}
+	}
+
+	/**
+	 * Computes the result. Called from a worker thread, so this must not touch any widgets.
+	 */
+	protected abstract T analyze(IProgressMonitor monitor) throws Exception;
+
+	/**
+	 * Pushes the result into the view. Called on the UI thread.
+	 */
+	protected abstract void publish(T result);
+
+	static class ViewRule implements ISchedulingRule {
+
+		@Override
+		public boolean contains(ISchedulingRule rule) {
+			return rule == this;
+		}
+
+		@Override
+		public boolean isConflicting(ISchedulingRule rule) {
+			return rule == this;
+		}
+	}
+}
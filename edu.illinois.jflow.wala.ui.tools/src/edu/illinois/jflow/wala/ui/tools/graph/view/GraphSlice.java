@@ -0,0 +1,268 @@
+package edu.illinois.jflow.wala.ui.tools.graph.view;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.ibm.wala.util.graph.Graph;
+import com.ibm.wala.util.graph.traverse.SCCIterator;
+
+/**
+ * A bounded window into a (potentially huge) graph. Only the nodes around the focus are visible at
+ * first; more are revealed on demand with {@link #expand(Object)}. Strongly connected components
+ * that are larger than {@link #CLUSTER_THRESHOLD} are shown as a single {@link NodeCluster} until
+ * the cluster itself is expanded.
+ *
+ * Slices are immutable: expanding returns a new slice that shares the underlying graph and
+ * clustering. This lets the expensive work (the SCC computation, the neighbour search and the
+ * layout) happen on a worker thread while the viewer keeps rendering the previous slice.
+ *
+ * Node positions are computed here as well, layered by distance from the focus. Nodes keep their
+ * positions across expansions so the picture does not jump around.
+ */
+public class GraphSlice {
+
+	public static final int DEFAULT_NODE_BUDGET= 150;
+
+	public static final int EXPANSION_BUDGET= 50;
+
+	public static final int CLUSTER_THRESHOLD= 10;
+
+	private static final int HORIZONTAL_SPACING= 250;
+
+	private static final int VERTICAL_SPACING= 90;
+
+	private final Graph<Object> graph;
+
+	private final Map<Object, NodeCluster> node2Cluster;
+
+	private final Set<NodeCluster> openedClusters;
+
+	private final Set<Object> visible;
+
+	private final Map<Object, int[]> locations;
+
+	private final Map<Integer, Integer> layerSizes;
+
+	private GraphSlice(Graph<Object> graph, Map<Object, NodeCluster> node2Cluster, Set<NodeCluster> openedClusters, Set<Object> visible, Map<Object, int[]> locations,
+			Map<Integer, Integer> layerSizes) {
+		this.graph= graph;
+		this.node2Cluster= node2Cluster;
+		this.openedClusters= openedClusters;
+		this.visible= visible;
+		this.locations= locations;
+		this.layerSizes= layerSizes;
+	}
+
+	/**
+	 * Computes the clustering of the graph and the initial window around the focus nodes. This
+	 * traverses the whole graph once, so call it from a background job.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> GraphSlice make(Graph<T> graph, Collection<? extends T> focus, int budget) {
+		Graph<Object> g= (Graph<Object>)graph;
+		Map<Object, NodeCluster> node2Cluster= new HashMap<Object, NodeCluster>();
+		SCCIterator<Object> sccs= new SCCIterator<Object>(g);
+		while (sccs.hasNext()) {
+			Set<Object> scc= sccs.next();
+			if (scc.size() > CLUSTER_THRESHOLD) {
+				NodeCluster cluster= new NodeCluster(scc);
+				for (Object member : scc) {
+					node2Cluster.put(member, cluster);
+				}
+			}
+		}
+
+		GraphSlice empty= new GraphSlice(g, node2Cluster, new HashSet<NodeCluster>(), new LinkedHashSet<Object>(), new HashMap<Object, int[]>(), new HashMap<Integer, Integer>());
+		List<Object> start= new ArrayList<Object>();
+		for (T node : focus) {
+			start.add(empty.representative(node));
+		}
+		if (start.isEmpty() && g.getNumberOfNodes() > 0) {
+			start.add(empty.representative(g.iterator().next()));
+		}
+		return empty.reveal(start, budget, null);
+	}
+
+	/**
+	 * Reveals up to {@link #EXPANSION_BUDGET} hidden nodes around the given visible node. Expanding a
+	 * cluster replaces it with its members.
+	 */
+	public GraphSlice expand(Object visibleNode) {
+		if (visibleNode instanceof NodeCluster) {
+			NodeCluster cluster= (NodeCluster)visibleNode;
+			Set<NodeCluster> opened= new HashSet<NodeCluster>(openedClusters);
+			opened.add(cluster);
+			GraphSlice unclustered= new GraphSlice(graph, node2Cluster, opened, without(visible, cluster), new HashMap<Object, int[]>(locations), new HashMap<Integer, Integer>(layerSizes));
+			// Show at least all the members of the cluster, they are why the user clicked
+			return unclustered.reveal(new ArrayList<Object>(cluster.getMembers()), Math.max(EXPANSION_BUDGET, cluster.size()), locations.get(cluster));
+		}
+		List<Object> start= new ArrayList<Object>();
+		start.add(visibleNode);
+		return reveal(start, EXPANSION_BUDGET, null);
+	}
+
+	// For querying
+	///////////////
+
+	public Collection<Object> getVisibleNodes() {
+		return Collections.unmodifiableSet(visible);
+	}
+
+	public int getNumberOfNodes() {
+		return graph.getNumberOfNodes();
+	}
+
+	/**
+	 * @return the visible successors of a visible node, edges to hidden nodes are dropped
+	 */
+	public Collection<Object> getVisibleSuccessors(Object visibleNode) {
+		Set<Object> result= new LinkedHashSet<Object>();
+		for (Object member : members(visibleNode)) {
+			for (Iterator<Object> succs= graph.getSuccNodes(member); succs.hasNext();) {
+				Object rep= representative(succs.next());
+				if (rep != visibleNode && visible.contains(rep)) {
+					result.add(rep);
+				}
+			}
+		}
+		return result;
+	}
+
+	public boolean hasHiddenNeighbours(Object visibleNode) {
+		for (Object member : members(visibleNode)) {
+			for (Object neighbour : neighbours(member)) {
+				if (!visible.contains(representative(neighbour))) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the precomputed {x, y} of a visible node
+	 */
+	public int[] getLocation(Object visibleNode) {
+		return locations.get(visibleNode);
+	}
+
+	// Helpers
+	//////////
+
+	private Object representative(Object node) {
+		NodeCluster cluster= node2Cluster.get(node);
+		if (cluster != null && !openedClusters.contains(cluster)) {
+			return cluster;
+		}
+		return node;
+	}
+
+	private Collection<Object> members(Object rep) {
+		if (rep instanceof NodeCluster) {
+			return ((NodeCluster)rep).getMembers();
+		}
+		return Collections.singleton(rep);
+	}
+
+	private List<Object> neighbours(Object node) {
+		List<Object> result= new ArrayList<Object>();
+		for (Iterator<Object> succs= graph.getSuccNodes(node); succs.hasNext();) {
+			result.add(succs.next());
+		}
+		for (Iterator<Object> preds= graph.getPredNodes(node); preds.hasNext();) {
+			result.add(preds.next());
+		}
+		return result;
+	}
+
+	/*
+	 * Breadth-first search from the start nodes, in both directions, until the budget of newly visible
+	 * nodes runs out. Only the new nodes get positions assigned.
+	 */
+	private GraphSlice reveal(List<Object> start, int budget, int[] anchor) {
+		Set<Object> newVisible= new LinkedHashSet<Object>(visible);
+		Map<Object, int[]> newLocations= new HashMap<Object, int[]>(locations);
+		Map<Integer, Integer> newLayerSizes= new HashMap<Integer, Integer>(layerSizes);
+
+		LinkedList<Object> worklist= new LinkedList<Object>();
+		Map<Object, Integer> depth= new HashMap<Object, Integer>();
+		int baseLayer= anchor == null ? 0 : anchor[0] / HORIZONTAL_SPACING;
+		for (Object rep : start) {
+			int[] location= newLocations.get(rep);
+			depth.put(rep, location == null ? baseLayer : location[0] / HORIZONTAL_SPACING);
+			worklist.add(rep);
+		}
+
+		int added= 0;
+		while (!worklist.isEmpty() && added < budget) {
+			Object rep= worklist.removeFirst();
+			if (!newVisible.contains(rep)) {
+				newVisible.add(rep);
+				place(rep, depth.get(rep), newLocations, newLayerSizes);
+				added++;
+			}
+			for (Object member : members(rep)) {
+				for (Object neighbour : neighbours(member)) {
+					Object neighbourRep= representative(neighbour);
+					if (!depth.containsKey(neighbourRep)) {
+						depth.put(neighbourRep, depth.get(rep) + 1);
+						if (!newVisible.contains(neighbourRep)) {
+							worklist.add(neighbourRep);
+						}
+					}
+				}
+			}
+		}
+		return new GraphSlice(graph, node2Cluster, openedClusters, newVisible, newLocations, newLayerSizes);
+	}
+
+	private static void place(Object rep, int layer, Map<Object, int[]> locations, Map<Integer, Integer> layerSizes) {
+		if (locations.containsKey(rep)) {
+			return;
+		}
+		Integer size= layerSizes.get(layer);
+		int slot= size == null ? 0 : size;
+		layerSizes.put(layer, slot + 1);
+		locations.put(rep, new int[] { layer * HORIZONTAL_SPACING, slot * VERTICAL_SPACING });
+	}
+
+	private static Set<Object> without(Set<Object> set, Object element) {
+		Set<Object> result= new LinkedHashSet<Object>(set);
+		result.remove(element);
+		return result;
+	}
+
+	/**
+	 * Stands in for a strongly connected component that is too large to draw node by node.
+	 */
+	public static class NodeCluster {
+
+		private final Set<Object> members;
+
+		NodeCluster(Set<Object> members) {
+			this.members= members;
+		}
+
+		public Set<Object> getMembers() {
+			return members;
+		}
+
+		public int size() {
+			return members.size();
+		}
+
+		@Override
+		public String toString() {
+			return "Strongly connected component of " + members.size() + " nodes\n(double-click to expand)";
+		}
+	}
+}
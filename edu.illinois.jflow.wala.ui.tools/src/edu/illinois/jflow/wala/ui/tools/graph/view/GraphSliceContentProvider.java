@@ -0,0 +1,51 @@
+package edu.illinois.jflow.wala.ui.tools.graph.view;
+
+import org.eclipse.jface.viewers.IStructuredContentProvider;
+import org.eclipse.jface.viewers.Viewer;
+import org.eclipse.zest.core.viewers.IGraphEntityContentProvider;
+
+/**
+ * Serves the visible part of a {@link GraphSlice}. Any other input is handed to the content provider
+ * of the view.
+ */
+public class GraphSliceContentProvider implements IGraphEntityContentProvider {
+
+	private final IStructuredContentProvider delegate;
+
+	private GraphSlice slice;
+
+	public GraphSliceContentProvider(IStructuredContentProvider delegate) {
+		this.delegate= delegate;
+	}
+
+	@Override
+	public void inputChanged(Viewer viewer, Object oldInput, Object newInput) {
+		if (newInput instanceof GraphSlice) {
+			slice= (GraphSlice)newInput;
+		} else {
+			slice= null;
+			delegate.inputChanged(viewer, oldInput, newInput);
+		}
+	}
+
+	@Override
+	public Object[] getElements(Object inputElement) {
+		if (inputElement instanceof GraphSlice) {
+			return ((GraphSlice)inputElement).getVisibleNodes().toArray();
+		}
+		return delegate.getElements(inputElement);
+	}
+
+	@Override
+	public Object[] getConnectedTo(Object entity) {
+		if (slice != null) {
+			return slice.getVisibleSuccessors(entity).toArray();
+		}
+		return ((IGraphEntityContentProvider)delegate).getConnectedTo(entity);
+	}
+
+	@Override
+	public void dispose() {
+		delegate.dispose();
+	}
+}
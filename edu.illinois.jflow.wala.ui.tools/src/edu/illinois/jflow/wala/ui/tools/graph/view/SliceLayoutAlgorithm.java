@@ -0,0 +1,50 @@
+package edu.illinois.jflow.wala.ui.tools.graph.view;
+
+import org.eclipse.swt.widgets.Item;
+import org.eclipse.zest.layouts.LayoutAlgorithm;
+import org.eclipse.zest.layouts.interfaces.EntityLayout;
+import org.eclipse.zest.layouts.interfaces.LayoutContext;
+
+/**
+ * Places the nodes of a {@link GraphSlice} at the positions that were computed together with the
+ * slice on a worker thread, so the UI thread only has to move the figures. Other inputs fall back to
+ * the regular layout algorithm of the view.
+ */
+class SliceLayoutAlgorithm implements LayoutAlgorithm {
+
+	private final WalaGraphView view;
+
+	private final LayoutAlgorithm fallback;
+
+	private LayoutContext context;
+
+	SliceLayoutAlgorithm(WalaGraphView view, LayoutAlgorithm fallback) {
+		this.view= view;
+		this.fallback= fallback;
+	}
+
+	@Override
+	public void setLayoutContext(LayoutContext context) {
+		this.context= context;
+		fallback.setLayoutContext(context);
+	}
+
+	@Override
+	public void applyLayout(boolean clean) {
+		GraphSlice slice= view.getSlice();
+		if (slice == null) {
+			fallback.applyLayout(clean);
+			return;
+		}
+		for (EntityLayout entity : context.getEntities()) {
+			for (Object item : entity.getItems()) {
+				if (item instanceof Item) {
+					int[] location= slice.getLocation(((Item)item).getData());
+					if (location != null) {
+						entity.setLocation(location[0], location[1]);
+					}
+				}
+			}
+		}
+	}
+}
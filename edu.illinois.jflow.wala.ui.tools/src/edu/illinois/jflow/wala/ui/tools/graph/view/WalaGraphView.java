@@ -2,7 +2,13 @@ package edu.illinois.jflow.wala.ui.tools.graph.view;
 
 
 
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.jobs.ISchedulingRule;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.jface.viewers.DoubleClickEvent;
+import org.eclipse.jface.viewers.IDoubleClickListener;
 import org.eclipse.jface.viewers.IStructuredContentProvider;
+import org.eclipse.jface.viewers.IStructuredSelection;
 import org.eclipse.jface.viewers.LabelProvider;
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.widgets.Composite;
@@ -16,22 +22,38 @@ import org.eclipse.zest.layouts.algorithms.TreeLayoutAlgorithm;
 
 import com.ibm.wala.util.graph.Graph;
 
+import edu.illinois.jflow.wala.ui.tools.graph.view.GraphSlice.NodeCluster;
+
 
 public abstract class WalaGraphView extends ViewPart implements IZoomableWorkbenchPart {
 
 	protected GraphViewer graphViewer;
 
+	private final ISchedulingRule analysisRule= new GraphAnalysisJob.ViewRule();
+
+	private GraphSlice slice;
+
 	@Override
 	public void createPartControl(Composite parent) {
 		graphViewer= new GraphViewer(parent, SWT.BORDER);
 
-		graphViewer.setContentProvider(getContentProvider());
+		graphViewer.setContentProvider(new GraphSliceContentProvider(getContentProvider()));
 		graphViewer.setLabelProvider(getLabelProvider());
 		graphViewer.setConnectionStyle(getConnectionStyle());
 
-		LayoutAlgorithm layout= setLayout();
+		LayoutAlgorithm layout= new SliceLayoutAlgorithm(this, setLayout());
 		graphViewer.setLayoutAlgorithm(layout, true);
 		graphViewer.applyLayout();
+		graphViewer.addDoubleClickListener(new IDoubleClickListener() {
+
+			@Override
+			public void doubleClick(DoubleClickEvent event) {
+				Object selected= ((IStructuredSelection)event.getSelection()).getFirstElement();
+				if (slice != null && selected != null && (selected instanceof NodeCluster || slice.hasHiddenNeighbours(selected))) {
+					new ExpandSliceJob(WalaGraphView.this, slice, selected).scheduleCoalesced();
+				}
+			}
+		});
 		fillToolBar();
 	}
 
@@ -47,10 +69,45 @@ public abstract class WalaGraphView extends ViewPart implements IZoomableWorkben
 	protected abstract void fillToolBar();
 
 	public void updateGraph(Graph<?> graph) {
+		slice= null;
+		setContentDescription("");
 		graphViewer.setInput(graph);
 		graphViewer.refresh();
 	}
 
+	/**
+	 * Shows only the visible part of the slice. Large graphs should always go through here, handing
+	 * tens of thousands of nodes to Zest at once makes the view unusable.
+	 */
+	public void updateSlice(GraphSlice slice) {
+		this.slice= slice;
+		setContentDescription("Showing " + slice.getVisibleNodes().size() + " of " + slice.getNumberOfNodes() + " nodes. Double-click a node to reveal its neighbours.");
+		graphViewer.setInput(slice);
+		graphViewer.refresh();
+	}
+
+	public GraphSlice getSlice() {
+		return slice;
+	}
+
+	/**
+	 * Jobs computing the input for this view use this rule so that they never run concurrently.
+	 */
+	public ISchedulingRule getAnalysisRule() {
+		return analysisRule;
+	}
+
+	public boolean isDisposed() {
+		return graphViewer == null || graphViewer.getControl().isDisposed();
+	}
+
+	@Override
+	public void dispose() {
+		// No one is going to see the results anymore
+		Job.getJobManager().cancel(this);
+		super.dispose();
+	}
+
 	@Override
 	public void setFocus() {
 		// Does nothing by default, subclasses can override
@@ -68,4 +125,27 @@ public abstract class WalaGraphView extends ViewPart implements IZoomableWorkben
 		return graphViewer;
 	}
 
+	static class ExpandSliceJob extends GraphAnalysisJob<GraphSlice> {
+
+		private final GraphSlice slice;
+
+		private final Object node;
+
+		ExpandSliceJob(WalaGraphView view, GraphSlice slice, Object node) {
+			super("Expanding graph", view);
+			this.slice= slice;
+			this.node= node;
+		}
+
+		@Override
+		protected GraphSlice analyze(IProgressMonitor monitor) throws Exception {
+			return slice.expand(node);
+		}
+
+		@Override
+		protected void publish(GraphSlice result) {
+			view.updateSlice(result);
+		}
+	}
+
 }
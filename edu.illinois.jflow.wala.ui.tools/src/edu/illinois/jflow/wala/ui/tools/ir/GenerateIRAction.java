@@ -1,8 +1,9 @@
 package edu.illinois.jflow.wala.ui.tools.ir;
 
-import java.io.IOException;
+import java.util.Collections;
 
-import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.SubMonitor;
 import org.eclipse.jdt.core.ICompilationUnit;
 import org.eclipse.jdt.core.IJavaProject;
 import org.eclipse.jdt.internal.ui.actions.SelectionConverter;
@@ -20,10 +21,11 @@ import com.ibm.wala.ipa.cha.IClassHierarchy;
 import com.ibm.wala.ssa.IR;
 import com.ibm.wala.ssa.ISSABasicBlock;
 import com.ibm.wala.types.MethodReference;
-import com.ibm.wala.util.WalaException;
 import com.ibm.wala.util.graph.Graph;
 
 import edu.illinois.jflow.wala.ui.tools.graph.jdt.util.JavaEditorUtil;
+import edu.illinois.jflow.wala.ui.tools.graph.view.GraphAnalysisJob;
+import edu.illinois.jflow.wala.ui.tools.graph.view.GraphSlice;
 import edu.illinois.jflow.wala.utils.EclipseProjectAnalysisEngine;
 
 @SuppressWarnings("restriction")
@@ -39,42 +41,76 @@ public class GenerateIRAction extends Action {
 	public void run() {
 		JavaEditor javaEditor= JavaEditorUtil.getActiveJavaEditor();
 		if (javaEditor != null) {
+			// Everything that touches the editor has to happen here, on the UI thread
 			ICompilationUnit inputAsCompilationUnit= SelectionConverter.getInputAsCompilationUnit(javaEditor);
 			IJavaProject javaProject= inputAsCompilationUnit.getJavaProject();
-			try {
-				AbstractAnalysisEngine engine= new EclipseProjectAnalysisEngine(javaProject);
-				engine.buildAnalysisScope();
-				IClassHierarchy classHierarchy= engine.buildClassHierarchy();
-
-				MethodReference method= JavaEditorUtil.findSelectedMethodDeclaration(javaEditor, inputAsCompilationUnit);
-				if (method != null) {
-					IMethod resolvedMethod= classHierarchy.resolveMethod(method);
-					if (resolvedMethod != null) {
-						AnalysisOptions options= new AnalysisOptions();
-						AnalysisCache cache= engine.makeDefaultCache();
-
-						try {
-							IR ir= cache.getSSACache().findOrCreateIR(resolvedMethod, Everywhere.EVERYWHERE, options.getSSAOptions());
-							Graph<? extends ISSABasicBlock> graph= ir.getControlFlowGraph();
-							graph= CFGSanitizer.sanitize(ir, classHierarchy);
-							IDocument document= javaEditor.getDocumentProvider().getDocument(javaEditor.getEditorInput());
-							view.setIR(ir);
-							view.setDocument(document);
-							view.updateGraph(graph);
-						} catch (IllegalArgumentException e) {
-							e.printStackTrace();
-						} catch (WalaException e) {
-							e.printStackTrace();
-						}
-					}
-				}
-			} catch (IOException e) {
-				e.printStackTrace();
-			} catch (CoreException e) {
-				e.printStackTrace();
+			MethodReference method= JavaEditorUtil.findSelectedMethodDeclaration(javaEditor, inputAsCompilationUnit);
+			IDocument document= javaEditor.getDocumentProvider().getDocument(javaEditor.getEditorInput());
+			if (method != null) {
+				new GenerateIRJob(view, javaProject, method, document).scheduleCoalesced();
 			}
+		}
+	}
+
+	static class IRResult {
+		IR ir;
+
+		GraphSlice slice;
+	}
+
+	static class GenerateIRJob extends GraphAnalysisJob<IRResult> {
+
+		private final IJavaProject javaProject;
+
+		private final MethodReference method;
+
+		private final IDocument document;
 
+		GenerateIRJob(IRView view, IJavaProject javaProject, MethodReference method, IDocument document) {
+			super("Generating IR for " + method.getName(), view);
+			this.javaProject= javaProject;
+			this.method= method;
+			this.document= document;
 		}
 
+		@Override
+		protected IRResult analyze(IProgressMonitor monitor) throws Exception {
+			SubMonitor progress= SubMonitor.convert(monitor, getName(), 3);
+
+			AbstractAnalysisEngine engine= new EclipseProjectAnalysisEngine(javaProject);
+			progress.subTask("Building analysis scope");
+			engine.buildAnalysisScope();
+			progress.worked(1);
+			checkCanceled(progress);
+
+			progress.subTask("Building class hierarchy");
+			IClassHierarchy classHierarchy= engine.buildClassHierarchy();
+			progress.worked(1);
+			checkCanceled(progress);
+
+			IMethod resolvedMethod= classHierarchy.resolveMethod(method);
+			if (resolvedMethod == null) {
+				return null;
+			}
+
+			progress.subTask("Building SSA");
+			AnalysisOptions options= new AnalysisOptions();
+			AnalysisCache cache= engine.makeDefaultCache();
+			IRResult result= new IRResult();
+			result.ir= cache.getSSACache().findOrCreateIR(resolvedMethod, Everywhere.EVERYWHERE, options.getSSAOptions());
+			Graph<ISSABasicBlock> graph= CFGSanitizer.sanitize(result.ir, classHierarchy);
+			ISSABasicBlock entry= result.ir.getControlFlowGraph().entry();
+			result.slice= GraphSlice.make(graph, graph.containsNode(entry) ? Collections.singleton(entry) : Collections.<ISSABasicBlock> emptySet(), GraphSlice.DEFAULT_NODE_BUDGET);
+			progress.worked(1);
+			return result;
+		}
+
+		@Override
+		protected void publish(IRResult result) {
+			IRView irView= (IRView)view;
+			irView.setIR(result.ir);
+			irView.setDocument(document);
+			irView.updateSlice(result.slice);
+		}
 	}
 }
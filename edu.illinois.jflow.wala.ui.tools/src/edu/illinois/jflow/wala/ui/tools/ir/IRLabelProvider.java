@@ -23,6 +23,8 @@ import com.ibm.wala.ssa.SSAInstruction;
 import com.ibm.wala.ssa.SSAPhiInstruction;
 import com.ibm.wala.ssa.SSAPiInstruction;
 
+import edu.illinois.jflow.wala.ui.tools.graph.view.GraphSlice.NodeCluster;
+
 public class IRLabelProvider extends LabelProvider implements IEntityStyleProvider {
 
 	private final IRView irView;
@@ -36,6 +38,9 @@ public class IRLabelProvider extends LabelProvider implements IEntityStyleProvid
 	 */
 	@Override
 	public String getText(Object element) {
+		if (element instanceof NodeCluster) {
+			return element.toString();
+		}
 		if (element instanceof BasicBlock) {
 			BasicBlock bb= (BasicBlock)element;
 			IR ir= irView.getIR();